@@ -28,8 +28,20 @@ import net.roboconf.core.utils.Utils;
  */
 public class AgentData {
 
-	private String applicationName, ipAddress, rootInstanceName;
+	/**
+	 * The delay (in milliseconds) to wait before updating a started instance whose imports changed.
+	 * <p>
+	 * This property is optional.
+	 * </p>
+	 *
+	 * @see AgentLauncher#setImportsUpdateDelay(long)
+	 */
+	public static final String IMPORTS_UPDATE_DELAY = "imports.update-delay";
+
+	private String applicationName, ipAddress;
+	private volatile String rootInstanceName;
 	private String messageServerIp, messageServerUsername, messageServerPassword;
+	private long importsUpdateDelay = 0;
 
 
 	/**
@@ -128,6 +140,22 @@ public class AgentData {
 	}
 
 
+	/**
+	 * @return the importsUpdateDelay (in milliseconds, 0 or less to update instances immediately)
+	 */
+	public long getImportsUpdateDelay() {
+		return this.importsUpdateDelay;
+	}
+
+
+	/**
+	 * @param importsUpdateDelay the importsUpdateDelay to set
+	 */
+	public void setImportsUpdateDelay( long importsUpdateDelay ) {
+		this.importsUpdateDelay = importsUpdateDelay;
+	}
+
+
 	/**
 	 * Validates this bean.
 	 * @return null if no error was found, false otherwise
@@ -186,6 +214,17 @@ public class AgentData {
 		result.setMessageServerUsername( props.getProperty( DataHelpers.MESSAGING_USERNAME ));
 		result.setMessageServerPassword( props.getProperty( DataHelpers.MESSAGING_PASSWORD ));
 
+		String delay = props.getProperty( IMPORTS_UPDATE_DELAY );
+		if( ! Utils.isEmptyOrWhitespaces( delay )) {
+			try {
+				result.setImportsUpdateDelay( Long.parseLong( delay.trim()));
+
+			} catch( NumberFormatException e ) {
+				Logger logger = Logger.getLogger( AgentData.class.getName());
+				logger.warning( "Invalid value for " + IMPORTS_UPDATE_DELAY + ": " + delay + ". Instances will be updated immediately." );
+			}
+		}
+
 		return result;
 	}
 }
@@ -22,6 +22,10 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import net.roboconf.agent.internal.AgentMessageProcessor;
@@ -46,9 +50,13 @@ public class AgentLauncher {
 	private final AgentData agentData;
 
 	private Timer heartBeatTimer;
+	private ScheduledExecutorService heartbeatScheduler;
+	private ScheduledFuture<?> heartbeatFuture;
+	private Executor lifeCycleExecutor;
 	private IAgentClient messagingClient;
 	private MessageServerClientFactory factory = new MessageServerClientFactory();
 	private boolean running = false;
+	private long importsUpdateDelay = 0;
 
 
 	/**
@@ -102,6 +110,49 @@ public class AgentLauncher {
 	}
 
 
+	/**
+	 * Sets a scheduler to send heart beats.
+	 * <p>
+	 * It is meant for agents hosted in a same JVM, so that they do not each
+	 * create a timer thread. Such agents do not register a shutdown hook: they
+	 * must be stopped by their host.
+	 * </p>
+	 *
+	 * @param heartbeatScheduler the heartbeat scheduler (null to use a dedicated timer)
+	 */
+	public void setHeartbeatScheduler( ScheduledExecutorService heartbeatScheduler ) {
+		this.heartbeatScheduler = heartbeatScheduler;
+	}
+
+
+	/**
+	 * Sets an executor to run the life cycle operations.
+	 * <p>
+	 * It is meant for agents hosted in a same JVM, so that they do not each
+	 * create a pool of threads. The executor is not shut down when the agent stops.
+	 * </p>
+	 *
+	 * @param lifeCycleExecutor the executor (null to use a dedicated pool of threads)
+	 */
+	public void setLifeCycleExecutor( Executor lifeCycleExecutor ) {
+		this.lifeCycleExecutor = lifeCycleExecutor;
+	}
+
+
+	/**
+	 * Sets the delay to wait before updating a started instance whose imports changed.
+	 * <p>
+	 * Must be invoked before the agent is launched.
+	 * </p>
+	 *
+	 * @param importsUpdateDelay a delay in milliseconds (0 or less to update instances immediately)
+	 * @see AgentMessageProcessor#setImportsUpdateDelay(long)
+	 */
+	public void setImportsUpdateDelay( long importsUpdateDelay ) {
+		this.importsUpdateDelay = importsUpdateDelay;
+	}
+
+
 	/**
 	 * Launches an agent.
 	 * @param agentData the agent data
@@ -130,11 +181,22 @@ public class AgentLauncher {
 		this.messagingClient.setRootInstanceName( this.agentData.getRootInstanceName());
 
 		// Create the message processor
-		AgentMessageProcessor messageProcessor = new AgentMessageProcessor(
-				this.agentName,
-				this.agentData,
-				pluginManager,
-				this.messagingClient );
+		AgentMessageProcessor messageProcessor;
+		if( this.lifeCycleExecutor != null )
+			messageProcessor = new AgentMessageProcessor(
+					this.agentName,
+					this.agentData,
+					pluginManager,
+					this.messagingClient,
+					this.lifeCycleExecutor );
+		else
+			messageProcessor = new AgentMessageProcessor(
+					this.agentName,
+					this.agentData,
+					pluginManager,
+					this.messagingClient );
+
+		messageProcessor.setImportsUpdateDelay( this.importsUpdateDelay );
 
 		// Open a connection with the messaging server
 		this.running = true;
@@ -142,12 +204,14 @@ public class AgentLauncher {
 		this.messagingClient.listenToTheDm( ListenerCommand.START );
 
 		// Add a hook for when the VM shutdowns
-		Runtime.getRuntime().addShutdownHook( new Thread( new Runnable() {
-			@Override
-			public void run() {
-				stopAgent();
-			}
-		}));
+		if( this.heartbeatScheduler == null ) {
+			Runtime.getRuntime().addShutdownHook( new Thread( new Runnable() {
+				@Override
+				public void run() {
+					stopAgent();
+				}
+			}));
+		}
 
 		// Send an "UP" message
 		MsgNotifMachineUp machineIsUp = new MsgNotifMachineUp(
@@ -157,9 +221,14 @@ public class AgentLauncher {
 		this.messagingClient.sendMessageToTheDm( machineIsUp );
 
 		// Initialize a timer to regularly send a heart beat
-		TimerTask timerTask = new HeartbeatTask( this.agentData.getApplicationName(), this.agentData.getRootInstanceName(), this.messagingClient );
-		this.heartBeatTimer = new Timer( "Roboconf's Heartbeat Timer @ Agent", true );
-		this.heartBeatTimer.scheduleAtFixedRate( timerTask, 0, Constants.HEARTBEAT_PERIOD );
+		TimerTask timerTask = new HeartbeatTask( this.agentData, this.messagingClient );
+		if( this.heartbeatScheduler != null ) {
+			this.heartbeatFuture = this.heartbeatScheduler.scheduleAtFixedRate( timerTask, 0, Constants.HEARTBEAT_PERIOD, TimeUnit.MILLISECONDS );
+
+		} else {
+			this.heartBeatTimer = new Timer( "Roboconf's Heartbeat Timer @ Agent", true );
+			this.heartBeatTimer.scheduleAtFixedRate( timerTask, 0, Constants.HEARTBEAT_PERIOD );
+		}
 	}
 
 
@@ -176,6 +245,9 @@ public class AgentLauncher {
 			if( this.heartBeatTimer != null )
 				this.heartBeatTimer.cancel();
 
+			if( this.heartbeatFuture != null )
+				this.heartbeatFuture.cancel( false );
+
 			if( this.messagingClient != null
 					&& this.messagingClient.isConnected()) {
 
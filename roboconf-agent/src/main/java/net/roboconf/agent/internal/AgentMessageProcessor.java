@@ -21,13 +21,16 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.logging.Logger;
 
 import net.roboconf.agent.AgentData;
+import net.roboconf.agent.internal.ImportChangesBatcher.ImportChanges;
 import net.roboconf.core.model.helpers.ImportHelpers;
 import net.roboconf.core.model.helpers.InstanceHelpers;
 import net.roboconf.core.model.helpers.VariableHelpers;
+import net.roboconf.core.model.runtime.Application;
+import net.roboconf.core.model.runtime.Graphs;
 import net.roboconf.core.model.runtime.Import;
 import net.roboconf.core.model.runtime.Instance;
 import net.roboconf.core.model.runtime.Instance.InstanceStatus;
@@ -36,11 +39,14 @@ import net.roboconf.messaging.client.AbstractMessageProcessor;
 import net.roboconf.messaging.client.IAgentClient;
 import net.roboconf.messaging.client.IClient.ListenerCommand;
 import net.roboconf.messaging.messages.Message;
+import net.roboconf.messaging.messages.MsgBatch;
 import net.roboconf.messaging.messages.from_agent_to_agent.MsgCmdImportAdd;
 import net.roboconf.messaging.messages.from_agent_to_agent.MsgCmdImportRemove;
 import net.roboconf.messaging.messages.from_agent_to_agent.MsgCmdImportRequest;
 import net.roboconf.messaging.messages.from_agent_to_dm.MsgNotifInstanceChanged;
 import net.roboconf.messaging.messages.from_agent_to_dm.MsgNotifInstanceRemoved;
+import net.roboconf.messaging.messages.from_agent_to_dm.MsgNotifMachineUp;
+import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdAgentRebind;
 import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceAdd;
 import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceDeploy;
 import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceRemove;
@@ -48,11 +54,20 @@ import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceRestore;
 import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceStart;
 import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceStop;
 import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceUndeploy;
+import net.roboconf.plugin.api.BatchedUpdatesPlugin;
 import net.roboconf.plugin.api.PluginException;
 import net.roboconf.plugin.api.PluginInterface;
 
 /**
  * The class (thread) in charge of processing messages received by the agent.
+ * <p>
+ * Life cycle operations (deploy, start, stop, undeploy) and import updates run
+ * concurrently, unless they concern related instances (see {@link LifeCycleScheduler}).
+ * Operations on a same instance, or on one of its ancestors, are processed in the
+ * order they were received. The other messages update the model's structure. They are
+ * processed by this thread, once the operations they depend on have completed.
+ * </p>
+ *
  * @author Vincent Zurczak - Linagora
  */
 public class AgentMessageProcessor extends AbstractMessageProcessor {
@@ -60,9 +75,19 @@ public class AgentMessageProcessor extends AbstractMessageProcessor {
 	private final Logger logger = Logger.getLogger( getClass().getName());
 	private final PluginManager pluginManager;
 	private final IAgentClient messagingClient;
+	private final AgentData agentData;
 	private final String ipAddress, appName;
+	private final LifeCycleScheduler scheduler;
+	private final ImportsIndex importsIndex = new ImportsIndex();
+	private final ImportChangesBatcher importChangesBatcher;
+	private volatile long importsUpdateDelay = 0;
+
+	// Written by the processor thread, read by life cycle operations (on the scheduler's threads)
+	private volatile Instance rootInstance;
+	private Graphs graphs;
 
-	private Instance rootInstance;
+	// Holds the root instance and indexes the local instances by path
+	private final Application localModel = new Application();
 
 
 	/**
@@ -81,9 +106,79 @@ public class AgentMessageProcessor extends AbstractMessageProcessor {
 		super( threadName );
 		this.messagingClient = messagingClient;
 		this.pluginManager = pluginManager;
+		this.agentData = agentData;
+
+		this.ipAddress = agentData.getIpAddress();
+		this.appName = agentData.getApplicationName();
+		this.scheduler = new LifeCycleScheduler( threadName );
+		this.importChangesBatcher = new ImportChangesBatcher( threadName );
+	}
+
+
+	/**
+	 * Constructor.
+	 * <p>
+	 * It is meant for agents hosted in a same JVM, so that they do not each
+	 * create a pool of threads for their life cycle operations.
+	 * </p>
+	 *
+	 * @param threadName
+	 * @param agentData
+	 * @param pluginManager
+	 * @param messagingClient
+	 * @param lifeCycleExecutor the executor that runs the life cycle operations (not null, not shut down by this class)
+	 */
+	public AgentMessageProcessor(
+			String threadName,
+			AgentData agentData,
+			PluginManager pluginManager,
+			IAgentClient messagingClient,
+			Executor lifeCycleExecutor ) {
+
+		this( threadName, agentData, pluginManager, messagingClient, new LifeCycleScheduler( lifeCycleExecutor ));
+	}
+
+
+	/**
+	 * Constructor.
+	 * @param threadName
+	 * @param agentData
+	 * @param pluginManager
+	 * @param messagingClient
+	 * @param scheduler the scheduler that runs the life cycle operations
+	 */
+	AgentMessageProcessor(
+			String threadName,
+			AgentData agentData,
+			PluginManager pluginManager,
+			IAgentClient messagingClient,
+			LifeCycleScheduler scheduler ) {
+
+		super( threadName );
+		this.messagingClient = messagingClient;
+		this.pluginManager = pluginManager;
+		this.agentData = agentData;
 
 		this.ipAddress = agentData.getIpAddress();
 		this.appName = agentData.getApplicationName();
+		this.scheduler = scheduler;
+		this.importChangesBatcher = new ImportChangesBatcher( threadName );
+	}
+
+
+	/**
+	 * Sets the delay to wait before updating a started instance whose imports changed.
+	 * <p>
+	 * Import changes received during this delay are batched. The plug-in is then
+	 * invoked once for all of them. This prevents update storms, as an example when
+	 * many instances start and export variables at the same time.
+	 * </p>
+	 *
+	 * @param importsUpdateDelay a delay in milliseconds (0 or less to update instances immediately)
+	 * @see BatchedUpdatesPlugin
+	 */
+	public void setImportsUpdateDelay( long importsUpdateDelay ) {
+		this.importsUpdateDelay = importsUpdateDelay;
 	}
 
 
@@ -95,9 +190,153 @@ public class AgentMessageProcessor extends AbstractMessageProcessor {
 	@Override
 	protected void processMessage( Message message ) {
 
-		// Otherwise process the message
+		// Batches are unpacked and processed in order
+		if( message instanceof MsgBatch ) {
+			for( Message m : ((MsgBatch) message).getMessages())
+				processMessage( m );
+
+			return;
+		}
+
+		// Life cycle operations run concurrently, unless they concern related instances
+		if( message instanceof MsgCmdInstanceDeploy )
+			scheduleProcessing( message, null, ((MsgCmdInstanceDeploy) message).getInstancePath());
+
+		else if( message instanceof MsgCmdInstanceUndeploy )
+			scheduleProcessing( message, null, ((MsgCmdInstanceUndeploy) message).getInstancePath());
+
+		else if( message instanceof MsgCmdInstanceStart )
+			scheduleProcessing( message, null, ((MsgCmdInstanceStart) message).getInstancePath());
+
+		else if( message instanceof MsgCmdInstanceStop )
+			scheduleProcessing( message, null, ((MsgCmdInstanceStop) message).getInstancePath());
+
+		// Messages that concern several instances are split
+		else if( message instanceof MsgCmdImportAdd
+				|| message instanceof MsgCmdImportRemove
+				|| message instanceof MsgCmdImportRequest
+				|| message instanceof MsgCmdInstanceRestore ) {
+
+			for( Instance instance : findInstancesToProcess( message ))
+				scheduleProcessing( message, instance, InstanceHelpers.computeInstancePath( instance ));
+		}
+
+		// Other messages modify the model: wait for the operations they depend on
+		else {
+			try {
+				this.scheduler.waitForRelatedOperations( findModifiedInstancePath( message ));
+				processMessageNow( message, null );
+
+			} catch( InterruptedException e ) {
+				this.logger.fine( getName() + " was interrupted while waiting for life cycle operations to complete." );
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see net.roboconf.messaging.client.AbstractMessageProcessor
+	 * #stopProcessing()
+	 */
+	@Override
+	public void stopProcessing() {
+		super.stopProcessing();
+		this.importChangesBatcher.shutdown();
+		this.scheduler.shutdown();
+	}
+
+
+	/**
+	 * Schedules the processing of a message.
+	 * @param message the message to process
+	 * @param instance the instance to process it for (null to process the whole message)
+	 * @param instancePath the path of the instance the message is about
+	 */
+	private void scheduleProcessing( final Message message, final Instance instance, String instancePath ) {
+
+		this.scheduler.submit( instancePath, new Runnable() {
+			@Override
+			public void run() {
+				processMessageNow( message, instance );
+			}
+		});
+	}
+
+
+	/**
+	 * Finds the path of the instance whose part of the model a message modifies.
+	 * @param message a message (not null)
+	 * @return an instance path, or null if the message may modify the whole model
+	 */
+	String findModifiedInstancePath( Message message ) {
+
+		String result = null;
+		if( message instanceof MsgCmdInstanceRemove ) {
+			result = ((MsgCmdInstanceRemove) message).getInstancePath();
+
+		} else if( message instanceof MsgCmdInstanceAdd ) {
+			MsgCmdInstanceAdd msg = (MsgCmdInstanceAdd) message;
+			if( msg.getParentInstancePath() != null ) {
+				result = msg.getParentInstancePath();
+				if( msg.getInstanceDescriptor() != null )
+					result += "/" + msg.getInstanceDescriptor().getName();
+			}
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Finds the local instances a message must be processed for.
+	 * <p>
+	 * Import messages are only processed for the instances that import or export the
+	 * variables they are about. These instances are found through an index, so that the
+	 * cost does not depend on the size of the local model.
+	 * </p>
+	 *
+	 * @param message a message about imports, or a restore request
+	 * @return a non-null list of instances
+	 */
+	List<Instance> findInstancesToProcess( Message message ) {
+
+		List<Instance> result;
+		if( message instanceof MsgCmdImportAdd )
+			result = this.importsIndex.findImportingInstances(((MsgCmdImportAdd) message).getComponentOrFacetName());
+		else if( message instanceof MsgCmdImportRemove )
+			result = this.importsIndex.findImportingInstances(((MsgCmdImportRemove) message).getComponentOrFacetName());
+		else if( message instanceof MsgCmdImportRequest )
+			result = this.importsIndex.findStartedExportingInstances(((MsgCmdImportRequest) message).getComponentOrFacetName());
+		else
+			result = InstanceHelpers.buildHierarchicalList( this.rootInstance );
+
+		return result;
+	}
+
+
+	/**
+	 * Processes a message in the current thread.
+	 * @param message the message to process
+	 * @param instance the only instance to process it for (null to process the whole message)
+	 */
+	private void processMessageNow( Message message, Instance instance ) {
+
 		try {
-			if( message instanceof MsgCmdInstanceAdd )
+			if( instance != null && message instanceof MsgCmdImportAdd )
+				processMsgImportAdd((MsgCmdImportAdd) message, instance );
+
+			else if( instance != null && message instanceof MsgCmdImportRemove )
+				processMsgImportRemove((MsgCmdImportRemove) message, instance );
+
+			else if( instance != null && message instanceof MsgCmdImportRequest )
+				processMsgImportRequest((MsgCmdImportRequest) message, instance );
+
+			else if( instance != null && message instanceof MsgCmdInstanceRestore )
+				processMsgInstanceRestore((MsgCmdInstanceRestore) message, instance );
+
+			else if( message instanceof MsgCmdInstanceAdd )
 				processMsgInstanceAdd((MsgCmdInstanceAdd) message );
 
 			else if( message instanceof MsgCmdInstanceRemove )
@@ -127,6 +366,9 @@ public class AgentMessageProcessor extends AbstractMessageProcessor {
 			else if( message instanceof MsgCmdInstanceRestore )
 				processMsgInstanceRestore((MsgCmdInstanceRestore) message );
 
+			else if( message instanceof MsgCmdAgentRebind )
+				processMsgAgentRebind((MsgCmdAgentRebind) message );
+
 			else
 				this.logger.warning( getName() + " got an undetermined message to process. " + message.getClass().getName());
 
@@ -141,20 +383,85 @@ public class AgentMessageProcessor extends AbstractMessageProcessor {
 	}
 
 
+	/**
+	 * @return the root instance (can be null)
+	 */
+	Instance getRootInstance() {
+		return this.rootInstance;
+	}
+
+
 	/**
 	 * Sends the local states to the DM.
 	 * @param message the initial request
 	 * @throws IOException if an error occurred with the messaging
 	 */
 	void processMsgInstanceRestore( MsgCmdInstanceRestore message ) throws IOException {
-		for( Instance i : InstanceHelpers.buildHierarchicalList( this.rootInstance ))
-			this.messagingClient.sendMessageToTheDm( new MsgNotifInstanceChanged( this.appName, i ));
+		for( Instance i : findInstancesToProcess( message ))
+			processMsgInstanceRestore( message, i );
 	}
 
 
+	/**
+	 * Sends the local state of an instance to the DM.
+	 * @param message the initial request
+	 * @param instance a local instance
+	 * @throws IOException if an error occurred with the messaging
+	 */
+	void processMsgInstanceRestore( MsgCmdInstanceRestore message, Instance instance ) throws IOException {
+		this.messagingClient.sendMessageToTheDm( new MsgNotifInstanceChanged( this.appName, instance ));
+	}
+
+
+
+	/**
+	 * Associates this agent with another root instance.
+	 * <p>
+	 * Only agents that are in standby (i.e. with no model yet) can be rebound.
+	 * The agent stops listening to the DM under its former name, starts listening
+	 * under its new name and indicates it is up.
+	 * </p>
+	 *
+	 * @param msg the message to process
+	 * @return true if the agent was rebound, false otherwise
+	 * @throws IOException if an error occurred with the messaging
+	 */
+	boolean processMsgAgentRebind( MsgCmdAgentRebind msg ) throws IOException {
+
+		boolean result = false;
+		String newName = msg.getRootInstanceName();
+		if( this.rootInstance != null ) {
+			this.logger.warning( "Agent " + this.agentData.getRootInstanceName() + " cannot be associated with " + newName + ". It already manages instances." );
+
+		} else if( Utils.isEmptyOrWhitespaces( newName )) {
+			this.logger.warning( "Agent " + this.agentData.getRootInstanceName() + " got an invalid rebind request. No root instance name." );
+
+		} else {
+			this.logger.fine( "Agent " + this.agentData.getRootInstanceName() + " is being associated with " + newName + "." );
+			this.messagingClient.listenToTheDm( ListenerCommand.STOP );
+			this.agentData.setRootInstanceName( newName );
+			this.messagingClient.setRootInstanceName( newName );
+			this.messagingClient.listenToTheDm( ListenerCommand.START );
+
+			MsgNotifMachineUp machineIsUp = new MsgNotifMachineUp( this.appName, newName, this.ipAddress );
+			this.messagingClient.sendMessageToTheDm( machineIsUp );
+			result = true;
+		}
+
+		return result;
+	}
+
 
 	/**
 	 * Adds an instance to the local model.
+	 * <p>
+	 * Instances are rebuilt from descriptors, which do not carry any status.
+	 * The root instance is the machine this agent runs on: since the agent is alive,
+	 * the root instance is set to {@link InstanceStatus#DEPLOYED_STARTED} (the DM considers it
+	 * the same way once the machine is up). Otherwise, its children could not be deployed.
+	 * The other instances are {@link InstanceStatus#NOT_DEPLOYED} until they are deployed by the agent.
+	 * </p>
+	 *
 	 * @param msg the message to process
 	 * @return true if an insertion was made, false otherwise
 	 * @throws IOException if an error occurred with the messaging
@@ -162,12 +469,24 @@ public class AgentMessageProcessor extends AbstractMessageProcessor {
 	boolean processMsgInstanceAdd( MsgCmdInstanceAdd msg ) throws IOException {
 		boolean result = false;
 
-		Instance newInstance = msg.getInstanceToAdd();
+		// The graph(s) come with the root instance and are cached.
+		// Instances are rebuilt from their descriptor and the graph(s).
+		if( msg.getGraphs() != null
+				&& this.rootInstance == null )
+			this.graphs = msg.getGraphs();
+
+		String instanceName = msg.getInstanceDescriptor() == null ? null : msg.getInstanceDescriptor().getName();
+		Instance newInstance = this.graphs == null || msg.getInstanceDescriptor() == null ? null : msg.getInstanceDescriptor().toInstance( this.graphs );
 		String parentInstancePath = msg.getParentInstancePath();
 		List<Instance> instancesToProcess = new ArrayList<Instance> ();
 
+		// No graph or unknown components
+		if( newInstance == null ) {
+			this.logger.severe( "Instance " + instanceName + " could not be resolved against the application's graph(s). Request is dropped." );
+		}
+
 		// Insert a child when there is no root instance...
-		if( parentInstancePath != null
+		else if( parentInstancePath != null
 				&& this.rootInstance == null ) {
 			this.logger.severe( "A request to change the root instance was received. Request to add " + newInstance.getName() + " is dropped." );
 		}
@@ -177,6 +496,13 @@ public class AgentMessageProcessor extends AbstractMessageProcessor {
 			if( this.rootInstance == null ) {
 				this.logger.fine( "Setting the root instance." );
 				this.rootInstance = newInstance;
+				this.pluginManager.setAgentName( "Agent " + newInstance.getName());
+				this.localModel.getRootInstances().add( newInstance );
+				InstanceHelpers.indexInstances( this.localModel, newInstance );
+
+				// The agent runs on the root instance's machine, which is hence started.
+				// Descriptors do not carry the status, so we cannot rely on the DM's one.
+				this.rootInstance.setStatus( InstanceStatus.DEPLOYED_STARTED );
 				instancesToProcess.addAll( InstanceHelpers.buildHierarchicalList( this.rootInstance ));
 				result = true;
 
@@ -187,10 +513,11 @@ public class AgentMessageProcessor extends AbstractMessageProcessor {
 
 		// Insert a child
 		else {
-			Instance parentInstance = InstanceHelpers.findInstanceByPath( this.rootInstance, parentInstancePath );
+			Instance parentInstance = InstanceHelpers.findInstanceByPath( this.localModel, parentInstancePath );
 			if( parentInstance == null )
 				this.logger.severe( "No instance matched " + parentInstancePath + " on the agent. Request to add " + newInstance.getName() + " is dropped." );
-			else if( ! InstanceHelpers.tryToInsertChildInstance( null, parentInstance, newInstance ))
+			// The insertion is validated against the whole model: the application must not be null
+			else if( ! InstanceHelpers.tryToInsertChildInstance( this.localModel, parentInstance, newInstance ))
 				this.logger.severe( "Instance " + newInstance.getName() + " could not be inserted under " + parentInstancePath + ". Request is dropped." );
 			else {
 				this.logger.fine( "Instance " + newInstance.getName() + " was successfully under " + parentInstancePath + "." );
@@ -201,6 +528,7 @@ public class AgentMessageProcessor extends AbstractMessageProcessor {
 
 		// Configure the messaging
 		for( Instance instanceToProcess : instancesToProcess ) {
+			this.importsIndex.addInstance( instanceToProcess );
 			VariableHelpers.updateNetworkVariables( instanceToProcess.getExports(), this.ipAddress );
 			this.messagingClient.listenToExportsFromOtherAgents( ListenerCommand.START, instanceToProcess );
 			this.messagingClient.requestExportsFromOtherAgents( instanceToProcess );
@@ -220,7 +548,7 @@ public class AgentMessageProcessor extends AbstractMessageProcessor {
 		boolean result = false;
 
 		// Remove the instance
-		Instance instance = InstanceHelpers.findInstanceByPath( this.rootInstance, msg.getInstancePath());
+		Instance instance = InstanceHelpers.findInstanceByPath( this.localModel, msg.getInstancePath());
 		if( instance == null ) {
 			this.logger.severe( "No instance matched " + msg.getInstancePath() + " on the agent. Request to remove it from the model is dropped." );
 
@@ -230,11 +558,14 @@ public class AgentMessageProcessor extends AbstractMessageProcessor {
 			// We cannot have a parent in NOT_DEPLOYED and a child in STARTED (as an example).
 
 		} else if( instance.getParent() != null ) {
-			instance.getParent().getChildren().remove( instance );
+			this.importsIndex.removeInstances( instance );
+			InstanceHelpers.removeInstance( this.localModel, instance );
 			this.logger.fine( "Child instance " + msg.getInstancePath() + " was removed from the model." );
 			result = true;
 
 		} else {
+			this.importsIndex.removeInstances( instance );
+			InstanceHelpers.removeInstance( this.localModel, instance );
 			this.rootInstance = null;
 			this.logger.fine( "Root instance " + msg.getInstancePath() + " was set to null." );
 			result = true;
@@ -262,7 +593,7 @@ public class AgentMessageProcessor extends AbstractMessageProcessor {
 		boolean result = false;
 
 		PluginInterface plugin;
-		Instance instance = InstanceHelpers.findInstanceByPath( this.rootInstance, msg.getInstancePath());
+		Instance instance = InstanceHelpers.findInstanceByPath( this.localModel, msg.getInstancePath());
 		if( instance == null ) {
 			this.logger.severe( "No instance matched " + msg.getInstancePath() + " on the agent. Request to deploy it is dropped." );
 
@@ -281,7 +612,7 @@ public class AgentMessageProcessor extends AbstractMessageProcessor {
 			this.logger.fine( "Deploying instance " + msg.getInstancePath() + "." );
 
 			// User reporting => deploying...
-			instance.setStatus( InstanceStatus.DEPLOYING );
+			updateStatus( instance, InstanceStatus.DEPLOYING );
 			this.messagingClient.sendMessageToTheDm( new MsgNotifInstanceChanged( this.appName, instance ));
 
 			// Clean up the potential remains of a previous installation
@@ -292,9 +623,9 @@ public class AgentMessageProcessor extends AbstractMessageProcessor {
 
 			// Invoke the plug-in
 			try {
-				PluginManager.initializePluginForInstance( instance, this.pluginManager.getExecutionLevel());
+				this.pluginManager.initializePluginForInstance( instance );
 				plugin.deploy( instance );
-				instance.setStatus( InstanceStatus.DEPLOYED_STOPPED );
+				updateStatus( instance, InstanceStatus.DEPLOYED_STOPPED );
 				this.messagingClient.sendMessageToTheDm( new MsgNotifInstanceChanged( this.appName, instance ));
 				result = true;
 
@@ -302,7 +633,7 @@ public class AgentMessageProcessor extends AbstractMessageProcessor {
 				this.logger.severe( "An error occured while deploying " + msg.getInstancePath());
 				this.logger.finest( Utils.writeException( e ));
 
-				instance.setStatus( InstanceStatus.NOT_DEPLOYED );
+				updateStatus( instance, InstanceStatus.NOT_DEPLOYED );
 				this.messagingClient.sendMessageToTheDm( new MsgNotifInstanceChanged( this.appName, instance ));
 			}
 		}
@@ -325,7 +656,7 @@ public class AgentMessageProcessor extends AbstractMessageProcessor {
 		PluginInterface plugin;
 
 		// No root instance
-		if(( instance = InstanceHelpers.findInstanceByPath( this.rootInstance, msg.getInstancePath())) == null ) {
+		if(( instance = InstanceHelpers.findInstanceByPath( this.localModel, msg.getInstancePath())) == null ) {
 			this.logger.severe( "No instance matched " + msg.getInstancePath() + " on the agent. Request to undeploy it is dropped." );
 		}
 
@@ -358,7 +689,7 @@ public class AgentMessageProcessor extends AbstractMessageProcessor {
 				if( i.getStatus() == InstanceStatus.NOT_DEPLOYED )
 					continue;
 
-				i.setStatus( InstanceStatus.UNDEPLOYING );
+				updateStatus( i, InstanceStatus.UNDEPLOYING );
 				this.messagingClient.sendMessageToTheDm( new MsgNotifInstanceChanged( this.appName, i ));
 				this.messagingClient.unpublishExports( i );
 			}
@@ -384,7 +715,7 @@ public class AgentMessageProcessor extends AbstractMessageProcessor {
 				i.getImports().clear();
 
 				// Propagate the changes
-				i.setStatus( InstanceStatus.NOT_DEPLOYED );
+				updateStatus( i, InstanceStatus.NOT_DEPLOYED );
 				this.messagingClient.sendMessageToTheDm( new MsgNotifInstanceChanged( this.appName, i ));
 			}
 		}
@@ -403,7 +734,7 @@ public class AgentMessageProcessor extends AbstractMessageProcessor {
 		boolean result = false;
 
 		PluginInterface plugin;
-		Instance instance = InstanceHelpers.findInstanceByPath( this.rootInstance, msg.getInstancePath());
+		Instance instance = InstanceHelpers.findInstanceByPath( this.localModel, msg.getInstancePath());
 		if( instance == null ) {
 			this.logger.severe( "No instance matched " + msg.getInstancePath() + " on the agent. Request to start it is dropped." );
 
@@ -420,10 +751,10 @@ public class AgentMessageProcessor extends AbstractMessageProcessor {
 
 		} else {
 			try {
-				instance.setStatus( InstanceStatus.STARTING );
+				updateStatus( instance, InstanceStatus.STARTING );
 				this.messagingClient.sendMessageToTheDm( new MsgNotifInstanceChanged( this.appName, instance ));
 				if( ImportHelpers.hasAllRequiredImports( instance, this.logger )) {
-					updateStateFromImports( instance, plugin, null, InstanceStatus.STARTING );
+					updateStateFromImports( instance, plugin, null, null, InstanceStatus.STARTING );
 					result = true;
 
 				} else {
@@ -434,7 +765,7 @@ public class AgentMessageProcessor extends AbstractMessageProcessor {
 				}
 
 			} catch( PluginException e ) {
-				instance.setStatus( InstanceStatus.DEPLOYED_STOPPED );
+				updateStatus( instance, InstanceStatus.DEPLOYED_STOPPED );
 				this.logger.severe( "An error occured while starting " + InstanceHelpers.computeInstancePath( instance ));
 				this.logger.finest( Utils.writeException( e ));
 			}
@@ -454,7 +785,7 @@ public class AgentMessageProcessor extends AbstractMessageProcessor {
 		boolean result = false;
 
 		PluginInterface plugin;
-		Instance instance = InstanceHelpers.findInstanceByPath( this.rootInstance, msg.getInstancePath());
+		Instance instance = InstanceHelpers.findInstanceByPath( this.localModel, msg.getInstancePath());
 		if( instance == null ) {
 			this.logger.severe( "No instance matched " + msg.getInstancePath() + " on the agent. Request to stop it is dropped." );
 
@@ -488,11 +819,20 @@ public class AgentMessageProcessor extends AbstractMessageProcessor {
 	 * @throws IOException if an error occurred with the messaging
 	 */
 	void processMsgImportRequest( MsgCmdImportRequest msg ) throws IOException {
+		for( Instance instance : findInstancesToProcess( msg ))
+			processMsgImportRequest( msg, instance );
+	}
 
-		for( Instance instance : InstanceHelpers.buildHierarchicalList( this.rootInstance )) {
-			if( instance.getStatus() == InstanceStatus.DEPLOYED_STARTED )
-				this.messagingClient.publishExports( instance, msg.getComponentOrFacetName());
-		}
+
+	/**
+	 * Publishes the exports of an instance when required.
+	 * @param msg the message process
+	 * @param instance a local instance
+	 * @throws IOException if an error occurred with the messaging
+	 */
+	void processMsgImportRequest( MsgCmdImportRequest msg, Instance instance ) throws IOException {
+		if( instance.getStatus() == InstanceStatus.DEPLOYED_STARTED )
+			this.messagingClient.publishExports( instance, msg.getComponentOrFacetName());
 	}
 
 
@@ -504,18 +844,25 @@ public class AgentMessageProcessor extends AbstractMessageProcessor {
 	 */
 	void processMsgImportRemove( MsgCmdImportRemove msg ) throws IOException, PluginException {
 
-		// Go through all the instances to see which ones are impacted
-		for( Instance instance : InstanceHelpers.buildHierarchicalList( this.rootInstance )) {
+		// Go through all the instances that are impacted
+		for( Instance instance : findInstancesToProcess( msg ))
+			processMsgImportRemove( msg, instance );
+	}
 
-			Set<String> importPrefixes = VariableHelpers.findPrefixesForImportedVariables( instance );
-			if( ! importPrefixes.contains( msg.getComponentOrFacetName()))
-				continue;
 
-			// Is there an import to remove?
-			Collection<Import> imports = instance.getImports().get( msg.getComponentOrFacetName());
-			Import toRemove = ImportHelpers.findImportByExportingInstance( imports, msg.getRemovedInstancePath());
-			if( toRemove == null )
-				continue;
+	/**
+	 * Removes (if necessary) an import from an instance.
+	 * @param msg the message process
+	 * @param instance a local instance that imports variables from the message's component or facet
+	 * @throws IOException if an error occurred with the messaging
+	 * @throws PluginException if an error occurred with a plug-in
+	 */
+	void processMsgImportRemove( MsgCmdImportRemove msg, Instance instance ) throws IOException, PluginException {
+
+		// Is there an import to remove?
+		Collection<Import> imports = instance.getImports().get( msg.getComponentOrFacetName());
+		Import toRemove = ImportHelpers.findImportByExportingInstance( imports, msg.getRemovedInstancePath());
+		if( toRemove != null ) {
 
 			// Remove the import and publish an update to the DM
 			imports.remove( toRemove );
@@ -527,7 +874,7 @@ public class AgentMessageProcessor extends AbstractMessageProcessor {
 			// Update the life cycle if necessary
 			PluginInterface plugin = this.pluginManager.findPlugin( instance, this.logger );
 			if( plugin != null )
-				updateStateFromImports( instance, plugin, toRemove, InstanceStatus.DEPLOYED_STOPPED );
+				updateStateFromImports( instance, plugin, msg.getComponentOrFacetName(), toRemove, InstanceStatus.DEPLOYED_STOPPED );
 		}
 	}
 
@@ -540,20 +887,26 @@ public class AgentMessageProcessor extends AbstractMessageProcessor {
 	 */
 	void processMsgImportAdd( MsgCmdImportAdd msg ) throws IOException, PluginException {
 
-		// Go through all the instances to see which ones need an update
-		for( Instance instance : InstanceHelpers.buildHierarchicalList( this.rootInstance )) {
+		// Go through all the instances that depend on it
+		for( Instance instance : findInstancesToProcess( msg ))
+			processMsgImportAdd( msg, instance );
+	}
 
-			// This instance does not depends on it
-			Set<String> importPrefixes = VariableHelpers.findPrefixesForImportedVariables( instance );
-			if( ! importPrefixes.contains( msg.getComponentOrFacetName()))
-				continue;
 
-			// If an instance depends on its component, make sure it does not add itself to the imports.
-			// Example: MongoDB may depend on other MongoDB instances.
-			if( Utils.areEqual(
-					InstanceHelpers.computeInstancePath( instance ),
-					msg.getAddedInstancePath()))
-				continue;
+	/**
+	 * Adds (if necessary) a new import to an instance.
+	 * @param msg the message process
+	 * @param instance a local instance that imports variables from the message's component or facet
+	 * @throws IOException if an error occurred with the messaging
+	 * @throws PluginException if an error occurred with a plug-in
+	 */
+	void processMsgImportAdd( MsgCmdImportAdd msg, Instance instance ) throws IOException, PluginException {
+
+		// If an instance depends on its component, make sure it does not add itself to the imports.
+		// Example: MongoDB may depend on other MongoDB instances.
+		if( ! Utils.areEqual(
+				InstanceHelpers.computeInstancePath( instance ),
+				msg.getAddedInstancePath())) {
 
 			// Create the right import
 			Import imp = ImportHelpers.buildTailoredImport( instance, msg.getAddedInstancePath(), msg.getExportedVariables());
@@ -566,7 +919,7 @@ public class AgentMessageProcessor extends AbstractMessageProcessor {
 			// Update the life cycle if necessary
 			PluginInterface plugin = this.pluginManager.findPlugin( instance, this.logger );
 			if( plugin != null )
-				updateStateFromImports( instance, plugin, imp, InstanceStatus.DEPLOYED_STARTED );
+				updateStateFromImports( instance, plugin, msg.getComponentOrFacetName(), imp, InstanceStatus.DEPLOYED_STARTED );
 		}
 	}
 
@@ -575,10 +928,17 @@ public class AgentMessageProcessor extends AbstractMessageProcessor {
 	 * Updates the status of an instance based on the imports.
 	 * @param impactedInstance the instance whose imports may have changed
 	 * @param plugin the plug-in to use to apply a concrete modification
-	 * @param statusChanged The changed status of the instance that changed (eg. that provided new imports)
+	 * @param componentOrFacetName the prefix under which the import changed (null if no import changed)
 	 * @param importChanged The individual imports that changed
+	 * @param statusChanged The changed status of the instance that changed (eg. that provided new imports)
 	 */
-	void updateStateFromImports( Instance impactedInstance, PluginInterface plugin, Import importChanged, InstanceStatus statusChanged ) throws IOException, PluginException {
+	void updateStateFromImports(
+			Instance impactedInstance,
+			PluginInterface plugin,
+			String componentOrFacetName,
+			Import importChanged,
+			InstanceStatus statusChanged )
+	throws IOException, PluginException {
 
 		// Do we have all the imports we need?
 		boolean haveAllImports = ImportHelpers.hasAllRequiredImports( impactedInstance, this.logger );
@@ -590,14 +950,17 @@ public class AgentMessageProcessor extends AbstractMessageProcessor {
 
 				// Start this instance
 				plugin.start( impactedInstance );
-				impactedInstance.setStatus( InstanceStatus.DEPLOYED_STARTED );
+				updateStatus( impactedInstance, InstanceStatus.DEPLOYED_STARTED );
 				this.messagingClient.sendMessageToTheDm( new MsgNotifInstanceChanged( this.appName, impactedInstance ));
 				this.messagingClient.publishExports( impactedInstance );
 				this.messagingClient.listenToRequestsFromOtherAgents( ListenerCommand.START, impactedInstance );
 
 			} else if( impactedInstance.getStatus() == InstanceStatus.DEPLOYED_STARTED ) {
 				// FIXME: there should be a way to determine whether an update is necessary
-				plugin.update( impactedInstance, importChanged, statusChanged );
+				if( this.importsUpdateDelay > 0 && importChanged != null )
+					recordImportChange( impactedInstance, componentOrFacetName, importChanged, statusChanged == InstanceStatus.DEPLOYED_STARTED );
+				else
+					plugin.update( impactedInstance, importChanged, statusChanged );
 
 			} else {
 				this.logger.fine( InstanceHelpers.computeInstancePath( impactedInstance ) + " checked import changes but has nothing to update (1)." );
@@ -616,6 +979,72 @@ public class AgentMessageProcessor extends AbstractMessageProcessor {
 	}
 
 
+	/**
+	 * Records an import change, so that it is applied later, with the others received in the meantime.
+	 * @param instance a started instance
+	 * @param componentOrFacetName the prefix under which the import was added or removed
+	 * @param importChanged the import that was added or removed
+	 * @param added true if the import was added, false if it was removed
+	 */
+	private void recordImportChange( final Instance instance, String componentOrFacetName, Import importChanged, boolean added ) {
+
+		final String instancePath = InstanceHelpers.computeInstancePath( instance );
+		this.importChangesBatcher.record( instancePath, componentOrFacetName, importChanged, added, this.importsUpdateDelay, new Runnable() {
+			@Override
+			public void run() {
+
+				// Batches are applied in the same order than the other operations on this instance
+				AgentMessageProcessor.this.scheduler.submit( instancePath, new Runnable() {
+					@Override
+					public void run() {
+						try {
+							applyImportChanges( instance );
+
+						} catch( PluginException e ) {
+							AgentMessageProcessor.this.logger.severe( "A problem occurred with a plug-in. " + e.getMessage());
+							AgentMessageProcessor.this.logger.finest( Utils.writeException( e ));
+						}
+					}
+				});
+			}
+		});
+	}
+
+
+	/**
+	 * Applies the import changes batched for an instance.
+	 * <p>
+	 * Nothing is done if the instance is not started anymore. If it was stopped in the meantime,
+	 * its next start takes the current imports into account.
+	 * </p>
+	 *
+	 * @param instance an instance
+	 * @throws PluginException if an error occurred with a plug-in
+	 */
+	void applyImportChanges( Instance instance ) throws PluginException {
+
+		ImportChanges changes = this.importChangesBatcher.take( InstanceHelpers.computeInstancePath( instance ));
+		PluginInterface plugin = changes == null ? null : this.pluginManager.findPlugin( instance, this.logger );
+		if( plugin == null
+				|| instance.getStatus() != InstanceStatus.DEPLOYED_STARTED
+				|| ! ImportHelpers.hasAllRequiredImports( instance, this.logger )) {
+			this.logger.fine( "Import changes were dropped for " + InstanceHelpers.computeInstancePath( instance ) + "." );
+
+		} else if( plugin instanceof BatchedUpdatesPlugin ) {
+			((BatchedUpdatesPlugin) plugin).updateImports( instance, changes.getAddedImports(), changes.getRemovedImports());
+
+		} else if( changes.size() == 1 && ! changes.getAddedImports().isEmpty()) {
+			plugin.update( instance, changes.getAddedImports().iterator().next(), InstanceStatus.DEPLOYED_STARTED );
+
+		} else if( changes.size() == 1 ) {
+			plugin.update( instance, changes.getRemovedImports().iterator().next(), InstanceStatus.DEPLOYED_STOPPED );
+
+		} else {
+			plugin.update( instance, null, null );
+		}
+	}
+
+
 	/**
 	 * Stops an instance.
 	 * <p>
@@ -640,7 +1069,7 @@ public class AgentMessageProcessor extends AbstractMessageProcessor {
 					&& i.getStatus() != InstanceStatus.STARTING )
 				continue;
 
-			i.setStatus( InstanceStatus.STOPPING );
+			updateStatus( i, InstanceStatus.STOPPING );
 			this.messagingClient.sendMessageToTheDm( new MsgNotifInstanceChanged( this.appName, i ));
 			this.messagingClient.listenToRequestsFromOtherAgents( ListenerCommand.STOP, i );
 			this.messagingClient.unpublishExports( i );
@@ -657,8 +1086,19 @@ public class AgentMessageProcessor extends AbstractMessageProcessor {
 			if( i.getStatus() != InstanceStatus.STOPPING )
 				continue;
 
-			i.setStatus( newStatus );
+			updateStatus( i, newStatus );
 			this.messagingClient.sendMessageToTheDm( new MsgNotifInstanceChanged( this.appName, i ));
 		}
 	}
+
+
+	/**
+	 * Updates the status of an instance and keeps the imports index up-to-date.
+	 * @param instance an instance of the local model
+	 * @param status the new status
+	 */
+	private void updateStatus( Instance instance, InstanceStatus status ) {
+		instance.setStatus( status );
+		this.importsIndex.statusChanged( instance );
+	}
 }
@@ -34,6 +34,7 @@ import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
 import net.roboconf.agent.AgentData;
+import net.roboconf.core.agents.DataHelpers;
 import net.roboconf.core.model.helpers.InstanceHelpers;
 import net.roboconf.core.model.runtime.Instance;
 import net.roboconf.core.utils.Utils;
@@ -155,6 +156,32 @@ public final class AgentUtils {
 		// Parse them
 		AgentData result = AgentData.readIaasProperties( userData, logger );
 
+		// Several machines may have been launched at once, with the same user data.
+		// In this case, the launch index tells which root instance we are.
+		if( result.getRootInstanceName() == null ) {
+			in = null;
+			try {
+				URL launchIndexUrl = new URL( "http://169.254.169.254/latest/meta-data/ami-launch-index" );
+				in = launchIndexUrl.openStream();
+				ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+				Utils.copyStream( in, os );
+				int launchIndex = Integer.parseInt( os.toString( "UTF-8" ).trim());
+				result.setRootInstanceName( DataHelpers.findRootInstanceName( DataHelpers.readIaasData( userData ), launchIndex ));
+
+			} catch( NumberFormatException e ) {
+				logger.severe( "The launch index could not be read. " + e.getMessage());
+				logger.finest( Utils.writeException( e ));
+
+			} catch( IOException e ) {
+				logger.severe( "The launch index could not be read. " + e.getMessage());
+				logger.finest( Utils.writeException( e ));
+
+			} finally {
+				Utils.closeQuietly( in );
+			}
+		}
+
 		// We need to ask our IP address because we may have several network interfaces.
 		in = null;
 		try {
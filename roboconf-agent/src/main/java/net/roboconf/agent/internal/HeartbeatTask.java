@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.util.TimerTask;
 import java.util.logging.Logger;
 
+import net.roboconf.agent.AgentData;
 import net.roboconf.core.utils.Utils;
 import net.roboconf.messaging.client.IAgentClient;
 import net.roboconf.messaging.messages.from_agent_to_dm.MsgNotifHeartbeat;
@@ -30,7 +31,7 @@ import net.roboconf.messaging.messages.from_agent_to_dm.MsgNotifHeartbeat;
 public class HeartbeatTask extends TimerTask {
 
 	private final Logger logger = Logger.getLogger( getClass().getName());
-	private final String applicationName, rootInstanceName;
+	private final AgentData agentData;
 	private final IAgentClient messagingClient;
 
 
@@ -41,8 +42,25 @@ public class HeartbeatTask extends TimerTask {
 	 * @param messagingClient
 	 */
 	public HeartbeatTask( String applicationName, String rootInstanceName, IAgentClient messagingClient ) {
-		this.applicationName = applicationName;
-		this.rootInstanceName = rootInstanceName;
+		this.agentData = new AgentData();
+		this.agentData.setApplicationName( applicationName );
+		this.agentData.setRootInstanceName( rootInstanceName );
+		this.messagingClient = messagingClient;
+	}
+
+
+	/**
+	 * Constructor.
+	 * <p>
+	 * The names are read from the agent's data at every run.
+	 * This way, heart beats follow the agent if it is rebound to another root instance.
+	 * </p>
+	 *
+	 * @param agentData
+	 * @param messagingClient
+	 */
+	public HeartbeatTask( AgentData agentData, IAgentClient messagingClient ) {
+		this.agentData = agentData;
 		this.messagingClient = messagingClient;
 	}
 
@@ -50,7 +68,7 @@ public class HeartbeatTask extends TimerTask {
 	@Override
 	public void run() {
 		try {
-			MsgNotifHeartbeat heartBeat = new MsgNotifHeartbeat( this.applicationName, this.rootInstanceName );
+			MsgNotifHeartbeat heartBeat = new MsgNotifHeartbeat( this.agentData.getApplicationName(), this.agentData.getRootInstanceName());
 			this.messagingClient.sendMessageToTheDm( heartBeat );
 
 		} catch( IOException e ) {
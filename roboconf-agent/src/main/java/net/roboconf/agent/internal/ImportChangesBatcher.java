@@ -0,0 +1,176 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.agent.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import net.roboconf.core.model.runtime.Import;
+
+/**
+ * Collects the import changes of started instances, so that they are applied at once.
+ * <p>
+ * The first change recorded for an instance opens a batch and schedules its flush
+ * after a given delay. The changes recorded in the meantime are added to this batch.
+ * For a given exporting instance and a given component or facet name, only the last change is kept.
+ * An exporting instance may indeed be imported under several prefixes (its component and its facets).
+ * </p>
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ *
+ * @author Vincent Zurczak - Linagora
+ */
+final class ImportChangesBatcher {
+
+	private final String threadName;
+	private final Map<String,ImportChanges> instancePathToChanges = new HashMap<String,ImportChanges> ();
+	private ScheduledExecutorService timer;
+
+
+	/**
+	 * Constructor.
+	 * <p>
+	 * The timer thread is only created when a first change is recorded.
+	 * </p>
+	 *
+	 * @param threadName the prefix of the timer thread's name
+	 */
+	ImportChangesBatcher( String threadName ) {
+		this.threadName = threadName;
+	}
+
+
+	/**
+	 * Records an import change.
+	 * @param instancePath the path of the instance whose imports changed
+	 * @param componentOrFacetName the prefix under which the import was added or removed
+	 * @param imp the import that was added or removed
+	 * @param added true if the import was added, false if it was removed
+	 * @param delay the delay before the flush, in milliseconds (only used when a new batch is opened)
+	 * @param flush the runnable to invoke when the batch must be applied
+	 */
+	synchronized void record( String instancePath, String componentOrFacetName, Import imp, boolean added, long delay, Runnable flush ) {
+
+		ImportChanges changes = this.instancePathToChanges.get( instancePath );
+		if( changes == null ) {
+			changes = new ImportChanges();
+			this.instancePathToChanges.put( instancePath, changes );
+			findTimer().schedule( flush, delay, TimeUnit.MILLISECONDS );
+		}
+
+		changes.record( componentOrFacetName, imp, added );
+	}
+
+
+	/**
+	 * Closes the batch of an instance.
+	 * @param instancePath an instance path
+	 * @return the changes recorded since the batch was opened, or null if there is no batch
+	 */
+	synchronized ImportChanges take( String instancePath ) {
+		return this.instancePathToChanges.remove( instancePath );
+	}
+
+
+	/**
+	 * Drops all the batches and stops the timer.
+	 */
+	synchronized void shutdown() {
+
+		this.instancePathToChanges.clear();
+		if( this.timer != null )
+			this.timer.shutdownNow();
+	}
+
+
+	private ScheduledExecutorService findTimer() {
+
+		if( this.timer == null ) {
+			this.timer = new ScheduledThreadPoolExecutor( 1, new ThreadFactory() {
+				@Override
+				public Thread newThread( Runnable r ) {
+					Thread result = new Thread( r, ImportChangesBatcher.this.threadName + " - Imports Updates" );
+					result.setDaemon( true );
+					return result;
+				}
+			});
+		}
+
+		return this.timer;
+	}
+
+
+	/**
+	 * The import changes of an instance.
+	 */
+	static final class ImportChanges {
+
+		private final Map<String,Import> addedImports = new LinkedHashMap<String,Import> ();
+		private final Map<String,Import> removedImports = new LinkedHashMap<String,Import> ();
+
+
+		/**
+		 * Records a change, and forgets the previous change of the same exporting instance under this prefix.
+		 * @param componentOrFacetName the prefix under which the import was added or removed
+		 * @param imp the import that was added or removed
+		 * @param added true if the import was added, false if it was removed
+		 */
+		void record( String componentOrFacetName, Import imp, boolean added ) {
+
+			// Component and facet names cannot contain spaces
+			String key = componentOrFacetName + " " + imp.getInstancePath();
+			this.addedImports.remove( key );
+			this.removedImports.remove( key );
+			if( added )
+				this.addedImports.put( key, imp );
+			else
+				this.removedImports.put( key, imp );
+		}
+
+
+		/**
+		 * @return the added imports (not null)
+		 */
+		Collection<Import> getAddedImports() {
+			return new ArrayList<Import>( this.addedImports.values());
+		}
+
+
+		/**
+		 * @return the removed imports (not null)
+		 */
+		Collection<Import> getRemovedImports() {
+			return new ArrayList<Import>( this.removedImports.values());
+		}
+
+
+		/**
+		 * @return the number of changes
+		 */
+		int size() {
+			return this.addedImports.size() + this.removedImports.size();
+		}
+	}
+}
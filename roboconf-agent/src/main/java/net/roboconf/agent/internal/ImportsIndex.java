@@ -0,0 +1,148 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.agent.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.roboconf.core.model.helpers.InstanceHelpers;
+import net.roboconf.core.model.helpers.VariableHelpers;
+import net.roboconf.core.model.runtime.Instance;
+import net.roboconf.core.model.runtime.Instance.InstanceStatus;
+
+/**
+ * Indexes the local instances by the component and facet names of their variables.
+ * <p>
+ * It finds the instances impacted by an import message without going through the whole model.
+ * It associates every prefix with:
+ * </p>
+ * <ul>
+ * <li>the instances that import variables with this prefix (updated when instances are added or removed);</li>
+ * <li>the started instances that export variables with this prefix (also updated when statuses change).</li>
+ * </ul>
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ *
+ * @author Vincent Zurczak - Linagora
+ */
+final class ImportsIndex {
+
+	private final Map<String,Set<Instance>> prefixToImportingInstances = new HashMap<String,Set<Instance>> ();
+	private final Map<String,Set<Instance>> prefixToStartedExportingInstances = new HashMap<String,Set<Instance>> ();
+
+
+	/**
+	 * Indexes an instance (but not its children).
+	 * @param instance an instance that was added to the model
+	 */
+	synchronized void addInstance( Instance instance ) {
+
+		for( String prefix : VariableHelpers.findPrefixesForImportedVariables( instance ))
+			add( this.prefixToImportingInstances, prefix, instance );
+
+		if( instance.getStatus() == InstanceStatus.DEPLOYED_STARTED )
+			statusChanged( instance );
+	}
+
+
+	/**
+	 * Removes an instance and its children from the index.
+	 * <p>
+	 * It must be invoked before the instance is removed from the model,
+	 * as instances are identified by their path.
+	 * </p>
+	 *
+	 * @param instance an instance that is about to be removed from the model
+	 */
+	synchronized void removeInstances( Instance instance ) {
+
+		for( Instance i : InstanceHelpers.buildHierarchicalList( instance )) {
+			for( String prefix : VariableHelpers.findPrefixesForImportedVariables( i ))
+				remove( this.prefixToImportingInstances, prefix, i );
+
+			for( String prefix : VariableHelpers.findPrefixesForExportedVariables( i ))
+				remove( this.prefixToStartedExportingInstances, prefix, i );
+		}
+	}
+
+
+	/**
+	 * Updates the index after the status of an instance changed.
+	 * @param instance an indexed instance
+	 */
+	synchronized void statusChanged( Instance instance ) {
+
+		boolean started = instance.getStatus() == InstanceStatus.DEPLOYED_STARTED;
+		for( String prefix : VariableHelpers.findPrefixesForExportedVariables( instance )) {
+			if( started )
+				add( this.prefixToStartedExportingInstances, prefix, instance );
+			else
+				remove( this.prefixToStartedExportingInstances, prefix, instance );
+		}
+	}
+
+
+	/**
+	 * @param prefix a component or facet name
+	 * @return a non-null list of instances that import variables with this prefix
+	 */
+	synchronized List<Instance> findImportingInstances( String prefix ) {
+		return find( this.prefixToImportingInstances, prefix );
+	}
+
+
+	/**
+	 * @param prefix a component or facet name
+	 * @return a non-null list of started instances that export variables with this prefix
+	 */
+	synchronized List<Instance> findStartedExportingInstances( String prefix ) {
+		return find( this.prefixToStartedExportingInstances, prefix );
+	}
+
+
+	private static void add( Map<String,Set<Instance>> map, String prefix, Instance instance ) {
+
+		Set<Instance> instances = map.get( prefix );
+		if( instances == null ) {
+			instances = new LinkedHashSet<Instance> ();
+			map.put( prefix, instances );
+		}
+
+		instances.add( instance );
+	}
+
+
+	private static void remove( Map<String,Set<Instance>> map, String prefix, Instance instance ) {
+
+		Set<Instance> instances = map.get( prefix );
+		if( instances != null
+				&& instances.remove( instance )
+				&& instances.isEmpty())
+			map.remove( prefix );
+	}
+
+
+	private static List<Instance> find( Map<String,Set<Instance>> map, String prefix ) {
+		Set<Instance> instances = map.get( prefix );
+		return instances == null ? new ArrayList<Instance>( 0 ) : new ArrayList<Instance>( instances );
+	}
+}
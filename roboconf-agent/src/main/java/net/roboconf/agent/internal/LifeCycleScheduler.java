@@ -0,0 +1,457 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.agent.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import net.roboconf.core.utils.Utils;
+
+/**
+ * Runs the operations of an agent concurrently, unless they concern related instances.
+ * <p>
+ * Every operation is associated with an instance path. Two operations are related when
+ * they concern the same instance, or when one instance is an ancestor of the other.
+ * Related operations run one after the other, in the order they were submitted.
+ * Other operations may run at the same time. As an example, deploying an instance
+ * does not delay the start of one of its siblings.
+ * </p>
+ * <p>
+ * Operations that are not associated with any instance path are related to all
+ * the other operations.
+ * </p>
+ * <p>
+ * Pending operations are indexed by instance path and by sub-tree. Finding whether
+ * an operation can start only looks at its ancestors and at its descendants.
+ * </p>
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ *
+ * @author Vincent Zurczak - Linagora
+ */
+final class LifeCycleScheduler {
+
+	static final int DEFAULT_THREADS_COUNT = 4;
+
+	private final Logger logger = Logger.getLogger( getClass().getName());
+	private final Executor executor;
+	private final ThreadPoolExecutor ownExecutor;
+
+	// Pending and running operations, in the order they were submitted...
+	private final Set<Operation> operations = new LinkedHashSet<Operation> ();
+	private long nextSequence = 0;
+
+	// ... those without instance path...
+	private final LinkedList<Operation> globalOperations = new LinkedList<Operation> ();
+
+	// ... those of every instance path...
+	private final Map<String,LinkedList<Operation>> pathToOperations = new HashMap<String,LinkedList<Operation>> ();
+
+	// ... and those of every sub-tree (key: the path of the sub-tree's root).
+	private final Map<String,Set<Operation>> pathToSubtreeOperations = new HashMap<String,Set<Operation>> ();
+
+
+	/**
+	 * Constructor.
+	 * <p>
+	 * Operations run in a pool of {@value #DEFAULT_THREADS_COUNT} threads.
+	 * Threads are released when they are idle.
+	 * </p>
+	 *
+	 * @param threadName the prefix of the thread names
+	 */
+	LifeCycleScheduler( final String threadName ) {
+
+		this.ownExecutor = new ThreadPoolExecutor(
+				DEFAULT_THREADS_COUNT, DEFAULT_THREADS_COUNT,
+				30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable> (),
+				new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread( Runnable r ) {
+						Thread result = new Thread( r, threadName + " - Life Cycle " + this.count.incrementAndGet());
+						result.setDaemon( true );
+						return result;
+					}
+				});
+
+		this.ownExecutor.allowCoreThreadTimeOut( true );
+		this.executor = this.ownExecutor;
+	}
+
+
+	/**
+	 * Constructor.
+	 * @param executor the executor that runs the operations (not null)
+	 */
+	LifeCycleScheduler( Executor executor ) {
+		this.executor = executor;
+		this.ownExecutor = null;
+	}
+
+
+	/**
+	 * Finds the path of the parent instance.
+	 * @param instancePath an instance path (not null)
+	 * @return the parent path, or null for a root instance
+	 */
+	static String findParentPath( String instancePath ) {
+		int index = instancePath.lastIndexOf( '/' );
+		return index > 0 ? instancePath.substring( 0, index ) : null;
+	}
+
+
+	/**
+	 * Indicates whether two instance paths are related.
+	 * @param path1 an instance path (null for all the instances)
+	 * @param path2 an instance path (null for all the instances)
+	 * @return true if they are equal or if one is an ancestor of the other, false otherwise
+	 */
+	static boolean areRelated( String path1, String path2 ) {
+
+		return path1 == null
+				|| path2 == null
+				|| path1.equals( path2 )
+				|| path1.startsWith( path2 + "/" )
+				|| path2.startsWith( path1 + "/" );
+	}
+
+
+	/**
+	 * Submits an operation.
+	 * <p>
+	 * It is run once all the related operations submitted before have completed.
+	 * </p>
+	 *
+	 * @param instancePath the path of the instance the operation is about (null for all the instances)
+	 * @param runnable the operation
+	 */
+	void submit( String instancePath, Runnable runnable ) {
+
+		List<Operation> readyOperations = new ArrayList<Operation>( 1 );
+		synchronized( this ) {
+			Operation operation = new Operation( instancePath, runnable, this.nextSequence ++ );
+			this.operations.add( operation );
+			if( instancePath == null ) {
+				this.globalOperations.add( operation );
+
+			} else {
+				LinkedList<Operation> pathOperations = this.pathToOperations.get( instancePath );
+				if( pathOperations == null ) {
+					pathOperations = new LinkedList<Operation> ();
+					this.pathToOperations.put( instancePath, pathOperations );
+				}
+
+				pathOperations.add( operation );
+				for( String path = instancePath; path != null; path = findParentPath( path )) {
+					Set<Operation> subtreeOperations = this.pathToSubtreeOperations.get( path );
+					if( subtreeOperations == null ) {
+						subtreeOperations = new LinkedHashSet<Operation> ();
+						this.pathToSubtreeOperations.put( path, subtreeOperations );
+					}
+
+					subtreeOperations.add( operation );
+				}
+			}
+
+			// Only the new operation may be ready
+			markIfReady( operation, readyOperations );
+		}
+
+		start( readyOperations );
+	}
+
+
+	/**
+	 * Waits for all the pending operations related to an instance to complete.
+	 * <p>
+	 * The caller must be the only thread that submits operations.
+	 * Once this method returns, this thread can update this part of the model.
+	 * </p>
+	 *
+	 * @param instancePath an instance path (null for all the instances)
+	 * @throws InterruptedException if the thread was interrupted
+	 */
+	synchronized void waitForRelatedOperations( String instancePath ) throws InterruptedException {
+
+		while( hasRelatedOperation( instancePath ))
+			wait();
+	}
+
+
+	/**
+	 * @return the number of operations that are pending or running
+	 */
+	synchronized int getOperationsCount() {
+		return this.operations.size();
+	}
+
+
+	/**
+	 * Stops running operations.
+	 * <p>
+	 * Pending operations are dropped. Running operations are not interrupted.
+	 * </p>
+	 */
+	synchronized void shutdown() {
+
+		if( ! this.operations.isEmpty())
+			this.logger.fine( this.operations.size() + " life cycle operation(s) will not be processed." );
+
+		this.operations.clear();
+		this.globalOperations.clear();
+		this.pathToOperations.clear();
+		this.pathToSubtreeOperations.clear();
+		notifyAll();
+		if( this.ownExecutor != null )
+			this.ownExecutor.shutdown();
+	}
+
+
+	/**
+	 * Indicates whether an operation does not wait for related operations anymore.
+	 * <p>
+	 * If so, it is marked as started and added to the list. Must be invoked while holding this object's lock.
+	 * </p>
+	 *
+	 * @param operation an operation
+	 * @param readyOperations the list of operations to start
+	 */
+	private void markIfReady( Operation operation, List<Operation> readyOperations ) {
+
+		boolean ready = ! operation.started;
+
+		// An operation without path waits for all the previous ones
+		if( ready && operation.instancePath == null )
+			ready = this.operations.iterator().next() == operation;
+
+		// Otherwise, it waits for those without path...
+		else if( ready )
+			ready = this.globalOperations.isEmpty() || this.globalOperations.getFirst().sequence > operation.sequence;
+
+		// ... for those on the same instance and on its descendants...
+		if( ready && operation.instancePath != null )
+			ready = this.pathToSubtreeOperations.get( operation.instancePath ).iterator().next() == operation;
+
+		// ... and for those on its ancestors.
+		if( ready && operation.instancePath != null ) {
+			for( String path = findParentPath( operation.instancePath ); path != null && ready; path = findParentPath( path )) {
+				LinkedList<Operation> pathOperations = this.pathToOperations.get( path );
+				ready = pathOperations == null || pathOperations.getFirst().sequence > operation.sequence;
+			}
+		}
+
+		if( ready ) {
+			operation.started = true;
+			readyOperations.add( operation );
+		}
+	}
+
+
+	/**
+	 * Indicates whether an operation is the next one to run for its instance path.
+	 * @param operation an operation
+	 * @return true if no operation was submitted before it for this instance path
+	 */
+	private boolean isFirstForItsPath( Operation operation ) {
+
+		List<Operation> pathOperations = operation.instancePath == null
+				? this.globalOperations
+				: this.pathToOperations.get( operation.instancePath );
+
+		return pathOperations.get( 0 ) == operation;
+	}
+
+
+	/**
+	 * Starts operations.
+	 * <p>
+	 * Must be invoked without holding this object's lock, as the executor may run them immediately.
+	 * </p>
+	 *
+	 * @param readyOperations the operations to start
+	 */
+	private void start( List<Operation> readyOperations ) {
+
+		for( final Operation operation : readyOperations ) {
+			try {
+				this.executor.execute( new Runnable() {
+					@Override
+					public void run() {
+						runOperation( operation );
+					}
+				});
+
+			} catch( RejectedExecutionException e ) {
+				this.logger.fine( "A life cycle operation could not be run. The agent is stopping." );
+				complete( operation );
+			}
+		}
+	}
+
+
+	/**
+	 * Indicates whether a pending or running operation is related to an instance path.
+	 * @param instancePath an instance path (null for all the instances)
+	 * @return true if one of them is related, false otherwise
+	 */
+	private boolean hasRelatedOperation( String instancePath ) {
+
+		boolean result;
+		if( instancePath == null ) {
+			result = ! this.operations.isEmpty();
+
+		} else {
+			result = ! this.globalOperations.isEmpty()
+					|| this.pathToSubtreeOperations.containsKey( instancePath );
+
+			for( String path = findParentPath( instancePath ); path != null && ! result; path = findParentPath( path ))
+				result = this.pathToOperations.containsKey( path );
+		}
+
+		return result;
+	}
+
+
+	private void runOperation( Operation operation ) {
+
+		try {
+			operation.runnable.run();
+
+		} catch( RuntimeException e ) {
+			// A faulty operation must not block the related ones
+			this.logger.severe( "An error occurred during a life cycle operation on " + operation.instancePath + ". " + e.getMessage());
+			this.logger.finest( Utils.writeException( e ));
+
+		} finally {
+			complete( operation );
+		}
+	}
+
+
+	private void complete( Operation operation ) {
+
+		List<Operation> readyOperations = new ArrayList<Operation> ();
+		synchronized( this ) {
+
+			// The scheduler may have been shutdown in the meantime
+			if( this.operations.remove( operation )) {
+				if( operation.instancePath == null ) {
+					this.globalOperations.remove( operation );
+
+					// Any operation may have been waiting for this one
+					for( Operation op : this.operations ) {
+						if( isFirstForItsPath( op ))
+							markIfReady( op, readyOperations );
+					}
+
+				} else {
+					removeFromIndexes( operation );
+
+					// The next operations of this sub-tree may have been waiting for this one.
+					// Once an operation on this instance is found, the following ones wait for it.
+					Set<Operation> subtreeOperations = this.pathToSubtreeOperations.get( operation.instancePath );
+					if( subtreeOperations != null ) {
+						for( Operation op : subtreeOperations ) {
+							if( isFirstForItsPath( op ))
+								markIfReady( op, readyOperations );
+
+							if( operation.instancePath.equals( op.instancePath ))
+								break;
+						}
+					}
+
+					// So may the next operations of the ancestors...
+					for( String path = findParentPath( operation.instancePath ); path != null; path = findParentPath( path )) {
+						LinkedList<Operation> pathOperations = this.pathToOperations.get( path );
+						if( pathOperations != null )
+							markIfReady( pathOperations.getFirst(), readyOperations );
+					}
+
+					// ... and the next operation without path
+					if( ! this.globalOperations.isEmpty())
+						markIfReady( this.globalOperations.getFirst(), readyOperations );
+				}
+			}
+
+			notifyAll();
+		}
+
+		start( readyOperations );
+	}
+
+
+	/**
+	 * Removes an operation (with an instance path) from the indexes.
+	 * @param operation an operation
+	 */
+	private void removeFromIndexes( Operation operation ) {
+
+		LinkedList<Operation> pathOperations = this.pathToOperations.get( operation.instancePath );
+		pathOperations.remove( operation );
+		if( pathOperations.isEmpty())
+			this.pathToOperations.remove( operation.instancePath );
+
+		for( String path = operation.instancePath; path != null; path = findParentPath( path )) {
+			Set<Operation> subtreeOperations = this.pathToSubtreeOperations.get( path );
+			subtreeOperations.remove( operation );
+			if( subtreeOperations.isEmpty())
+				this.pathToSubtreeOperations.remove( path );
+		}
+	}
+
+
+	/**
+	 * An operation on an instance.
+	 */
+	private static final class Operation {
+
+		final String instancePath;
+		final Runnable runnable;
+		final long sequence;
+		boolean started = false;
+
+
+		/**
+		 * Constructor.
+		 * @param instancePath the instance path (null for all the instances)
+		 * @param runnable the operation
+		 * @param sequence the submission order
+		 */
+		Operation( String instancePath, Runnable runnable, long sequence ) {
+			this.instancePath = instancePath;
+			this.runnable = runnable;
+			this.sequence = sequence;
+		}
+	}
+}
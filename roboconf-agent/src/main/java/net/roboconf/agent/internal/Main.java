@@ -83,7 +83,9 @@ public final class Main {
 
 		} else {
 			try {
-				new AgentLauncher( agentData ).launchAgent( ExecutionLevel.RUNNING, null );
+				AgentLauncher launcher = new AgentLauncher( agentData );
+				launcher.setImportsUpdateDelay( agentData.getImportsUpdateDelay());
+				launcher.launchAgent( ExecutionLevel.RUNNING, null );
 				logger.info( "The agent was launched by the main program." );
 
 			} catch( IOException e ) {
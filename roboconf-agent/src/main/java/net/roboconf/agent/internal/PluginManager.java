@@ -17,6 +17,13 @@
 package net.roboconf.agent.internal;
 
 import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.logging.Logger;
 
 import net.roboconf.core.model.helpers.InstanceHelpers;
@@ -29,12 +36,93 @@ import net.roboconf.plugin.logger.PluginLogger;
 import net.roboconf.plugin.puppet.PluginPuppet;
 
 /**
+ * The registry of the plug-ins an agent can use.
+ * <p>
+ * The plug-ins shipped with Roboconf are always available. Other plug-ins are
+ * discovered once, when the manager is created, through a {@link ServiceLoader}. To
+ * add an installer, list its class in a <code>META-INF/services/net.roboconf.plugin.api.PluginInterface</code>
+ * file in its JAR, and drop this JAR in the agent's class path. There is no need to recompile the agent.
+ * </p>
+ * <p>
+ * There is a single instance of every plug-in per manager. It is shared by all the instances
+ * of the agent and may be invoked concurrently. Thus, plug-ins must not keep any state,
+ * except their configuration. Looking for a plug-in does not lock anything.
+ * </p>
+ *
  * @author Vincent Zurczak - Linagora
  */
 public class PluginManager {
 
+	private final Logger logger = Logger.getLogger( getClass().getName());
+	private final Map<String,PluginInterface> installerNameToPlugin = new ConcurrentSkipListMap<String,PluginInterface>( String.CASE_INSENSITIVE_ORDER );
 	private ExecutionLevel executionLevel = ExecutionLevel.RUNNING;
 	private File dumpDirectory;
+	private String agentName;
+
+
+	/**
+	 * Constructor.
+	 */
+	public PluginManager() {
+
+		registerPlugin( new PluginBash());
+		registerPlugin( new PluginPuppet());
+		registerPlugin( new PluginLogger());
+		registerPlugins( ServiceLoader.load( PluginInterface.class ).iterator());
+	}
+
+
+	/**
+	 * Registers plug-ins.
+	 * <p>
+	 * Plug-ins that cannot be loaded are ignored.
+	 * </p>
+	 *
+	 * @param plugins an iterator over plug-ins (typically, a {@link ServiceLoader}'s one)
+	 */
+	void registerPlugins( Iterator<PluginInterface> plugins ) {
+
+		for( ;; ) {
+			try {
+				if( ! plugins.hasNext())
+					break;
+
+				registerPlugin( plugins.next());
+
+			} catch( ServiceConfigurationError e ) {
+				this.logger.severe( "A plug-in could not be loaded. " + e.getMessage());
+			}
+		}
+	}
+
+
+	/**
+	 * Registers a plug-in.
+	 * <p>
+	 * A plug-in cannot replace another one with the same name.
+	 * </p>
+	 *
+	 * @param plugin a plug-in (not null)
+	 * @return true if it was registered, false otherwise
+	 */
+	synchronized boolean registerPlugin( PluginInterface plugin ) {
+
+		boolean result = false;
+		PluginInterface existing = this.installerNameToPlugin.get( plugin.getPluginName());
+		if( existing == null ) {
+			plugin.setExecutionLevel( this.executionLevel );
+			plugin.setDumpDirectory( this.dumpDirectory );
+			plugin.setAgentName( this.agentName );
+			this.installerNameToPlugin.put( plugin.getPluginName(), plugin );
+			this.logger.fine( "Plug-in " + plugin.getPluginName() + " was registered (" + plugin.getClass().getName() + ")." );
+			result = true;
+
+		} else if( existing.getClass() != plugin.getClass()) {
+			this.logger.warning( "Plug-in " + plugin.getClass().getName() + " is ignored. Installer " + plugin.getPluginName() + " is already handled by " + existing.getClass().getName() + "." );
+		}
+
+		return result;
+	}
 
 
 	/**
@@ -45,46 +133,37 @@ public class PluginManager {
 	 */
 	public PluginInterface findPlugin( Instance instance, Logger logger ) {
 
-		PluginInterface result = null;
 		String installerName = instance.getComponent().getInstallerName();
-		PluginInterface[] plugins = new PluginInterface[] {
-				new PluginBash(),
-				new PluginPuppet(),
-				new PluginLogger()
-		};
-
-		for( PluginInterface pi : plugins ) {
-			if( pi.getPluginName().equalsIgnoreCase( installerName )) {
-				result = pi;
-				break;
-			}
-		}
-
-		if( result == null ) {
+		PluginInterface result = installerName == null ? null : this.installerNameToPlugin.get( installerName );
+		if( result == null )
 			logger.severe( "No plugin was found for instance " + instance.getName() + " with installer " + installerName + "." );
 
-		} else {
-			result.setExecutionLevel( this.executionLevel );
-			result.setDumpDirectory( this.dumpDirectory );
-			result.setAgentName( "Agent " + InstanceHelpers.findRootInstance( instance ).getName());
-		}
-
 		return result;
 	}
 
 
+	/**
+	 * @return the registered plug-ins (never null)
+	 */
+	public Collection<PluginInterface> getPlugins() {
+		return Collections.unmodifiableCollection( this.installerNameToPlugin.values());
+	}
+
+
 	/**
 	 * @param executionLevel the executionLevel to set
 	 */
-	public void setExecutionLevel( ExecutionLevel executionLevel ) {
+	public synchronized void setExecutionLevel( ExecutionLevel executionLevel ) {
 		this.executionLevel = executionLevel;
+		for( PluginInterface plugin : this.installerNameToPlugin.values())
+			plugin.setExecutionLevel( executionLevel );
 	}
 
 
 	/**
 	 * @return the execution level
 	 */
-	public ExecutionLevel getExecutionLevel() {
+	public synchronized ExecutionLevel getExecutionLevel() {
 		return this.executionLevel;
 	}
 
@@ -96,8 +175,21 @@ public class PluginManager {
 	 * {@link ExecutionLevel#GENERATE_FILES}.
 	 * </p>
 	 */
-	public void setDumpDirectory( File dumpDirectory ) {
+	public synchronized void setDumpDirectory( File dumpDirectory ) {
 		this.dumpDirectory = dumpDirectory;
+		for( PluginInterface plugin : this.installerNameToPlugin.values())
+			plugin.setDumpDirectory( dumpDirectory );
+	}
+
+
+	/**
+	 * Sets the agent name (used by plug-ins in their logs).
+	 * @param agentName the agent name
+	 */
+	public synchronized void setAgentName( String agentName ) {
+		this.agentName = agentName;
+		for( PluginInterface plugin : this.installerNameToPlugin.values())
+			plugin.setAgentName( agentName );
 	}
 
 
@@ -115,20 +207,14 @@ public class PluginManager {
 	 * </p>
 	 *
 	 * @param instanceToAdd the instance to add on this agent
-	 * @param executionLevel the execution level
 	 * @throws PluginException if the initialization fails or if no plug-in was found
 	 */
-	public static void initializePluginForInstance( Instance instanceToAdd, ExecutionLevel executionLevel )
-	throws PluginException {
-
-		Logger logger = Logger.getLogger( PluginManager.class.getName());
-		PluginManager pluginManager = new PluginManager();
-		pluginManager.setExecutionLevel( executionLevel );
+	public void initializePluginForInstance( Instance instanceToAdd ) throws PluginException {
 
 		for( Instance instance : InstanceHelpers.buildHierarchicalList( instanceToAdd )) {
 
 			String installerName = instance.getComponent().getInstallerName();
-			PluginInterface plugin = pluginManager.findPlugin( instance, logger );
+			PluginInterface plugin = findPlugin( instance, this.logger );
 			if( plugin == null )
 				throw new PluginException( "No plugin was found for " + instance.getName() + ". Installer name:" + installerName );
 
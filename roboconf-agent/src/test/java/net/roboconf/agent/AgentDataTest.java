@@ -16,6 +16,7 @@
 
 package net.roboconf.agent;
 
+import java.util.Properties;
 import java.util.logging.Logger;
 
 import junit.framework.Assert;
@@ -71,6 +72,20 @@ public class AgentDataTest {
 	}
 
 
+	@Test
+	public void testReadIaasProperties_importsUpdateDelay() throws Exception {
+
+		Properties props = new Properties();
+		Assert.assertEquals( 0, AgentData.readIaasProperties( props ).getImportsUpdateDelay());
+
+		props.setProperty( AgentData.IMPORTS_UPDATE_DELAY, " 500 " );
+		Assert.assertEquals( 500, AgentData.readIaasProperties( props ).getImportsUpdateDelay());
+
+		props.setProperty( AgentData.IMPORTS_UPDATE_DELAY, "oops" );
+		Assert.assertEquals( 0, AgentData.readIaasProperties( props ).getImportsUpdateDelay());
+	}
+
+
 	@Test
 	public void testValidate() {
 
@@ -0,0 +1,94 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.agent.internal;
+
+import junit.framework.Assert;
+import net.roboconf.agent.AgentData;
+import net.roboconf.agent.tests.TestAgentMessagingClient;
+import net.roboconf.core.model.runtime.Component;
+import net.roboconf.core.model.runtime.Graphs;
+import net.roboconf.core.model.runtime.Instance;
+import net.roboconf.messaging.messages.from_agent_to_dm.MsgNotifMachineUp;
+import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdAgentRebind;
+import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceAdd;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Vincent Zurczak - Linagora
+ */
+public class AgentRebindTest {
+
+	private AgentData agentData;
+	private TestAgentMessagingClient messagingClient;
+	private AgentMessageProcessor processor;
+
+
+	@Before
+	public void initialize() {
+
+		this.agentData = new AgentData();
+		this.agentData.setApplicationName( "app" );
+		this.agentData.setRootInstanceName( "~standby-1" );
+		this.agentData.setIpAddress( "192.168.1.2" );
+
+		this.messagingClient = new TestAgentMessagingClient();
+		this.processor = new AgentMessageProcessor( "my agent", this.agentData, new PluginManager(), this.messagingClient );
+	}
+
+
+	@Test
+	public void testRebind() throws Exception {
+
+		Assert.assertTrue( this.processor.processMsgAgentRebind( new MsgCmdAgentRebind( "vm 1" )));
+		Assert.assertEquals( "vm 1", this.agentData.getRootInstanceName());
+		Assert.assertEquals( "vm 1", this.messagingClient.rootInstanceName );
+
+		Assert.assertEquals( 1, this.messagingClient.messagesForTheDm.size());
+		MsgNotifMachineUp msg = (MsgNotifMachineUp) this.messagingClient.messagesForTheDm.get( 0 );
+		Assert.assertEquals( "app", msg.getApplicationName());
+		Assert.assertEquals( "vm 1", msg.getRootInstanceName());
+		Assert.assertEquals( "192.168.1.2", msg.getIpAddress());
+	}
+
+
+	@Test
+	public void testRebind_invalidName() throws Exception {
+
+		Assert.assertFalse( this.processor.processMsgAgentRebind( new MsgCmdAgentRebind( null )));
+		Assert.assertEquals( "~standby-1", this.agentData.getRootInstanceName());
+		Assert.assertEquals( 0, this.messagingClient.messagesForTheDm.size());
+	}
+
+
+	@Test
+	public void testRebind_notInStandby() throws Exception {
+
+		Component vmComponent = new Component( "vm" ).alias( "a VM" ).installerName( "iaas" );
+		Graphs graphs = new Graphs();
+		graphs.getRootComponents().add( vmComponent );
+
+		Instance vm = new Instance( "~standby-1" ).component( vmComponent );
+		Assert.assertTrue( this.processor.processMsgInstanceAdd( new MsgCmdInstanceAdd( graphs, vm )));
+		this.messagingClient.messagesForTheDm.clear();
+
+		Assert.assertFalse( this.processor.processMsgAgentRebind( new MsgCmdAgentRebind( "vm 1" )));
+		Assert.assertEquals( "~standby-1", this.agentData.getRootInstanceName());
+		Assert.assertEquals( 0, this.messagingClient.messagesForTheDm.size());
+	}
+}
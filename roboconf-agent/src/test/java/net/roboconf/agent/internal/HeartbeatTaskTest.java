@@ -19,6 +19,7 @@ package net.roboconf.agent.internal;
 import java.io.IOException;
 
 import junit.framework.Assert;
+import net.roboconf.agent.AgentData;
 import net.roboconf.agent.tests.TestAgentMessagingClient;
 import net.roboconf.messaging.messages.Message;
 import net.roboconf.messaging.messages.from_agent_to_dm.MsgNotifHeartbeat;
@@ -45,6 +46,26 @@ public class HeartbeatTaskTest {
 	}
 
 
+	@Test
+	public void testHeartbeat_followsAgentData() {
+
+		AgentData agentData = new AgentData();
+		agentData.setApplicationName( "app" );
+		agentData.setRootInstanceName( "root" );
+
+		TestAgentMessagingClient messagingClient = new TestAgentMessagingClient();
+		HeartbeatTask task = new HeartbeatTask( agentData, messagingClient );
+
+		task.run();
+		agentData.setRootInstanceName( "root 2" );
+		task.run();
+
+		Assert.assertEquals( 2, messagingClient.messagesForTheDm.size());
+		Assert.assertEquals( "root", ((MsgNotifHeartbeat) messagingClient.messagesForTheDm.get( 0 )).getRootInstanceName());
+		Assert.assertEquals( "root 2", ((MsgNotifHeartbeat) messagingClient.messagesForTheDm.get( 1 )).getRootInstanceName());
+	}
+
+
 	@Test
 	public void testHeartbeat_exception() {
 
@@ -0,0 +1,123 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.agent.internal;
+
+import java.util.Arrays;
+
+import junit.framework.Assert;
+import net.roboconf.core.model.helpers.InstanceHelpers;
+import net.roboconf.core.model.runtime.Component;
+import net.roboconf.core.model.runtime.Instance;
+import net.roboconf.core.model.runtime.Instance.InstanceStatus;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Vincent Zurczak - Linagora
+ */
+public class ImportsIndexTest {
+
+	private ImportsIndex index;
+	private Instance vm, server, app, db;
+
+
+	@Before
+	public void initialize() {
+
+		Component vmComponent = new Component( "vm" ).alias( "a VM" ).installerName( "iaas" );
+
+		Component serverComponent = new Component( "server" ).alias( "a server" ).installerName( "whatever" );
+		serverComponent.getImportedVariables().put( "database.ip", Boolean.FALSE );
+		serverComponent.getExportedVariables().put( "server.ip", null );
+
+		Component appComponent = new Component( "app" ).alias( "an application" ).installerName( "whatever" );
+		appComponent.getImportedVariables().put( "server.ip", Boolean.FALSE );
+
+		Component dbComponent = new Component( "database" ).alias( "a database" ).installerName( "whatever" );
+		dbComponent.getExportedVariables().put( "database.ip", null );
+
+		this.vm = new Instance( "vm" ).component( vmComponent );
+		this.server = new Instance( "server" ).component( serverComponent );
+		this.app = new Instance( "app" ).component( appComponent );
+		this.db = new Instance( "db" ).component( dbComponent );
+
+		InstanceHelpers.insertChild( this.vm, this.server );
+		InstanceHelpers.insertChild( this.server, this.app );
+		InstanceHelpers.insertChild( this.vm, this.db );
+
+		this.index = new ImportsIndex();
+		for( Instance i : InstanceHelpers.buildHierarchicalList( this.vm ))
+			this.index.addInstance( i );
+	}
+
+
+	@Test
+	public void testImportingInstances() {
+
+		Assert.assertEquals( Arrays.asList( this.server ), this.index.findImportingInstances( "database" ));
+		Assert.assertEquals( Arrays.asList( this.app ), this.index.findImportingInstances( "server" ));
+		Assert.assertEquals( 0, this.index.findImportingInstances( "app" ).size());
+		Assert.assertEquals( 0, this.index.findImportingInstances( "unknown" ).size());
+	}
+
+
+	@Test
+	public void testStartedExportingInstances() {
+
+		Assert.assertEquals( 0, this.index.findStartedExportingInstances( "database" ).size());
+
+		this.db.setStatus( InstanceStatus.DEPLOYED_STARTED );
+		this.index.statusChanged( this.db );
+		Assert.assertEquals( Arrays.asList( this.db ), this.index.findStartedExportingInstances( "database" ));
+		Assert.assertEquals( 0, this.index.findStartedExportingInstances( "server" ).size());
+
+		this.db.setStatus( InstanceStatus.STOPPING );
+		this.index.statusChanged( this.db );
+		Assert.assertEquals( 0, this.index.findStartedExportingInstances( "database" ).size());
+	}
+
+
+	@Test
+	public void testStartedInstancesAreIndexedWhenAdded() {
+
+		Instance otherDb = new Instance( "db 2" ).component( this.db.getComponent());
+		otherDb.setStatus( InstanceStatus.DEPLOYED_STARTED );
+		InstanceHelpers.insertChild( this.vm, otherDb );
+		this.index.addInstance( otherDb );
+
+		Assert.assertEquals( Arrays.asList( otherDb ), this.index.findStartedExportingInstances( "database" ));
+	}
+
+
+	@Test
+	public void testRemoveInstances() {
+
+		this.server.setStatus( InstanceStatus.DEPLOYED_STARTED );
+		this.index.statusChanged( this.server );
+		Assert.assertEquals( 1, this.index.findStartedExportingInstances( "server" ).size());
+
+		// Removing a parent removes its children
+		this.index.removeInstances( this.server );
+		Assert.assertEquals( 0, this.index.findImportingInstances( "database" ).size());
+		Assert.assertEquals( 0, this.index.findImportingInstances( "server" ).size());
+		Assert.assertEquals( 0, this.index.findStartedExportingInstances( "server" ).size());
+
+		this.index.removeInstances( this.vm );
+		Assert.assertEquals( 0, this.index.findImportingInstances( "database" ).size());
+	}
+}
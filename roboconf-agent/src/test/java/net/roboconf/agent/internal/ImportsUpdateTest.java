@@ -16,6 +16,13 @@
 
 package net.roboconf.agent.internal;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import junit.framework.Assert;
 import net.roboconf.agent.AgentData;
 import net.roboconf.agent.tests.TestAgentMessagingClient;
@@ -24,6 +31,9 @@ import net.roboconf.core.model.runtime.Component;
 import net.roboconf.core.model.runtime.Import;
 import net.roboconf.core.model.runtime.Instance;
 import net.roboconf.core.model.runtime.Instance.InstanceStatus;
+import net.roboconf.messaging.messages.from_agent_to_agent.MsgCmdImportAdd;
+import net.roboconf.messaging.messages.from_agent_to_agent.MsgCmdImportRemove;
+import net.roboconf.plugin.api.PluginException;
 import net.roboconf.plugin.logger.PluginLogger;
 
 import org.junit.Test;
@@ -57,19 +67,19 @@ public class ImportsUpdateTest {
 
 		// The cluster node does not know about another node
 		Assert.assertEquals( InstanceStatus.STARTING, i1.getStatus());
-		processor.updateStateFromImports( i1, new PluginLogger(), null, InstanceStatus.DEPLOYED_STARTED );
+		processor.updateStateFromImports( i1, new PluginLogger(), null, null, InstanceStatus.DEPLOYED_STARTED );
 		Assert.assertEquals( InstanceStatus.DEPLOYED_STARTED, i1.getStatus());
 
 		// The node is now aware of another node
 		ImportHelpers.addImport( i1, "cluster", new Import( i2 ));
 		i1.setStatus( InstanceStatus.STARTING );
-		processor.updateStateFromImports( i1, new PluginLogger(), null, InstanceStatus.DEPLOYED_STARTED );
+		processor.updateStateFromImports( i1, new PluginLogger(), null, null, InstanceStatus.DEPLOYED_STARTED );
 		Assert.assertEquals( InstanceStatus.DEPLOYED_STARTED, i1.getStatus());
-		processor.updateStateFromImports( i1, new PluginLogger(), null, InstanceStatus.DEPLOYED_STARTED );
+		processor.updateStateFromImports( i1, new PluginLogger(), null, null, InstanceStatus.DEPLOYED_STARTED );
 		Assert.assertEquals( InstanceStatus.DEPLOYED_STARTED, i1.getStatus());
 
 		i1.getImports().clear();
-		processor.updateStateFromImports( i1, new PluginLogger(), null, InstanceStatus.DEPLOYED_STARTED );
+		processor.updateStateFromImports( i1, new PluginLogger(), null, null, InstanceStatus.DEPLOYED_STARTED );
 		Assert.assertEquals( InstanceStatus.DEPLOYED_STARTED, i1.getStatus());
 	}
 
@@ -102,19 +112,165 @@ public class ImportsUpdateTest {
 
 		// The application server does not know about the database
 		Assert.assertEquals( InstanceStatus.STARTING, appServer.getStatus());
-		processor.updateStateFromImports( appServer, new PluginLogger(), null, InstanceStatus.DEPLOYED_STARTED );
+		processor.updateStateFromImports( appServer, new PluginLogger(), null, null, InstanceStatus.DEPLOYED_STARTED );
 		Assert.assertEquals( InstanceStatus.STARTING, appServer.getStatus());
 
 		// The application server is now aware of the database
 		ImportHelpers.addImport( appServer, "database", new Import( database ));
 		appServer.setStatus( InstanceStatus.STARTING );
-		processor.updateStateFromImports( appServer, new PluginLogger(), null, InstanceStatus.DEPLOYED_STARTED );
+		processor.updateStateFromImports( appServer, new PluginLogger(), null, null, InstanceStatus.DEPLOYED_STARTED );
 		Assert.assertEquals( InstanceStatus.DEPLOYED_STARTED, appServer.getStatus());
-		processor.updateStateFromImports( appServer, new PluginLogger(), null, InstanceStatus.DEPLOYED_STARTED );
+		processor.updateStateFromImports( appServer, new PluginLogger(), null, null, InstanceStatus.DEPLOYED_STARTED );
 		Assert.assertEquals( InstanceStatus.DEPLOYED_STARTED, appServer.getStatus());
 
 		appServer.getImports().clear();
-		processor.updateStateFromImports( appServer, new PluginLogger(), null, InstanceStatus.DEPLOYED_STARTED );
+		processor.updateStateFromImports( appServer, new PluginLogger(), null, null, InstanceStatus.DEPLOYED_STARTED );
 		Assert.assertEquals( InstanceStatus.STARTING, appServer.getStatus());
 	}
+
+
+	@Test( timeout = 10000 )
+	public void testBatchedUpdates() throws Exception {
+
+		RecordingPlugin plugin = new RecordingPlugin();
+		PluginManager pluginManager = new PluginManager();
+		Assert.assertTrue( pluginManager.registerPlugin( plugin ));
+
+		AgentMessageProcessor processor = new AgentMessageProcessor(
+				"my agent",
+				new AgentData(),
+				pluginManager,
+				new TestAgentMessagingClient(),
+				new LifeCycleScheduler( new LifeCycleSchedulerTest.DirectExecutor()));
+
+		Component lbComponent = new Component( "lb" ).alias( "a load balancer" ).installerName( plugin.getPluginName());
+		lbComponent.getImportedVariables().put( "worker.ip", Boolean.TRUE );
+		Instance lb = new Instance( "lb" ).component( lbComponent );
+		lb.setStatus( InstanceStatus.DEPLOYED_STARTED );
+
+		// Without delay, every change is applied immediately
+		Map<String,String> exports = new HashMap<String,String> ();
+		exports.put( "worker.ip", "192.168.1.10" );
+		processor.processMsgImportAdd( new MsgCmdImportAdd( "worker", "/vm 0/worker", exports ), lb );
+		Assert.assertEquals( 1, plugin.updateCount.get());
+
+		// With a delay, changes are batched
+		processor.setImportsUpdateDelay( 100 );
+		for( int i=1; i<4; i++ )
+			processor.processMsgImportAdd( new MsgCmdImportAdd( "worker", "/vm " + i + "/worker", exports ), lb );
+
+		processor.processMsgImportRemove( new MsgCmdImportRemove( "worker", "/vm 0/worker" ), lb );
+		processor.processMsgImportRemove( new MsgCmdImportRemove( "worker", "/vm 3/worker" ), lb );
+		Assert.assertEquals( 2, lb.getImports().get( "worker" ).size());
+
+		Batch batch = plugin.batches.take();
+		Assert.assertEquals( 2, batch.addedImports.size());
+		Assert.assertEquals( 2, batch.removedImports.size());
+		Assert.assertEquals( 1, plugin.updateCount.get());
+
+		// Changes are dropped if the instance was stopped in the meantime
+		processor.processMsgImportAdd( new MsgCmdImportAdd( "worker", "/vm 4/worker", exports ), lb );
+		lb.setStatus( InstanceStatus.DEPLOYED_STOPPED );
+		Thread.sleep( 300 );
+		Assert.assertEquals( 0, plugin.batches.size());
+		processor.stopProcessing();
+	}
+
+
+	@Test
+	public void testImportChanges_severalPrefixesForAnExporter() {
+
+		// One exporter reached through its component and one of its facets
+		ImportChangesBatcher.ImportChanges changes = new ImportChangesBatcher.ImportChanges();
+		changes.record( "server", new Import( "/vm/server" ), true );
+		changes.record( "facet", new Import( "/vm/server" ), true );
+		Assert.assertEquals( 2, changes.size());
+		Assert.assertEquals( 2, changes.getAddedImports().size());
+
+		// Only the last change of a same prefix is kept
+		changes.record( "facet", new Import( "/vm/server" ), false );
+		Assert.assertEquals( 2, changes.size());
+		Assert.assertEquals( 1, changes.getAddedImports().size());
+		Assert.assertEquals( 1, changes.getRemovedImports().size());
+	}
+
+
+	@Test( timeout = 10000 )
+	public void testBatchedUpdates_severalPrefixesForAnExporter() throws Exception {
+
+		RecordingPlugin plugin = new RecordingPlugin();
+		PluginManager pluginManager = new PluginManager();
+		Assert.assertTrue( pluginManager.registerPlugin( plugin ));
+
+		AgentMessageProcessor processor = new AgentMessageProcessor(
+				"my agent",
+				new AgentData(),
+				pluginManager,
+				new TestAgentMessagingClient(),
+				new LifeCycleScheduler( new LifeCycleSchedulerTest.DirectExecutor()));
+
+		Component lbComponent = new Component( "lb" ).alias( "a load balancer" ).installerName( plugin.getPluginName());
+		lbComponent.getImportedVariables().put( "worker.ip", Boolean.TRUE );
+		lbComponent.getImportedVariables().put( "web.ip", Boolean.TRUE );
+		Instance lb = new Instance( "lb" ).component( lbComponent );
+		lb.setStatus( InstanceStatus.DEPLOYED_STARTED );
+		processor.setImportsUpdateDelay( 100 );
+
+		// The same exporter is imported under its component and under a facet
+		Map<String,String> workerExports = new HashMap<String,String> ();
+		workerExports.put( "worker.ip", "192.168.1.10" );
+		processor.processMsgImportAdd( new MsgCmdImportAdd( "worker", "/vm/worker", workerExports ), lb );
+
+		Map<String,String> webExports = new HashMap<String,String> ();
+		webExports.put( "web.ip", "192.168.1.10" );
+		processor.processMsgImportAdd( new MsgCmdImportAdd( "web", "/vm/worker", webExports ), lb );
+
+		Batch batch = plugin.batches.take();
+		Assert.assertEquals( 2, batch.addedImports.size());
+		Assert.assertEquals( 0, batch.removedImports.size());
+		processor.stopProcessing();
+	}
+
+
+	/**
+	 * A plug-in that records the updates.
+	 */
+	private static final class RecordingPlugin extends PluginLogger {
+
+		final AtomicInteger updateCount = new AtomicInteger();
+		final BlockingQueue<Batch> batches = new LinkedBlockingQueue<Batch> ();
+
+
+		@Override
+		public String getPluginName() {
+			return "recording";
+		}
+
+
+		@Override
+		public void update( Instance instance, Import importChanged, InstanceStatus statusChanged ) throws PluginException {
+			this.updateCount.incrementAndGet();
+		}
+
+
+		@Override
+		public void updateImports( Instance instance, Collection<Import> addedImports, Collection<Import> removedImports )
+		throws PluginException {
+
+			this.batches.add( new Batch( addedImports, removedImports ));
+		}
+	}
+
+
+	/**
+	 * The changes passed to a batched update.
+	 */
+	private static final class Batch {
+		final Collection<Import> addedImports, removedImports;
+
+		Batch( Collection<Import> addedImports, Collection<Import> removedImports ) {
+			this.addedImports = addedImports;
+			this.removedImports = removedImports;
+		}
+	}
 }
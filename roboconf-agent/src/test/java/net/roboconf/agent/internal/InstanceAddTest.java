@@ -0,0 +1,224 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.agent.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import junit.framework.Assert;
+import net.roboconf.agent.AgentData;
+import net.roboconf.agent.tests.TestAgentMessagingClient;
+import net.roboconf.core.model.helpers.ComponentHelpers;
+import net.roboconf.core.model.helpers.InstanceHelpers;
+import net.roboconf.core.model.runtime.Component;
+import net.roboconf.core.model.runtime.Graphs;
+import net.roboconf.core.model.runtime.Instance;
+import net.roboconf.core.model.runtime.Instance.InstanceStatus;
+import net.roboconf.messaging.messages.Message;
+import net.roboconf.messaging.messages.MsgBatch;
+import net.roboconf.messaging.messages.from_agent_to_agent.MsgCmdImportAdd;
+import net.roboconf.messaging.messages.from_agent_to_agent.MsgCmdImportRequest;
+import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceAdd;
+import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceRemove;
+import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceRestore;
+import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceStart;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Vincent Zurczak - Linagora
+ */
+public class InstanceAddTest {
+
+	private Graphs graphs;
+	private Component vmComponent, serverComponent;
+	private AgentMessageProcessor processor;
+
+
+	@Before
+	public void initialize() {
+
+		this.vmComponent = new Component( "vm" ).alias( "a VM" ).installerName( "iaas" );
+		this.serverComponent = new Component( "server" ).alias( "a server" ).installerName( "whatever" );
+		ComponentHelpers.insertChild( this.vmComponent, this.serverComponent );
+
+		this.graphs = new Graphs();
+		this.graphs.getRootComponents().add( this.vmComponent );
+
+		this.processor = new AgentMessageProcessor(
+				"my agent",
+				new AgentData(),
+				new PluginManager(),
+				new TestAgentMessagingClient());
+	}
+
+
+	@Test
+	public void testRootAndChildren() throws Exception {
+
+		Instance vm = new Instance( "vm" ).component( this.vmComponent );
+		InstanceHelpers.insertChild( vm, new Instance( "server 1" ).component( this.serverComponent ));
+
+		// The root instance comes with the graph.
+		// Whatever its status on the DM, it is started on the agent.
+		vm.setStatus( InstanceStatus.NOT_DEPLOYED );
+		Assert.assertTrue( this.processor.processMsgInstanceAdd( new MsgCmdInstanceAdd( this.graphs, vm )));
+
+		// Children do not
+		Instance server2 = new Instance( "server 2" ).component( this.serverComponent );
+		server2.getOverriddenExports().put( "server.port", "8080" );
+		Assert.assertTrue( this.processor.processMsgInstanceAdd( new MsgCmdInstanceAdd( vm, server2 )));
+
+		// The instances were rebuilt from the cached graph
+		Instance localServer2 = InstanceHelpers.findInstanceByPath( this.processor.getRootInstance(), "/vm/server 2" );
+		Assert.assertNotNull( localServer2 );
+		Assert.assertSame( this.serverComponent, localServer2.getComponent());
+		Assert.assertEquals( "8080", localServer2.getOverriddenExports().get( "server.port" ));
+
+		Instance localVm = InstanceHelpers.findInstanceByPath( this.processor.getRootInstance(), "/vm" );
+		Assert.assertNotSame( vm, localVm );
+		Assert.assertSame( this.vmComponent, localVm.getComponent());
+		Assert.assertEquals( InstanceStatus.DEPLOYED_STARTED, localVm.getStatus());
+		Assert.assertEquals( InstanceStatus.NOT_DEPLOYED, localServer2.getStatus());
+
+		Instance localServer1 = InstanceHelpers.findInstanceByPath( this.processor.getRootInstance(), "/vm/server 1" );
+		Assert.assertNotNull( localServer1 );
+		Assert.assertEquals( InstanceStatus.NOT_DEPLOYED, localServer1.getStatus());
+	}
+
+
+	@Test
+	public void testBatch() throws Exception {
+
+		Instance vm = new Instance( "vm" ).component( this.vmComponent );
+		Instance server = new Instance( "server" ).component( this.serverComponent );
+
+		// Order matters: the child can only be added once the root is known
+		List<Message> messages = new ArrayList<Message> ();
+		messages.add( new MsgCmdInstanceAdd( this.graphs, vm ));
+		messages.add( new MsgCmdInstanceAdd( "/vm", server ));
+
+		this.processor.processMessage( new MsgBatch( messages ));
+		Assert.assertNotNull( InstanceHelpers.findInstanceByPath( this.processor.getRootInstance(), "/vm/server" ));
+	}
+
+
+	@Test
+	public void testInvalidChildren() throws Exception {
+
+		Instance vm = new Instance( "vm" ).component( this.vmComponent );
+		InstanceHelpers.insertChild( vm, new Instance( "server" ).component( this.serverComponent ));
+		Assert.assertTrue( this.processor.processMsgInstanceAdd( new MsgCmdInstanceAdd( this.graphs, vm )));
+
+		// Insertions are validated against the agent's model
+		Instance sameName = new Instance( "server" ).component( this.serverComponent );
+		Assert.assertFalse( this.processor.processMsgInstanceAdd( new MsgCmdInstanceAdd( vm, sameName )));
+
+		Instance invalidComponent = new Instance( "vm 2" ).component( this.vmComponent );
+		Assert.assertFalse( this.processor.processMsgInstanceAdd( new MsgCmdInstanceAdd( vm, invalidComponent )));
+		Assert.assertNull( InstanceHelpers.findInstanceByPath( this.processor.getRootInstance(), "/vm/vm 2" ));
+		Assert.assertEquals( 1, this.processor.getRootInstance().getChildren().size());
+
+		Instance server2 = new Instance( "server 2" ).component( this.serverComponent );
+		Assert.assertTrue( this.processor.processMsgInstanceAdd( new MsgCmdInstanceAdd( vm, server2 )));
+		Assert.assertEquals( 2, this.processor.getRootInstance().getChildren().size());
+	}
+
+
+	@Test
+	public void testNoGraph() throws Exception {
+
+		Instance vm = new Instance( "vm" ).component( this.vmComponent );
+		Assert.assertFalse( this.processor.processMsgInstanceAdd( new MsgCmdInstanceAdd((String) null, vm )));
+		Assert.assertNull( InstanceHelpers.findInstanceByPath( this.processor.getRootInstance(), "/vm" ));
+	}
+
+
+	@Test
+	public void testUnknownComponent() throws Exception {
+
+		Instance vm = new Instance( "vm" ).component( this.vmComponent );
+		Assert.assertTrue( this.processor.processMsgInstanceAdd( new MsgCmdInstanceAdd( this.graphs, vm )));
+
+		Instance unknown = new Instance( "unknown" ).component( new Component( "not in the graph" ));
+		Assert.assertFalse( this.processor.processMsgInstanceAdd( new MsgCmdInstanceAdd( vm, unknown )));
+		Assert.assertNull( InstanceHelpers.findInstanceByPath( this.processor.getRootInstance(), "/vm/unknown" ));
+	}
+
+
+	@Test
+	public void testFindModifiedInstancePath() throws Exception {
+
+		Instance vm = new Instance( "vm" ).component( this.vmComponent );
+		Instance server = new Instance( "server" ).component( this.serverComponent );
+
+		Assert.assertNull( this.processor.findModifiedInstancePath( new MsgCmdInstanceAdd( this.graphs, vm )));
+		Assert.assertEquals( "/vm/server", this.processor.findModifiedInstancePath( new MsgCmdInstanceAdd( "/vm", server )));
+		Assert.assertEquals( "/vm/server", this.processor.findModifiedInstancePath( new MsgCmdInstanceRemove( "/vm/server" )));
+		Assert.assertNull( this.processor.findModifiedInstancePath( new MsgCmdInstanceRestore()));
+	}
+
+
+	@Test
+	public void testFindInstancesToProcess() throws Exception {
+
+		this.serverComponent.getImportedVariables().put( "database.ip", Boolean.TRUE );
+		Instance vm = new Instance( "vm" ).component( this.vmComponent );
+		InstanceHelpers.insertChild( vm, new Instance( "server 1" ).component( this.serverComponent ));
+		Assert.assertTrue( this.processor.processMsgInstanceAdd( new MsgCmdInstanceAdd( this.graphs, vm )));
+		Assert.assertTrue( this.processor.processMsgInstanceAdd( new MsgCmdInstanceAdd( "/vm", new Instance( "server 2" ).component( this.serverComponent ))));
+
+		// Imports are only processed for the instances that import the variables
+		MsgCmdImportAdd importAdd = new MsgCmdImportAdd( "database", "/vm 2/db", new HashMap<String,String> ());
+		Assert.assertEquals( 2, this.processor.findInstancesToProcess( importAdd ).size());
+		Assert.assertEquals( 0, this.processor.findInstancesToProcess( new MsgCmdImportAdd( "other", "/vm 2/other", new HashMap<String,String> ())).size());
+		Assert.assertEquals( 3, this.processor.findInstancesToProcess( new MsgCmdInstanceRestore()).size());
+
+		// The root instance is started, but it does not export anything
+		Assert.assertEquals( 0, this.processor.findInstancesToProcess( new MsgCmdImportRequest( "vm" )).size());
+
+		// Removed instances are not processed anymore
+		Assert.assertTrue( this.processor.processMsgInstanceRemove( new MsgCmdInstanceRemove( "/vm/server 2" )));
+		List<Instance> instances = this.processor.findInstancesToProcess( importAdd );
+		Assert.assertEquals( 1, instances.size());
+		Assert.assertEquals( "server 1", instances.get( 0 ).getName());
+	}
+
+
+	@Test
+	public void testLifeCycleMessagesAreScheduled() throws Exception {
+
+		this.serverComponent.setInstallerName( "logger" );
+		AgentMessageProcessor directProcessor = new AgentMessageProcessor(
+				"my agent",
+				new AgentData(),
+				new PluginManager(),
+				new TestAgentMessagingClient(),
+				new LifeCycleScheduler( new LifeCycleSchedulerTest.DirectExecutor()));
+
+		Instance vm = new Instance( "vm" ).component( this.vmComponent );
+		InstanceHelpers.insertChild( vm, new Instance( "server" ).component( this.serverComponent ));
+		directProcessor.processMessage( new MsgCmdInstanceAdd( this.graphs, vm ));
+
+		Instance localServer = InstanceHelpers.findInstanceByPath( directProcessor.getRootInstance(), "/vm/server" );
+		localServer.setStatus( InstanceStatus.DEPLOYED_STOPPED );
+		directProcessor.processMessage( new MsgCmdInstanceStart( "/vm/server" ));
+		Assert.assertEquals( InstanceStatus.DEPLOYED_STARTED, localServer.getStatus());
+	}
+}
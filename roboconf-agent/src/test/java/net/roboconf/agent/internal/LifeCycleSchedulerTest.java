@@ -0,0 +1,332 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.agent.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Vincent Zurczak - Linagora
+ */
+public class LifeCycleSchedulerTest {
+
+	private LifeCycleScheduler scheduler;
+	private CountDownLatch blocker;
+	private List<String> executedPaths;
+
+
+	@Before
+	public void initialize() {
+		this.scheduler = new LifeCycleScheduler( "test" );
+		this.blocker = new CountDownLatch( 1 );
+		this.executedPaths = Collections.synchronizedList( new ArrayList<String> ());
+	}
+
+
+	@After
+	public void shutdown() {
+		this.blocker.countDown();
+		this.scheduler.shutdown();
+	}
+
+
+	@Test
+	public void testAreRelated() {
+
+		Assert.assertTrue( LifeCycleScheduler.areRelated( "/vm", "/vm" ));
+		Assert.assertTrue( LifeCycleScheduler.areRelated( "/vm", "/vm/server" ));
+		Assert.assertTrue( LifeCycleScheduler.areRelated( "/vm/server/app", "/vm" ));
+		Assert.assertTrue( LifeCycleScheduler.areRelated( null, "/vm" ));
+		Assert.assertTrue( LifeCycleScheduler.areRelated( "/vm", null ));
+
+		Assert.assertFalse( LifeCycleScheduler.areRelated( "/vm/server", "/vm/server 2" ));
+		Assert.assertFalse( LifeCycleScheduler.areRelated( "/vm/server", "/vm/other" ));
+		Assert.assertFalse( LifeCycleScheduler.areRelated( "/vm 1", "/vm 2/server" ));
+	}
+
+
+	@Test( timeout = 10000 )
+	public void testUnrelatedOperationsRunConcurrently() throws Exception {
+
+		this.scheduler.submit( "/vm/server 1", new BlockingOperation( "/vm/server 1" ));
+		this.scheduler.submit( "/vm/server 2", new RecordingOperation( "/vm/server 2" ));
+
+		// The second operation completes while the first one is still running
+		this.scheduler.waitForRelatedOperations( "/vm/server 2" );
+		Assert.assertEquals( Collections.singletonList( "/vm/server 2" ), this.executedPaths );
+		Assert.assertEquals( 1, this.scheduler.getOperationsCount());
+
+		this.blocker.countDown();
+		this.scheduler.waitForRelatedOperations( null );
+		Assert.assertEquals( 2, this.executedPaths.size());
+		Assert.assertEquals( 0, this.scheduler.getOperationsCount());
+	}
+
+
+	@Test( timeout = 10000 )
+	public void testRelatedOperationsRunInOrder() throws Exception {
+
+		this.scheduler.submit( "/vm/server", new BlockingOperation( "/vm/server" ));
+		this.scheduler.submit( "/vm/server/app", new RecordingOperation( "/vm/server/app" ));
+		this.scheduler.submit( "/vm/server", new RecordingOperation( "/vm/server" ));
+		this.scheduler.submit( "/vm/other", new RecordingOperation( "/vm/other" ));
+
+		// Only the unrelated operation could run
+		this.scheduler.waitForRelatedOperations( "/vm/other" );
+		Assert.assertEquals( Collections.singletonList( "/vm/other" ), this.executedPaths );
+		Assert.assertEquals( 3, this.scheduler.getOperationsCount());
+
+		// Related operations run in the order they were submitted
+		this.blocker.countDown();
+		this.scheduler.waitForRelatedOperations( null );
+
+		List<String> expected = new ArrayList<String> ();
+		expected.add( "/vm/other" );
+		expected.add( "/vm/server" );
+		expected.add( "/vm/server/app" );
+		expected.add( "/vm/server" );
+		Assert.assertEquals( expected, this.executedPaths );
+	}
+
+
+	@Test( timeout = 10000 )
+	public void testOperationOnAncestorWaitsForDescendants() throws Exception {
+
+		this.scheduler.submit( "/vm/server/app", new BlockingOperation( "/vm/server/app" ));
+		this.scheduler.submit( "/vm/server", new RecordingOperation( "/vm/server" ));
+		this.scheduler.submit( "/vm/server 2", new RecordingOperation( "/vm/server 2" ));
+
+		this.scheduler.waitForRelatedOperations( "/vm/server 2" );
+		Assert.assertEquals( Collections.singletonList( "/vm/server 2" ), this.executedPaths );
+
+		this.blocker.countDown();
+		this.scheduler.waitForRelatedOperations( "/vm/server" );
+		Assert.assertEquals( "/vm/server", this.executedPaths.get( 2 ));
+	}
+
+
+	@Test
+	public void testFindParentPath() {
+
+		Assert.assertNull( LifeCycleScheduler.findParentPath( "/vm" ));
+		Assert.assertEquals( "/vm", LifeCycleScheduler.findParentPath( "/vm/server" ));
+		Assert.assertEquals( "/vm/server", LifeCycleScheduler.findParentPath( "/vm/server/app" ));
+	}
+
+
+	@Test( timeout = 30000 )
+	public void testManyOperations() throws Exception {
+
+		final String[] paths = {
+			"/vm", "/vm/server 1", "/vm/server 1/app 1", "/vm/server 1/app 2",
+			"/vm/server 2", "/vm/server 2/app", null
+		};
+
+		// Every operation checks related operations submitted before it have completed
+		final int count = 500;
+		final String[] submittedPaths = new String[ count ];
+		final boolean[] completed = new boolean[ count ];
+		final List<String> errors = Collections.synchronizedList( new ArrayList<String> ());
+
+		Random random = new Random( 7 );
+		for( int i=0; i<count; i++ ) {
+			final int index = i;
+			int pathIndex = random.nextInt( paths.length * 4 );
+			submittedPaths[ i ] = pathIndex < paths.length ? paths[ pathIndex ] : paths[ pathIndex % ( paths.length - 1 )];
+
+			this.scheduler.submit( submittedPaths[ i ], new Runnable() {
+				@Override
+				public void run() {
+
+					synchronized( completed ) {
+						for( int j=0; j<index; j++ ) {
+							if( ! completed[ j ] && LifeCycleScheduler.areRelated( submittedPaths[ j ], submittedPaths[ index ]))
+								errors.add( "Operation " + index + " started before operation " + j + "." );
+						}
+					}
+
+					Thread.yield();
+					synchronized( completed ) {
+						completed[ index ] = true;
+					}
+				}
+			});
+		}
+
+		this.scheduler.waitForRelatedOperations( null );
+		Assert.assertEquals( 0, this.scheduler.getOperationsCount());
+		Assert.assertEquals( Collections.emptyList(), errors );
+		for( boolean b : completed )
+			Assert.assertTrue( b );
+	}
+
+
+	@Test( timeout = 10000 )
+	public void testOperationWithoutPathIsExclusive() throws Exception {
+
+		this.scheduler.submit( "/vm/server", new BlockingOperation( "/vm/server" ));
+		this.scheduler.submit( null, new RecordingOperation( "all" ));
+		this.scheduler.submit( "/vm/other", new RecordingOperation( "/vm/other" ));
+
+		Thread.sleep( 200 );
+		Assert.assertEquals( 0, this.executedPaths.size());
+
+		this.blocker.countDown();
+		this.scheduler.waitForRelatedOperations( null );
+
+		List<String> expected = new ArrayList<String> ();
+		expected.add( "/vm/server" );
+		expected.add( "all" );
+		expected.add( "/vm/other" );
+		Assert.assertEquals( expected, this.executedPaths );
+	}
+
+
+	@Test( timeout = 10000 )
+	public void testFaultyOperationDoesNotBlockOthers() throws Exception {
+
+		this.scheduler.submit( "/vm", new Runnable() {
+			@Override
+			public void run() {
+				throw new IllegalStateException( "for test" );
+			}
+		});
+
+		this.scheduler.submit( "/vm", new RecordingOperation( "/vm" ));
+		this.scheduler.waitForRelatedOperations( "/vm" );
+		Assert.assertEquals( Collections.singletonList( "/vm" ), this.executedPaths );
+	}
+
+
+	@Test( timeout = 10000 )
+	public void testShutdown() throws Exception {
+
+		this.scheduler.submit( "/vm", new BlockingOperation( "/vm" ));
+		this.scheduler.submit( "/vm", new RecordingOperation( "/vm" ));
+		this.scheduler.shutdown();
+
+		Assert.assertEquals( 0, this.scheduler.getOperationsCount());
+		this.blocker.countDown();
+		Thread.sleep( 200 );
+		Assert.assertEquals( Collections.singletonList( "/vm" ), this.executedPaths );
+	}
+
+
+	@Test( timeout = 10000 )
+	public void testDirectExecutor() throws Exception {
+
+		LifeCycleScheduler directScheduler = new LifeCycleScheduler( new DirectExecutor());
+		directScheduler.submit( "/vm", new RecordingOperation( "/vm" ));
+		directScheduler.submit( "/vm/server", new RecordingOperation( "/vm/server" ));
+
+		Assert.assertEquals( 2, this.executedPaths.size());
+		Assert.assertEquals( 0, directScheduler.getOperationsCount());
+	}
+
+
+	@Test( timeout = 10000 )
+	public void testSharedExecutor() throws Exception {
+
+		ExecutorService sharedExecutor = Executors.newFixedThreadPool( 2 );
+		try {
+			LifeCycleScheduler scheduler1 = new LifeCycleScheduler( sharedExecutor );
+			LifeCycleScheduler scheduler2 = new LifeCycleScheduler( sharedExecutor );
+
+			scheduler1.submit( "/vm", new RecordingOperation( "/vm" ));
+			scheduler2.submit( "/vm", new RecordingOperation( "/vm" ));
+			scheduler1.waitForRelatedOperations( null );
+			scheduler2.waitForRelatedOperations( null );
+			Assert.assertEquals( 2, this.executedPaths.size());
+
+			// Stopping an agent must not stop the other agents' operations
+			scheduler1.shutdown();
+			Assert.assertFalse( sharedExecutor.isShutdown());
+
+			scheduler2.submit( "/vm/server", new RecordingOperation( "/vm/server" ));
+			scheduler2.waitForRelatedOperations( null );
+			Assert.assertEquals( 3, this.executedPaths.size());
+			scheduler2.shutdown();
+
+		} finally {
+			sharedExecutor.shutdownNow();
+		}
+	}
+
+
+	/**
+	 * An executor that runs tasks in the caller's thread.
+	 */
+	static final class DirectExecutor implements Executor {
+
+		@Override
+		public void execute( Runnable command ) {
+			command.run();
+		}
+	}
+
+
+	/**
+	 * An operation that records its path.
+	 */
+	private class RecordingOperation implements Runnable {
+		final String path;
+
+		RecordingOperation( String path ) {
+			this.path = path;
+		}
+
+		@Override
+		public void run() {
+			LifeCycleSchedulerTest.this.executedPaths.add( this.path );
+		}
+	}
+
+
+	/**
+	 * An operation that records its path once the blocker is released.
+	 */
+	private class BlockingOperation extends RecordingOperation {
+
+		BlockingOperation( String path ) {
+			super( path );
+		}
+
+		@Override
+		public void run() {
+			try {
+				LifeCycleSchedulerTest.this.blocker.await( 5, TimeUnit.SECONDS );
+				super.run();
+
+			} catch( InterruptedException e ) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
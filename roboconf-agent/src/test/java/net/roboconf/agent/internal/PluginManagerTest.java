@@ -16,6 +16,11 @@
 
 package net.roboconf.agent.internal;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
 import java.util.logging.Logger;
 
 import junit.framework.Assert;
@@ -73,7 +78,9 @@ public class PluginManagerTest {
 		Component comp = new Component( "comp" ).alias( "alias" ).installerName( "iaas" );
 		Instance instance = new Instance( "inst" ).component( comp );
 
-		PluginManager.initializePluginForInstance( instance, ExecutionLevel.LOG );
+		PluginManager pm = new PluginManager();
+		pm.setExecutionLevel( ExecutionLevel.LOG );
+		pm.initializePluginForInstance( instance );
 	}
 
 
@@ -85,7 +92,149 @@ public class PluginManagerTest {
 		Instance childInstance = new Instance( "inst child" ).component( comp );
 		InstanceHelpers.insertChild( parentInstance, childInstance );
 
-		PluginManager.initializePluginForInstance( parentInstance, ExecutionLevel.LOG );
+		PluginManager pm = new PluginManager();
+		pm.setExecutionLevel( ExecutionLevel.LOG );
+		pm.initializePluginForInstance( parentInstance );
 		// No error should occur
 	}
+
+
+	@Test
+	public void testFindPlugin_sameInstance() {
+
+		Component comp = new Component( "comp" ).alias( "alias" ).installerName( "bash" );
+		Instance instance1 = new Instance( "inst 1" ).component( comp );
+		Instance instance2 = new Instance( "inst 2" ).component( comp );
+
+		PluginManager pm = new PluginManager();
+		PluginInterface pi = pm.findPlugin( instance1, Logger.getAnonymousLogger());
+		Assert.assertNotNull( pi );
+		Assert.assertSame( pi, pm.findPlugin( instance1, Logger.getAnonymousLogger()));
+		Assert.assertSame( pi, pm.findPlugin( instance2, Logger.getAnonymousLogger()));
+
+		// No installer
+		comp.setInstallerName( null );
+		Assert.assertNull( pm.findPlugin( instance1, Logger.getAnonymousLogger()));
+	}
+
+
+	@Test
+	public void testRegisterPlugin() {
+
+		Component comp = new Component( "comp" ).alias( "alias" ).installerName( "custom" );
+		Instance instance = new Instance( "inst" ).component( comp );
+
+		PluginManager pm = new PluginManager();
+		int count = pm.getPlugins().size();
+		Assert.assertNull( pm.findPlugin( instance, Logger.getAnonymousLogger()));
+
+		// A new installer
+		CustomPlugin customPlugin = new CustomPlugin( "Custom" );
+		Assert.assertTrue( pm.registerPlugin( customPlugin ));
+		Assert.assertSame( customPlugin, pm.findPlugin( instance, Logger.getAnonymousLogger()));
+		Assert.assertEquals( count + 1, pm.getPlugins().size());
+
+		// Installers cannot be replaced
+		Assert.assertFalse( pm.registerPlugin( new CustomPlugin( "custom" )));
+		Assert.assertFalse( pm.registerPlugin( new CustomPlugin( "bash" )));
+		Assert.assertSame( customPlugin, pm.findPlugin( instance, Logger.getAnonymousLogger()));
+		Assert.assertEquals( count + 1, pm.getPlugins().size());
+	}
+
+
+	@Test
+	public void testRegisterPlugins_invalidPluginIsSkipped() {
+
+		final List<Object> items = new ArrayList<Object> ();
+		items.add( new CustomPlugin( "custom1" ));
+		items.add( new ServiceConfigurationError( "for test" ));
+		items.add( new CustomPlugin( "custom2" ));
+
+		PluginManager pm = new PluginManager();
+		int count = pm.getPlugins().size();
+		pm.registerPlugins( new Iterator<PluginInterface>() {
+			private int index = 0;
+
+			@Override
+			public boolean hasNext() {
+				return this.index < items.size();
+			}
+
+			@Override
+			public PluginInterface next() {
+				Object o = items.get( this.index ++ );
+				if( o instanceof Error )
+					throw (Error) o;
+
+				return (PluginInterface) o;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		});
+
+		Assert.assertEquals( count + 2, pm.getPlugins().size());
+	}
+
+
+	@Test
+	public void testConfigurationIsPropagated() {
+
+		PluginManager pm = new PluginManager();
+		CustomPlugin customPlugin = new CustomPlugin( "custom" );
+		pm.setExecutionLevel( ExecutionLevel.LOG );
+		pm.setAgentName( "Agent vm" );
+		pm.registerPlugin( customPlugin );
+
+		Assert.assertEquals( ExecutionLevel.LOG, customPlugin.executionLevel );
+		Assert.assertEquals( "Agent vm", customPlugin.agentName );
+
+		File dumpDirectory = new File( "whatever" );
+		pm.setDumpDirectory( dumpDirectory );
+		pm.setExecutionLevel( ExecutionLevel.GENERATE_FILES );
+		pm.setAgentName( "Agent vm 2" );
+
+		Assert.assertEquals( ExecutionLevel.GENERATE_FILES, customPlugin.executionLevel );
+		Assert.assertEquals( "Agent vm 2", customPlugin.agentName );
+		Assert.assertEquals( dumpDirectory, customPlugin.dumpDirectory );
+	}
+
+
+	/**
+	 * A plug-in that only stores its configuration.
+	 */
+	private static final class CustomPlugin extends PluginLogger {
+
+		final String name;
+		ExecutionLevel executionLevel;
+		String agentName;
+		File dumpDirectory;
+
+
+		CustomPlugin( String name ) {
+			this.name = name;
+		}
+
+		@Override
+		public String getPluginName() {
+			return this.name;
+		}
+
+		@Override
+		public void setExecutionLevel( ExecutionLevel executionLevel ) {
+			this.executionLevel = executionLevel;
+		}
+
+		@Override
+		public void setAgentName( String agentName ) {
+			this.agentName = agentName;
+		}
+
+		@Override
+		public void setDumpDirectory( File dumpDirectory ) {
+			this.dumpDirectory = dumpDirectory;
+		}
+	}
 }
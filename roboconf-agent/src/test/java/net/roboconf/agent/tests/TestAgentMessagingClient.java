@@ -31,6 +31,7 @@ import net.roboconf.messaging.messages.Message;
 public class TestAgentMessagingClient implements IAgentClient {
 
 	public final List<Message> messagesForTheDm = new ArrayList<Message> ();
+	public String rootInstanceName;
 
 
 
@@ -62,7 +63,7 @@ public class TestAgentMessagingClient implements IAgentClient {
 
 	@Override
 	public void setRootInstanceName( String rootInstanceName ) {
-		// nothing
+		this.rootInstanceName = rootInstanceName;
 	}
 
 	@Override
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.roboconf.core.model.helpers.ComponentHelpers;
+import net.roboconf.core.model.runtime.Component;
+import net.roboconf.core.model.runtime.Graphs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the component helpers on the graph(s) of an application.
+ *
+ * @author Vincent Zurczak - Linagora
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Fork( 1 )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 5 )
+public class ComponentHelpersBenchmark {
+
+	@Param
+	public ModelShape shape;
+
+	private Graphs graphs;
+	private List<Component> allComponents;
+
+
+	@Setup
+	public void buildGraphs() {
+		this.graphs = this.shape.buildGraphs();
+		this.allComponents = ComponentHelpers.findAllComponents( this.graphs );
+	}
+
+
+	@Benchmark
+	public int findAllComponents() {
+		return ComponentHelpers.findAllComponents( this.graphs ).size();
+	}
+
+
+	@Benchmark
+	public int findComponent() {
+
+		int result = 0;
+		for( Component component : this.allComponents ) {
+			if( ComponentHelpers.findComponent( this.graphs, component.getName()) != null )
+				result ++;
+		}
+
+		return result;
+	}
+
+
+	@Benchmark
+	public int searchForLoop() {
+
+		int result = 0;
+		for( Component component : this.graphs.getRootComponents()) {
+			if( ComponentHelpers.searchForLoop( component ) == null )
+				result ++;
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.roboconf.core.model.helpers.InstanceHelpers;
+import net.roboconf.core.model.runtime.Application;
+import net.roboconf.core.model.runtime.Instance;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the instance helpers on the whole model of an application.
+ * <p>
+ * Every benchmark processes all the instances of the application, so that
+ * costs that grow faster than the model are visible when comparing shapes.
+ * </p>
+ *
+ * @author Vincent Zurczak - Linagora
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Fork( 1 )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 5 )
+public class InstanceHelpersBenchmark {
+
+	@Param
+	public ModelShape shape;
+
+	private Application application;
+	private List<Instance> allInstances;
+	private List<String> allPaths;
+	private List<Instance> allRoots;
+
+
+	@Setup
+	public void buildModel() {
+
+		this.application = this.shape.buildApplication();
+		this.allInstances = InstanceHelpers.getAllInstances( this.application );
+		this.allPaths = new ArrayList<String> ();
+		this.allRoots = new ArrayList<Instance> ();
+		for( Instance inst : this.allInstances ) {
+			this.allPaths.add( InstanceHelpers.computeInstancePath( inst ));
+			this.allRoots.add( InstanceHelpers.findRootInstance( inst ));
+		}
+	}
+
+
+	@Benchmark
+	public int buildHierarchicalList() {
+
+		int result = 0;
+		for( Instance root : this.application.getRootInstances())
+			result += InstanceHelpers.buildHierarchicalList( root ).size();
+
+		return result;
+	}
+
+
+	@Benchmark
+	public int getAllInstances() {
+		return InstanceHelpers.getAllInstances( this.application ).size();
+	}
+
+
+	@Benchmark
+	public int computeInstancePath() {
+
+		int result = 0;
+		for( Instance inst : this.allInstances )
+			result += InstanceHelpers.computeInstancePath( inst ).length();
+
+		return result;
+	}
+
+
+	@Benchmark
+	public int findInstanceByPathInApplication() {
+
+		// The application's index is filled during the first iteration
+		int result = 0;
+		for( String path : this.allPaths ) {
+			if( InstanceHelpers.findInstanceByPath( this.application, path ) != null )
+				result ++;
+		}
+
+		return result;
+	}
+
+
+	@Benchmark
+	public int findInstanceByPathInRootInstance() {
+
+		// No index is kept between invocations
+		int result = 0;
+		for( int i=0; i<this.allPaths.size(); i++ ) {
+			if( InstanceHelpers.findInstanceByPath( this.allRoots.get( i ), this.allPaths.get( i )) != null )
+				result ++;
+		}
+
+		return result;
+	}
+}
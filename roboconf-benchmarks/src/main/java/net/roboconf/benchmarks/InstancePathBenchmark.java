@@ -0,0 +1,154 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.roboconf.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import net.roboconf.core.model.helpers.InstanceHelpers;
+import net.roboconf.core.model.runtime.Instance;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the cost of instance paths on a tree of about 10,000 instances.
+ * <p>
+ * Benchmarks suffixed with "computedPaths" walk to the root instance every time,
+ * like {@link InstanceHelpers#computeInstancePath(Instance)} used to do. Others rely
+ * on the paths cached by instances.
+ * </p>
+ *
+ * @author Vincent Zurczak - Linagora
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+public class InstancePathBenchmark {
+
+	// 10 root instances, 10 children each, 100 grand-children each
+	static final int ROOTS = 10, CHILDREN = 10, GRAND_CHILDREN = 100;
+
+	private List<Instance> allInstances;
+
+
+	@Setup
+	public void buildTree() {
+		this.allInstances = new ArrayList<Instance> ();
+		for( Instance root : buildRootInstances())
+			this.allInstances.addAll( InstanceHelpers.buildHierarchicalList( root ));
+	}
+
+
+	@Benchmark
+	public int buildAndHashTreeCachedPaths() {
+
+		int result = 0;
+		for( Instance root : buildRootInstances()) {
+			for( Instance inst : InstanceHelpers.buildHierarchicalList( root ))
+				result += inst.hashCode();
+		}
+
+		return result;
+	}
+
+
+	@Benchmark
+	public int buildAndHashTreeComputedPaths() {
+
+		int result = 0;
+		for( Instance root : buildRootInstances()) {
+			for( Instance inst : InstanceHelpers.buildHierarchicalList( root ))
+				result += computePath( inst ).hashCode();
+		}
+
+		return result;
+	}
+
+
+	@Benchmark
+	public int hashTreeCachedPaths() {
+
+		Set<Instance> set = new HashSet<Instance> ( this.allInstances.size() * 2 );
+		set.addAll( this.allInstances );
+		return set.size();
+	}
+
+
+	@Benchmark
+	public int hashTreeComputedPaths() {
+
+		Set<String> set = new HashSet<String> ( this.allInstances.size() * 2 );
+		for( Instance inst : this.allInstances )
+			set.add( computePath( inst ));
+
+		return set.size();
+	}
+
+
+	/**
+	 * Builds the instance tree.
+	 * @return a non-null list of root instances
+	 */
+	static List<Instance> buildRootInstances() {
+
+		List<Instance> result = new ArrayList<Instance> ();
+		for( int i=0; i<ROOTS; i++ ) {
+			Instance root = new Instance( "vm-" + i );
+			result.add( root );
+
+			for( int j=0; j<CHILDREN; j++ ) {
+				Instance child = new Instance( "server-" + j );
+				InstanceHelpers.insertChild( root, child );
+
+				for( int k=0; k<GRAND_CHILDREN; k++ )
+					InstanceHelpers.insertChild( child, new Instance( "app-" + k ));
+			}
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Computes an instance path without any cache (the former implementation).
+	 * @param inst an instance (not null)
+	 * @return a non-null string
+	 */
+	static String computePath( Instance inst ) {
+
+		StringBuilder sb = new StringBuilder();
+		for( Instance current = inst; current != null; current = current.getParent()) {
+			StringBuilder currentSb = new StringBuilder( "/" );
+			if( current.getName() != null && current.getName().trim().length() > 0 )
+				currentSb.append( current.getName());
+
+			sb.insert( 0, currentSb.toString());
+		}
+
+		return sb.toString();
+	}
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import net.roboconf.core.internal.model.parsing.FileDefinitionParser;
+import net.roboconf.core.model.converters.FromInstanceDefinition;
+import net.roboconf.core.model.parsing.FileDefinition;
+import net.roboconf.core.model.runtime.Application;
+import net.roboconf.core.model.runtime.Graphs;
+import net.roboconf.core.model.validators.RuntimeModelValidator;
+import net.roboconf.core.utils.Utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the conversion of instance definitions and the validation of a whole application.
+ * <p>
+ * Instance definitions are parsed during the setup. Only their conversion into
+ * instances is measured.
+ * </p>
+ *
+ * @author Vincent Zurczak - Linagora
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Fork( 1 )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 5 )
+public class ModelBuildingBenchmark {
+
+	@Param
+	public ModelShape shape;
+
+	private Application application;
+	private Graphs graphs;
+	private FileDefinition instancesDefinition;
+
+
+	@Setup
+	public void buildModel() throws IOException {
+
+		this.application = this.shape.buildApplication();
+		this.graphs = this.shape.buildGraphs();
+
+		File f = File.createTempFile( "roboconf-benchmark-", ".instances" );
+		try {
+			Utils.copyStream( new ByteArrayInputStream( this.shape.buildInstancesDefinition().getBytes( "UTF-8" )), f );
+			this.instancesDefinition = new FileDefinitionParser( f, true ).read();
+
+		} finally {
+			Utils.deleteFilesRecursively( f );
+		}
+	}
+
+
+	@Benchmark
+	public int buildInstances() {
+		return new FromInstanceDefinition( this.instancesDefinition ).buildInstances( this.graphs ).size();
+	}
+
+
+	@Benchmark
+	public int validateApplication() {
+		return RuntimeModelValidator.validate( this.application ).size();
+	}
+}
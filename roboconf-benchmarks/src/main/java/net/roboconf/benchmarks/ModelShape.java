@@ -0,0 +1,161 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.roboconf.core.model.helpers.ComponentHelpers;
+import net.roboconf.core.model.helpers.InstanceHelpers;
+import net.roboconf.core.model.runtime.Application;
+import net.roboconf.core.model.runtime.Component;
+import net.roboconf.core.model.runtime.Graphs;
+import net.roboconf.core.model.runtime.Instance;
+
+/**
+ * The shapes of the models used by the benchmarks of roboconf-core.
+ * <p>
+ * A shape is made up of levels of components. Components form trees: the i-th component
+ * of a level is a child of the (i modulo n)-th component of the previous level, where n is
+ * the number of components of the previous level. Every instance has the same number
+ * of children, whose components are taken in turn among the children of its component.
+ * </p>
+ * <p>
+ * All the shapes contain a few thousands of instances, so that results remain comparable.
+ * </p>
+ *
+ * @author Vincent Zurczak - Linagora
+ */
+public enum ModelShape {
+
+	/**
+	 * 100 root instances with 100 children each (10,100 instances, 2 components).
+	 */
+	WIDE( new int[] { 1, 1 }, 100, 100 ),
+
+	/**
+	 * 100 chains of 30 instances (3,000 instances, 30 components).
+	 */
+	DEEP( new int[] { 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1 }, 100, 1 ),
+
+	/**
+	 * 3 levels of 10, 100 and 1,000 components, with one instance per component (1,110 instances).
+	 */
+	MANY_COMPONENTS( new int[] { 10, 100, 1000 }, 10, 10 );
+
+
+	private final int[] componentsPerLevel;
+	private final int rootInstances, childrenPerInstance;
+
+
+	/**
+	 * Constructor.
+	 * @param componentsPerLevel the number of components of each level
+	 * @param rootInstances the number of root instances
+	 * @param childrenPerInstance the number of children per (non-leaf) instance
+	 */
+	private ModelShape( int[] componentsPerLevel, int rootInstances, int childrenPerInstance ) {
+		this.componentsPerLevel = componentsPerLevel;
+		this.rootInstances = rootInstances;
+		this.childrenPerInstance = childrenPerInstance;
+	}
+
+
+	/**
+	 * Builds the graph(s) of this shape.
+	 * @return a non-null graph(s)
+	 */
+	public Graphs buildGraphs() {
+
+		Graphs result = new Graphs();
+		List<Component> previousLevel = new ArrayList<Component> ();
+		for( int level=0; level<this.componentsPerLevel.length; level++ ) {
+
+			List<Component> currentLevel = new ArrayList<Component> ();
+			for( int i=0; i<this.componentsPerLevel[ level ]; i++ ) {
+				String name = "Component-" + level + "-" + i;
+				Component component = new Component( name ).alias( "Component " + name );
+				component.setInstallerName( level == 0 ? "iaas" : "bash" );
+				component.getExportedVariables().put( name + ".port", String.valueOf( 8000 + i ));
+				currentLevel.add( component );
+
+				if( level == 0 )
+					result.getRootComponents().add( component );
+				else
+					ComponentHelpers.insertChild( previousLevel.get( i % previousLevel.size()), component );
+			}
+
+			previousLevel = currentLevel;
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Builds an application with the graph(s) and instances of this shape.
+	 * @return a non-null application
+	 */
+	public Application buildApplication() {
+
+		Application result = new Application( "benchmark-" + name().toLowerCase()).qualifier( "benchmark" ).graphs( buildGraphs());
+		List<Component> rootComponents = new ArrayList<Component>( result.getGraphs().getRootComponents());
+		for( int i=0; i<this.rootInstances; i++ ) {
+			Instance root = new Instance( "instance-" + i ).component( rootComponents.get( i % rootComponents.size()));
+			result.getRootInstances().add( root );
+			addChildren( root );
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Writes the instances of this shape in the Roboconf DSL.
+	 * @return the content of an instances definition
+	 */
+	public String buildInstancesDefinition() {
+
+		StringBuilder sb = new StringBuilder();
+		for( Instance root : buildApplication().getRootInstances())
+			writeInstance( sb, root, "" );
+
+		return sb.toString();
+	}
+
+
+	private void addChildren( Instance parent ) {
+
+		List<Component> childComponents = new ArrayList<Component>( parent.getComponent().getChildren());
+		for( int i=0; ! childComponents.isEmpty() && i<this.childrenPerInstance; i++ ) {
+			Instance child = new Instance( "instance-" + i ).component( childComponents.get( i % childComponents.size()));
+			InstanceHelpers.insertChild( parent, child );
+			addChildren( child );
+		}
+	}
+
+
+	private static void writeInstance( StringBuilder sb, Instance instance, String indentation ) {
+
+		sb.append( indentation + "instanceof " + instance.getComponent().getName() + " {\n" );
+		sb.append( indentation + "\tname: " + instance.getName() + ";\n" );
+		for( Instance child : instance.getChildren())
+			writeInstance( sb, child, indentation + "\t" );
+
+		sb.append( indentation + "}\n" );
+	}
+}
@@ -19,6 +19,7 @@ package net.roboconf.core.agents;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.List;
 import java.util.Properties;
 
 /**
@@ -67,6 +68,55 @@ public final class DataHelpers {
 	}
 
 
+	/**
+	 * Writes data to store in IaaS as a string, for several machines launched at once.
+	 * <p>
+	 * Machines launched together by a IaaS share the same data. Each one must find its
+	 * root instance name from its launch index (see {@link #findRootInstanceName(Properties, int)}).
+	 * </p>
+	 *
+	 * @param messagingServerIp the IP of the messaging server
+	 * @param messagingUsername the user name to connect to the messaging server
+	 * @param messagingPassword the password to connect to the messaging server
+	 * @param applicationName the application name
+	 * @param rootInstanceNames the root instance names, ordered by launch index
+	 * @return a non-null string
+	 * @throws IOException if something went wrong
+	 */
+	public static String writeBatchIaasDataAsString(
+			String messagingServerIp,
+			String messagingUsername,
+			String messagingPassword,
+			String applicationName,
+			List<String> rootInstanceNames ) throws IOException {
+
+		Properties props = writeIaasDataAsProperties( messagingServerIp, messagingUsername, messagingPassword, applicationName, null );
+		for( int i=0; i<rootInstanceNames.size(); i++ )
+			props.setProperty( ROOT_INSTANCE_NAME + "." + i, rootInstanceNames.get( i ));
+
+		StringWriter writer = new StringWriter();
+		props.store( writer, "" );
+
+		return writer.toString();
+	}
+
+
+	/**
+	 * Finds the root instance name in IaaS data.
+	 * @param props the IaaS data
+	 * @param launchIndex the launch index of the machine (used if the data were written for several machines)
+	 * @return the root instance name, or null if it was not found
+	 */
+	public static String findRootInstanceName( Properties props, int launchIndex ) {
+
+		String result = props.getProperty( ROOT_INSTANCE_NAME );
+		if( result == null )
+			result = props.getProperty( ROOT_INSTANCE_NAME + "." + launchIndex );
+
+		return result;
+	}
+
+
 	/**
 	 * Writes data to store in IaaS as properties.
 	 * @param messagingServerIp the IP of the messaging server
@@ -55,17 +55,7 @@ public final class InstanceHelpers {
 	 * @return a string (not null)
 	 */
 	public static String computeInstancePath( Instance inst ) {
-
-		StringBuilder sb = new StringBuilder();
-		for( Instance current = inst; current != null; current = current.getParent()) {
-			StringBuilder currentSb = new StringBuilder( "/" );
-			if( ! Utils.isEmptyOrWhitespaces( current.getName()))
-				currentSb.append( current.getName());
-
-			sb.insert( 0, currentSb.toString());
-		}
-
-		return sb.toString();
+		return inst == null ? "" : inst.getPath();
 	}
 
 
@@ -75,7 +65,7 @@ public final class InstanceHelpers {
 	 * @return true if they have the same path, false otherwise
 	 */
 	public static boolean haveSamePath( Instance i1, Instance i2 ) {
-		return computeInstancePath( i1 ).equals( computeInstancePath( i2 ));
+		return i1.getPath().equals( i2.getPath());
 	}
 
 
@@ -155,19 +145,85 @@ public final class InstanceHelpers {
 
 	/**
 	 * Finds an instance by name.
+	 * <p>
+	 * The index of the application is used first.
+	 * If it does not know the instance, the model is browsed and the index is updated.
+	 * Index entries are removed with the instances (see {@link #removeInstance(Application, Instance)}).
+	 * An entry whose instance was renamed or moved is dropped. Instance paths are cached,
+	 * so a lookup does not depend on the depth of the instance.
+	 * </p>
+	 *
 	 * @param application the application
 	 * @param instancePath the instance path
 	 * @return an instance, or null if it was not found
 	 */
 	public static Instance findInstanceByPath( Application application, String instancePath ) {
 
-		Collection<Instance> currentList = new ArrayList<Instance> ();
-		if( application != null )
-			currentList.addAll( application.getRootInstances());
+		Instance result = null;
+		if( application != null && instancePath != null ) {
+			Map<String,Instance> index = application.getInstancesIndex();
+			result = index.get( instancePath );
+			if( result != null
+					&& ! instancePath.equals( computeInstancePath( result ))) {
+				index.remove( instancePath );
+				result = null;
+			}
+
+			if( result == null
+					&& ( result = browseInstancesByPath( application, instancePath )) != null )
+				index.put( computeInstancePath( result ), result );
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Indexes an instance and all its children in an application.
+	 * @param application an application (not null)
+	 * @param instance an instance that belongs to this application (not null)
+	 */
+	public static void indexInstances( Application application, Instance instance ) {
+
+		Map<String,Instance> index = application.getInstancesIndex();
+		for( Instance inst : buildHierarchicalList( instance ))
+			index.put( computeInstancePath( inst ), inst );
+	}
 
-		List<String> instanceNames = new ArrayList<String> ();
-		if( instancePath != null )
-			instanceNames.addAll( Arrays.asList( instancePath.split( "/" )));
+
+	/**
+	 * Removes an instance (and its children) from an application.
+	 * <p>
+	 * The instance is removed from the model and from the application's index.
+	 * </p>
+	 *
+	 * @param application an application (not null)
+	 * @param instance an instance that belongs to this application (not null)
+	 */
+	public static void removeInstance( Application application, Instance instance ) {
+
+		// Paths must be computed before the instance is detached
+		Map<String,Instance> index = application.getInstancesIndex();
+		for( Instance inst : buildHierarchicalList( instance ))
+			index.remove( computeInstancePath( inst ));
+
+		if( instance.getParent() == null )
+			application.getRootInstances().remove( instance );
+		else
+			instance.getParent().getChildren().remove( instance );
+	}
+
+
+	/**
+	 * Finds an instance by browsing the model, from the root instances.
+	 * @param application the application (not null)
+	 * @param instancePath the instance path (not null)
+	 * @return an instance, or null if it was not found
+	 */
+	private static Instance browseInstancesByPath( Application application, String instancePath ) {
+
+		Collection<Instance> currentList = application.getRootInstances();
+		List<String> instanceNames = new ArrayList<String> ( Arrays.asList( instancePath.split( "/" )));
 
 		if( instanceNames.size() > 0
 				&& Utils.isEmptyOrWhitespaces( instanceNames.get( 0 )))
@@ -321,8 +377,9 @@ public final class InstanceHelpers {
 				InstanceHelpers.insertChild( parentInstance, childInstance );
 				Collection<RoboconfError> errors = RuntimeModelValidator.validate( application.getRootInstances());
 				if( RoboconfErrorHelpers.containsCriticalErrors( errors )) {
-					childInstance.setParent( null );
+					// Remove it before changing the parent, the path is used as the hash code
 					parentInstance.getChildren().remove( childInstance );
+					childInstance.setParent( null );
 
 				} else {
 					success = true;
@@ -330,6 +387,9 @@ public final class InstanceHelpers {
 			}
 		}
 
+		if( success )
+			indexInstances( application, childInstance );
+
 		return success;
 	}
 
@@ -21,6 +21,7 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
+import net.roboconf.core.model.runtime.Component;
 import net.roboconf.core.model.runtime.Instance;
 
 /**
@@ -92,32 +93,29 @@ public final class VariableHelpers {
 
 	/**
 	 * Finds the component and facet names that prefix the variables an instance exports.
+	 * <p>
+	 * The result is cached by the instance (see {@link Instance#getVariablesMetadata()}).
+	 * </p>
+	 *
 	 * @param instance an instance
-	 * @return a non-null set with all the component and facet names this instance exports
+	 * @return a non-null and read-only set with all the component and facet names this instance exports
 	 */
 	public static Set<String> findPrefixesForExportedVariables( Instance instance ) {
-
-		Set<String> result = new HashSet<String> ();
-		for( String exportedVariableName : instance.getExports().keySet())
-			result.add( VariableHelpers.parseVariableName( exportedVariableName ).getKey());
-
-		return result;
+		return instance.getVariablesMetadata().getExportedPrefixes();
 	}
 
 
 	/**
 	 * Finds the component and facet names that prefix the variables an instance imports.
+	 * <p>
+	 * The result is cached by the instance's component (see {@link Component#getVariablesMetadata()}).
+	 * </p>
+	 *
 	 * @param instance an instance
-	 * @return a non-null set with all the component and facet names this instance imports
+	 * @return a non-null and read-only set with all the component and facet names this instance imports
 	 */
 	public static Set<String> findPrefixesForImportedVariables( Instance instance ) {
-		Set<String> result = new HashSet<String> ();
-
-		for( String variableName : instance.getComponent().getImportedVariables().keySet()) {
-			result.add( VariableHelpers.parseVariableName( variableName ).getKey());
-		}
-
-		return result;
+		return instance.getComponent().getVariablesMetadata().getImportedPrefixes();
 	}
 
 
@@ -125,21 +123,14 @@ public final class VariableHelpers {
 	 * Finds the component and facet names that prefix the variables an instance requires.
 	 * <p>
 	 * Only the mandatory variables are returned. Optional imports are not considered by this method.
+	 * The result is cached by the instance's component (see {@link Component#getVariablesMetadata()}).
 	 * </p>
 	 *
 	 * @param instance an instance
-	 * @return a non-null set with all the component and facet names this instance imports
+	 * @return a non-null and read-only set with all the component and facet names this instance imports
 	 */
 	public static Set<String> findPrefixesForMandatoryImportedVariables( Instance instance ) {
-		Set<String> result = new HashSet<String> ();
-
-		for( Map.Entry<String,Boolean> entry : instance.getComponent().getImportedVariables().entrySet()) {
-			String variableName = entry.getKey();
-			if( ! entry.getValue())
-				result.add( VariableHelpers.parseVariableName( variableName ).getKey());
-		}
-
-		return result;
+		return instance.getComponent().getVariablesMetadata().getMandatoryImportedPrefixes();
 	}
 
 
@@ -19,6 +19,8 @@ package net.roboconf.core.model.runtime;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import net.roboconf.core.utils.Utils;
 
@@ -33,6 +35,7 @@ public class Application implements Serializable {
 	private String name, qualifier, description;
 	private Graphs graphs;
 	private final Collection<Instance> rootInstances = new LinkedHashSet<Instance> ();
+	private transient Map<String,Instance> instancesIndex;
 
 
 	/**
@@ -113,6 +116,24 @@ public class Application implements Serializable {
 		return this.rootInstances;
 	}
 
+	/**
+	 * Gets the index of instances, by path.
+	 * <p>
+	 * This index is maintained by {@link net.roboconf.core.model.helpers.InstanceHelpers}.
+	 * Instances must be inserted and removed with these helpers, so that the index is
+	 * updated. Renamed or moved instances no longer match the path they were indexed
+	 * under: such entries are dropped when they are looked up. It is not serialized.
+	 * </p>
+	 *
+	 * @return a non-null map (key = instance path, value = instance)
+	 */
+	public synchronized Map<String,Instance> getInstancesIndex() {
+		if( this.instancesIndex == null )
+			this.instancesIndex = new ConcurrentHashMap<String,Instance> ();
+
+		return this.instancesIndex;
+	}
+
 	@Override
 	public boolean equals( Object obj ) {
 		return obj instanceof Application
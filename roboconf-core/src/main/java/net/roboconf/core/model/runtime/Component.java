@@ -16,6 +16,8 @@
 
 package net.roboconf.core.model.runtime;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.HashMap;
@@ -37,6 +39,12 @@ public class Component implements Serializable {
 	private final Map<String,String> exportedVariables = new HashMap<String,String> ();
 	private final Map<String,Boolean> importedVariables = new HashMap<String,Boolean> ();
 
+	// Variables are modified through views that count modifications (to invalidate the metadata).
+	// Views are not serialized, so that the serialized form is the same than in previous versions.
+	private transient VersionedMap<String,String> exportedVariablesView = new VersionedMap<String,String>( this.exportedVariables, false );
+	private transient VersionedMap<String,Boolean> importedVariablesView = new VersionedMap<String,Boolean>( this.importedVariables, true );
+	private transient volatile VariablesMetadata variablesMetadata;
+
 	private final Collection<Component> children = new HashSet<Component> ();
 	private final Collection<Component> ancestors = new HashSet<Component> ();
 
@@ -127,14 +135,50 @@ public class Component implements Serializable {
 	 * </p>
 	 */
 	public Map<String,Boolean> getImportedVariables() {
-		return this.importedVariables;
+		return this.importedVariablesView;
 	}
 
 	/**
 	 * @return the exportedVariables
 	 */
 	public Map<String, String> getExportedVariables() {
-		return this.exportedVariables;
+		return this.exportedVariablesView;
+	}
+
+	/**
+	 * Gets the parsed information about the variables of this component.
+	 * <p>
+	 * It is cached and computed again only when the exported or imported variables change.
+	 * </p>
+	 *
+	 * @return the variables metadata (not null)
+	 */
+	public VariablesMetadata getVariablesMetadata() {
+
+		VariablesMetadata result = this.variablesMetadata;
+		int exportsVersion = this.exportedVariablesView.getVersion();
+		int importsVersion = this.importedVariablesView.getVersion();
+		if( result == null
+				|| result.exportsVersion != exportsVersion
+				|| result.importsVersion != importsVersion ) {
+
+			result = new VariablesMetadata( this.exportedVariables.keySet(), exportsVersion, this.importedVariables, importsVersion );
+			this.variablesMetadata = result;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Creates the (transient) views of the variables after deserialization.
+	 * @param in the input stream
+	 * @throws IOException if the object could not be read
+	 * @throws ClassNotFoundException if a class could not be found
+	 */
+	private void readObject( ObjectInputStream in ) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		this.exportedVariablesView = new VersionedMap<String,String>( this.exportedVariables, false );
+		this.importedVariablesView = new VersionedMap<String,Boolean>( this.importedVariables, true );
 	}
 
 	/**
@@ -16,6 +16,8 @@
 
 package net.roboconf.core.model.runtime;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.HashMap;
@@ -24,6 +26,7 @@ import java.util.LinkedHashSet;
 import java.util.Map;
 
 import net.roboconf.core.model.helpers.InstanceHelpers;
+import net.roboconf.core.utils.Utils;
 
 /**
  * An instance object represents a running component instance.
@@ -46,17 +49,27 @@ public class Instance implements Serializable {
 
 
 	private static final long serialVersionUID = -3320865356277185064L;
+	private static final Component EMPTY_COMPONENT = new Component();
 
 	private String name, channel;
 	private Component component;
 	private Instance parent;
 	private final Collection<Instance> children = new LinkedHashSet<Instance> ();
 
+	// The path is used by hashCode() and equals(), it is computed once.
+	// It is reset when the name or the parent changes (on this instance or on an ancestor).
+	private transient volatile String path;
+
 	private InstanceStatus status = InstanceStatus.NOT_DEPLOYED;
 	private final Map<String,String> data = new LinkedHashMap<String,String>( 0 );
 	private final Map<String,String> overridenExports = new HashMap<String,String> ();
 	private final Map<String,String> exports = new HashMap<String,String> ();
 
+	// Exports are modified through a view that counts modifications (to invalidate the metadata).
+	// The view is not serialized, so that the serialized form is the same than in previous versions.
+	private transient VersionedMap<String,String> exportsView = new VersionedMap<String,String>( this.exports, false );
+	private transient volatile VariablesMetadata variablesMetadata;
+
 	// At runtime, exported variables are grouped by prefix.
 	// The prefix is a component or a facet name.
 	private final Map<String,Collection<Import>> variablePrefixToImports = new HashMap<String,Collection<Import>> ();
@@ -89,6 +102,7 @@ public class Instance implements Serializable {
 	 */
 	public void setName( String name ) {
 		this.name = name;
+		resetPath();
 	}
 
 	/**
@@ -145,6 +159,7 @@ public class Instance implements Serializable {
 	 */
 	public void setParent( Instance parent ) {
 		this.parent = parent;
+		resetPath();
 	}
 
 	/**
@@ -173,21 +188,90 @@ public class Instance implements Serializable {
 	 */
 	public Map<String,String> getExports() {
 
-		if( this.exports.isEmpty())
-			this.exports.putAll( InstanceHelpers.getExportedVariables( this ));
+		if( this.exportsView.isEmpty())
+			this.exportsView.putAll( InstanceHelpers.getExportedVariables( this ));
+
+		return this.exportsView;
+	}
+
+	/**
+	 * Gets the parsed information about the variables of this instance.
+	 * <p>
+	 * Exports come from {@link #getExports()}, imports come from the component.
+	 * It is cached and computed again only when the exports or the component's variables change.
+	 * </p>
+	 *
+	 * @return the variables metadata (not null)
+	 */
+	public VariablesMetadata getVariablesMetadata() {
+
+		Map<String,String> exportsMap = getExports();
+		VariablesMetadata componentMetadata = this.component == null ? EMPTY_COMPONENT.getVariablesMetadata() : this.component.getVariablesMetadata();
+		VariablesMetadata result = this.variablesMetadata;
+		int exportsVersion = this.exportsView.getVersion();
+		if( result == null
+				|| result.exportsVersion != exportsVersion
+				|| result.importsMetadata != componentMetadata ) {
+
+			result = new VariablesMetadata( exportsMap.keySet(), exportsVersion, componentMetadata );
+			this.variablesMetadata = result;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Gets the instance path.
+	 * <p>
+	 * The path is cached. It is computed again only when the name
+	 * or the parent of this instance (or of one of its ancestors) changes.
+	 * </p>
+	 *
+	 * @return the instance path (not null)
+	 * @see InstanceHelpers#computeInstancePath(Instance)
+	 */
+	public String getPath() {
+
+		String result = this.path;
+		if( result == null ) {
+			String parentPath = this.parent == null ? "" : this.parent.getPath();
+			result = Utils.isEmptyOrWhitespaces( this.name ) ? parentPath + "/" : parentPath + "/" + this.name;
+			this.path = result;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Resets the cached path of this instance and of its children.
+	 */
+	private void resetPath() {
+
+		this.path = null;
+		for( Instance child : this.children )
+			child.resetPath();
+	}
 
-		return this.exports;
+	/**
+	 * Creates the (transient) view of the exports after deserialization.
+	 * @param in the input stream
+	 * @throws IOException if the object could not be read
+	 * @throws ClassNotFoundException if a class could not be found
+	 */
+	private void readObject( ObjectInputStream in ) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		this.exportsView = new VersionedMap<String,String>( this.exports, false );
 	}
 
 	@Override
 	public int hashCode() {
-		return InstanceHelpers.computeInstancePath( this ).hashCode();
+		return getPath().hashCode();
 	}
 
 	@Override
 	public boolean equals( Object obj ) {
 		return obj instanceof Instance
-				&& InstanceHelpers.haveSamePath( this, (Instance) obj);
+				&& getPath().equals(((Instance) obj).getPath());
 	}
 
 	@Override
@@ -201,6 +285,7 @@ public class Instance implements Serializable {
 	 */
 	public Instance name( String name ) {
 		this.name = name;
+		resetPath();
 		return this;
 	}
 
@@ -228,6 +313,7 @@ public class Instance implements Serializable {
 	 */
 	public Instance parent( Instance parent ) {
 		this.parent = parent;
+		resetPath();
 		return this;
 	}
 
@@ -0,0 +1,152 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.core.model.runtime;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import net.roboconf.core.model.helpers.VariableHelpers;
+
+/**
+ * Parsed information about the variables of a component or an instance.
+ * <p>
+ * Variable names are parsed once. The result is cached by components and instances.
+ * It is computed again only when their variables change. Instances of this class are
+ * immutable.
+ * </p>
+ *
+ * @author Vincent Zurczak - Linagora
+ */
+public final class VariablesMetadata {
+
+	private final Set<String> exportedPrefixes, importedPrefixes, mandatoryImportedPrefixes;
+	private final Map<String,String> variableNameToSimpleName;
+
+	// What this object was built from
+	final int exportsVersion, importsVersion;
+	final VariablesMetadata importsMetadata;
+
+
+	/**
+	 * Constructor.
+	 * @param exportedVariableNames the names of the exported variables
+	 * @param exportsVersion the version of the exported variables
+	 * @param importedVariables the imported variables (key = name, value = true if optional)
+	 * @param importsVersion the version of the imported variables
+	 */
+	VariablesMetadata(
+			Collection<String> exportedVariableNames,
+			int exportsVersion,
+			Map<String,Boolean> importedVariables,
+			int importsVersion ) {
+
+		Set<String> exported = new HashSet<String> ();
+		Set<String> imported = new HashSet<String> ();
+		Set<String> mandatory = new HashSet<String> ();
+		Map<String,String> simpleNames = new HashMap<String,String> ();
+
+		for( String variableName : exportedVariableNames ) {
+			Map.Entry<String,String> parts = VariableHelpers.parseVariableName( variableName );
+			exported.add( parts.getKey());
+			simpleNames.put( variableName, parts.getValue());
+		}
+
+		for( Map.Entry<String,Boolean> entry : importedVariables.entrySet()) {
+			Map.Entry<String,String> parts = VariableHelpers.parseVariableName( entry.getKey());
+			imported.add( parts.getKey());
+			simpleNames.put( entry.getKey(), parts.getValue());
+			if( ! entry.getValue())
+				mandatory.add( parts.getKey());
+		}
+
+		this.exportedPrefixes = Collections.unmodifiableSet( exported );
+		this.importedPrefixes = Collections.unmodifiableSet( imported );
+		this.mandatoryImportedPrefixes = Collections.unmodifiableSet( mandatory );
+		this.variableNameToSimpleName = Collections.unmodifiableMap( simpleNames );
+		this.exportsVersion = exportsVersion;
+		this.importsVersion = importsVersion;
+		this.importsMetadata = null;
+	}
+
+
+	/**
+	 * Constructor.
+	 * <p>
+	 * Builds metadata for other exports, and reuses the imports of other metadata.
+	 * </p>
+	 *
+	 * @param exportedVariableNames the names of the exported variables
+	 * @param exportsVersion the version of the exported variables
+	 * @param importsMetadata the metadata to get the imports from
+	 */
+	VariablesMetadata( Collection<String> exportedVariableNames, int exportsVersion, VariablesMetadata importsMetadata ) {
+
+		Set<String> exported = new HashSet<String> ();
+		Map<String,String> simpleNames = new HashMap<String,String>( importsMetadata.variableNameToSimpleName );
+		for( String variableName : exportedVariableNames ) {
+			Map.Entry<String,String> parts = VariableHelpers.parseVariableName( variableName );
+			exported.add( parts.getKey());
+			simpleNames.put( variableName, parts.getValue());
+		}
+
+		this.exportedPrefixes = Collections.unmodifiableSet( exported );
+		this.importedPrefixes = importsMetadata.importedPrefixes;
+		this.mandatoryImportedPrefixes = importsMetadata.mandatoryImportedPrefixes;
+		this.variableNameToSimpleName = Collections.unmodifiableMap( simpleNames );
+		this.exportsVersion = exportsVersion;
+		this.importsVersion = importsMetadata.importsVersion;
+		this.importsMetadata = importsMetadata;
+	}
+
+
+	/**
+	 * @return the component and facet names that prefix the exported variables (not null, read-only)
+	 */
+	public Set<String> getExportedPrefixes() {
+		return this.exportedPrefixes;
+	}
+
+
+	/**
+	 * @return the component and facet names that prefix the imported variables (not null, read-only)
+	 */
+	public Set<String> getImportedPrefixes() {
+		return this.importedPrefixes;
+	}
+
+
+	/**
+	 * @return the component and facet names that prefix the mandatory imported variables (not null, read-only)
+	 */
+	public Set<String> getMandatoryImportedPrefixes() {
+		return this.mandatoryImportedPrefixes;
+	}
+
+
+	/**
+	 * Finds the simple name of an exported or imported variable.
+	 * @param variableName a variable name
+	 * @return the simple name, or null if this variable is neither exported nor imported
+	 */
+	public String findSimpleName( String variableName ) {
+		return this.variableNameToSimpleName.get( variableName );
+	}
+}
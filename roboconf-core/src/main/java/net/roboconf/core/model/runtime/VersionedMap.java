@@ -0,0 +1,264 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.core.model.runtime;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A view of a map that counts the modifications made through it.
+ * <p>
+ * It allows to cache data computed from a map's content, and
+ * to find out whether the map was modified in the meantime. All the modifications
+ * are counted, including those made through the map's views.
+ * </p>
+ * <p>
+ * The version is incremented after the modification. Otherwise, a concurrent reader
+ * could associate the new version with the previous content, and never compute it again.
+ * </p>
+ * <p>
+ * It is not serializable. Classes that use it serialize the underlying map, so that their
+ * serialized form does not depend on this class. The view is created again after deserialization.
+ * </p>
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ * @author Vincent Zurczak - Linagora
+ */
+final class VersionedMap<K,V> extends AbstractMap<K,V> {
+
+	private final Map<K,V> delegate;
+	private final boolean trackValues;
+	private volatile int version = 0;
+
+
+	/**
+	 * Constructor.
+	 * <p>
+	 * When values are not tracked, only the modifications of the keys are counted.
+	 * Entries are then those of the delegate: a value changed through {@link Map.Entry#setValue(Object)}
+	 * is not counted. When values are tracked, iterators return a single entry that is updated
+	 * on every call to {@link Iterator#next()}. Such entries must not be kept after that.
+	 * </p>
+	 *
+	 * @param delegate the map to wrap (not null), which must only be modified through this view
+	 * @param trackValues true if cached data depend on values, false if they only depend on keys
+	 */
+	VersionedMap( Map<K,V> delegate, boolean trackValues ) {
+		this.delegate = delegate;
+		this.trackValues = trackValues;
+	}
+
+
+	/**
+	 * @return the number of modifications since this map was created
+	 */
+	int getVersion() {
+		return this.version;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see java.util.AbstractMap#put(java.lang.Object, java.lang.Object)
+	 */
+	@Override
+	public V put( K key, V value ) {
+		V result = this.delegate.put( key, value );
+		this.version ++;
+		return result;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see java.util.AbstractMap#remove(java.lang.Object)
+	 */
+	@Override
+	public V remove( Object key ) {
+		V result = this.delegate.remove( key );
+		this.version ++;
+		return result;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see java.util.AbstractMap#clear()
+	 */
+	@Override
+	public void clear() {
+		this.delegate.clear();
+		this.version ++;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see java.util.AbstractMap#get(java.lang.Object)
+	 */
+	@Override
+	public V get( Object key ) {
+		return this.delegate.get( key );
+	}
+
+
+	/* (non-Javadoc)
+	 * @see java.util.AbstractMap#containsKey(java.lang.Object)
+	 */
+	@Override
+	public boolean containsKey( Object key ) {
+		return this.delegate.containsKey( key );
+	}
+
+
+	/* (non-Javadoc)
+	 * @see java.util.AbstractMap#size()
+	 */
+	@Override
+	public int size() {
+		return this.delegate.size();
+	}
+
+
+	/* (non-Javadoc)
+	 * @see java.util.AbstractMap#entrySet()
+	 */
+	@Override
+	public Set<Map.Entry<K,V>> entrySet() {
+
+		return new AbstractSet<Map.Entry<K,V>>() {
+			@Override
+			public int size() {
+				return VersionedMap.this.delegate.size();
+			}
+
+			@Override
+			public Iterator<Map.Entry<K,V>> iterator() {
+				return new VersionedIterator();
+			}
+		};
+	}
+
+
+	/**
+	 * An iterator that counts removals and, if necessary, value changes.
+	 */
+	private final class VersionedIterator implements Iterator<Map.Entry<K,V>> {
+
+		private final Iterator<Map.Entry<K,V>> it = VersionedMap.this.delegate.entrySet().iterator();
+		private final VersionedEntry reusedEntry = VersionedMap.this.trackValues ? new VersionedEntry() : null;
+
+
+		/* (non-Javadoc)
+		 * @see java.util.Iterator#hasNext()
+		 */
+		@Override
+		public boolean hasNext() {
+			return this.it.hasNext();
+		}
+
+
+		/* (non-Javadoc)
+		 * @see java.util.Iterator#next()
+		 */
+		@Override
+		public Map.Entry<K,V> next() {
+
+			Map.Entry<K,V> result = this.it.next();
+			if( this.reusedEntry != null ) {
+				this.reusedEntry.entry = result;
+				result = this.reusedEntry;
+			}
+
+			return result;
+		}
+
+
+		/* (non-Javadoc)
+		 * @see java.util.Iterator#remove()
+		 */
+		@Override
+		public void remove() {
+			this.it.remove();
+			VersionedMap.this.version ++;
+		}
+	}
+
+
+	/**
+	 * An entry that counts value changes.
+	 */
+	private final class VersionedEntry implements Map.Entry<K,V> {
+		private Map.Entry<K,V> entry;
+
+
+		/* (non-Javadoc)
+		 * @see java.util.Map.Entry#getKey()
+		 */
+		@Override
+		public K getKey() {
+			return this.entry.getKey();
+		}
+
+
+		/* (non-Javadoc)
+		 * @see java.util.Map.Entry#getValue()
+		 */
+		@Override
+		public V getValue() {
+			return this.entry.getValue();
+		}
+
+
+		/* (non-Javadoc)
+		 * @see java.util.Map.Entry#setValue(java.lang.Object)
+		 */
+		@Override
+		public V setValue( V value ) {
+			V result = this.entry.setValue( value );
+			VersionedMap.this.version ++;
+			return result;
+		}
+
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals( Object obj ) {
+			return this.entry.equals( obj );
+		}
+
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			return this.entry.hashCode();
+		}
+
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return this.entry.toString();
+		}
+	}
+}
@@ -16,6 +16,7 @@
 
 package net.roboconf.core.agents;
 
+import java.util.Arrays;
 import java.util.Properties;
 
 import junit.framework.Assert;
@@ -78,4 +79,25 @@ public class DataHelpersTest {
 		Assert.assertEquals( "pwd", props.getProperty( DataHelpers.MESSAGING_PASSWORD ));
 		Assert.assertEquals( "user", props.getProperty( DataHelpers.MESSAGING_USERNAME ));
 	}
+
+
+	@Test
+	public void testWriteAndRead_severalMachines() throws Exception {
+
+		String rawProperties = DataHelpers.writeBatchIaasDataAsString( "192.168.1.24", "user", "pwd", "app", Arrays.asList( "root1", "root2" ));
+		Properties props = DataHelpers.readIaasData( rawProperties );
+		Assert.assertEquals( "app", props.getProperty( DataHelpers.APPLICATION_NAME ));
+		Assert.assertNull( props.getProperty( DataHelpers.ROOT_INSTANCE_NAME ));
+		Assert.assertEquals( "192.168.1.24", props.getProperty( DataHelpers.MESSAGING_IP ));
+
+		Assert.assertEquals( "root1", DataHelpers.findRootInstanceName( props, 0 ));
+		Assert.assertEquals( "root2", DataHelpers.findRootInstanceName( props, 1 ));
+		Assert.assertNull( DataHelpers.findRootInstanceName( props, 2 ));
+
+		// A single machine
+		rawProperties = DataHelpers.writeIaasDataAsString( "192.168.1.24", "user", "pwd", "app", "root" );
+		props = DataHelpers.readIaasData( rawProperties );
+		Assert.assertEquals( "root", DataHelpers.findRootInstanceName( props, 0 ));
+		Assert.assertEquals( "root", DataHelpers.findRootInstanceName( props, 4 ));
+	}
 }
@@ -325,6 +325,56 @@ public class InstanceHelpersTest {
 	}
 
 
+	@Test
+	public void testInstancesIndex() throws Exception {
+
+		File directory = TestUtils.findTestFile( "/applications/valid/lamp-legacy-2" );
+		Application app = RuntimeModelIo.loadApplication( directory ).getApplication();
+		app.getRootInstances().clear();
+		Assert.assertEquals( 0, app.getInstancesIndex().size());
+
+		// Insertions update the index
+		Instance vmInstance = new Instance( "vm-1" ).component( ComponentHelpers.findComponent( app.getGraphs(), "VM" ));
+		Instance tomcatInstance = new Instance( "tomcat-1" ).component( ComponentHelpers.findComponent( app.getGraphs(), "Tomcat" ));
+		Assert.assertTrue( InstanceHelpers.tryToInsertChildInstance( app, null, vmInstance ));
+		Assert.assertTrue( InstanceHelpers.tryToInsertChildInstance( app, vmInstance, tomcatInstance ));
+
+		Assert.assertEquals( 2, app.getInstancesIndex().size());
+		Assert.assertSame( vmInstance, app.getInstancesIndex().get( "/vm-1" ));
+		Assert.assertSame( tomcatInstance, app.getInstancesIndex().get( "/vm-1/tomcat-1" ));
+		Assert.assertSame( tomcatInstance, InstanceHelpers.findInstanceByPath( app, "/vm-1/tomcat-1" ));
+
+		// Removals update the index
+		InstanceHelpers.removeInstance( app, vmInstance );
+		Assert.assertEquals( 0, app.getInstancesIndex().size());
+		Assert.assertEquals( 0, app.getRootInstances().size());
+		Assert.assertNull( InstanceHelpers.findInstanceByPath( app, "/vm-1/tomcat-1" ));
+
+		// Instances added without the helpers are found and indexed
+		app.getRootInstances().add( vmInstance );
+		Assert.assertSame( tomcatInstance, InstanceHelpers.findInstanceByPath( app, "/vm-1/tomcat-1" ));
+		Assert.assertSame( tomcatInstance, app.getInstancesIndex().get( "/vm-1/tomcat-1" ));
+
+		// Removing a child instance only removes its entries
+		InstanceHelpers.removeInstance( app, tomcatInstance );
+		Assert.assertNull( InstanceHelpers.findInstanceByPath( app, "/vm-1/tomcat-1" ));
+		Assert.assertNull( app.getInstancesIndex().get( "/vm-1/tomcat-1" ));
+		Assert.assertSame( vmInstance, InstanceHelpers.findInstanceByPath( app, "/vm-1" ));
+
+		// Renamed instances are not found under their old path
+		Assert.assertTrue( InstanceHelpers.tryToInsertChildInstance( app, vmInstance, tomcatInstance ));
+		vmInstance.setName( "vm-renamed" );
+		Assert.assertNull( InstanceHelpers.findInstanceByPath( app, "/vm-1/tomcat-1" ));
+		Assert.assertNull( app.getInstancesIndex().get( "/vm-1/tomcat-1" ));
+		Assert.assertSame( tomcatInstance, InstanceHelpers.findInstanceByPath( app, "/vm-renamed/tomcat-1" ));
+		vmInstance.setName( "vm-1" );
+
+		app.getInstancesIndex().put( "/vm-2", vmInstance );
+		Assert.assertNull( InstanceHelpers.findInstanceByPath( app, "/vm-2" ));
+		Assert.assertSame( vmInstance, InstanceHelpers.findInstanceByPath( app, "/vm-1" ));
+	}
+
+
 	@Test
 	public void testDuplicateInstance_singleInstance() {
 
@@ -34,4 +34,41 @@ public class ComponentTest {
 		Assert.assertEquals( "my-installer", comp.getInstallerName());
 		Assert.assertNull( comp.getIconLocation());
 	}
+
+
+	@Test
+	public void testVariablesMetadata() {
+
+		Component comp = new Component( "comp" );
+		comp.getExportedVariables().put( "comp.ip", null );
+		comp.getImportedVariables().put( "db.ip", Boolean.FALSE );
+		comp.getImportedVariables().put( "cache.ip", Boolean.TRUE );
+
+		VariablesMetadata metadata = comp.getVariablesMetadata();
+		Assert.assertSame( metadata, comp.getVariablesMetadata());
+		Assert.assertEquals( 1, metadata.getExportedPrefixes().size());
+		Assert.assertTrue( metadata.getExportedPrefixes().contains( "comp" ));
+		Assert.assertEquals( 2, metadata.getImportedPrefixes().size());
+		Assert.assertEquals( 1, metadata.getMandatoryImportedPrefixes().size());
+		Assert.assertTrue( metadata.getMandatoryImportedPrefixes().contains( "db" ));
+		Assert.assertEquals( "ip", metadata.findSimpleName( "cache.ip" ));
+		Assert.assertNull( metadata.findSimpleName( "other.ip" ));
+
+		// Any modification invalidates the cache, including through the views
+		comp.getImportedVariables().put( "cache.ip", Boolean.FALSE );
+		Assert.assertNotSame( metadata, comp.getVariablesMetadata());
+		Assert.assertEquals( 2, comp.getVariablesMetadata().getMandatoryImportedPrefixes().size());
+
+		metadata = comp.getVariablesMetadata();
+		comp.getImportedVariables().keySet().remove( "db.ip" );
+		Assert.assertNotSame( metadata, comp.getVariablesMetadata());
+		Assert.assertEquals( 1, comp.getVariablesMetadata().getImportedPrefixes().size());
+
+		comp.getImportedVariables().entrySet().iterator().next().setValue( Boolean.TRUE );
+		Assert.assertTrue( comp.getImportedVariables().get( "cache.ip" ));
+		Assert.assertEquals( 0, comp.getVariablesMetadata().getMandatoryImportedPrefixes().size());
+
+		comp.getExportedVariables().clear();
+		Assert.assertEquals( 0, comp.getVariablesMetadata().getExportedPrefixes().size());
+	}
 }
@@ -16,7 +16,13 @@
 
 package net.roboconf.core.model.runtime;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
 import junit.framework.Assert;
+import net.roboconf.core.model.helpers.InstanceHelpers;
 import net.roboconf.core.model.runtime.Instance.InstanceStatus;
 
 import org.junit.Test;
@@ -44,4 +50,107 @@ public class InstanceTest {
 		Assert.assertNull( inst.getComponent());
 		Assert.assertNull( inst.getParent());
 	}
+
+
+	@Test
+	public void testPathIsReset() {
+
+		Instance root = new Instance( "root" );
+		Instance child = new Instance( "child" );
+		Instance grandChild = new Instance( "grand-child" );
+		InstanceHelpers.insertChild( root, child );
+		InstanceHelpers.insertChild( child, grandChild );
+
+		Assert.assertEquals( "/root", root.getPath());
+		Assert.assertEquals( "/root/child", child.getPath());
+		Assert.assertEquals( "/root/child/grand-child", grandChild.getPath());
+
+		// Changes are propagated to the children
+		root.setName( "new-root" );
+		Assert.assertEquals( "/new-root", root.getPath());
+		Assert.assertEquals( "/new-root/child/grand-child", grandChild.getPath());
+
+		child.name( "new-child" );
+		Assert.assertEquals( "/new-root/new-child", child.getPath());
+		Assert.assertEquals( "/new-root/new-child/grand-child", grandChild.getPath());
+
+		Instance otherRoot = new Instance( "other-root" );
+		InstanceHelpers.insertChild( otherRoot, child );
+		Assert.assertEquals( "/other-root/new-child/grand-child", grandChild.getPath());
+
+		child.parent( null );
+		Assert.assertEquals( "/new-child/grand-child", grandChild.getPath());
+		Assert.assertEquals( grandChild.getPath().hashCode(), grandChild.hashCode());
+		Assert.assertEquals( new Instance( "grand-child" ).parent( new Instance( "new-child" )), grandChild );
+	}
+
+
+	@Test
+	public void testVariablesMetadata() {
+
+		Component comp = new Component( "comp" );
+		comp.getExportedVariables().put( "comp.ip", null );
+		comp.getImportedVariables().put( "db.ip", Boolean.FALSE );
+
+		Instance instance = new Instance( "inst" ).component( comp );
+		instance.getOverriddenExports().put( "facet.port", "8080" );
+
+		VariablesMetadata metadata = instance.getVariablesMetadata();
+		Assert.assertSame( metadata, instance.getVariablesMetadata());
+		Assert.assertEquals( 2, metadata.getExportedPrefixes().size());
+		Assert.assertTrue( metadata.getExportedPrefixes().contains( "facet" ));
+		Assert.assertEquals( "port", metadata.findSimpleName( "facet.port" ));
+		Assert.assertTrue( metadata.getImportedPrefixes().contains( "db" ));
+
+		// Modifying the exports or the component invalidates the cache
+		instance.getExports().put( "other.port", "8081" );
+		Assert.assertNotSame( metadata, instance.getVariablesMetadata());
+		Assert.assertEquals( 3, instance.getVariablesMetadata().getExportedPrefixes().size());
+
+		metadata = instance.getVariablesMetadata();
+		comp.getImportedVariables().put( "cache.ip", Boolean.TRUE );
+		Assert.assertNotSame( metadata, instance.getVariablesMetadata());
+		Assert.assertEquals( 2, instance.getVariablesMetadata().getImportedPrefixes().size());
+
+		// No component
+		Assert.assertEquals( 0, new Instance( "inst" ).getVariablesMetadata().getImportedPrefixes().size());
+	}
+
+
+	@Test
+	public void testSerialization() throws Exception {
+
+		Component comp = new Component( "comp" );
+		comp.getExportedVariables().put( "comp.ip", null );
+		comp.getImportedVariables().put( "db.ip", Boolean.FALSE );
+
+		Instance instance = new Instance( "inst" ).component( comp );
+		instance.getOverriddenExports().put( "facet.port", "8080" );
+		Assert.assertEquals( 2, instance.getVariablesMetadata().getExportedPrefixes().size());
+
+		// The serialized form must not depend on internal classes (old agents would not read it)
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream( os );
+		oos.writeObject( instance );
+		oos.close();
+
+		byte[] bytes = os.toByteArray();
+		Assert.assertFalse( new String( bytes, "ISO-8859-1" ).contains( "VersionedMap" ));
+
+		ObjectInputStream ois = new ObjectInputStream( new ByteArrayInputStream( bytes ));
+		Instance newInstance = (Instance) ois.readObject();
+		ois.close();
+
+		// The cache still works after deserialization
+		Assert.assertEquals( 2, newInstance.getExports().size());
+		VariablesMetadata metadata = newInstance.getVariablesMetadata();
+		Assert.assertEquals( 2, metadata.getExportedPrefixes().size());
+		Assert.assertTrue( metadata.getImportedPrefixes().contains( "db" ));
+
+		newInstance.getExports().put( "other.port", "8081" );
+		Assert.assertEquals( 3, newInstance.getVariablesMetadata().getExportedPrefixes().size());
+
+		newInstance.getComponent().getImportedVariables().put( "cache.ip", Boolean.TRUE );
+		Assert.assertEquals( 2, newInstance.getVariablesMetadata().getImportedPrefixes().size());
+	}
 }
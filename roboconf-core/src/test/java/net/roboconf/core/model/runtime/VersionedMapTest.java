@@ -0,0 +1,101 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.core.model.runtime;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * @author Vincent Zurczak - Linagora
+ */
+public class VersionedMapTest {
+
+	@Test
+	public void testModificationsAreCounted() {
+
+		Map<String,String> delegate = new HashMap<String,String> ();
+		VersionedMap<String,String> map = new VersionedMap<String,String>( delegate, false );
+		Assert.assertEquals( 0, map.getVersion());
+
+		map.put( "k1", "v1" );
+		Assert.assertEquals( 1, map.getVersion());
+		Assert.assertEquals( "v1", delegate.get( "k1" ));
+
+		map.put( "k2", "v2" );
+		Assert.assertEquals( "v2", map.remove( "k2" ));
+		Assert.assertEquals( 3, map.getVersion());
+
+		map.put( "k2", "v2" );
+		Iterator<Map.Entry<String,String>> it = map.entrySet().iterator();
+		it.next();
+		it.remove();
+		Assert.assertEquals( 5, map.getVersion());
+		Assert.assertEquals( 1, delegate.size());
+
+		map.clear();
+		Assert.assertEquals( 6, map.getVersion());
+		Assert.assertEquals( 0, delegate.size());
+	}
+
+
+	@Test
+	public void testEntries_valuesNotTracked() {
+
+		Map<String,String> delegate = new HashMap<String,String> ();
+		delegate.put( "k1", "v1" );
+		VersionedMap<String,String> map = new VersionedMap<String,String>( delegate, false );
+
+		// The delegate's entries are returned as they are
+		Map.Entry<String,String> entry = map.entrySet().iterator().next();
+		Assert.assertSame( delegate.entrySet().iterator().next(), entry );
+
+		entry.setValue( "v2" );
+		Assert.assertEquals( "v2", delegate.get( "k1" ));
+		Assert.assertEquals( 0, map.getVersion());
+	}
+
+
+	@Test
+	public void testEntries_valuesTracked() {
+
+		Map<String,Boolean> delegate = new HashMap<String,Boolean> ();
+		delegate.put( "k1", Boolean.TRUE );
+		delegate.put( "k2", Boolean.TRUE );
+		VersionedMap<String,Boolean> map = new VersionedMap<String,Boolean>( delegate, true );
+
+		// A single entry is used by an iterator
+		Iterator<Map.Entry<String,Boolean>> it = map.entrySet().iterator();
+		Map.Entry<String,Boolean> entry1 = it.next();
+		String key1 = entry1.getKey();
+		Assert.assertEquals( Boolean.TRUE, entry1.setValue( Boolean.FALSE ));
+		Assert.assertEquals( Boolean.FALSE, delegate.get( key1 ));
+		Assert.assertEquals( 1, map.getVersion());
+
+		Map.Entry<String,Boolean> entry2 = it.next();
+		Assert.assertSame( entry1, entry2 );
+		Assert.assertFalse( key1.equals( entry2.getKey()));
+		Assert.assertEquals( delegate.entrySet().iterator().next().hashCode(), map.entrySet().iterator().next().hashCode());
+
+		// Copies are still correct
+		Assert.assertEquals( delegate, new HashMap<String,Boolean>( map ));
+	}
+}
@@ -48,6 +48,10 @@ public interface IApplicationWs {
 
 	/**
 	 * Performs an action on an instance of an application.
+	 * <p>
+	 * Deploying a root instance returns 202 (accepted): the machine is created in the background.
+	 * </p>
+	 *
 	 * @param applicationName the application name
 	 * @param action see {@link ApplicationAction}
 	 * @param instancePath the instance pat (not null)
@@ -95,6 +99,24 @@ public interface IApplicationWs {
 	Response undeployAll( @PathParam("name") String applicationName, @QueryParam("instance-path") String instancePath );
 
 
+	/**
+	 * Configures the warm pool of a root component.
+	 * <p>
+	 * The DM keeps this number of machines ready for the component. Deploying a root
+	 * instance of this component then claims one of them instead of creating a new machine.
+	 * </p>
+	 *
+	 * @param applicationName the application name
+	 * @param componentName the name of a root component
+	 * @param size the number of machines to keep ready (0 to disable the pool)
+	 * @return a response
+	 */
+	@POST
+	@Path( "/warm-pool/{componentName}" )
+	@Consumes( MediaType.APPLICATION_JSON )
+	Response configureWarmPool( @PathParam("name") String applicationName, @PathParam("componentName") String componentName, @QueryParam("size") int size );
+
+
 	/**
 	 * Adds a new instance.
 	 * @param applicationName the application name
@@ -164,6 +164,34 @@ public class ApplicationWsDelegate {
 	}
 
 
+	/**
+	 * Configures the warm pool of a root component.
+	 * @param applicationName the application name
+	 * @param componentName the name of a root component
+	 * @param size the number of machines to keep ready (0 to disable the pool)
+	 * @throws ApplicationException if something went wrong
+	 */
+	public void configureWarmPool( String applicationName, String componentName, int size )
+	throws ApplicationException {
+
+		this.logger.finer( "Setting the warm pool of " + componentName + " to " + size + " machine(s) in " + applicationName  );
+
+		WebResource path = this.resource
+				.path( UrlConstants.APP ).path( applicationName )
+				.path( "warm-pool" ).path( componentName )
+				.queryParam( "size", String.valueOf( size ));
+
+		ClientResponse response = path.accept( MediaType.APPLICATION_JSON ).post( ClientResponse.class );
+		if( Family.SUCCESSFUL != response.getStatusInfo().getFamily()) {
+			String value = response.getEntity( String.class );
+			this.logger.finer( response.getStatusInfo() + ": " + value );
+			throw new ApplicationException( response.getStatusInfo().getStatusCode(), value );
+		}
+
+		this.logger.finer( String.valueOf( response.getStatusInfo()));
+	}
+
+
 	/**
 	 * Lists all the children of an instance.
 	 * @param applicationName the application name
@@ -141,6 +141,10 @@ public class ApplicationWsDelegateTest extends JerseyTest {
 				ApplicationAction.DEPLOY,
 				InstanceHelpers.computeInstancePath( this.app.getMySqlVm()));
 
+		// The machine is created in the background
+		for( int i=0; i<50 && this.app.getMySqlVm().getData().get( Instance.MACHINE_ID ) == null; i++ )
+			Thread.sleep( 100 );
+
 		Assert.assertEquals( 1, iaasResolver.instanceToRunningStatus.size());
 		Assert.assertTrue( iaasResolver.instanceToRunningStatus.get( this.app.getMySqlVm()));
 	}
@@ -252,6 +256,30 @@ public class ApplicationWsDelegateTest extends JerseyTest {
 	}
 
 
+	@Test
+	public void testConfigureWarmPool() throws Exception {
+
+		Assert.assertEquals( 0, this.ma.getWarmPool().getSize( "vm" ));
+		this.client.getApplicationDelegate().configureWarmPool( this.app.getName(), "vm", 2 );
+		Assert.assertEquals( 2, this.ma.getWarmPool().getSize( "vm" ));
+
+		this.client.getApplicationDelegate().configureWarmPool( this.app.getName(), "vm", 0 );
+		Assert.assertEquals( 0, this.ma.getWarmPool().getSize( "vm" ));
+	}
+
+
+	@Test( expected = ApplicationException.class )
+	public void testConfigureWarmPool_notRootComponent() throws Exception {
+		this.client.getApplicationDelegate().configureWarmPool( this.app.getName(), "tomcat", 2 );
+	}
+
+
+	@Test( expected = ApplicationException.class )
+	public void testConfigureWarmPool_invalidApp() throws Exception {
+		this.client.getApplicationDelegate().configureWarmPool( "oops", "vm", 2 );
+	}
+
+
 	@Test
 	public void testListChildrenInstances() throws Exception {
 
@@ -53,10 +53,7 @@ public final class IaasHelpers {
 	 */
 	public static Map<String,String> loadIaasProperties( File applicationFilesDirectory, Instance instance ) throws IOException {
 
-		Instance realRootInstance = InstanceHelpers.findRootInstance( instance );
-		File f = ResourceUtils.findInstanceResourcesDirectory( applicationFilesDirectory, realRootInstance );
-		f = new File( f, Constants.IAAS_PROPERTIES_FILE_NAME );
-
+		File f = findIaasPropertiesFile( applicationFilesDirectory, instance );
 		Map<String, String> result = new HashMap<String, String>();
 		InputStream in = null;
 		try {
@@ -73,4 +70,18 @@ public final class IaasHelpers {
 
 		return result;
 	}
+
+
+	/**
+	 * Finds the file that contains the IaaS properties.
+	 * @param applicationFilesDirectory the directory where application resources are stored
+	 * @param instance the root instance to find the IaaS properties
+	 * @return a non-null file (that may not exist)
+	 */
+	public static File findIaasPropertiesFile( File applicationFilesDirectory, Instance instance ) {
+
+		Instance realRootInstance = InstanceHelpers.findRootInstance( instance );
+		File f = ResourceUtils.findInstanceResourcesDirectory( applicationFilesDirectory, realRootInstance );
+		return new File( f, Constants.IAAS_PROPERTIES_FILE_NAME );
+	}
 }
@@ -16,10 +16,14 @@
 
 package net.roboconf.dm.environment.iaas;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 
 import net.roboconf.core.Constants;
+import net.roboconf.core.model.helpers.InstanceHelpers;
 import net.roboconf.core.model.runtime.Instance;
 import net.roboconf.dm.management.ManagedApplication;
 import net.roboconf.iaas.api.IaasException;
@@ -33,11 +37,28 @@ import net.roboconf.iaas.vmware.IaasVmware;
 
 
 /**
+ * Finds and configures the IaaS handlers.
+ * <p>
+ * Handlers are cached per application and component. Configuring a handler may be expensive
+ * (e.g. authenticating against the cloud API), and handlers keep their sessions and tokens
+ * once configured. A cached handler is discarded when:
+ * </p>
+ * <ul>
+ * <li>its IaaS properties file was modified,</li>
+ * <li>it is older than {@link #CACHE_TIME_TO_LIVE} (so that tokens are renewed),</li>
+ * <li>or an operation failed with it (see {@link #invalidate(ManagedApplication, Instance)}).</li>
+ * </ul>
+ * <p>
+ * Handlers are configured under a lock per cache key. Configuring a slow handler
+ * only delays the instances of the same component, not the other IaaS.
+ * </p>
+ *
  * @author Vincent Zurczak - Linagora
  */
 public class IaasResolver {
 
 	public static final String IAAS_TYPE = "iaas.type";
+	public static final String MESSAGING_TYPE = "messaging.type";
 	public static final String IAAS_IN_MEMORY = "in-memory";
 	public static final String IAAS_EMBEDDED = "embedded";
 	public static final String IAAS_EC2 = "ec2";
@@ -45,9 +66,20 @@ public class IaasResolver {
 	public static final String IAAS_VMWARE = "vmware";
 	public static final String IAAS_AZURE = "azure";
 
+	private static final String KEY_SEPARATOR = "|";
+	static final long CACHE_TIME_TO_LIVE = 60 * 60 * 1000;
+
+	private final Map<String,HandlerHolder> keyToHolder = new HashMap<String,HandlerHolder> ();
+	private String messagingType;
+
 
 	/**
 	 * Finds the right IaaS interface for a given instance.
+	 * <p>
+	 * The returned handler is already configured. It may be shared with other
+	 * instances of the same component.
+	 * </p>
+	 *
 	 * @param ma the managed application
 	 * @param instance the (root) instance associated with a IaaS
 	 * @return a IaaS interface
@@ -62,12 +94,34 @@ public class IaasResolver {
 			if( ! Constants.IAAS_INSTALLER.equalsIgnoreCase( installerName ))
 				throw new IaasException( "Unsupported installer name: " + installerName );
 
-			Map<String, String> props = IaasHelpers.loadIaasProperties( ma.getApplicationFilesDirectory(), instance );
-			iaasInterface = findIaasHandler( props );
-			if( iaasInterface == null )
-				throw new IaasException( "No IaaS handler was found for " + instance.getName() + "." );
+			File propertiesFile = IaasHelpers.findIaasPropertiesFile( ma.getApplicationFilesDirectory(), instance );
+			HandlerHolder holder = findHolder( buildKey( ma, instance ));
+			synchronized( holder ) {
+
+				CachedHandler cachedHandler = holder.cachedHandler;
+				if( cachedHandler != null && cachedHandler.isValid( propertiesFile )) {
+					iaasInterface = cachedHandler.iaasInterface;
 
-			iaasInterface.setIaasProperties( props );
+				} else {
+					// Load the properties before configuring the handler, so that
+					// a modification in between is detected at the next invocation
+					holder.cachedHandler = null;
+					long lastModified = propertiesFile.lastModified();
+					long length = propertiesFile.length();
+
+					Map<String, String> props = IaasHelpers.loadIaasProperties( ma.getApplicationFilesDirectory(), instance );
+					iaasInterface = findIaasHandler( props );
+					if( iaasInterface == null )
+						throw new IaasException( "No IaaS handler was found for " + instance.getName() + "." );
+
+					// Handlers that run agents locally need the DM's messaging type
+					if( this.messagingType != null )
+						props.put( MESSAGING_TYPE, this.messagingType );
+
+					iaasInterface.setIaasProperties( props );
+					holder.cachedHandler = new CachedHandler( iaasInterface, lastModified, length );
+				}
+			}
 
 		} catch( IOException e ) {
 			throw new IaasException( e );
@@ -77,6 +131,64 @@ public class IaasResolver {
 	}
 
 
+	/**
+	 * @param messagingType the DM's messaging type, passed to the handlers as the {@link #MESSAGING_TYPE} property
+	 */
+	public void setMessagingType( String messagingType ) {
+		this.messagingType = messagingType;
+	}
+
+
+	/**
+	 * @return the DM's messaging type (can be null)
+	 */
+	public String getMessagingType() {
+		return this.messagingType;
+	}
+
+
+	/**
+	 * Discards the cached handler of an instance.
+	 * <p>
+	 * It should be invoked when an operation failed with this handler, so that
+	 * the next operation uses a new handler (with a new session, a new token, etc).
+	 * </p>
+	 *
+	 * @param ma the managed application
+	 * @param instance the (root) instance associated with a IaaS
+	 */
+	public void invalidate( ManagedApplication ma, Instance instance ) {
+
+		// Do not wait for a handler being configured
+		HandlerHolder holder;
+		synchronized( this.keyToHolder ) {
+			holder = this.keyToHolder.get( buildKey( ma, instance ));
+		}
+
+		if( holder != null )
+			holder.cachedHandler = null;
+	}
+
+
+	/**
+	 * Discards all the cached handlers of an application.
+	 * @param ma the managed application
+	 */
+	public void invalidate( ManagedApplication ma ) {
+
+		String prefix = ma.getName() + KEY_SEPARATOR;
+		synchronized( this.keyToHolder ) {
+			for( Iterator<Map.Entry<String,HandlerHolder>> it = this.keyToHolder.entrySet().iterator(); it.hasNext(); ) {
+				Map.Entry<String,HandlerHolder> entry = it.next();
+				if( entry.getKey().startsWith( prefix )) {
+					entry.getValue().cachedHandler = null;
+					it.remove();
+				}
+			}
+		}
+	}
+
+
 	/**
 	 * Finds the right IaaS handler.
 	 * @param iaasProperties non-null properties
@@ -120,4 +232,73 @@ public class IaasResolver {
 
 		return result;
 	}
+
+
+	/**
+	 * Finds the holder associated with a cache key, and creates it if necessary.
+	 * @param key a cache key
+	 * @return a non-null holder
+	 */
+	private HandlerHolder findHolder( String key ) {
+
+		synchronized( this.keyToHolder ) {
+			HandlerHolder result = this.keyToHolder.get( key );
+			if( result == null ) {
+				result = new HandlerHolder();
+				this.keyToHolder.put( key, result );
+			}
+
+			return result;
+		}
+	}
+
+
+	private static String buildKey( ManagedApplication ma, Instance instance ) {
+		Instance realRootInstance = InstanceHelpers.findRootInstance( instance );
+		return ma.getName() + KEY_SEPARATOR + realRootInstance.getComponent().getName();
+	}
+
+
+	/**
+	 * The cached handler of a key.
+	 * <p>
+	 * It is also the lock under which the handler of this key is configured.
+	 * </p>
+	 */
+	private static final class HandlerHolder {
+		volatile CachedHandler cachedHandler;
+	}
+
+
+	/**
+	 * A configured handler and the version of the properties it was configured with.
+	 */
+	private static final class CachedHandler {
+
+		final IaasInterface iaasInterface;
+		final long lastModified, length, creationTime;
+
+
+		/**
+		 * Constructor.
+		 */
+		CachedHandler( IaasInterface iaasInterface, long lastModified, long length ) {
+			this.iaasInterface = iaasInterface;
+			this.lastModified = lastModified;
+			this.length = length;
+			this.creationTime = System.currentTimeMillis();
+		}
+
+
+		/**
+		 * @param propertiesFile the IaaS properties file
+		 * @return true if this handler can still be used, false otherwise
+		 */
+		boolean isValid( File propertiesFile ) {
+
+			return System.currentTimeMillis() - this.creationTime < CACHE_TIME_TO_LIVE
+					&& propertiesFile.lastModified() == this.lastModified
+					&& propertiesFile.length() == this.length;
+		}
+	}
 }
@@ -25,7 +25,8 @@ import net.roboconf.core.model.runtime.Instance;
 import net.roboconf.core.model.runtime.Instance.InstanceStatus;
 import net.roboconf.dm.management.ManagedApplication;
 import net.roboconf.dm.management.Manager;
-import net.roboconf.messaging.client.AbstractMessageProcessor;
+import net.roboconf.dm.management.WarmPool;
+import net.roboconf.messaging.client.PartitionedMessageProcessor;
 import net.roboconf.messaging.messages.Message;
 import net.roboconf.messaging.messages.from_agent_to_dm.MsgNotifHeartbeat;
 import net.roboconf.messaging.messages.from_agent_to_dm.MsgNotifInstanceChanged;
@@ -36,16 +37,94 @@ import net.roboconf.messaging.messages.from_agent_to_dm.MsgNotifMachineUp;
 /**
  * This class is in charge of updating the model from messages / notifications.
  * <p>
- * These messages have been sent by an agent.
+ * These messages have been sent by an agent. They are processed by several threads,
+ * but messages related to a same root instance are always processed in order.
+ * Messages related to different root instances of a same application may be processed
+ * concurrently. So, the model is only read and modified while holding the lock of the managed
+ * application (see {@link ManagedApplication}).
  * </p>
  *
  * @author Noël - LIG
  */
-public class DmMessageProcessor extends AbstractMessageProcessor {
+public class DmMessageProcessor extends PartitionedMessageProcessor {
 
 	private final Logger logger = Logger.getLogger( DmMessageProcessor.class.getName());
 
 
+	/**
+	 * Constructor.
+	 * <p>
+	 * There is one lane per available processor.
+	 * </p>
+	 */
+	public DmMessageProcessor() {
+		this( Runtime.getRuntime().availableProcessors());
+	}
+
+
+	/**
+	 * Constructor.
+	 * @param laneCount the number of lanes (i.e. threads) to process messages
+	 */
+	public DmMessageProcessor( int laneCount ) {
+		super( "Roboconf - Message Processor", laneCount );
+	}
+
+
+	/**
+	 * Finds the partition key of a message.
+	 * <p>
+	 * Messages are partitioned by application and root instance.
+	 * This way, messages related to a same machine are processed in order.
+	 * </p>
+	 */
+	@Override
+	protected String findPartitionKey( Message message ) {
+
+		String applicationName = null, rootInstanceName = null;
+		if( message instanceof MsgNotifMachineUp ) {
+			applicationName = ((MsgNotifMachineUp) message).getApplicationName();
+			rootInstanceName = ((MsgNotifMachineUp) message).getRootInstanceName();
+
+		} else if( message instanceof MsgNotifMachineDown ) {
+			applicationName = ((MsgNotifMachineDown) message).getApplicationName();
+			rootInstanceName = ((MsgNotifMachineDown) message).getRootInstanceName();
+
+		} else if( message instanceof MsgNotifHeartbeat ) {
+			applicationName = ((MsgNotifHeartbeat) message).getApplicationName();
+			rootInstanceName = ((MsgNotifHeartbeat) message).getRootInstanceName();
+
+		} else if( message instanceof MsgNotifInstanceChanged ) {
+			applicationName = ((MsgNotifInstanceChanged) message).getApplicationName();
+			rootInstanceName = findRootInstanceName(((MsgNotifInstanceChanged) message).getInstancePath());
+
+		} else if( message instanceof MsgNotifInstanceRemoved ) {
+			applicationName = ((MsgNotifInstanceRemoved) message).getApplicationName();
+			rootInstanceName = findRootInstanceName(((MsgNotifInstanceRemoved) message).getInstancePath());
+		}
+
+		return applicationName + "/" + rootInstanceName;
+	}
+
+
+	/**
+	 * Finds the root instance name from an instance path.
+	 * @param instancePath an instance path (can be null)
+	 * @return the first segment of the path, or null if the path was null
+	 */
+	static String findRootInstanceName( String instancePath ) {
+
+		String result = null;
+		if( instancePath != null ) {
+			int start = instancePath.startsWith( "/" ) ? 1 : 0;
+			int end = instancePath.indexOf( '/', start );
+			result = end < 0 ? instancePath.substring( start ) : instancePath.substring( start, end );
+		}
+
+		return result;
+	}
+
+
 
 	/**
 	 * Processes a message (dispatch method).
@@ -79,11 +158,22 @@ public class DmMessageProcessor extends AbstractMessageProcessor {
 		String ipAddress = message.getIpAddress();
 		String rootInstanceName = message.getRootInstanceName();
 		ManagedApplication ma = Manager.INSTANCE.getAppNameToManagedApplication().get( message.getApplicationName());
-		Application app = ma != null ? ma.getApplication() : null;
-		Instance rootInstance = InstanceHelpers.findInstanceByPath( app, "/" + rootInstanceName );
+		Instance rootInstance = null;
+		if( ma != null ) {
+			synchronized( ma ) {
+				rootInstance = InstanceHelpers.findInstanceByPath( ma.getApplication(), "/" + rootInstanceName );
+				if( rootInstance != null )
+					rootInstance.getData().put( Instance.IP_ADDRESS, ipAddress );
+			}
+		}
 
-		// If 'app' is null, then 'instance' is also null.
-		if( rootInstance == null ) {
+		// If 'ma' is null, then 'instance' is also null.
+		if( rootInstance == null
+				&& ma != null
+				&& ma.getWarmPool().markReady( rootInstanceName )) {
+			this.logger.fine( "Standby machine " + rootInstanceName + " @ " + ipAddress + " is up and ready." );
+
+		} else if( rootInstance == null ) {
 			StringBuilder sb = new StringBuilder();
 			sb.append( "An 'UP' notification was received from an unknown machine: " );
 			sb.append( rootInstanceName );
@@ -95,11 +185,13 @@ public class DmMessageProcessor extends AbstractMessageProcessor {
 			this.logger.warning( sb.toString());
 
 		} else {
-			rootInstance.setStatus( InstanceStatus.DEPLOYED_STARTED );
-			rootInstance.getData().put( Instance.IP_ADDRESS, ipAddress );
 			this.logger.fine( rootInstanceName + " @ " + ipAddress + " is up and running." );
-			// The UP message has already been stored by the manager. It will be sent on the next timer tick.
-			Manager.INSTANCE.saveConfiguration( ma );
+
+			// This is the first sign of life: the machine's status is updated
+			// and the heart beats are now monitored. The ADD message has already been stored
+			// by the manager. It is sent right now, without waiting for the timer.
+			ma.acknowledgeHeartBeat( rootInstance );
+			Manager.INSTANCE.saveConfiguration( ma, rootInstance );
 		}
 	}
 
@@ -107,11 +199,26 @@ public class DmMessageProcessor extends AbstractMessageProcessor {
 	private void processMsgNotifMachineDown( MsgNotifMachineDown message ) {
 
 		String rootInstanceName = message.getRootInstanceName();
-		Application app = Manager.INSTANCE.findApplicationByName( message.getApplicationName());
-		Instance rootInstance = InstanceHelpers.findInstanceByPath( app, "/" + rootInstanceName );
+		ManagedApplication ma = Manager.INSTANCE.getAppNameToManagedApplication().get( message.getApplicationName());
+		Application app = ma == null ? null : ma.getApplication();
+		Instance rootInstance = null;
+		if( ma != null ) {
+			synchronized( ma ) {
+				rootInstance = InstanceHelpers.findInstanceByPath( app, "/" + rootInstanceName );
+				if( rootInstance != null )
+					rootInstance.setStatus( InstanceStatus.NOT_DEPLOYED );
+			}
+		}
 
 		// If 'app' is null, then 'instance' is also null.
-		if( rootInstance == null ) {
+		if( rootInstance == null && WarmPool.isStandbyName( rootInstanceName )) {
+			// The pool will be refilled by the manager
+			if( ma != null )
+				ma.getWarmPool().remove( rootInstanceName );
+
+			this.logger.fine( "Standby machine " + rootInstanceName + " is now terminated." );
+
+		} else if( rootInstance == null ) {
 			StringBuilder sb = new StringBuilder();
 			sb.append( "A 'DOWN' notification was received from an unknown machine: " );
 			sb.append( rootInstanceName );
@@ -121,7 +228,6 @@ public class DmMessageProcessor extends AbstractMessageProcessor {
 			this.logger.warning( sb.toString());
 
 		} else {
-			rootInstance.setStatus( InstanceStatus.NOT_DEPLOYED );
 			this.logger.info( rootInstanceName + " is now terminated. Back to NOT_DEPLOYED state." );
 		}
 	}
@@ -133,10 +239,21 @@ public class DmMessageProcessor extends AbstractMessageProcessor {
 		String rootInstanceName = message.getRootInstanceName();
 		ManagedApplication ma = Manager.INSTANCE.getAppNameToManagedApplication().get( message.getApplicationName());
 		Application app = ma == null ? null : ma.getApplication();
-		Instance rootInstance = InstanceHelpers.findInstanceByPath( app, "/" + rootInstanceName );
+		Instance rootInstance = null;
+		if( ma != null ) {
+			synchronized( ma ) {
+				rootInstance = InstanceHelpers.findInstanceByPath( app, "/" + rootInstanceName );
+			}
+		}
 
 		// If 'app' is null, then 'instance' is also null.
-		if( rootInstance == null ) {
+		if( rootInstance == null && WarmPool.isStandbyName( rootInstanceName )) {
+			if( ma != null )
+				ma.getWarmPool().acknowledgeHeartBeat( rootInstanceName );
+
+			this.logger.finest( "A heart beat was received from standby machine " + rootInstanceName + "." );
+
+		} else if( rootInstance == null ) {
 			StringBuilder sb = new StringBuilder();
 			sb.append( "A 'HEART BEAT' was received from an unknown machine: " );
 			sb.append( rootInstanceName );
@@ -155,8 +272,20 @@ public class DmMessageProcessor extends AbstractMessageProcessor {
 	private void processMsgNotifInstanceChanged( MsgNotifInstanceChanged message ) {
 
 		String instancePath = message.getInstancePath();
-		Application app = Manager.INSTANCE.findApplicationByName( message.getApplicationName());
-		Instance instance = InstanceHelpers.findInstanceByPath( app, instancePath );
+		ManagedApplication ma = Manager.INSTANCE.getAppNameToManagedApplication().get( message.getApplicationName());
+		Application app = ma == null ? null : ma.getApplication();
+		Instance instance = null;
+		InstanceStatus oldStatus = null;
+		if( ma != null ) {
+			synchronized( ma ) {
+				instance = InstanceHelpers.findInstanceByPath( app, instancePath );
+				if( instance != null ) {
+					oldStatus = instance.getStatus();
+					instance.setStatus( message.getNewStatus());
+					ImportHelpers.updateImports( instance, message.getNewImports());
+				}
+			}
+		}
 
 		// If 'app' is null, then 'instance' is also null.
 		if( instance == null ) {
@@ -169,10 +298,6 @@ public class DmMessageProcessor extends AbstractMessageProcessor {
 			this.logger.warning( sb.toString());
 
 		} else {
-			InstanceStatus oldStatus = instance.getStatus();
-			instance.setStatus( message.getNewStatus());
-			ImportHelpers.updateImports( instance, message.getNewImports());
-
 			StringBuilder sb = new StringBuilder();
 			sb.append( "Status changed from " );
 			sb.append( oldStatus );
@@ -189,8 +314,18 @@ public class DmMessageProcessor extends AbstractMessageProcessor {
 	private void processMsgNotifInstanceRemoved( MsgNotifInstanceRemoved message ) {
 
 		String instancePath = message.getInstancePath();
-		Application app = Manager.INSTANCE.findApplicationByName( message.getApplicationName());
-		Instance instance = InstanceHelpers.findInstanceByPath( app, instancePath );
+		ManagedApplication ma = Manager.INSTANCE.getAppNameToManagedApplication().get( message.getApplicationName());
+		Application app = ma == null ? null : ma.getApplication();
+		Instance instance = null;
+		if( ma != null ) {
+			synchronized( ma ) {
+				instance = InstanceHelpers.findInstanceByPath( app, instancePath );
+				if( instance != null && instance.getParent() != null ) {
+					Manager.INSTANCE.saveRemoval( ma, instance );
+					InstanceHelpers.removeInstance( app, instance );
+				}
+			}
+		}
 
 		// If 'app' is null, then 'instance' is also null.
 		if( instance == null ) {
@@ -205,8 +340,6 @@ public class DmMessageProcessor extends AbstractMessageProcessor {
 		} else {
 			if( instance.getParent() == null )
 				this.logger.warning( "Anormal behavior. A 'REMOVE' notification was received for a root instance: " + instancePath + "." );
-			else
-				instance.getParent().getChildren().remove( instance );
 
 			this.logger.info( "Instance " + instancePath + " was removed from the model." );
 		}
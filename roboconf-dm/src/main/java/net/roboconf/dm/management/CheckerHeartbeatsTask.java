@@ -29,7 +29,9 @@ public class CheckerHeartbeatsTask extends TimerTask {
 	 */
 	@Override
 	public void run() {
-		for( ManagedApplication ma : Manager.INSTANCE.getAppNameToManagedApplication().values())
+		for( ManagedApplication ma : Manager.INSTANCE.getAppNameToManagedApplication().values()) {
 			ma.checkStates();
+			Manager.INSTANCE.checkStandbyMachines( ma );
+		}
 	}
 }
@@ -16,24 +16,45 @@
 
 package net.roboconf.dm.management;
 
-import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.TimerTask;
 import java.util.logging.Logger;
 
+import net.roboconf.core.model.helpers.InstanceHelpers;
 import net.roboconf.core.model.runtime.Instance;
 import net.roboconf.core.model.runtime.Instance.InstanceStatus;
-import net.roboconf.core.utils.Utils;
 import net.roboconf.messaging.client.IDmClient;
-import net.roboconf.messaging.messages.Message;
 
 /**
+ * A task that retries to send awaiting messages.
+ * <p>
+ * Awaiting messages are normally sent as soon as a machine is known to be online
+ * (see {@link Manager#flushAwaitingMessages(ManagedApplication, Instance)}).
+ * This task is a fallback. It only considers root instances that still have
+ * awaiting messages. When sending fails, next attempts for this root instance
+ * are delayed with an exponential backoff.
+ * </p>
+ * <p>
+ * This task serves all the applications. Root instances of different applications
+ * may have the same path, so the backoff state is associated with the application
+ * name and the root instance path.
+ * </p>
+ *
  * @author Vincent Zurczak - Linagora
  */
 public class CheckerMessagesTask extends TimerTask {
 
+	static final long MAX_BACKOFF_DELAY = 5 * 60 * 1000;
+
 	private final IDmClient messagingClient;
 	private final Logger logger;
+	final Map<List<String>,Integer> keyToFailuresCount = new HashMap<List<String>,Integer> ();
+	final Map<List<String>,Long> keyToNextAttempt = new HashMap<List<String>,Long> ();
 
 
 	/**
@@ -53,28 +74,65 @@ public class CheckerMessagesTask extends TimerTask {
 	@Override
 	public void run() {
 
+		long now = System.currentTimeMillis();
+		Set<List<String>> visitedKeys = new HashSet<List<String>> ();
 		for( ManagedApplication ma : Manager.INSTANCE.getAppNameToManagedApplication().values()) {
-			for( Instance rootInstance : ma.getApplication().getRootInstances()) {
+			for( Instance rootInstance : ma.findRootInstancesWithAwaitingMessages()) {
+				List<String> key = buildKey( ma, rootInstance );
+				visitedKeys.add( key );
 				if( rootInstance.getStatus() != InstanceStatus.DEPLOYED_STARTED )
 					continue;
 
-				List<Message> messages = ma.removeAwaitingMessages( rootInstance );
-				if( ! messages.isEmpty())
-					this.logger.fine( "Sending " + messages.size() + " awaiting message(s) for " + rootInstance.getName() + "." );
+				Long nextAttempt = this.keyToNextAttempt.get( key );
+				if( nextAttempt != null && nextAttempt > now )
+					continue;
 
-				for( Message msg : messages ) {
+				// If the messages could not be sent, delay the next retry
+				if( ma.sendAwaitingMessages( rootInstance, this.messagingClient )) {
+					this.keyToFailuresCount.remove( key );
+					this.keyToNextAttempt.remove( key );
 
-					// If the message could not be send, plan a retry
-					try {
-						this.messagingClient.sendMessageToAgent( ma.getApplication(), rootInstance, msg );
+				} else {
+					Integer count = this.keyToFailuresCount.get( key );
+					count = count == null ? 1 : count + 1;
+					this.keyToFailuresCount.put( key, count );
 
-					} catch( IOException e ) {
-						ma.storeAwaitingMessage( rootInstance, msg );
-						this.logger.severe( "Error while sending a stored message. Retry planned. " + e.getMessage());
-						this.logger.finest( Utils.writeException( e ));
-					}
+					long delay = computeBackoffDelay( count );
+					this.keyToNextAttempt.put( key, now + delay );
+					this.logger.fine( "Next attempt to send messages to " + rootInstance.getName() + " in " + delay + " ms." );
 				}
 			}
 		}
+
+		// Forget about root instances that do not have awaiting messages anymore
+		this.keyToFailuresCount.keySet().retainAll( visitedKeys );
+		this.keyToNextAttempt.keySet().retainAll( visitedKeys );
+	}
+
+
+	/**
+	 * Builds the key of the backoff state of a root instance.
+	 * @param ma the managed application
+	 * @param rootInstance a root instance of this application
+	 * @return a non-null key (application name, root instance path)
+	 */
+	static List<String> buildKey( ManagedApplication ma, Instance rootInstance ) {
+		return Arrays.asList( ma.getName(), InstanceHelpers.computeInstancePath( rootInstance ));
+	}
+
+
+	/**
+	 * Computes the delay before a new attempt.
+	 * @param failuresCount the number of consecutive failures (at least 1)
+	 * @return a delay in milliseconds, between the timer period and {@link #MAX_BACKOFF_DELAY}
+	 */
+	static long computeBackoffDelay( int failuresCount ) {
+
+		// Do not overflow
+		long result = MAX_BACKOFF_DELAY;
+		if( failuresCount < 20 )
+			result = Math.min( MAX_BACKOFF_DELAY, Manager.TIMER_PERIOD << ( failuresCount - 1 ));
+
+		return result;
 	}
 }
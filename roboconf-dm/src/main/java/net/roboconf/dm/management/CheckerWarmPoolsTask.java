@@ -0,0 +1,36 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.dm.management;
+
+import java.util.TimerTask;
+
+/**
+ * A task that refills the warm pools, e.g. after standby machines failed.
+ * @author Vincent Zurczak - Linagora
+ */
+public class CheckerWarmPoolsTask extends TimerTask {
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.util.TimerTask#run()
+	 */
+	@Override
+	public void run() {
+		for( ManagedApplication ma : Manager.INSTANCE.getAppNameToManagedApplication().values())
+			Manager.INSTANCE.refillWarmPool( ma );
+	}
+}
@@ -0,0 +1,372 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.roboconf.dm.management;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import net.roboconf.core.model.helpers.ComponentHelpers;
+import net.roboconf.core.model.helpers.InstanceHelpers;
+import net.roboconf.core.model.runtime.Application;
+import net.roboconf.core.model.runtime.Component;
+import net.roboconf.core.model.runtime.Graphs;
+import net.roboconf.core.model.runtime.Instance;
+import net.roboconf.core.model.runtime.Instance.InstanceStatus;
+import net.roboconf.core.utils.Utils;
+
+/**
+ * An append-only journal of instance mutations.
+ * <p>
+ * Every record is a line. It describes the whole state of an instance
+ * (PUT) or the removal of an instance and of its children (REMOVE).
+ * Records are absolute, which means replaying a record several times leads to the
+ * same result. Thus, replaying a journal on a snapshot that already contains some of its
+ * records is harmless.
+ * </p>
+ * <p>
+ * Fields are separated by spaces and URL-encoded.
+ * </p>
+ * <pre>
+ * PUT instance-path component-name channel status data overridden-exports
+ * REMOVE instance-path
+ * </pre>
+ *
+ * @author Vincent Zurczak - Linagora
+ */
+final class InstancesJournal {
+
+	static final String PUT = "PUT";
+	static final String REMOVE = "REMOVE";
+
+	private static final String UTF_8 = "UTF-8";
+	private static final Logger LOGGER = Logger.getLogger( InstancesJournal.class.getName());
+
+
+	/**
+	 * Private empty constructor.
+	 */
+	private InstancesJournal() {
+		// nothing
+	}
+
+
+	/**
+	 * Builds the records that describe an instance and all its children.
+	 * @param instance an instance (not null)
+	 * @return a non-null list of records
+	 */
+	static List<String> buildPutRecords( Instance instance ) {
+
+		List<String> result = new ArrayList<String> ();
+		for( Instance inst : InstanceHelpers.buildHierarchicalList( instance ))
+			result.add( buildPutRecord( inst ));
+
+		return result;
+	}
+
+
+	/**
+	 * Builds the record that describes an instance (but not its children).
+	 * @param instance an instance (not null)
+	 * @return a non-null record
+	 */
+	static String buildPutRecord( Instance instance ) {
+
+		StringBuilder sb = new StringBuilder( PUT );
+		sb.append( ' ' );
+		sb.append( encode( InstanceHelpers.computeInstancePath( instance )));
+		sb.append( ' ' );
+		sb.append( encode( instance.getComponent() == null ? null : instance.getComponent().getName()));
+		sb.append( ' ' );
+		sb.append( encode( instance.getChannel()));
+		sb.append( ' ' );
+		sb.append( encode( instance.getStatus().toString()));
+		sb.append( ' ' );
+		sb.append( encode( instance.getData()));
+		sb.append( ' ' );
+		sb.append( encode( instance.getOverriddenExports()));
+
+		return sb.toString();
+	}
+
+
+	/**
+	 * Builds the record that describes the removal of an instance.
+	 * @param instance an instance (not null)
+	 * @return a non-null record
+	 */
+	static String buildRemoveRecord( Instance instance ) {
+		return REMOVE + " " + encode( InstanceHelpers.computeInstancePath( instance ));
+	}
+
+
+	/**
+	 * Adds records to pending ones, so that each instance is described at most once.
+	 * <p>
+	 * A PUT record replaces the previous PUT record of the same instance, at the same position.
+	 * This way, parents are still created before their children. A REMOVE record discards
+	 * all the previous records of the instance and of its children, and it is then appended.
+	 * Replaying the pending records leads to the same result than replaying all the records.
+	 * </p>
+	 *
+	 * @param pendingRecords the pending records (key = record type and instance path, value = record)
+	 * @param records the records to add (not null)
+	 */
+	static void coalesce( Map<String,String> pendingRecords, List<String> records ) {
+
+		for( String record : records ) {
+			String[] fields = record.split( " ", 3 );
+			String path = decode( fields[ 1 ]);
+			if( REMOVE.equals( fields[ 0 ])) {
+				for( Iterator<String> it = pendingRecords.keySet().iterator(); it.hasNext(); ) {
+					String key = it.next();
+					String keyPath = key.substring( key.indexOf( ' ' ) + 1 );
+					if( keyPath.equals( path ) || keyPath.startsWith( path + "/" ))
+						it.remove();
+				}
+			}
+
+			pendingRecords.put( fields[ 0 ] + " " + path, record );
+		}
+	}
+
+
+	/**
+	 * Appends records to a journal file.
+	 * @param journalFile the journal file (created if necessary)
+	 * @param records the records to append (not null)
+	 * @throws IOException if the records could not be written
+	 */
+	static void append( File journalFile, List<String> records ) throws IOException {
+
+		StringBuilder sb = new StringBuilder();
+		for( String record : records ) {
+			sb.append( record );
+			sb.append( '\n' );
+		}
+
+		OutputStream os = null;
+		try {
+			os = new FileOutputStream( journalFile, true );
+			os.write( sb.toString().getBytes( UTF_8 ));
+
+		} finally {
+			Utils.closeQuietly( os );
+		}
+	}
+
+
+	/**
+	 * Replays a journal on root instances.
+	 * <p>
+	 * Invalid records are ignored. This includes a last record that would
+	 * have been partially written.
+	 * </p>
+	 *
+	 * @param journalFile the journal file (may not exist)
+	 * @param rootInstances the root instances to update (not null)
+	 * @param graphs the graph(s) to resolve components (not null)
+	 * @return the number of records that were read
+	 * @throws IOException if the journal could not be read
+	 */
+	static int replay( File journalFile, Collection<Instance> rootInstances, Graphs graphs ) throws IOException {
+
+		int result = 0;
+		if( journalFile.exists()) {
+
+			// Work on an application, so that instances are indexed during the replay
+			Application tempApplication = new Application();
+			tempApplication.getRootInstances().addAll( rootInstances );
+
+			InputStream in = null;
+			try {
+				in = new FileInputStream( journalFile );
+				BufferedReader reader = new BufferedReader( new InputStreamReader( in, UTF_8 ));
+				String line;
+				while(( line = reader.readLine()) != null ) {
+					if( Utils.isEmptyOrWhitespaces( line ))
+						continue;
+
+					result ++;
+					if( ! replayRecord( line, tempApplication, graphs ))
+						LOGGER.warning( "An invalid record was ignored in " + journalFile.getName() + ": " + line );
+				}
+
+			} finally {
+				Utils.closeQuietly( in );
+			}
+
+			rootInstances.clear();
+			rootInstances.addAll( tempApplication.getRootInstances());
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Replays a single record.
+	 * @param record a record (not null)
+	 * @param application the application to update (not null)
+	 * @param graphs the graph(s) to resolve components (not null)
+	 * @return true if the record was valid, false otherwise
+	 */
+	static boolean replayRecord( String record, Application application, Graphs graphs ) {
+
+		String[] fields = record.split( " ", -1 );
+		boolean valid = false;
+		try {
+			if( fields.length == 2 && REMOVE.equals( fields[ 0 ])) {
+				Instance instance = InstanceHelpers.findInstanceByPath( application, decode( fields[ 1 ]));
+				if( instance != null )
+					InstanceHelpers.removeInstance( application, instance );
+
+				valid = true;
+
+			} else if( fields.length == 7 && PUT.equals( fields[ 0 ])) {
+				String path = decode( fields[ 1 ]);
+				Instance instance = InstanceHelpers.findInstanceByPath( application, path );
+				if( instance == null )
+					instance = createInstance( path, decode( fields[ 2 ]), application, graphs );
+
+				if( instance != null ) {
+					instance.setChannel( decode( fields[ 3 ]));
+					instance.setStatus( InstanceStatus.wichStatus( decode( fields[ 4 ])));
+
+					instance.getData().clear();
+					instance.getData().putAll( decodeMap( fields[ 5 ]));
+
+					instance.getOverriddenExports().clear();
+					instance.getOverriddenExports().putAll( decodeMap( fields[ 6 ]));
+					valid = true;
+				}
+			}
+
+		} catch( IllegalArgumentException e ) {
+			// Truncated or corrupted record: invalid
+			LOGGER.finest( Utils.writeException( e ));
+		}
+
+		return valid;
+	}
+
+
+	/**
+	 * Creates an instance and inserts it in the model.
+	 * @param path the instance path (not null)
+	 * @param componentName the component name (can be null)
+	 * @param application the application (not null)
+	 * @param graphs the graph(s) to resolve components (not null)
+	 * @return the new instance, or null if it could not be created
+	 */
+	private static Instance createInstance( String path, String componentName, Application application, Graphs graphs ) {
+
+		Instance result = null;
+		Component component = componentName == null ? null : ComponentHelpers.findComponent( graphs, componentName );
+		int index = path.lastIndexOf( '/' );
+		if( component != null && index >= 0 ) {
+
+			String parentPath = path.substring( 0, index );
+			Instance parent = parentPath.length() == 0 ? null : InstanceHelpers.findInstanceByPath( application, parentPath );
+			if( parent != null ) {
+				result = new Instance( path.substring( index + 1 )).component( component );
+				InstanceHelpers.insertChild( parent, result );
+
+			} else if( parentPath.length() == 0 ) {
+				result = new Instance( path.substring( index + 1 )).component( component );
+				application.getRootInstances().add( result );
+			}
+		}
+
+		return result;
+	}
+
+
+	private static String encode( Map<String,String> map ) {
+
+		StringBuilder sb = new StringBuilder();
+		for( Map.Entry<String,String> entry : map.entrySet()) {
+			if( sb.length() > 0 )
+				sb.append( '&' );
+
+			sb.append( encode( entry.getKey()));
+			sb.append( '=' );
+			sb.append( encode( entry.getValue()));
+		}
+
+		return encode( sb.toString());
+	}
+
+
+	private static Map<String,String> decodeMap( String s ) {
+
+		Map<String,String> result = new LinkedHashMap<String,String> ();
+		String decoded = decode( s );
+		if( decoded != null ) {
+			for( String pair : decoded.split( "&" )) {
+				int index = pair.indexOf( '=' );
+				if( index < 0 )
+					throw new IllegalArgumentException( "Invalid map entry: " + pair );
+
+				result.put( decode( pair.substring( 0, index )), decode( pair.substring( index + 1 )));
+			}
+		}
+
+		return result;
+	}
+
+
+	private static String encode( String s ) {
+
+		try {
+			return s == null ? "" : URLEncoder.encode( s, UTF_8 );
+
+		} catch( UnsupportedEncodingException e ) {
+			// UTF-8 is always supported
+			throw new IllegalStateException( e );
+		}
+	}
+
+
+	private static String decode( String s ) {
+
+		try {
+			return s.length() == 0 ? null : URLDecoder.decode( s, UTF_8 );
+
+		} catch( UnsupportedEncodingException e ) {
+			// UTF-8 is always supported
+			throw new IllegalStateException( e );
+		}
+	}
+}
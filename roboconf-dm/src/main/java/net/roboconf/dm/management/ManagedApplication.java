@@ -17,11 +17,13 @@
 package net.roboconf.dm.management;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
@@ -29,10 +31,19 @@ import net.roboconf.core.model.helpers.InstanceHelpers;
 import net.roboconf.core.model.runtime.Application;
 import net.roboconf.core.model.runtime.Instance;
 import net.roboconf.core.model.runtime.Instance.InstanceStatus;
+import net.roboconf.core.utils.Utils;
+import net.roboconf.messaging.client.IDmClient;
 import net.roboconf.messaging.messages.Message;
 
 /**
  * A class to store runtime information for an application.
+ * <p>
+ * The application's model (instances, their status, data and imports) is guarded
+ * by the monitor of this object. Messages for a same application are processed concurrently,
+ * so code that modifies or saves the model must synchronize on the managed application.
+ * Sending messages must not be done while holding this lock.
+ * </p>
+ *
  * @author Pierre-Yves Gibello - Linagora
  * @author Vincent Zurczak - Linagora
  */
@@ -45,7 +56,10 @@ public class ManagedApplication {
 	private final Logger logger = Logger.getLogger( getClass().getName());
 
 	final Map<Instance,List<Message>> rootInstanceToAwaitingMessages;
-	final Map<Instance,Integer> rootInstanceToMissedHeartBeatsCount;
+	final TimingWheel<Instance> heartBeatDeadlines;
+	private final WarmPool warmPool = new WarmPool();
+	private final Set<Instance> rootInstancesWithPendingCreation = Collections.newSetFromMap( new ConcurrentHashMap<Instance,Boolean> ());
+	private final ConcurrentHashMap<Instance,Object> rootInstanceToSendingLock = new ConcurrentHashMap<Instance,Object> ();
 
 
 
@@ -57,7 +71,9 @@ public class ManagedApplication {
 		this.application = application;
 
 		this.rootInstanceToAwaitingMessages = new HashMap<Instance,List<Message>> ();
-		this.rootInstanceToMissedHeartBeatsCount = new ConcurrentHashMap<Instance,Integer> ();
+
+		this.heartBeatDeadlines = new TimingWheel<Instance>( MISSED_HEARTBEATS_THRESHOLD + 2 );
+		scheduleHeartBeatDeadlines();
 	}
 
 
@@ -71,6 +87,38 @@ public class ManagedApplication {
 	}
 
 
+	/**
+	 * @return the machines provisioned in advance for this application (not null)
+	 */
+	public WarmPool getWarmPool() {
+		return this.warmPool;
+	}
+
+
+	/**
+	 * Records that the machine of a root instance is being created.
+	 * <p>
+	 * The machine ID is only known once the IaaS has answered. This marker
+	 * prevents a second deployment request from creating another machine in between.
+	 * </p>
+	 *
+	 * @param rootInstance a root instance
+	 * @return true if the marker was set, false if a creation was already pending
+	 */
+	public boolean markMachineCreationPending( Instance rootInstance ) {
+		return this.rootInstancesWithPendingCreation.add( rootInstance );
+	}
+
+
+	/**
+	 * Removes the marker set by {@link #markMachineCreationPending(Instance)}.
+	 * @param rootInstance a root instance
+	 */
+	public void clearMachineCreationPending( Instance rootInstance ) {
+		this.rootInstancesWithPendingCreation.remove( rootInstance );
+	}
+
+
 	/**
 	 * @return the application's name
 	 */
@@ -129,56 +177,167 @@ public class ManagedApplication {
 	}
 
 
+	/**
+	 * Finds the root instances that have awaiting messages.
+	 * @return a non-null list
+	 */
+	public List<Instance> findRootInstancesWithAwaitingMessages() {
+
+		synchronized( this.rootInstanceToAwaitingMessages ) {
+			return new ArrayList<Instance>( this.rootInstanceToAwaitingMessages.keySet());
+		}
+	}
+
+
+	/**
+	 * Indicates whether a root instance has awaiting messages.
+	 * @param rootInstance a root instance
+	 * @return true if at least one message is waiting to be sent, false otherwise
+	 */
+	public boolean hasAwaitingMessages( Instance rootInstance ) {
+
+		synchronized( this.rootInstanceToAwaitingMessages ) {
+			return this.rootInstanceToAwaitingMessages.containsKey( rootInstance );
+		}
+	}
+
+
+	/**
+	 * Sends the awaiting messages of a root instance, if this one is online.
+	 * <p>
+	 * Concurrent invocations for a same root instance are serialized, so that messages are sent in order.
+	 * Messages for different root instances are sent in parallel: a slow agent does not delay the others.
+	 * If some messages could not be sent, only those are stored again (the ones
+	 * that were delivered are not sent twice), before any message that would have been
+	 * stored in the meantime.
+	 * </p>
+	 *
+	 * @param rootInstance a root instance
+	 * @param messagingClient the messaging client to use (not null)
+	 * @return false if the messages could not be sent, true otherwise
+	 */
+	public boolean sendAwaitingMessages( Instance rootInstance, IDmClient messagingClient ) {
+
+		boolean result = true;
+		synchronized( findSendingLock( rootInstance )) {
+			if( rootInstance.getStatus() != InstanceStatus.DEPLOYED_STARTED )
+				return result;
+
+			List<Message> messages = removeAwaitingMessages( rootInstance );
+			if( ! messages.isEmpty()) {
+				this.logger.fine( "Sending " + messages.size() + " awaiting message(s) for " + rootInstance.getName() + "." );
+				try {
+					messagingClient.sendMessagesToAgent( this.application, rootInstance, messages );
+
+				} catch( IOException e ) {
+					// The messaging client removed the messages that were sent
+					result = false;
+					synchronized( this.rootInstanceToAwaitingMessages ) {
+						List<Message> newMessages = this.rootInstanceToAwaitingMessages.get( rootInstance );
+						if( newMessages != null )
+							messages.addAll( newMessages );
+
+						this.rootInstanceToAwaitingMessages.put( rootInstance, messages );
+					}
+
+					this.logger.severe( "Error while sending awaiting messages to " + rootInstance.getName() + ". Retry planned. " + e.getMessage());
+					this.logger.finest( Utils.writeException( e ));
+				}
+			}
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Finds the lock that serializes the sending of messages to a root instance.
+	 * @param rootInstance a root instance
+	 * @return a non-null object
+	 */
+	Object findSendingLock( Instance rootInstance ) {
+
+		Object lock = this.rootInstanceToSendingLock.get( rootInstance );
+		if( lock == null ) {
+			Object newLock = new Object();
+			lock = this.rootInstanceToSendingLock.putIfAbsent( rootInstance, newLock );
+			if( lock == null )
+				lock = newLock;
+		}
+
+		return lock;
+	}
+
+
+	/**
+	 * Schedules a heart beat deadline for every root instance.
+	 * <p>
+	 * Root instances may have been restored in a running state.
+	 * If we never hear about them, they must be detected too.
+	 * </p>
+	 */
+	public void scheduleHeartBeatDeadlines() {
+
+		if( this.application != null ) {
+			for( Instance rootInstance : this.application.getRootInstances())
+				this.heartBeatDeadlines.schedule( rootInstance, MISSED_HEARTBEATS_THRESHOLD + 1 );
+		}
+	}
+
+
 	/**
 	 * Acknowledges a heart beat.
+	 * <p>
+	 * The deadline for the next heart beat is re-scheduled.
+	 * </p>
+	 *
 	 * @param rootInstance a root instance
 	 */
 	public void acknowledgeHeartBeat( Instance rootInstance ) {
 
-		Integer count = this.rootInstanceToMissedHeartBeatsCount.get( rootInstance );
-		if( count != null
-				&& count > MISSED_HEARTBEATS_THRESHOLD )
+		if( rootInstance.getStatus() == InstanceStatus.PROBLEM )
 			this.logger.info( "Machine " + rootInstance.getName() + " is alive and reachable again." );
 
-		rootInstance.setStatus( InstanceStatus.DEPLOYED_STARTED );
-		this.rootInstanceToMissedHeartBeatsCount.remove( rootInstance );
+		synchronized( this ) {
+			rootInstance.setStatus( InstanceStatus.DEPLOYED_STARTED );
+		}
+
+		this.heartBeatDeadlines.schedule( rootInstance, MISSED_HEARTBEATS_THRESHOLD + 1 );
+
+		// The machine is online, do not wait for the timer to send awaiting messages
+		if( hasAwaitingMessages( rootInstance ))
+			Manager.INSTANCE.flushAwaitingMessages( this, rootInstance );
 	}
 
 
 	/**
 	 * Check the root instances states with respect to missed heart beats.
+	 * <p>
+	 * This method must be invoked periodically (every heart beat period).
+	 * Only the root instances whose deadline expired are visited. Those that
+	 * have not sent any heart beat for {@link #MISSED_HEARTBEATS_THRESHOLD} + 1
+	 * periods are marked as {@link InstanceStatus#PROBLEM}.
+	 * </p>
 	 */
 	public void checkStates() {
 
-		// Check the status of root instances
-		// We copy the list of instances to avoid concurrent modifications.
-		Collection<Instance> instances = new ArrayList<Instance>( this.application.getRootInstances());
-		for( Instance rootInstance : instances ) {
+		for( Instance rootInstance : this.heartBeatDeadlines.advance()) {
 
-			// Never started instances,
+			// Never started instances, removed ones,
 			// or root instances that have been stopped by an agent,
 			// are not processed anymore here
-			if( rootInstance.getStatus() == InstanceStatus.NOT_DEPLOYED
-					|| rootInstance.getStatus() == InstanceStatus.DEPLOYING
-					|| rootInstance.getStatus() == InstanceStatus.UNDEPLOYING ) {
-				this.rootInstanceToMissedHeartBeatsCount.remove( rootInstance );
-				continue;
-			}
+			synchronized( this ) {
+				if( rootInstance.getStatus() == InstanceStatus.NOT_DEPLOYED
+						|| rootInstance.getStatus() == InstanceStatus.DEPLOYING
+						|| rootInstance.getStatus() == InstanceStatus.UNDEPLOYING
+						|| rootInstance.getStatus() == InstanceStatus.PROBLEM
+						|| ! this.application.getRootInstances().contains( rootInstance ))
+					continue;
 
-			// Otherwise
-			Integer count = this.rootInstanceToMissedHeartBeatsCount.get( rootInstance );
-			if( count == null ){
-				// We visited it once
-				count = 1;
-
-			} else if( ++ count > MISSED_HEARTBEATS_THRESHOLD ) {
 				rootInstance.setStatus( InstanceStatus.PROBLEM );
-
-				if( count == MISSED_HEARTBEATS_THRESHOLD + 1 )
-					this.logger.severe( "Machine " + rootInstance.getName() + " has not sent heartbeats for quite a long time. Status changed to PROBLEM." );
 			}
 
-			this.rootInstanceToMissedHeartBeatsCount.put( rootInstance, count );
+			this.logger.severe( "Machine " + rootInstance.getName() + " has not sent heartbeats for quite a long time. Status changed to PROBLEM." );
 		}
 	}
-}
\ No newline at end of file
+}
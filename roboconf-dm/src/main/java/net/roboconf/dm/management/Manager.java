@@ -21,20 +21,27 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Timer;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Logger;
 
 import net.roboconf.core.Constants;
 import net.roboconf.core.RoboconfError;
+import net.roboconf.core.model.helpers.ComponentHelpers;
 import net.roboconf.core.model.helpers.InstanceHelpers;
 import net.roboconf.core.model.helpers.RoboconfErrorHelpers;
 import net.roboconf.core.model.io.RuntimeModelIo;
 import net.roboconf.core.model.io.RuntimeModelIo.ApplicationLoadResult;
 import net.roboconf.core.model.io.RuntimeModelIo.InstancesLoadResult;
 import net.roboconf.core.model.runtime.Application;
+import net.roboconf.core.model.runtime.Component;
 import net.roboconf.core.model.runtime.Instance;
 import net.roboconf.core.model.runtime.Instance.InstanceStatus;
 import net.roboconf.core.utils.ResourceUtils;
@@ -45,12 +52,16 @@ import net.roboconf.dm.management.exceptions.AlreadyExistingException;
 import net.roboconf.dm.management.exceptions.ImpossibleInsertionException;
 import net.roboconf.dm.management.exceptions.InvalidApplicationException;
 import net.roboconf.dm.management.exceptions.UnauthorizedActionException;
+import net.roboconf.iaas.api.IaasCallback;
 import net.roboconf.iaas.api.IaasException;
+import net.roboconf.iaas.api.IaasFuture;
 import net.roboconf.iaas.api.IaasInterface;
 import net.roboconf.messaging.client.IClient.ListenerCommand;
 import net.roboconf.messaging.client.IDmClient;
+import net.roboconf.messaging.client.LoopbackMessageServerClientFactory;
 import net.roboconf.messaging.client.MessageServerClientFactory;
 import net.roboconf.messaging.messages.Message;
+import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdAgentRebind;
 import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceAdd;
 import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceDeploy;
 import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceRemove;
@@ -95,16 +106,19 @@ import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceUndeploy;
 public final class Manager {
 
 	public static final Manager INSTANCE = new Manager();
-	private static final long TIMER_PERIOD = 6000;
+	static final long TIMER_PERIOD = 6000;
 
 	private final Map<String,ManagedApplication> appNameToManagedApplication;
 	private final Logger logger;
 	private MessageServerClientFactory factory;
 
 	Timer timer;
+	ExecutorService senderExecutor;
+	ProvisioningExecutor provisioningExecutor;
 	ManagerConfiguration configuration;
 	IaasResolver iaasResolver;
 	IDmClient messagingClient;
+	DmMessageProcessor messageProcessor;
 
 
 
@@ -135,16 +149,22 @@ public final class Manager {
 		if( this.configuration != null )
 			throw new IOException( "The Deployment Manager was already initialized." );
 
-		// Load the configuration and initialize the messaging
+		// Load the configuration and initialize the messaging.
+		// With loopback messaging, in-memory agents must use it too (the IaaS handlers are told about it).
 		this.configuration = configuration;
-		this.messagingClient = this.factory.createDmClient();
+		this.iaasResolver.setMessagingType( configuration.getMessagingType());
+		boolean loopback = ManagerConfiguration.MESSAGING_LOOPBACK.equals( configuration.getMessagingType());
+		MessageServerClientFactory clientFactory = loopback ? new LoopbackMessageServerClientFactory() : this.factory;
+
+		this.messagingClient = clientFactory.createDmClient();
 		this.logger.info( "Setting the message server IP to " + configuration.getMessageServerIp());
 		this.messagingClient.setParameters(
 				configuration.getMessageServerIp(),
 				configuration.getMessageServerUsername(),
 				configuration.getMessageServerPassword());
 
-		this.messagingClient.openConnection( new DmMessageProcessor());
+		this.messageProcessor = new DmMessageProcessor();
+		this.messagingClient.openConnection( this.messageProcessor );
 
 		// Restore applications
 		for( File dir : configuration.findApplicationDirectories()) {
@@ -171,8 +191,13 @@ public final class Manager {
 				if( ilr.getRootInstances().isEmpty())
 					continue;
 
-				ma.getApplication().getRootInstances().clear();
-				ma.getApplication().getRootInstances().addAll( ilr.getRootInstances());
+				synchronized( ma ) {
+					ma.getApplication().getRootInstances().clear();
+					ma.getApplication().getRootInstances().addAll( ilr.getRootInstances());
+					ma.getApplication().getInstancesIndex().clear();
+				}
+
+				ma.scheduleHeartBeatDeadlines();
 
 			} catch( InvalidApplicationException e ) {
 				this.logger.severe( "Cannot restore instances for application " + ma.getName() + " (errors were found)." );
@@ -184,15 +209,34 @@ public final class Manager {
 				this.messagingClient.sendMessageToAgent( ma.getApplication(), rootInstance, new MsgCmdInstanceRestore());
 		}
 
-		// Start the timers
+		// Start the timers and the sender
+		this.senderExecutor = Executors.newSingleThreadExecutor( new ThreadFactory() {
+			@Override
+			public Thread newThread( Runnable r ) {
+				Thread result = new Thread( r, "Roboconf - Message Sender" );
+				result.setDaemon( true );
+				return result;
+			}
+		});
+
+		this.provisioningExecutor = new ProvisioningExecutor( configuration.getProvisioningMaxConcurrency());
 		this.timer = new Timer( "Roboconf's Management Timer", true );
 		this.timer.scheduleAtFixedRate( new CheckerMessagesTask( this.messagingClient ), 0, TIMER_PERIOD );
 		this.timer.scheduleAtFixedRate( new CheckerHeartbeatsTask(), 0, Constants.HEARTBEAT_PERIOD );
+		this.timer.scheduleAtFixedRate( new CheckerWarmPoolsTask(), TIMER_PERIOD, TIMER_PERIOD );
+		this.timer.scheduleAtFixedRate(
+				new CheckerJournalsTask(),
+				configuration.getPersistenceMaxDelay(),
+				configuration.getPersistenceMaxDelay());
 	}
 
 
 	/**
 	 * Saves the configuration (instances).
+	 * <p>
+	 * All the instances are written in a snapshot.
+	 * </p>
+	 *
 	 * @param ma a non-null managed application
 	 */
 	public void saveConfiguration( ManagedApplication ma ) {
@@ -201,6 +245,54 @@ public final class Manager {
 	}
 
 
+	/**
+	 * Saves the configuration of an instance.
+	 * <p>
+	 * Its state is appended to the application's journal. Its children are not saved.
+	 * Writes are delayed, so that consecutive saves result in a single write.
+	 * The journal is regularly compacted into a snapshot.
+	 * </p>
+	 *
+	 * @param ma a non-null managed application
+	 * @param instance a non-null instance
+	 */
+	public void saveConfiguration( ManagedApplication ma, Instance instance ) {
+		if( this.configuration != null )
+			this.configuration.journalInstance( ma, instance );
+	}
+
+
+	/**
+	 * Saves the configuration of an instance and of all its children.
+	 * <p>
+	 * To use only when the whole sub-tree was modified.
+	 * </p>
+	 *
+	 * @param ma a non-null managed application
+	 * @param instance a non-null instance
+	 * @see #saveConfiguration(ManagedApplication, Instance)
+	 */
+	public void saveConfigurationWithChildren( ManagedApplication ma, Instance instance ) {
+		if( this.configuration != null )
+			this.configuration.journalInstances( ma, instance );
+	}
+
+
+	/**
+	 * Saves the removal of an instance (and of its children).
+	 * <p>
+	 * This method must be invoked before the instance is removed from the model.
+	 * </p>
+	 *
+	 * @param ma a non-null managed application
+	 * @param instance a non-null instance
+	 */
+	public void saveRemoval( ManagedApplication ma, Instance instance ) {
+		if( this.configuration != null )
+			this.configuration.journalInstanceRemoval( ma, instance );
+	}
+
+
 	/**
 	 * Shutdowns the manager.
 	 * <p>
@@ -212,6 +304,12 @@ public final class Manager {
 		if( this.timer != null )
 			this.timer.cancel();
 
+		if( this.senderExecutor != null )
+			this.senderExecutor.shutdown();
+
+		if( this.provisioningExecutor != null )
+			this.provisioningExecutor.shutdown();
+
 		this.logger.info( "Cleaning up all the resources (connections, listeners, etc)." );
 		try {
 			if( this.messagingClient != null
@@ -223,15 +321,24 @@ public final class Manager {
 			this.logger.finest( Utils.writeException( e ));
 		}
 
+		// Standby machines are not persisted: terminate them
+		for( ManagedApplication ma : this.appNameToManagedApplication.values())
+			releaseWarmPool( ma );
+
 		if( this.configuration != null ) {
-			for( ManagedApplication ma : this.appNameToManagedApplication.values())
+			for( ManagedApplication ma : this.appNameToManagedApplication.values()) {
+				this.configuration.flushJournal( ma );
 				saveConfiguration( ma );
+			}
 		}
 
 		this.appNameToManagedApplication.clear();
 		this.configuration = null;
 		this.timer = null;
+		this.senderExecutor = null;
+		this.provisioningExecutor = null;
 		this.messagingClient = null;
+		this.messageProcessor = null;
 	}
 
 
@@ -251,6 +358,15 @@ public final class Manager {
 	}
 
 
+	/**
+	 * Gets the number of messages waiting to be processed, for every processing lane.
+	 * @return a non-null array (empty if the DM was not initialized)
+	 */
+	public int[] getMessageProcessingQueueDepths() {
+		return this.messageProcessor == null ? new int[ 0 ] : this.messageProcessor.getLaneQueueDepths();
+	}
+
+
 	/**
 	 * @return a non-null list of applications
 	 */
@@ -335,6 +451,8 @@ public final class Manager {
 		this.messagingClient.listenToAgentMessages( ma.getApplication(), ListenerCommand.STOP );
 		Utils.deleteFilesRecursively( ma.getApplicationFilesDirectory());
 		this.configuration.deleteInstancesFile( ma.getName());
+		releaseWarmPool( ma );
+		this.iaasResolver.invalidate( ma );
 
 		this.messagingClient.deleteMessagingServerArtifacts( ma.getApplication());
 		this.appNameToManagedApplication.remove( applicationName );
@@ -370,14 +488,21 @@ public final class Manager {
 	public void addInstance( ManagedApplication ma, Instance parentInstance, Instance instance )
 	throws ImpossibleInsertionException {
 
-		if( ! InstanceHelpers.tryToInsertChildInstance( ma.getApplication(), parentInstance, instance ))
-			throw new ImpossibleInsertionException( instance.getName());
+		synchronized( ma ) {
+			if( ! InstanceHelpers.tryToInsertChildInstance( ma.getApplication(), parentInstance, instance ))
+				throw new ImpossibleInsertionException( instance.getName());
+		}
 
 		this.logger.fine( "Instance " + InstanceHelpers.computeInstancePath( instance ) + " was successfully added in " + ma.getName() + "." );
 
 		// Store the message because we want to make sure the message is not lost
-		ma.storeAwaitingMessage( instance, new MsgCmdInstanceAdd( parentInstance, instance ));
-		saveConfiguration( ma );
+		// Root instances come with the graph(s), so that agents can resolve components.
+		MsgCmdInstanceAdd msg = parentInstance == null
+				? new MsgCmdInstanceAdd( ma.getApplication().getGraphs(), instance )
+				: new MsgCmdInstanceAdd( parentInstance, instance );
+
+		ma.storeAwaitingMessage( instance, msg );
+		saveConfigurationWithChildren( ma, instance );
 	}
 
 
@@ -390,22 +515,23 @@ public final class Manager {
 	 */
 	public void removeInstance( ManagedApplication ma, Instance instance ) throws UnauthorizedActionException, IOException {
 
-		for( Instance i : InstanceHelpers.buildHierarchicalList( instance )) {
-			if( i.getStatus() != InstanceStatus.NOT_DEPLOYED )
-				throw new UnauthorizedActionException( "Instances are still deployed or running. They cannot be removed in " + ma.getName() + "." );
+		synchronized( ma ) {
+			for( Instance i : InstanceHelpers.buildHierarchicalList( instance )) {
+				if( i.getStatus() != InstanceStatus.NOT_DEPLOYED )
+					throw new UnauthorizedActionException( "Instances are still deployed or running. They cannot be removed in " + ma.getName() + "." );
+			}
 		}
 
 		// Whatever is the state of the agent, we try to send a message.
 		MsgCmdInstanceRemove message = new MsgCmdInstanceRemove( instance );
 		send( ma, message, instance );
 
-		if( instance.getParent() == null )
-			ma.getApplication().getRootInstances().remove( instance );
-		else
-			instance.getParent().getChildren().remove( instance );
+		synchronized( ma ) {
+			saveRemoval( ma, instance );
+			InstanceHelpers.removeInstance( ma.getApplication(), instance );
+		}
 
 		this.logger.fine( "Instance " + InstanceHelpers.computeInstancePath( instance ) + " was successfully removed in " + ma.getName() + "." );
-		saveConfiguration( ma );
 	}
 
 
@@ -503,46 +629,344 @@ public final class Manager {
 	 * @throws IaasException if an error occurred with the IaaS
 	 */
 	public void deployRoot( ManagedApplication ma, Instance rootInstance ) throws IaasException, IOException {
+		deployRootAsync( ma, rootInstance ).waitForResult();
+	}
+
+
+	/**
+	 * Deploys a root instance without waiting for the IaaS.
+	 * <p>
+	 * The messages for the agent are prepared immediately. The machine
+	 * is then created in the background.
+	 * </p>
+	 *
+	 * @param ma the managed application
+	 * @param rootInstance the instance to deploy (not null)
+	 * @return a future whose result is the machine ID (null if no machine had to be created)
+	 * @throws IOException if an error occurred with the messaging
+	 */
+	public IaasFuture<String> deployRootAsync( ManagedApplication ma, Instance rootInstance ) throws IOException {
+
+		IaasFuture<String> result;
+		if( prepareRootDeployment( ma, rootInstance )) {
+			result = createMachine( ma, rootInstance );
+
+		} else {
+			result = new IaasFuture<String> ();
+			result.complete( null );
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Prepares the deployment of a root instance.
+	 * <p>
+	 * The instance is marked as being deployed and the message that
+	 * adds it on its agent is stored.
+	 * </p>
+	 *
+	 * @param ma the managed application
+	 * @param rootInstance the instance to deploy (not null)
+	 * @return true if a machine must be created, false otherwise
+	 * @throws IOException if an error occurred with the messaging
+	 */
+	private boolean prepareRootDeployment( ManagedApplication ma, Instance rootInstance ) throws IOException {
 
 		this.logger.fine( "Deploying root instance " + rootInstance.getName() + " in " + ma.getName() + "..." );
 		if( rootInstance.getParent() != null ) {
 			this.logger.fine( "Deploy action for instance " + rootInstance.getName() + " is cancelled in " + ma.getName() + ". Not a root instance." );
-			return;
+			return false;
+		}
+
+		// The machine ID is only set once the IaaS has answered. Until then, a marker
+		// indicates a creation is pending. The marker is set before the machine ID is checked,
+		// and it is removed after the machine ID was set, so that two requests cannot both pass.
+		if( ! ma.markMachineCreationPending( rootInstance )) {
+			this.logger.fine( "Deploy action for instance " + rootInstance.getName() + " is cancelled in " + ma.getName() + ". A machine is already being created." );
+			return false;
 		}
 
-		// If the VM creation was already requested, then its machine ID has already been set.
-		// It does not mean the VM is already created, it may take some time.
 		String machineId = rootInstance.getData().get( Instance.MACHINE_ID );
 		if( machineId != null ) {
+			ma.clearMachineCreationPending( rootInstance );
 			this.logger.fine( "Deploy action for instance " + rootInstance.getName() + " is cancelled in " + ma.getName() + ". Already associated with a machine." );
-			return;
+			return false;
 		}
 
-		try {
+		synchronized( ma ) {
 			rootInstance.setStatus( InstanceStatus.DEPLOYING );
-			MsgCmdInstanceAdd msg = new MsgCmdInstanceAdd((String) null, rootInstance );
+		}
+
+		try {
+			MsgCmdInstanceAdd msg = new MsgCmdInstanceAdd( ma.getApplication().getGraphs(), rootInstance );
 			send( ma, msg, rootInstance );
 
-			IaasInterface iaasInterface = this.iaasResolver.findIaasInterface( ma, rootInstance );
-			machineId = iaasInterface.createVM(
-					this.configuration.getMessageServerIp(),
-					this.configuration.getMessageServerUsername(),
-					this.configuration.getMessageServerPassword(),
-					rootInstance.getName(),
-					ma.getApplication().getName());
+		} catch( IOException e ) {
+			ma.clearMachineCreationPending( rootInstance );
+			saveConfiguration( ma, rootInstance );
+			throw e;
+		}
+
+		return true;
+	}
 
-			rootInstance.getData().put( Instance.MACHINE_ID, machineId );
-			this.logger.fine( "Root instance " + rootInstance.getName() + "'s deployment was successfully requested in " + ma.getName() + ". Machine ID: " + machineId );
+
+	/**
+	 * Creates the machine of a root instance whose deployment was prepared.
+	 * <p>
+	 * The machine ID is saved as soon as the IaaS returns it.
+	 * </p>
+	 *
+	 * @param ma the managed application
+	 * @param rootInstance the instance to deploy (not null)
+	 * @return a future that completes once the IaaS has answered and the result was saved
+	 */
+	private IaasFuture<String> createMachine( final ManagedApplication ma, final Instance rootInstance ) {
+
+		final IaasFuture<String> result = new IaasFuture<String> ();
+		IaasCallback<String> callback = new IaasCallback<String>() {
+			@Override
+			public void completed( String machineId ) {
+
+				synchronized( ma ) {
+					rootInstance.getData().put( Instance.MACHINE_ID, machineId );
+				}
+
+				ma.clearMachineCreationPending( rootInstance );
+				Manager.this.logger.fine( "Root instance " + rootInstance.getName() + "'s deployment was successfully requested in " + ma.getName() + ". Machine ID: " + machineId );
+				saveConfiguration( ma, rootInstance );
+				result.complete( machineId );
+			}
+
+			@Override
+			public void failed( IaasException e ) {
+
+				Manager.this.logger.severe( "Failed to deploy root instance " + rootInstance.getName() + " in " + ma.getName() + ". " + e.getMessage());
+				Manager.this.logger.finest( Utils.writeException( e ));
+
+				// The handler may be in a bad state (e.g. expired token)
+				Manager.this.iaasResolver.invalidate( ma, rootInstance );
+				synchronized( ma ) {
+					rootInstance.setStatus( InstanceStatus.PROBLEM );
+				}
+
+				ma.clearMachineCreationPending( rootInstance );
+				saveConfiguration( ma, rootInstance );
+				result.fail( e );
+			}
+		};
+
+		IaasFuture<String> creation;
+		try {
+			IaasInterface iaasInterface = this.iaasResolver.findIaasInterface( ma, rootInstance );
+			ProvisioningExecutor executor = this.provisioningExecutor;
+			String ip = this.configuration.getMessageServerIp();
+			String user = this.configuration.getMessageServerUsername();
+			String pwd = this.configuration.getMessageServerPassword();
+			String appName = ma.getApplication().getName();
+
+			// A machine may be ready in the warm pool
+			String standbyMachineId = claimStandbyMachine( ma, rootInstance );
+			if( standbyMachineId != null ) {
+				creation = new IaasFuture<String> ();
+				creation.complete( standbyMachineId );
+				refillWarmPool( ma );
+
+			} else if( executor != null ) {
+				creation = executor.createVM( iaasInterface, ip, user, pwd, rootInstance.getName(), appName );
+
+			} else {
+				creation = new IaasFuture<String> ();
+				creation.complete( iaasInterface.createVM( ip, user, pwd, rootInstance.getName(), appName ));
+			}
 
 		} catch( IaasException e ) {
-			this.logger.severe( "Failed to deploy root instance " + rootInstance.getName() + " in " + ma.getName() + ". " + e.getMessage());
-			this.logger.finest( Utils.writeException( e ));
+			creation = new IaasFuture<String> ();
+			creation.fail( e );
+		}
 
-			rootInstance.setStatus( InstanceStatus.PROBLEM );
-			throw e;
+		creation.addCallback( callback );
+		return result;
+	}
 
-		} finally {
-			saveConfiguration( ma );
+
+	/**
+	 * Configures the warm pool of a root component.
+	 * <p>
+	 * The DM keeps <i>size</i> machines ready for this component. Their agents
+	 * are in standby. Deploying a root instance of this component claims one of them
+	 * instead of creating a new machine. The pool is then refilled in the background.
+	 * </p>
+	 * <p>
+	 * Pool settings and standby machines are not persisted.
+	 * Standby machines are terminated when the DM stops.
+	 * </p>
+	 *
+	 * @param ma the managed application
+	 * @param componentName the name of a root component
+	 * @param size the number of machines to keep ready (0 to disable the pool)
+	 */
+	public void configureWarmPool( ManagedApplication ma, String componentName, int size ) {
+
+		Component component = ComponentHelpers.findComponent( ma.getApplication().getGraphs(), componentName );
+		if( component == null
+				|| ! ma.getApplication().getGraphs().getRootComponents().contains( component ))
+			throw new IllegalArgumentException( componentName + " is not a root component in " + ma.getName() + "." );
+
+		this.logger.fine( "The warm pool of " + componentName + " is set to " + size + " machine(s) in " + ma.getName() + "." );
+		ma.getWarmPool().setSize( componentName, size );
+		refillWarmPool( ma );
+	}
+
+
+	/**
+	 * Creates or terminates standby machines so that warm pools match their size.
+	 * <p>
+	 * Machines are created asynchronously. This method is invoked regularly by a timer.
+	 * </p>
+	 *
+	 * @param ma the managed application
+	 */
+	public void refillWarmPool( final ManagedApplication ma ) {
+
+		WarmPool pool = ma.getWarmPool();
+		for( WarmPool.StandbyMachine machine : pool.removeExtraMachines())
+			terminateStandbyMachine( ma, machine );
+
+		ProvisioningExecutor executor = this.provisioningExecutor;
+		ManagerConfiguration conf = this.configuration;
+		if( executor == null || conf == null )
+			return;
+
+		for( final WarmPool.StandbyMachine machine : pool.registerMissingMachines()) {
+
+			IaasFuture<String> creation;
+			try {
+				IaasInterface iaasInterface = this.iaasResolver.findIaasInterface( ma, machine.toInstance( ma ));
+				creation = executor.createVM(
+						iaasInterface,
+						conf.getMessageServerIp(),
+						conf.getMessageServerUsername(),
+						conf.getMessageServerPassword(),
+						machine.name,
+						ma.getApplication().getName());
+
+			} catch( IaasException e ) {
+				creation = new IaasFuture<String> ();
+				creation.fail( e );
+			}
+
+			creation.addCallback( new IaasCallback<String>() {
+				@Override
+				public void completed( String machineId ) {
+
+					Manager.this.logger.fine( "Standby machine " + machine.name + " was created for " + machine.componentName + " in " + ma.getName() + ". Machine ID: " + machineId );
+					if( ! ma.getWarmPool().machineCreated( machine.name, machineId )) {
+						// The pool was released in the meantime
+						machine.machineId = machineId;
+						terminateStandbyMachine( ma, machine );
+					}
+				}
+
+				@Override
+				public void failed( IaasException e ) {
+
+					Manager.this.logger.severe( "Failed to create standby machine " + machine.name + " in " + ma.getName() + ". " + e.getMessage());
+					Manager.this.logger.finest( Utils.writeException( e ));
+					Manager.this.iaasResolver.invalidate( ma, machine.toInstance( ma ));
+					ma.getWarmPool().remove( machine.name );
+				}
+			});
+		}
+	}
+
+
+	/**
+	 * Terminates the standby machines that stopped sending heart beats.
+	 * <p>
+	 * Like root instances, standby machines are considered as lost after
+	 * {@link ManagedApplication#MISSED_HEARTBEATS_THRESHOLD} + 1 missed heart beats.
+	 * The pool is then refilled. This method is invoked by a timer, once per heart beat period.
+	 * </p>
+	 *
+	 * @param ma the managed application
+	 */
+	void checkStandbyMachines( ManagedApplication ma ) {
+
+		List<WarmPool.StandbyMachine> expiredMachines = ma.getWarmPool().removeExpiredMachines( ManagedApplication.MISSED_HEARTBEATS_THRESHOLD );
+		for( WarmPool.StandbyMachine machine : expiredMachines ) {
+			this.logger.severe( "Standby machine " + machine.name + " has not sent heartbeats for quite a long time. It is removed from the warm pool of " + ma.getName() + "." );
+			terminateStandbyMachine( ma, machine );
+		}
+
+		if( ! expiredMachines.isEmpty())
+			refillWarmPool( ma );
+	}
+
+
+	/**
+	 * Disables the warm pools of an application and terminates their machines.
+	 * @param ma the managed application
+	 */
+	void releaseWarmPool( ManagedApplication ma ) {
+		for( WarmPool.StandbyMachine machine : ma.getWarmPool().clear())
+			terminateStandbyMachine( ma, machine );
+	}
+
+
+	/**
+	 * Claims a standby machine for a root instance.
+	 * <p>
+	 * Its agent is asked to associate itself with the root instance.
+	 * </p>
+	 *
+	 * @param ma the managed application
+	 * @param rootInstance the root instance to deploy
+	 * @return the ID of the claimed machine, or null if no machine was ready
+	 */
+	private String claimStandbyMachine( ManagedApplication ma, Instance rootInstance ) {
+
+		String result = null;
+		IDmClient client = this.messagingClient;
+		WarmPool.StandbyMachine machine;
+		if( client != null
+				&& rootInstance.getComponent() != null
+				&& ( machine = ma.getWarmPool().claim( rootInstance.getComponent().getName())) != null ) {
+
+			try {
+				client.sendMessageToAgent( ma.getApplication(), new Instance( machine.name ), new MsgCmdAgentRebind( rootInstance.getName()));
+				result = machine.machineId;
+				this.logger.fine( "Standby machine " + machine.name + " was claimed by " + rootInstance.getName() + " in " + ma.getName() + "." );
+
+			} catch( IOException e ) {
+				this.logger.severe( "Standby machine " + machine.name + " could not be claimed in " + ma.getName() + ". A new machine will be created. " + e.getMessage());
+				this.logger.finest( Utils.writeException( e ));
+				terminateStandbyMachine( ma, machine );
+			}
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Terminates a standby machine.
+	 * @param ma the managed application
+	 * @param machine the machine to terminate
+	 */
+	private void terminateStandbyMachine( ManagedApplication ma, WarmPool.StandbyMachine machine ) {
+
+		this.logger.fine( "Standby machine " + machine.name + " is about to be deleted in " + ma.getName() + "." );
+		try {
+			if( machine.machineId != null )
+				this.iaasResolver.findIaasInterface( ma, machine.toInstance( ma )).terminateVM( machine.machineId );
+
+		} catch( IaasException e ) {
+			this.logger.severe( "Failed to delete standby machine " + machine.name + " in " + ma.getName() + ". " + e.getMessage());
+			this.logger.finest( Utils.writeException( e ));
+			this.iaasResolver.invalidate( ma, machine.toInstance( ma ));
 		}
 	}
 
@@ -566,30 +990,42 @@ public final class Manager {
 			// Terminate the machine
 			this.logger.fine( "Machine " + rootInstance.getName() + " is about to be deleted in " + ma.getName() + "." );
 			IaasInterface iaasInterface = this.iaasResolver.findIaasInterface( ma, rootInstance );
-			String machineId = rootInstance.getData().remove( Instance.MACHINE_ID );
+			String machineId;
+			synchronized( ma ) {
+				machineId = rootInstance.getData().remove( Instance.MACHINE_ID );
+			}
+
 			if( machineId != null )
 				iaasInterface.terminateVM( machineId );
 
 			this.logger.fine( "Machine " + rootInstance.getName() + " was successfully deleted in " + ma.getName() + "." );
-			for( Instance i : InstanceHelpers.buildHierarchicalList( rootInstance )) {
-				i.setStatus( InstanceStatus.NOT_DEPLOYED );
-				// DM won't send old imports upon restart...
-				i.getImports().clear();
+			synchronized( ma ) {
+				for( Instance i : InstanceHelpers.buildHierarchicalList( rootInstance )) {
+					i.setStatus( InstanceStatus.NOT_DEPLOYED );
+					// DM won't send old imports upon restart...
+					i.getImports().clear();
+				}
+
+				// Remove useless data for the configuration backup
+				rootInstance.getData().clear();
 			}
 
-			// Remove useless data for the configuration backup
-			rootInstance.getData().clear();
 			this.logger.fine( "Root instance " + rootInstance.getName() + "'s undeployment was successfully requested in " + ma.getName() + "." );
 
 		} catch( IaasException e ) {
 			this.logger.severe( "Failed to undeploy root instance " + rootInstance.getName() + " in " + ma.getName() + ". " + e.getMessage());
 			this.logger.finest( Utils.writeException( e ));
 
-			rootInstance.setStatus( InstanceStatus.PROBLEM );
+			this.iaasResolver.invalidate( ma, rootInstance );
+			synchronized( ma ) {
+				rootInstance.setStatus( InstanceStatus.PROBLEM );
+			}
+
 			throw e;
 
 		} finally {
-			saveConfiguration( ma );
+			// Children were reset too
+			saveConfigurationWithChildren( ma, rootInstance );
 		}
 	}
 
@@ -602,6 +1038,11 @@ public final class Manager {
 	 * This instance and all its children will be deployed and started.
 	 * If null, then all the application instances are considered.
 	 * </p>
+	 * <p>
+	 * Machines are created concurrently. This method returns once all
+	 * the IaaS have answered. Failures do not prevent other machines from
+	 * being created. They are reported together at the end.
+	 * </p>
 	 *
 	 * @throws IaasException if a problem occurred with the IaaS
 	 * @throws IOException if a problem occurred with the messaging
@@ -614,17 +1055,68 @@ public final class Manager {
 		else
 			initialInstances = ma.getApplication().getRootInstances();
 
-		for( Instance initialInstance : initialInstances ) {
-			for( Instance i : InstanceHelpers.buildHierarchicalList( initialInstance )) {
-				if( i.getParent() == null ) {
-					deployRoot( ma, i );
-
-				} else {
-					deploy( ma, i );
-					start( ma, i );
+		Map<Instance,IaasFuture<String>> rootInstanceToCreation = new LinkedHashMap<Instance,IaasFuture<String>> ();
+		IaasException iaasException;
+		try {
+			for( Instance initialInstance : initialInstances ) {
+				for( Instance i : InstanceHelpers.buildHierarchicalList( initialInstance )) {
+					if( i.getParent() != null ) {
+						deploy( ma, i );
+						start( ma, i );
+
+					} else if( prepareRootDeployment( ma, i )) {
+						rootInstanceToCreation.put( i, createMachine( ma, i ));
+					}
 				}
 			}
+
+		} finally {
+			iaasException = waitForMachineCreations( ma, rootInstanceToCreation );
 		}
+
+		if( iaasException != null )
+			throw iaasException;
+	}
+
+
+	/**
+	 * Waits for machine creations.
+	 * @param ma the managed application
+	 * @param rootInstanceToCreation the creations to wait for (not null)
+	 * @return an exception that aggregates all the failures, or null if all the creations succeeded
+	 */
+	private IaasException waitForMachineCreations( ManagedApplication ma, Map<Instance,IaasFuture<String>> rootInstanceToCreation ) {
+
+		StringBuilder sb = new StringBuilder();
+		Throwable firstCause = null;
+		int failuresCount = 0;
+		for( Map.Entry<Instance,IaasFuture<String>> entry : rootInstanceToCreation.entrySet()) {
+
+			Throwable cause = null;
+			try {
+				entry.getValue().waitForResult();
+
+			} catch( IaasException e ) {
+				cause = e;
+			}
+
+			if( cause != null ) {
+				failuresCount ++;
+				firstCause = firstCause == null ? cause : firstCause;
+				sb.append( "\n" );
+				sb.append( entry.getKey().getName());
+				sb.append( ": " );
+				sb.append( cause.getMessage());
+			}
+		}
+
+		IaasException result = null;
+		if( failuresCount > 0 ) {
+			String msg = failuresCount + " machine(s) could not be created in " + ma.getName() + "." + sb;
+			result = new IaasException( msg, firstCause );
+		}
+
+		return result;
 	}
 
 
@@ -700,26 +1192,44 @@ public final class Manager {
 		if( this.messagingClient == null
 				|| ! this.messagingClient.isConnected())
 			this.logger.severe( "The connection with the messaging server was badly initialized. Message dropped." );
-		else
+		else {
 			ma.storeAwaitingMessage( instance, message );
 
-		// If the VM is online, process awaiting messages to prevent waiting.
-		// This can work concurrently with the messages timer.
-		Instance rootInstance = InstanceHelpers.findRootInstance( instance );
-		if( rootInstance.getStatus() == InstanceStatus.DEPLOYED_STARTED ) {
-			List<Message> messages = ma.removeAwaitingMessages( instance );
-			if( ! messages.isEmpty())
-				this.logger.fine( "Forcing the sending of " + messages.size() + " awaiting message(s) for " + rootInstance.getName() + "." );
-
-			for( Message msg : messages ) {
-				try {
-					this.messagingClient.sendMessageToAgent( ma.getApplication(), rootInstance, msg );
-
-				} catch( IOException e ) {
-					this.logger.severe( "Error while sending a stored message. " + e.getMessage());
-					this.logger.finest( Utils.writeException( e ));
+			// If the VM is online, process awaiting messages to prevent waiting.
+			// This is serialized with the other senders (executor, timer).
+			ma.sendAwaitingMessages( InstanceHelpers.findRootInstance( instance ), this.messagingClient );
+		}
+	}
+
+
+	/**
+	 * Sends the awaiting messages of a root instance, as soon as possible.
+	 * <p>
+	 * Messages are sent asynchronously, by the sender executor.
+	 * This method is invoked when a machine is known to be online.
+	 * </p>
+	 *
+	 * @param ma the managed application
+	 * @param rootInstance the root instance
+	 */
+	public void flushAwaitingMessages( final ManagedApplication ma, final Instance rootInstance ) {
+
+		final IDmClient client = this.messagingClient;
+		ExecutorService executor = this.senderExecutor;
+		if( client == null || executor == null )
+			return;
+
+		try {
+			executor.execute( new Runnable() {
+				@Override
+				public void run() {
+					ma.sendAwaitingMessages( rootInstance, client );
 				}
-			}
+			});
+
+		} catch( RejectedExecutionException e ) {
+			// The DM is being shutdown. The timer would have been cancelled too.
+			this.logger.fine( "Awaiting messages for " + rootInstance.getName() + " could not be flushed. The DM is stopping." );
 		}
 	}
 
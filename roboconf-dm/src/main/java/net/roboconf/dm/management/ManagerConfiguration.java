@@ -23,12 +23,17 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 import net.roboconf.core.model.io.RuntimeModelIo;
 import net.roboconf.core.model.io.RuntimeModelIo.InstancesLoadResult;
+import net.roboconf.core.model.runtime.Instance;
 import net.roboconf.core.utils.Utils;
 
 /**
@@ -41,15 +46,57 @@ public final class ManagerConfiguration {
 	private static final String PROP_MESSAGING_IP = "messaging.ip";
 	private static final String PROP_MESSAGING_USERNAME = "messaging.username";
 	private static final String PROP_MESSAGING_PASSWORD = "messaging.password";
+	private static final String PROP_MESSAGING_TYPE = "messaging.type";
+	private static final String PROP_PERSISTENCE_MAX_DELAY = "persistence.max-delay";
+	private static final String PROP_PERSISTENCE_MAX_PENDING = "persistence.max-pending";
+	private static final String PROP_PROVISIONING_MAX_CONCURRENCY = "provisioning.max-concurrency";
 
 	static final String APPLICATIONS = "applications";
 	static final String INSTANCES = "instances";
 	static final String CONF = "conf";
 	static final String CONF_PROPERTIES = "configuration.properties";
 
+	/**
+	 * The number of journal records after which the instances are compacted into a snapshot.
+	 */
+	static final int JOURNAL_COMPACTION_THRESHOLD = 1000;
+
+	static final long DEFAULT_PERSISTENCE_MAX_DELAY = 1000;
+	static final int DEFAULT_PERSISTENCE_MAX_PENDING = 200;
+
+	/**
+	 * The default maximum number of machine creations on a same IaaS.
+	 * <p>
+	 * The limit counts machines, not API requests. Some IaaS create several machines
+	 * with a single request (up to 50 for Amazon EC2). A lower limit splits such batches.
+	 * </p>
+	 */
+	static final int DEFAULT_PROVISIONING_MAX_CONCURRENCY = 50;
+
+	/**
+	 * Messages are exchanged through a RabbitMQ server (default).
+	 */
+	public static final String MESSAGING_RABBITMQ = "rabbitmq";
+
+	/**
+	 * Messages are exchanged within the JVM, without any messaging server.
+	 * <p>
+	 * Only agents that run in the DM's JVM (in-memory IaaS) can be reached.
+	 * </p>
+	 */
+	public static final String MESSAGING_LOOPBACK = "loopback";
+
 	private final Logger logger = Logger.getLogger( getClass().getName());
+	private final Map<String,Integer> appNameToJournalSize = new ConcurrentHashMap<String,Integer> ();
+	private final Map<String,Map<String,String>> appNameToPendingRecords = new ConcurrentHashMap<String,Map<String,String>> ();
+	private final Map<String,Integer> appNameToPendingMutations = new ConcurrentHashMap<String,Integer> ();
+
 	private String messageServerIp, messageServerUsername, messageServerPassword;
+	private String messagingType = MESSAGING_RABBITMQ;
 	private File configurationDirectory;
+	private long persistenceMaxDelay = DEFAULT_PERSISTENCE_MAX_DELAY;
+	private int persistenceMaxPending = DEFAULT_PERSISTENCE_MAX_PENDING;
+	private int provisioningMaxConcurrency = DEFAULT_PROVISIONING_MAX_CONCURRENCY;
 
 
 
@@ -92,15 +139,36 @@ public final class ManagerConfiguration {
 
 
 	/**
-	 * Saves the instances into a file.
+	 * Saves the instances into a file (snapshot).
+	 * <p>
+	 * The snapshot replaces the journal, which is deleted.
+	 * Records that were not yet written in the journal are dropped.
+	 * </p>
+	 *
 	 * @param ma the application
-	 * @throws IOException if something went wrong
 	 */
 	public void saveInstances( ManagedApplication ma ) {
 
-		File targetFile = new File( this.configurationDirectory, INSTANCES + "/" + ma.getName() + ".instances" );
+		// Messages for a same application may be processed concurrently
+		File targetFile = findInstancesFile( ma.getName());
+		File tempFile = new File( targetFile.getParentFile(), targetFile.getName() + ".tmp" );
 		try {
-			RuntimeModelIo.writeInstances( targetFile, ma.getApplication().getRootInstances());
+			synchronized( ma ) {
+				// Write a complete file before replacing the previous snapshot
+				RuntimeModelIo.writeInstances( tempFile, ma.getApplication().getRootInstances());
+				if( ! tempFile.renameTo( targetFile )
+						&& ( ! targetFile.delete() || ! tempFile.renameTo( targetFile )))
+					throw new IOException( "Could not replace " + targetFile );
+
+				// Records are absolute: if the journal cannot be deleted, replaying it is harmless
+				File journalFile = findJournalFile( ma.getName());
+				if( journalFile.exists() && ! journalFile.delete())
+					this.logger.warning( "Journal " + journalFile + " could not be deleted after a snapshot." );
+
+				this.appNameToJournalSize.remove( ma.getName());
+				this.appNameToPendingRecords.remove( ma.getName());
+				this.appNameToPendingMutations.remove( ma.getName());
+			}
 
 		} catch( IOException e ) {
 			this.logger.severe( "Failed to save instances. " + e.getMessage());
@@ -110,35 +178,217 @@ public final class ManagerConfiguration {
 
 
 	/**
-	 * Deletes the instances definition for a given application.
+	 * Appends the state of an instance to the application's journal.
+	 * <p>
+	 * Only this instance is described, its children are not.
+	 * Records are written in the background (see {@link #flushJournal(ManagedApplication)}).
+	 * </p>
+	 *
+	 * @param ma the application
+	 * @param instance an instance (not null)
+	 */
+	public void journalInstance( ManagedApplication ma, Instance instance ) {
+		synchronized( ma ) {
+			journal( ma, Collections.singletonList( InstancesJournal.buildPutRecord( instance )));
+		}
+	}
+
+
+	/**
+	 * Appends the state of an instance and of all its children to the application's journal.
+	 * <p>
+	 * This is only necessary when the whole sub-tree was created or modified
+	 * (e.g. a new instance with children, or an undeployment). Otherwise,
+	 * prefer {@link #journalInstance(ManagedApplication, Instance)}.
+	 * </p>
+	 *
+	 * @param ma the application
+	 * @param instance an instance (not null)
+	 */
+	public void journalInstances( ManagedApplication ma, Instance instance ) {
+		synchronized( ma ) {
+			journal( ma, InstancesJournal.buildPutRecords( instance ));
+		}
+	}
+
+
+	/**
+	 * Appends the removal of an instance (and of its children) to the application's journal.
+	 * <p>
+	 * This method must be invoked before the instance is removed from the model.
+	 * </p>
+	 *
+	 * @param ma the application
+	 * @param instance an instance (not null)
+	 */
+	public void journalInstanceRemoval( ManagedApplication ma, Instance instance ) {
+		synchronized( ma ) {
+			journal( ma, Collections.singletonList( InstancesJournal.buildRemoveRecord( instance )));
+		}
+	}
+
+
+	/**
+	 * Writes the pending records of an application in its journal.
+	 * <p>
+	 * Consecutive mutations of a same instance were coalesced into a single record.
+	 * </p>
+	 *
+	 * @param ma the application
+	 * @return true if records were written, false if there was nothing to write
+	 */
+	public boolean flushJournal( ManagedApplication ma ) {
+
+		boolean result = false;
+		synchronized( ma ) {
+			Map<String,String> pendingRecords = this.appNameToPendingRecords.remove( ma.getName());
+			this.appNameToPendingMutations.remove( ma.getName());
+			if( pendingRecords != null && ! pendingRecords.isEmpty()) {
+
+				File journalFile = findJournalFile( ma.getName());
+				List<String> records = new ArrayList<String>( pendingRecords.values());
+				try {
+					InstancesJournal.append( journalFile, records );
+					this.appNameToJournalSize.put( ma.getName(), getJournalSize( ma.getName()) + records.size());
+
+				} catch( IOException e ) {
+					this.logger.severe( "Failed to append to the journal " + journalFile + ". " + e.getMessage());
+					this.logger.finest( Utils.writeException( e ));
+
+					// Do not lose the mutations: save everything
+					saveInstances( ma );
+				}
+
+				result = true;
+			}
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Compacts the journal into a snapshot when it has grown too much.
+	 * @param ma the application
+	 * @return true if a compaction was made, false otherwise
+	 */
+	public boolean compactInstances( ManagedApplication ma ) {
+
+		boolean result = false;
+		synchronized( ma ) {
+			if( getJournalSize( ma.getName()) >= JOURNAL_COMPACTION_THRESHOLD ) {
+				saveInstances( ma );
+				result = true;
+			}
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * @param applicationName an application name
+	 * @return the number of records that were written in the application's journal
+	 */
+	int getJournalSize( String applicationName ) {
+		Integer size = this.appNameToJournalSize.get( applicationName );
+		return size == null ? 0 : size;
+	}
+
+
+	/**
+	 * @param applicationName an application name
+	 * @return the number of records that are waiting to be written in the application's journal
+	 */
+	int getPendingRecordsCount( String applicationName ) {
+		Map<String,String> pendingRecords = this.appNameToPendingRecords.get( applicationName );
+		return pendingRecords == null ? 0 : pendingRecords.size();
+	}
+
+
+	/**
+	 * Deletes the instances definition (snapshot and journal) for a given application.
 	 * @param applicationName the application name
 	 */
 	public void deleteInstancesFile( String applicationName ) {
 
-		File targetFile = new File( this.configurationDirectory, INSTANCES + "/" + applicationName + ".instances" );
-		if( targetFile.exists()
-				&& ! targetFile.delete())
-			targetFile.deleteOnExit();
+		this.appNameToJournalSize.remove( applicationName );
+		this.appNameToPendingRecords.remove( applicationName );
+		this.appNameToPendingMutations.remove( applicationName );
+		for( File targetFile : Arrays.asList( findInstancesFile( applicationName ), findJournalFile( applicationName ))) {
+			if( targetFile.exists()
+					&& ! targetFile.delete())
+				targetFile.deleteOnExit();
+		}
 	}
 
 
 	/**
 	 * Restores instances and set them in the application.
+	 * <p>
+	 * The snapshot is loaded first. Then, the journal is replayed.
+	 * Pending records are written in the journal before.
+	 * </p>
+	 *
 	 * @param ma the application
 	 */
 	public InstancesLoadResult restoreInstances( ManagedApplication ma ) {
 
-		File sourceFile = new File( this.configurationDirectory, INSTANCES + "/" + ma.getName() + ".instances" );
+		flushJournal( ma );
+
+		File sourceFile = findInstancesFile( ma.getName());
 		InstancesLoadResult result;
 		if( sourceFile.exists())
 			result = RuntimeModelIo.loadInstances( sourceFile, ma.getApplication().getGraphs());
 		else
 			result = new InstancesLoadResult();
 
+		if( result.getLoadErrors().isEmpty()) {
+			File journalFile = findJournalFile( ma.getName());
+			try {
+				int size = InstancesJournal.replay( journalFile, result.getRootInstances(), ma.getApplication().getGraphs());
+				this.appNameToJournalSize.put( ma.getName(), size );
+
+			} catch( IOException e ) {
+				this.logger.severe( "Failed to replay the journal " + journalFile + ". " + e.getMessage());
+				this.logger.finest( Utils.writeException( e ));
+			}
+		}
+
 		return result;
 	}
 
 
+	private void journal( ManagedApplication ma, List<String> records ) {
+
+		Map<String,String> pendingRecords = this.appNameToPendingRecords.get( ma.getName());
+		if( pendingRecords == null ) {
+			pendingRecords = new LinkedHashMap<String,String> ();
+			this.appNameToPendingRecords.put( ma.getName(), pendingRecords );
+		}
+
+		InstancesJournal.coalesce( pendingRecords, records );
+
+		// Too many mutations are waiting: write them right now
+		Integer pendingMutations = this.appNameToPendingMutations.get( ma.getName());
+		pendingMutations = pendingMutations == null ? records.size() : pendingMutations + records.size();
+		if( pendingMutations >= this.persistenceMaxPending )
+			flushJournal( ma );
+		else
+			this.appNameToPendingMutations.put( ma.getName(), pendingMutations );
+	}
+
+
+	private File findInstancesFile( String applicationName ) {
+		return new File( this.configurationDirectory, INSTANCES + "/" + applicationName + ".instances" );
+	}
+
+
+	private File findJournalFile( String applicationName ) {
+		return new File( this.configurationDirectory, INSTANCES + "/" + applicationName + ".journal" );
+	}
+
+
 	/**
 	 * @return the messageServerIp
 	 */
@@ -163,6 +413,71 @@ public final class ManagerConfiguration {
 	}
 
 
+	/**
+	 * @return the messaging type ({@link #MESSAGING_RABBITMQ} or {@link #MESSAGING_LOOPBACK})
+	 */
+	public String getMessagingType() {
+		return this.messagingType;
+	}
+
+
+	/**
+	 * @param messagingType the messaging type ({@link #MESSAGING_RABBITMQ} or {@link #MESSAGING_LOOPBACK})
+	 */
+	public void setMessagingType( String messagingType ) {
+		this.messagingType = messagingType;
+	}
+
+
+	/**
+	 * @return the maximum delay (in milliseconds) before pending mutations are written
+	 */
+	public long getPersistenceMaxDelay() {
+		return this.persistenceMaxDelay;
+	}
+
+
+	/**
+	 * @param persistenceMaxDelay the maximum delay (in milliseconds) before pending mutations are written
+	 */
+	public void setPersistenceMaxDelay( long persistenceMaxDelay ) {
+		this.persistenceMaxDelay = persistenceMaxDelay;
+	}
+
+
+	/**
+	 * @return the maximum number of pending mutations before they are written
+	 */
+	public int getPersistenceMaxPending() {
+		return this.persistenceMaxPending;
+	}
+
+
+	/**
+	 * @param persistenceMaxPending the maximum number of pending mutations before they are written
+	 */
+	public void setPersistenceMaxPending( int persistenceMaxPending ) {
+		this.persistenceMaxPending = persistenceMaxPending;
+	}
+
+
+	/**
+	 * It should not be lower than the batch size of IaaS that create several machines at once.
+	 * @return the maximum number of machines that can be created concurrently on a same IaaS
+	 */
+	public int getProvisioningMaxConcurrency() {
+		return this.provisioningMaxConcurrency;
+	}
+
+
+	/**
+	 * @param provisioningMaxConcurrency the maximum number of machines that can be created concurrently on a same IaaS
+	 */
+	public void setProvisioningMaxConcurrency( int provisioningMaxConcurrency ) {
+		this.provisioningMaxConcurrency = provisioningMaxConcurrency;
+	}
+
+
 	/**
 	 * @return the configurationDirectory
 	 */
@@ -292,6 +607,37 @@ public final class ManagerConfiguration {
 		conf.messageServerUsername = props.getProperty( PROP_MESSAGING_USERNAME );
 		conf.messageServerPassword = props.getProperty( PROP_MESSAGING_PASSWORD );
 
+		String messagingType = props.getProperty( PROP_MESSAGING_TYPE );
+		if( messagingType != null )
+			conf.messagingType = messagingType.trim().toLowerCase();
+
+		if( ! MESSAGING_RABBITMQ.equals( conf.messagingType )
+				&& ! MESSAGING_LOOPBACK.equals( conf.messagingType ))
+			throw new IOException( "Invalid messaging type in " + propertiesFile + ": " + messagingType );
+
+		try {
+			String s = props.getProperty( PROP_PERSISTENCE_MAX_DELAY );
+			if( s != null )
+				conf.persistenceMaxDelay = Long.parseLong( s.trim());
+
+			s = props.getProperty( PROP_PERSISTENCE_MAX_PENDING );
+			if( s != null )
+				conf.persistenceMaxPending = Integer.parseInt( s.trim());
+
+			s = props.getProperty( PROP_PROVISIONING_MAX_CONCURRENCY );
+			if( s != null )
+				conf.provisioningMaxConcurrency = Integer.parseInt( s.trim());
+
+		} catch( NumberFormatException e ) {
+			throw new IOException( "Invalid persistence or provisioning settings in " + propertiesFile + ". " + e.getMessage());
+		}
+
+		if( conf.persistenceMaxDelay <= 0 || conf.persistenceMaxPending <= 0 )
+			throw new IOException( "Persistence settings must be positive in " + propertiesFile + "." );
+
+		if( conf.provisioningMaxConcurrency <= 0 )
+			throw new IOException( "Provisioning settings must be positive in " + propertiesFile + "." );
+
 		return conf;
 	}
 
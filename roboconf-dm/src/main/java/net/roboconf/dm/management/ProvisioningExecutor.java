@@ -0,0 +1,244 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.dm.management;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.roboconf.iaas.api.AsyncIaasAdapter;
+import net.roboconf.iaas.api.AsyncIaasInterface;
+import net.roboconf.iaas.api.IaasCallback;
+import net.roboconf.iaas.api.IaasException;
+import net.roboconf.iaas.api.IaasFuture;
+import net.roboconf.iaas.api.IaasInterface;
+
+/**
+ * An executor that provisions machines concurrently.
+ * <p>
+ * Machines are created through {@link AsyncIaasInterface}. No thread waits
+ * for a creation to complete. Handlers that are not asynchronous are adapted and
+ * run by a bounded pool of threads.
+ * </p>
+ * <p>
+ * The number of concurrent operations on a same IaaS is limited, so that IaaS APIs
+ * are not flooded. Extra operations are queued and started when others complete.
+ * IaaS are distinguished by the class of their handler.
+ * </p>
+ * <p>
+ * Every machine creation holds a slot until it completes, even when the handler
+ * groups several creations in a single request. So, the limit must be at least
+ * the batch size of such handlers, or their batches will be split.
+ * </p>
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ *
+ * @author Vincent Zurczak - Linagora
+ */
+final class ProvisioningExecutor {
+
+	static final int THREADS_COUNT = 20;
+
+	private final ExecutorService executor;
+	private final int maxConcurrencyPerIaas;
+	private final Map<String,Limiter> iaasToLimiter = new HashMap<String,Limiter> ();
+
+
+	/**
+	 * Constructor.
+	 * @param maxConcurrencyPerIaas the maximum number of concurrent operations on a same IaaS (at least 1)
+	 */
+	ProvisioningExecutor( int maxConcurrencyPerIaas ) {
+
+		this.maxConcurrencyPerIaas = Math.max( 1, maxConcurrencyPerIaas );
+		this.executor = Executors.newFixedThreadPool( THREADS_COUNT, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread( Runnable r ) {
+				Thread result = new Thread( r, "Roboconf - Provisioning " + this.count.incrementAndGet());
+				result.setDaemon( true );
+				return result;
+			}
+		});
+	}
+
+
+	/**
+	 * Creates a machine.
+	 * @param iaasInterface the IaaS handler (not null)
+	 * @param messagingIp the IP of the messaging server
+	 * @param messagingUsername the user name to connect to the messaging server
+	 * @param messagingPassword the password to connect to the messaging server
+	 * @param rootInstanceName the name of the root instance associated with this VM
+	 * @param applicationName the application name
+	 * @return a future whose result is the machine ID
+	 */
+	IaasFuture<String> createVM(
+			IaasInterface iaasInterface,
+			final String messagingIp,
+			final String messagingUsername,
+			final String messagingPassword,
+			final String rootInstanceName,
+			final String applicationName ) {
+
+		final AsyncIaasInterface asyncIaas = AsyncIaasAdapter.adapt( iaasInterface, this.executor );
+		final Limiter limiter = findLimiter( iaasInterface );
+		final IaasFuture<String> result = new IaasFuture<String> ();
+
+		limiter.submit( new Runnable() {
+			@Override
+			public void run() {
+
+				IaasFuture<String> creation;
+				try {
+					creation = asyncIaas.createVMAsync( messagingIp, messagingUsername, messagingPassword, rootInstanceName, applicationName );
+
+				} catch( RuntimeException e ) {
+					creation = new IaasFuture<String> ();
+					creation.fail( new IaasException( e ));
+				}
+
+				creation.addCallback( new IaasCallback<String>() {
+					@Override
+					public void completed( String machineId ) {
+						limiter.release();
+						result.complete( machineId );
+					}
+
+					@Override
+					public void failed( IaasException e ) {
+						limiter.release();
+						result.fail( e );
+					}
+				});
+			}
+		});
+
+		return result;
+	}
+
+
+	/**
+	 * Shutdowns the executor.
+	 * <p>
+	 * Running tasks are not interrupted.
+	 * </p>
+	 */
+	void shutdown() {
+		this.executor.shutdown();
+	}
+
+
+	private synchronized Limiter findLimiter( IaasInterface iaasInterface ) {
+
+		String key = iaasInterface.getClass().getName();
+		Limiter result = this.iaasToLimiter.get( key );
+		if( result == null ) {
+			result = new Limiter( this.maxConcurrencyPerIaas );
+			this.iaasToLimiter.put( key, result );
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Limits the number of operations in progress.
+	 * <p>
+	 * Unlike a semaphore, it does not block the threads that submit operations.
+	 * Operations are started in the order they were submitted.
+	 * </p>
+	 */
+	static final class Limiter {
+
+		private final int maxInProgress;
+		private final Queue<Runnable> pending = new LinkedList<Runnable> ();
+		private int inProgress = 0;
+
+
+		/**
+		 * Constructor.
+		 * @param maxInProgress the maximum number of operations in progress
+		 */
+		Limiter( int maxInProgress ) {
+			this.maxInProgress = maxInProgress;
+		}
+
+
+		/**
+		 * Starts an operation, or queues it if too many operations are in progress.
+		 * <p>
+		 * The operation must invoke {@link #release()} once it is complete.
+		 * </p>
+		 *
+		 * @param operation the runnable that starts the operation
+		 */
+		void submit( Runnable operation ) {
+
+			synchronized( this ) {
+				if( this.inProgress >= this.maxInProgress ) {
+					this.pending.add( operation );
+					return;
+				}
+
+				this.inProgress ++;
+			}
+
+			operation.run();
+		}
+
+
+		/**
+		 * Indicates an operation has completed, and starts the next pending one, if any.
+		 */
+		void release() {
+
+			Runnable next;
+			synchronized( this ) {
+				next = this.pending.poll();
+				if( next == null )
+					this.inProgress --;
+			}
+
+			if( next != null )
+				next.run();
+		}
+
+
+		/**
+		 * @return the number of operations in progress
+		 */
+		synchronized int getInProgress() {
+			return this.inProgress;
+		}
+
+
+		/**
+		 * @return the number of pending operations
+		 */
+		synchronized int getPendingCount() {
+			return this.pending.size();
+		}
+	}
+}
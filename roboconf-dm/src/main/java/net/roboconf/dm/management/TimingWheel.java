@@ -0,0 +1,130 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.dm.management;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A hashed timing wheel, to track deadlines expressed in ticks.
+ * <p>
+ * Scheduling, re-scheduling and cancelling a deadline are O(1) operations.
+ * Advancing the wheel only visits the elements of one slot. When all the deadlines
+ * are shorter than the wheel size, these are exactly the expired elements.
+ * </p>
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ *
+ * @param <T> the type of the tracked elements
+ * @author Vincent Zurczak - Linagora
+ */
+final class TimingWheel<T> {
+
+	private final List<Set<T>> slots;
+	private final Map<T,Long> elementToDeadline = new HashMap<T,Long> ();
+	private long currentTick = 0;
+
+
+	/**
+	 * Constructor.
+	 * @param slotsCount the number of slots (at least 1)
+	 */
+	TimingWheel( int slotsCount ) {
+
+		int count = Math.max( 1, slotsCount );
+		this.slots = new ArrayList<Set<T>>( count );
+		for( int i=0; i<count; i++ )
+			this.slots.add( new LinkedHashSet<T> ());
+	}
+
+
+	/**
+	 * Schedules (or re-schedules) the deadline of an element.
+	 * @param element the element (not null)
+	 * @param ticks the number of ticks before the deadline (at least 1)
+	 */
+	synchronized void schedule( T element, int ticks ) {
+
+		cancel( element );
+		long deadline = this.currentTick + Math.max( 1, ticks );
+		this.elementToDeadline.put( element, deadline );
+		findSlot( deadline ).add( element );
+	}
+
+
+	/**
+	 * Stops tracking an element.
+	 * @param element the element
+	 */
+	synchronized void cancel( T element ) {
+
+		Long deadline = this.elementToDeadline.remove( element );
+		if( deadline != null )
+			findSlot( deadline ).remove( element );
+	}
+
+
+	/**
+	 * Moves the wheel forward by one tick.
+	 * @return the elements whose deadline expired (never null), they are not tracked anymore
+	 */
+	synchronized List<T> advance() {
+
+		this.currentTick ++;
+		List<T> result = new ArrayList<T> ();
+		for( Iterator<T> it = findSlot( this.currentTick ).iterator(); it.hasNext(); ) {
+
+			// Deadlines beyond the wheel size share slots with closer ones
+			T element = it.next();
+			if( this.elementToDeadline.get( element ) <= this.currentTick ) {
+				it.remove();
+				this.elementToDeadline.remove( element );
+				result.add( element );
+			}
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * @param element an element
+	 * @return true if this element has a pending deadline, false otherwise
+	 */
+	synchronized boolean isScheduled( T element ) {
+		return this.elementToDeadline.containsKey( element );
+	}
+
+
+	/**
+	 * @return the number of tracked elements
+	 */
+	synchronized int size() {
+		return this.elementToDeadline.size();
+	}
+
+
+	private Set<T> findSlot( long tick ) {
+		return this.slots.get((int) ( tick % this.slots.size()));
+	}
+}
@@ -0,0 +1,349 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.dm.management;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.roboconf.core.model.helpers.ComponentHelpers;
+import net.roboconf.core.model.runtime.Component;
+import net.roboconf.core.model.runtime.Instance;
+
+/**
+ * The machines that are provisioned in advance for an application.
+ * <p>
+ * A warm pool is configured per root component. Its machines run agents that are
+ * in standby: they are not associated with any root instance yet. Deploying a root
+ * instance claims a ready machine, whose agent is then rebound to this instance.
+ * </p>
+ * <p>
+ * Standby agents are identified by a name that cannot be a valid instance name.
+ * This class only stores the state of the pool. Machines are created and terminated
+ * by the {@link Manager}.
+ * </p>
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ *
+ * @author Vincent Zurczak - Linagora
+ */
+public final class WarmPool {
+
+	static final String STANDBY_PREFIX = "~standby-";
+
+	private final Map<String,Integer> componentNameToSize = new HashMap<String,Integer> ();
+	private final Map<String,StandbyMachine> nameToMachine = new LinkedHashMap<String,StandbyMachine> ();
+	private int counter = 0;
+
+
+	/**
+	 * Indicates whether a root instance name designates a standby agent.
+	 * @param rootInstanceName a root instance name (can be null)
+	 * @return true if it starts with {@value #STANDBY_PREFIX}, false otherwise
+	 */
+	public static boolean isStandbyName( String rootInstanceName ) {
+		return rootInstanceName != null && rootInstanceName.startsWith( STANDBY_PREFIX );
+	}
+
+
+	/**
+	 * Sets the number of machines to keep ready for a root component.
+	 * @param componentName the component name
+	 * @param size the pool size (0 to disable the pool)
+	 */
+	public synchronized void setSize( String componentName, int size ) {
+
+		if( size > 0 )
+			this.componentNameToSize.put( componentName, size );
+		else
+			this.componentNameToSize.remove( componentName );
+	}
+
+
+	/**
+	 * @param componentName the component name
+	 * @return the number of machines to keep ready for this component (0 if there is no pool)
+	 */
+	public synchronized int getSize( String componentName ) {
+		Integer result = this.componentNameToSize.get( componentName );
+		return result == null ? 0 : result;
+	}
+
+
+	/**
+	 * Counts the machines of a component that can be claimed.
+	 * @param componentName the component name
+	 * @return the number of created machines whose agent is up
+	 */
+	public synchronized int countReadyMachines( String componentName ) {
+
+		int result = 0;
+		for( StandbyMachine machine : this.nameToMachine.values()) {
+			if( machine.ready
+					&& machine.machineId != null
+					&& machine.componentName.equals( componentName ))
+				result ++;
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Counts the machines of a component, ready or being created.
+	 * @param componentName the component name
+	 * @return the number of machines in the pool for this component
+	 */
+	public synchronized int countMachines( String componentName ) {
+
+		int result = 0;
+		for( StandbyMachine machine : this.nameToMachine.values()) {
+			if( machine.componentName.equals( componentName ))
+				result ++;
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Registers the machines that must be created to fill the pool.
+	 * <p>
+	 * They are counted as pool machines immediately, so that concurrent
+	 * refills do not create more machines than necessary.
+	 * </p>
+	 *
+	 * @return a non-null list of machines to create
+	 */
+	synchronized List<StandbyMachine> registerMissingMachines() {
+
+		List<StandbyMachine> result = new ArrayList<StandbyMachine> ();
+		for( Map.Entry<String,Integer> entry : this.componentNameToSize.entrySet()) {
+			for( int i=countMachines( entry.getKey()); i<entry.getValue(); i++ ) {
+				StandbyMachine machine = new StandbyMachine( STANDBY_PREFIX + (++ this.counter), entry.getKey());
+				this.nameToMachine.put( machine.name, machine );
+				result.add( machine );
+			}
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Removes the ready machines that exceed the pool sizes.
+	 * @return a non-null list of machines to terminate
+	 */
+	synchronized List<StandbyMachine> removeExtraMachines() {
+
+		List<StandbyMachine> result = new ArrayList<StandbyMachine> ();
+		Map<String,Integer> componentNameToCount = new HashMap<String,Integer> ();
+		for( Iterator<StandbyMachine> it = this.nameToMachine.values().iterator(); it.hasNext(); ) {
+
+			StandbyMachine machine = it.next();
+			Integer count = componentNameToCount.get( machine.componentName );
+			count = count == null ? 1 : count + 1;
+			componentNameToCount.put( machine.componentName, count );
+
+			if( machine.ready && count > getSize( machine.componentName )) {
+				it.remove();
+				result.add( machine );
+			}
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Records the machine ID of a pool machine.
+	 * @param name the standby name
+	 * @param machineId the machine ID
+	 * @return false if the machine was removed from the pool in the meantime, true otherwise
+	 */
+	synchronized boolean machineCreated( String name, String machineId ) {
+
+		StandbyMachine machine = this.nameToMachine.get( name );
+		if( machine != null )
+			machine.machineId = machineId;
+
+		return machine != null;
+	}
+
+
+	/**
+	 * Removes a machine from the pool (e.g. it could not be created or it was stopped).
+	 * @param name the standby name
+	 * @return true if this machine belonged to the pool, false otherwise
+	 */
+	public synchronized boolean remove( String name ) {
+		return this.nameToMachine.remove( name ) != null;
+	}
+
+
+	/**
+	 * Marks a machine as ready, once its agent is up.
+	 * @param name the standby name
+	 * @return true if this machine belongs to the pool, false otherwise
+	 */
+	public synchronized boolean markReady( String name ) {
+
+		StandbyMachine machine = this.nameToMachine.get( name );
+		if( machine != null )
+			machine.ready = true;
+
+		return machine != null;
+	}
+
+
+	/**
+	 * Records a heart beat from a standby machine.
+	 * @param name the standby name
+	 * @return true if this machine belongs to the pool, false otherwise
+	 */
+	public synchronized boolean acknowledgeHeartBeat( String name ) {
+
+		StandbyMachine machine = this.nameToMachine.get( name );
+		if( machine != null )
+			machine.missedHeartbeats = 0;
+
+		return machine != null;
+	}
+
+
+	/**
+	 * Removes the ready machines that stopped sending heart beats.
+	 * <p>
+	 * This method is meant to be invoked once per heart beat period.
+	 * Every invocation counts one missed heart beat for every ready machine.
+	 * </p>
+	 *
+	 * @param threshold the number of heart beats a machine can miss
+	 * @return a non-null list of machines to terminate
+	 */
+	synchronized List<StandbyMachine> removeExpiredMachines( int threshold ) {
+
+		List<StandbyMachine> result = new ArrayList<StandbyMachine> ();
+		for( Iterator<StandbyMachine> it = this.nameToMachine.values().iterator(); it.hasNext(); ) {
+			StandbyMachine machine = it.next();
+			if( machine.ready
+					&& ++ machine.missedHeartbeats > threshold ) {
+				it.remove();
+				result.add( machine );
+			}
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * @param name a standby name
+	 * @return true if this machine belongs to the pool, false otherwise
+	 */
+	public synchronized boolean contains( String name ) {
+		return this.nameToMachine.containsKey( name );
+	}
+
+
+	/**
+	 * Claims a ready machine for a root component.
+	 * <p>
+	 * The machine is removed from the pool. The oldest ready machine is returned first.
+	 * </p>
+	 *
+	 * @param componentName the component name
+	 * @return a machine, or null if no machine is ready
+	 */
+	synchronized StandbyMachine claim( String componentName ) {
+
+		StandbyMachine result = null;
+		for( Iterator<StandbyMachine> it = this.nameToMachine.values().iterator(); it.hasNext(); ) {
+			StandbyMachine machine = it.next();
+			if( machine.ready
+					&& machine.machineId != null
+					&& machine.componentName.equals( componentName )) {
+
+				it.remove();
+				result = machine;
+				break;
+			}
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Disables the pool and removes all its machines.
+	 * @return the machines to terminate (those being created are terminated once the IaaS answers)
+	 */
+	synchronized List<StandbyMachine> clear() {
+
+		List<StandbyMachine> result = new ArrayList<StandbyMachine> ();
+		for( StandbyMachine machine : this.nameToMachine.values()) {
+			if( machine.machineId != null )
+				result.add( machine );
+		}
+
+		this.componentNameToSize.clear();
+		this.nameToMachine.clear();
+		return result;
+	}
+
+
+	/**
+	 * A machine of the pool.
+	 */
+	static final class StandbyMachine {
+
+		final String name, componentName;
+		String machineId;
+		boolean ready = false;
+		int missedHeartbeats = 0;
+
+
+		/**
+		 * Constructor.
+		 * @param name the standby name
+		 * @param componentName the component name
+		 */
+		StandbyMachine( String name, String componentName ) {
+			this.name = name;
+			this.componentName = componentName;
+		}
+
+
+		/**
+		 * Builds a root instance to find the IaaS handler of this machine.
+		 * <p>
+		 * This instance is not part of the application's model.
+		 * </p>
+		 *
+		 * @param ma the managed application
+		 * @return a new instance
+		 */
+		Instance toInstance( ManagedApplication ma ) {
+			Component component = ComponentHelpers.findComponent( ma.getApplication().getGraphs(), this.componentName );
+			return new Instance( this.name ).component( component );
+		}
+	}
+}
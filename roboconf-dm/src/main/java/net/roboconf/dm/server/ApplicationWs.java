@@ -70,11 +70,13 @@ public class ApplicationWs implements IApplicationWs {
 			else if(( instance = InstanceHelpers.findInstanceByPath( ma.getApplication(), instancePath )) == null )
 				response = Response.status( Status.NOT_FOUND ).entity( "Instance " + instancePath + " was not found." ).build();
 
-			else if( action == ApplicationAction.DEPLOY ) {
-				if( instance.getParent() == null )
-					Manager.INSTANCE.deployRoot( ma, instance );
-				else
-					Manager.INSTANCE.deploy( ma, instance );
+			else if( action == ApplicationAction.DEPLOY && instance.getParent() == null ) {
+				// The machine is created in the background: the request is only accepted
+				Manager.INSTANCE.deployRootAsync( ma, instance );
+				response = Response.status( Status.ACCEPTED ).build();
+
+			} else if( action == ApplicationAction.DEPLOY ) {
+				Manager.INSTANCE.deploy( ma, instance );
 				response = Response.ok().build();
 
 			} else if( action == ApplicationAction.START ) {
@@ -205,6 +207,33 @@ public class ApplicationWs implements IApplicationWs {
 	}
 
 
+	/*
+	 * (non-Javadoc)
+	 * @see net.roboconf.dm.rest.api.IApplicationWs
+	 * #configureWarmPool(java.lang.String, java.lang.String, int)
+	 */
+	@Override
+	public Response configureWarmPool( String applicationName, String componentName, int size ) {
+
+		this.logger.fine( "Request: set the warm pool of " + componentName + " to " + size + " machine(s) in " + applicationName + "." );
+		Response response;
+		ManagedApplication ma;
+		try {
+			if(( ma = Manager.INSTANCE.getAppNameToManagedApplication().get( applicationName )) == null ) {
+				response = Response.status( Status.NOT_FOUND ).entity( "Application " + applicationName + " does not exist." ).build();
+			} else {
+				Manager.INSTANCE.configureWarmPool( ma, componentName, size );
+				response = Response.ok().build();
+			}
+
+		} catch( IllegalArgumentException e ) {
+			response = Response.status( Status.BAD_REQUEST ).entity( e.getMessage()).build();
+		}
+
+		return response;
+	}
+
+
 	/*
 	 * (non-Javadoc)
 	 * @see net.roboconf.dm.rest.api.IApplicationWs
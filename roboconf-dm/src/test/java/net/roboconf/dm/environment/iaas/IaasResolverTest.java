@@ -19,9 +19,12 @@ package net.roboconf.dm.environment.iaas;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
 
 import junit.framework.Assert;
 import net.roboconf.core.Constants;
@@ -172,4 +175,125 @@ public class IaasResolverTest {
 		IaasResolver resolver = new IaasResolver();
 		resolver.findIaasInterface( ma, rootInstance );
 	}
+
+
+	@Test
+	public void testFindIaasInterface_cache() throws Exception {
+
+		File appDir = this.folder.newFolder( "roboconf_test" );
+		Application app = new Application( "my app" );
+		ManagedApplication ma = new ManagedApplication( app, appDir );
+
+		Component comp = new Component( "comp" ).installerName( "iaas" );
+		Instance rootInstance1 = new Instance( "root1" ).component( comp );
+		Instance rootInstance2 = new Instance( "root2" ).component( comp );
+		File propsFile = writeIaasProperties( appDir, rootInstance1, IaasResolver.IAAS_EMBEDDED );
+
+		// Same component => same handler
+		IaasResolver resolver = new IaasResolver();
+		IaasInterface itf = resolver.findIaasInterface( ma, rootInstance1 );
+		Assert.assertTrue( itf instanceof IaasEmbedded );
+		Assert.assertSame( itf, resolver.findIaasInterface( ma, rootInstance1 ));
+		Assert.assertSame( itf, resolver.findIaasInterface( ma, rootInstance2 ));
+
+		// Invalidation
+		resolver.invalidate( ma, rootInstance2 );
+		IaasInterface newItf = resolver.findIaasInterface( ma, rootInstance1 );
+		Assert.assertNotSame( itf, newItf );
+		Assert.assertSame( newItf, resolver.findIaasInterface( ma, rootInstance1 ));
+
+		resolver.invalidate( ma );
+		itf = resolver.findIaasInterface( ma, rootInstance1 );
+		Assert.assertNotSame( newItf, itf );
+
+		// Modified properties
+		writeIaasProperties( appDir, rootInstance1, IaasResolver.IAAS_IN_MEMORY );
+		Assert.assertTrue( propsFile.setLastModified( propsFile.lastModified() + 2000 ));
+		Assert.assertTrue( resolver.findIaasInterface( ma, rootInstance1 ) instanceof IaasInMemory );
+	}
+
+
+	@Test( timeout = 10000 )
+	public void testFindIaasInterface_slowConfigurationDoesNotBlockOtherKeys() throws Exception {
+
+		File appDir = this.folder.newFolder( "roboconf_test" );
+		Application app = new Application( "my app" );
+		final ManagedApplication ma = new ManagedApplication( app, appDir );
+
+		final Instance slowInstance = new Instance( "slow" ).component( new Component( "slow" ).installerName( "iaas" ));
+		Instance fastInstance = new Instance( "fast" ).component( new Component( "fast" ).installerName( "iaas" ));
+		writeIaasProperties( appDir, slowInstance, "slow" );
+		writeIaasProperties( appDir, fastInstance, IaasResolver.IAAS_EMBEDDED );
+
+		final CountDownLatch configurationStarted = new CountDownLatch( 1 );
+		final CountDownLatch configurationReleased = new CountDownLatch( 1 );
+		final IaasResolver resolver = new IaasResolver() {
+			@Override
+			protected IaasInterface findIaasHandler( String iaasType ) {
+
+				if( ! "slow".equals( iaasType ))
+					return super.findIaasHandler( iaasType );
+
+				return new IaasEmbedded() {
+					@Override
+					public void setIaasProperties( Map<String,String> iaasProperties ) {
+						configurationStarted.countDown();
+						try {
+							configurationReleased.await();
+
+						} catch( InterruptedException e ) {
+							Thread.currentThread().interrupt();
+						}
+					}
+				};
+			}
+		};
+
+		final List<IaasInterface> slowResult = new ArrayList<IaasInterface> ();
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					slowResult.add( resolver.findIaasInterface( ma, slowInstance ));
+
+				} catch( IaasException e ) {
+					// nothing, the result remains empty
+				}
+			}
+		};
+
+		thread.start();
+		configurationStarted.await();
+
+		// Another component is resolved while the slow handler is being configured
+		Assert.assertTrue( resolver.findIaasInterface( ma, fastInstance ) instanceof IaasEmbedded );
+		resolver.invalidate( ma, slowInstance );
+
+		configurationReleased.countDown();
+		thread.join();
+		Assert.assertEquals( 1, slowResult.size());
+	}
+
+
+	private File writeIaasProperties( File appDir, Instance rootInstance, String iaasType ) throws IOException {
+
+		File propsDir = ResourceUtils.findInstanceResourcesDirectory( appDir, rootInstance );
+		if( ! propsDir.exists() && ! propsDir.mkdirs())
+			throw new IOException( "Failed to create sub-directories." );
+
+		File propsFile = new File( propsDir, Constants.IAAS_PROPERTIES_FILE_NAME );
+		Properties props = new Properties();
+		props.setProperty( IaasResolver.IAAS_TYPE, iaasType );
+
+		FileOutputStream os = null;
+		try {
+			os = new FileOutputStream( propsFile );
+			props.store( os, null );
+
+		} finally {
+			Utils.closeQuietly( os );
+		}
+
+		return propsFile;
+	}
 }
@@ -153,6 +153,35 @@ public class DmMessageProcessorTest {
 	}
 
 
+	@Test
+	public void testProcessMsgNotifInstanceChanged_waitsForTheApplicationLock() throws Exception {
+
+		this.app.getMySqlVm().setStatus( InstanceStatus.DEPLOYED_STARTED );
+		final MsgNotifInstanceChanged msg = new MsgNotifInstanceChanged( this.app.getName(), this.app.getMySqlVm());
+		msg.setNewStatus( InstanceStatus.STOPPING );
+
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				DmMessageProcessorTest.this.processor.processMessage( msg );
+			}
+		};
+
+		// The model must not be modified while someone else holds the lock (e.g. a snapshot)
+		ManagedApplication ma = Manager.INSTANCE.getAppNameToManagedApplication().get( this.app.getName());
+		synchronized( ma ) {
+			thread.start();
+			thread.join( 200 );
+			Assert.assertTrue( thread.isAlive());
+			Assert.assertEquals( InstanceStatus.DEPLOYED_STARTED, this.app.getMySqlVm().getStatus());
+		}
+
+		thread.join( 5000 );
+		Assert.assertFalse( thread.isAlive());
+		Assert.assertEquals( InstanceStatus.STOPPING, this.app.getMySqlVm().getStatus());
+	}
+
+
 	@Test
 	public void testProcessMsgNotifInstanceChanged_invalidApplication() {
 
@@ -253,4 +282,21 @@ public class DmMessageProcessorTest {
 		this.processor.processMessage( msg );
 		Assert.assertEquals( InstanceStatus.PROBLEM, this.app.getMySqlVm().getStatus());
 	}
+
+
+	@Test
+	public void testFindPartitionKey() {
+
+		String key = this.processor.findPartitionKey( new MsgNotifHeartbeat( this.app.getName(), this.app.getMySqlVm()));
+		Assert.assertEquals( this.app.getName() + "/" + this.app.getMySqlVm().getName(), key );
+		Assert.assertEquals( key, this.processor.findPartitionKey( new MsgNotifMachineUp( this.app.getName(), this.app.getMySqlVm().getName(), "127.0.0.1" )));
+		Assert.assertEquals( key, this.processor.findPartitionKey( new MsgNotifMachineDown( this.app.getName(), this.app.getMySqlVm())));
+		Assert.assertEquals( key, this.processor.findPartitionKey( new MsgNotifInstanceChanged( this.app.getName(), this.app.getMySql())));
+		Assert.assertEquals( key, this.processor.findPartitionKey( new MsgNotifInstanceRemoved( this.app.getName(), this.app.getMySql())));
+		Assert.assertEquals( key, this.processor.findPartitionKey( new MsgNotifInstanceRemoved( this.app.getName(), this.app.getMySqlVm())));
+
+		Assert.assertNull( DmMessageProcessor.findRootInstanceName( null ));
+		Assert.assertEquals( "vm", DmMessageProcessor.findRootInstanceName( "vm" ));
+		Assert.assertEquals( "vm", DmMessageProcessor.findRootInstanceName( "/vm/server" ));
+	}
 }
@@ -16,8 +16,8 @@
 
 package net.roboconf.dm.internal;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import net.roboconf.core.model.runtime.Instance;
 import net.roboconf.dm.environment.iaas.IaasResolver;
@@ -30,7 +30,7 @@ import net.roboconf.iaas.api.IaasInterface;
  */
 public class TestIaasResolver extends IaasResolver {
 
-	public final Map<Instance,Boolean> instanceToRunningStatus = new HashMap<Instance,Boolean> ();
+	public final Map<Instance,Boolean> instanceToRunningStatus = new ConcurrentHashMap<Instance,Boolean> ();
 
 
 	@Override
@@ -18,6 +18,7 @@ package net.roboconf.dm.internal;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -67,6 +68,16 @@ public class TestMessageServerClient implements IDmClient {
 	}
 
 
+	@Override
+	public void sendMessagesToAgent( Application application, Instance instance, List<Message> messages )
+	throws IOException {
+		for( Iterator<Message> it = messages.iterator(); it.hasNext(); ) {
+			sendMessageToAgent( application, instance, it.next());
+			it.remove();
+		}
+	}
+
+
 	@Override
 	public void listenToAgentMessages( Application application, ListenerCommand command )
 	throws IOException {
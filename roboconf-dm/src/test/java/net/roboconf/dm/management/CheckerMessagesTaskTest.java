@@ -18,6 +18,7 @@ package net.roboconf.dm.management;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.Assert;
 import net.roboconf.core.model.runtime.Application;
@@ -150,4 +151,111 @@ public class CheckerMessagesTaskTest {
 		Assert.assertEquals( 1, ma.rootInstanceToAwaitingMessages.size());
 		Assert.assertEquals( 2, ma.rootInstanceToAwaitingMessages.get( app.getMySqlVm()).size());
 	}
+
+
+	@Test
+	public void testRun_backoff() {
+
+		TestApplication app = new TestApplication();
+		ManagedApplication ma = new ManagedApplication( app, null );
+		Manager.INSTANCE.getAppNameToManagedApplication().put( app.getName(), ma );
+
+		final AtomicInteger attempts = new AtomicInteger( 0 );
+		CheckerMessagesTask task = new CheckerMessagesTask( new TestMessageServerClient() {
+			@Override
+			public void sendMessageToAgent( Application application, Instance instance, Message message )
+			throws IOException {
+				attempts.incrementAndGet();
+				throw new IOException( "This is for testing purpose..." );
+			}
+		});
+
+		app.getMySqlVm().setStatus( InstanceStatus.DEPLOYED_STARTED );
+		ma.storeAwaitingMessage( app.getMySqlVm(), new MsgCmdInstanceRestore());
+		ma.storeAwaitingMessage( app.getMySqlVm(), new MsgCmdInstanceStop( "/whatever" ));
+
+		// First attempt fails, messages are kept in order
+		task.run();
+		Assert.assertEquals( 1, attempts.get());
+		List<Message> messages = ma.rootInstanceToAwaitingMessages.get( app.getMySqlVm());
+		Assert.assertEquals( 2, messages.size());
+		Assert.assertEquals( MsgCmdInstanceRestore.class, messages.get( 0 ).getClass());
+		Assert.assertEquals( MsgCmdInstanceStop.class, messages.get( 1 ).getClass());
+		Assert.assertEquals( Integer.valueOf( 1 ), task.keyToFailuresCount.get( CheckerMessagesTask.buildKey( ma, app.getMySqlVm())));
+
+		// The next attempt is delayed
+		task.run();
+		Assert.assertEquals( 1, attempts.get());
+
+		// Once messages are gone, the retry information is forgotten
+		ma.removeAwaitingMessages( app.getMySqlVm());
+		task.run();
+		Assert.assertEquals( 0, task.keyToFailuresCount.size());
+		Assert.assertEquals( 0, task.keyToNextAttempt.size());
+	}
+
+
+	@Test
+	public void testRun_backoff_sameRootNameInTwoApplications() {
+
+		// Two applications with the same root instance names
+		final TestApplication app1 = new TestApplication();
+		app1.setName( "app1" );
+		ManagedApplication ma1 = new ManagedApplication( app1, null );
+		Manager.INSTANCE.getAppNameToManagedApplication().put( app1.getName(), ma1 );
+
+		TestApplication app2 = new TestApplication();
+		app2.setName( "app2" );
+		ManagedApplication ma2 = new ManagedApplication( app2, null );
+		Manager.INSTANCE.getAppNameToManagedApplication().put( app2.getName(), ma2 );
+
+		// Only the agent of the first application fails
+		final AtomicInteger attempts = new AtomicInteger( 0 );
+		TestMessageServerClient client = new TestMessageServerClient() {
+			@Override
+			public void sendMessageToAgent( Application application, Instance instance, Message message )
+			throws IOException {
+
+				if( application == app1 ) {
+					attempts.incrementAndGet();
+					throw new IOException( "This is for testing purpose..." );
+				}
+
+				super.sendMessageToAgent( application, instance, message );
+			}
+		};
+
+		CheckerMessagesTask task = new CheckerMessagesTask( client );
+		app1.getMySqlVm().setStatus( InstanceStatus.DEPLOYED_STARTED );
+		app2.getMySqlVm().setStatus( InstanceStatus.DEPLOYED_STARTED );
+		ma1.storeAwaitingMessage( app1.getMySqlVm(), new MsgCmdInstanceRestore());
+		ma2.storeAwaitingMessage( app2.getMySqlVm(), new MsgCmdInstanceRestore());
+
+		task.run();
+		Assert.assertEquals( 1, attempts.get());
+		Assert.assertEquals( 1, client.sentMessages.size());
+		Assert.assertEquals( Integer.valueOf( 1 ), task.keyToFailuresCount.get( CheckerMessagesTask.buildKey( ma1, app1.getMySqlVm())));
+
+		// The healthy agent is not delayed by the failing one...
+		ma2.storeAwaitingMessage( app2.getMySqlVm(), new MsgCmdInstanceRestore());
+		task.run();
+		Assert.assertEquals( 2, client.sentMessages.size());
+
+		// ... and its successes do not reset the failing one's backoff
+		Assert.assertEquals( 1, attempts.get());
+		Assert.assertEquals( 1, task.keyToFailuresCount.size());
+		Assert.assertEquals( 1, task.keyToNextAttempt.size());
+		Assert.assertTrue( task.keyToNextAttempt.containsKey( CheckerMessagesTask.buildKey( ma1, app1.getMySqlVm())));
+	}
+
+
+	@Test
+	public void testComputeBackoffDelay() {
+
+		Assert.assertEquals( Manager.TIMER_PERIOD, CheckerMessagesTask.computeBackoffDelay( 1 ));
+		Assert.assertEquals( 2 * Manager.TIMER_PERIOD, CheckerMessagesTask.computeBackoffDelay( 2 ));
+		Assert.assertEquals( 4 * Manager.TIMER_PERIOD, CheckerMessagesTask.computeBackoffDelay( 3 ));
+		Assert.assertEquals( CheckerMessagesTask.MAX_BACKOFF_DELAY, CheckerMessagesTask.computeBackoffDelay( 15 ));
+		Assert.assertEquals( CheckerMessagesTask.MAX_BACKOFF_DELAY, CheckerMessagesTask.computeBackoffDelay( 150 ));
+	}
 }
@@ -17,13 +17,17 @@
 package net.roboconf.dm.management;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import junit.framework.Assert;
 import net.roboconf.core.model.helpers.InstanceHelpers;
+import net.roboconf.core.model.runtime.Application;
 import net.roboconf.core.model.runtime.Instance;
 import net.roboconf.core.model.runtime.Instance.InstanceStatus;
 import net.roboconf.dm.internal.TestApplication;
+import net.roboconf.dm.internal.TestMessageServerClient;
 import net.roboconf.messaging.messages.Message;
 import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceRestore;
 import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceStop;
@@ -149,56 +153,148 @@ public class ManagedApplicationTest {
 	@Test
 	public void testAcknowledgeHeartBeat() {
 
-		Assert.assertEquals( 0, this.ma.rootInstanceToMissedHeartBeatsCount.size());
+		Assert.assertTrue( this.ma.heartBeatDeadlines.isScheduled( this.app.getMySqlVm()));
+		this.ma.heartBeatDeadlines.cancel( this.app.getMySqlVm());
 		this.ma.acknowledgeHeartBeat( this.app.getMySqlVm());
-		Assert.assertEquals( 0, this.ma.rootInstanceToMissedHeartBeatsCount.size());
+		Assert.assertTrue( this.ma.heartBeatDeadlines.isScheduled( this.app.getMySqlVm()));
 
 		this.app.getMySqlVm().setStatus( InstanceStatus.DEPLOYED_STARTED );
 		this.ma.acknowledgeHeartBeat( this.app.getMySqlVm());
 		Assert.assertEquals( InstanceStatus.DEPLOYED_STARTED, this.app.getMySqlVm().getStatus());
-		Assert.assertNull( this.ma.rootInstanceToMissedHeartBeatsCount.get( this.app.getMySqlVm()));
+		Assert.assertTrue( this.ma.heartBeatDeadlines.isScheduled( this.app.getMySqlVm()));
 
 		this.app.getMySqlVm().setStatus( InstanceStatus.PROBLEM );
 		this.ma.acknowledgeHeartBeat( this.app.getMySqlVm());
 		Assert.assertEquals( InstanceStatus.DEPLOYED_STARTED, this.app.getMySqlVm().getStatus());
-		Assert.assertNull( this.ma.rootInstanceToMissedHeartBeatsCount.get( this.app.getMySqlVm()));
-
-		this.app.getMySqlVm().setStatus( InstanceStatus.PROBLEM );
-		this.ma.rootInstanceToMissedHeartBeatsCount.put( this.app.getMySqlVm(), 5 );
-		this.ma.acknowledgeHeartBeat( this.app.getMySqlVm());
-		Assert.assertEquals( InstanceStatus.DEPLOYED_STARTED, this.app.getMySqlVm().getStatus());
-		Assert.assertNull( this.ma.rootInstanceToMissedHeartBeatsCount.get( this.app.getMySqlVm()));
+		Assert.assertTrue( this.ma.heartBeatDeadlines.isScheduled( this.app.getMySqlVm()));
 	}
 
 
 	@Test
 	public void testCheckStates() {
 
-		Assert.assertEquals( 0, this.ma.rootInstanceToMissedHeartBeatsCount.size());
+		// Root instances are monitored from the beginning
+		Assert.assertEquals( 2, this.ma.heartBeatDeadlines.size());
 		this.app.getMySqlVm().setStatus( InstanceStatus.DEPLOYED_STARTED );
-		this.ma.checkStates();
-		Assert.assertEquals( 1, this.ma.rootInstanceToMissedHeartBeatsCount.size());
-
-		this.ma.acknowledgeHeartBeat( this.app.getMySqlVm());
-		Assert.assertEquals( 0, this.ma.rootInstanceToMissedHeartBeatsCount.size());
+		for( int i=0; i<ManagedApplication.MISSED_HEARTBEATS_THRESHOLD; i++ )
+			this.ma.checkStates();
 
+		// A heart beat postpones the deadline
 		Assert.assertEquals( InstanceStatus.DEPLOYED_STARTED, this.app.getMySqlVm().getStatus());
-		for( int i=0; i<=ManagedApplication.MISSED_HEARTBEATS_THRESHOLD; i++ ) {
+		this.ma.acknowledgeHeartBeat( this.app.getMySqlVm());
+		for( int i=0; i<ManagedApplication.MISSED_HEARTBEATS_THRESHOLD; i++ ) {
 			this.ma.checkStates();
-			Assert.assertEquals( i, i, this.ma.rootInstanceToMissedHeartBeatsCount.get( this.app.getMySqlVm()));
+			Assert.assertEquals( InstanceStatus.DEPLOYED_STARTED, this.app.getMySqlVm().getStatus());
 		}
 
-		Assert.assertEquals( InstanceStatus.PROBLEM, this.app.getMySqlVm().getStatus());
-		this.app.getMySqlVm().setStatus( InstanceStatus.UNDEPLOYING );
-		this.ma.checkStates();
-		Assert.assertNull( this.ma.rootInstanceToMissedHeartBeatsCount.get( this.app.getMySqlVm()));
+		// The Tomcat VM was not deployed, it is not monitored anymore
+		Assert.assertFalse( this.ma.heartBeatDeadlines.isScheduled( this.app.getTomcatVm()));
+		Assert.assertEquals( InstanceStatus.NOT_DEPLOYED, this.app.getTomcatVm().getStatus());
 
-		this.app.getMySqlVm().setStatus( InstanceStatus.DEPLOYING );
+		// Too many missed heart beats
 		this.ma.checkStates();
-		Assert.assertNull( this.ma.rootInstanceToMissedHeartBeatsCount.get( this.app.getMySqlVm()));
+		Assert.assertEquals( InstanceStatus.PROBLEM, this.app.getMySqlVm().getStatus());
+		Assert.assertEquals( 0, this.ma.heartBeatDeadlines.size());
+
+		// Undeploying, deploying and not deployed instances are not marked
+		InstanceStatus[] statuses = { InstanceStatus.UNDEPLOYING, InstanceStatus.DEPLOYING, InstanceStatus.NOT_DEPLOYED };
+		for( InstanceStatus status : statuses ) {
+			this.ma.acknowledgeHeartBeat( this.app.getMySqlVm());
+			this.app.getMySqlVm().setStatus( status );
+			for( int i=0; i<=ManagedApplication.MISSED_HEARTBEATS_THRESHOLD; i++ )
+				this.ma.checkStates();
+
+			Assert.assertEquals( status, this.app.getMySqlVm().getStatus());
+			Assert.assertFalse( this.ma.heartBeatDeadlines.isScheduled( this.app.getMySqlVm()));
+		}
+	}
 
-		this.app.getMySqlVm().setStatus( InstanceStatus.NOT_DEPLOYED );
-		this.ma.checkStates();
-		Assert.assertNull( this.ma.rootInstanceToMissedHeartBeatsCount.get( this.app.getMySqlVm()));
+
+	@Test( timeout = 10000 )
+	public void testSendAwaitingMessages_slowRootInstanceDoesNotBlockOthers() throws Exception {
+
+		Assert.assertSame( this.ma.findSendingLock( this.app.getMySqlVm()), this.ma.findSendingLock( this.app.getMySqlVm()));
+		Assert.assertNotSame( this.ma.findSendingLock( this.app.getMySqlVm()), this.ma.findSendingLock( this.app.getTomcatVm()));
+
+		// Sending messages to the MySQL VM blocks...
+		final CountDownLatch sendingStarted = new CountDownLatch( 1 );
+		final CountDownLatch releaseSending = new CountDownLatch( 1 );
+		final TestMessageServerClient slowClient = new TestMessageServerClient() {
+			@Override
+			public void sendMessagesToAgent( Application application, Instance instance, List<Message> messages )
+			throws IOException {
+
+				sendingStarted.countDown();
+				try {
+					releaseSending.await();
+
+				} catch( InterruptedException e ) {
+					Thread.currentThread().interrupt();
+				}
+
+				super.sendMessagesToAgent( application, instance, messages );
+			}
+		};
+
+		this.app.getMySqlVm().setStatus( InstanceStatus.DEPLOYED_STARTED );
+		this.app.getTomcatVm().setStatus( InstanceStatus.DEPLOYED_STARTED );
+		this.ma.storeAwaitingMessage( this.app.getMySqlVm(), new MsgCmdInstanceRestore());
+		this.ma.storeAwaitingMessage( this.app.getTomcatVm(), new MsgCmdInstanceRestore());
+
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				ManagedApplicationTest.this.ma.sendAwaitingMessages( ManagedApplicationTest.this.app.getMySqlVm(), slowClient );
+			}
+		};
+
+		thread.start();
+		sendingStarted.await();
+
+		// ... but messages for the Tomcat VM are still sent
+		TestMessageServerClient client = new TestMessageServerClient();
+		Assert.assertTrue( this.ma.sendAwaitingMessages( this.app.getTomcatVm(), client ));
+		Assert.assertEquals( 1, client.sentMessages.size());
+		Assert.assertEquals( 0, slowClient.sentMessages.size());
+
+		releaseSending.countDown();
+		thread.join();
+		Assert.assertEquals( 1, slowClient.sentMessages.size());
+	}
+
+
+	@Test
+	public void testSendAwaitingMessages_partialFailure() {
+
+		// Only the first message is delivered
+		TestMessageServerClient client = new TestMessageServerClient() {
+			@Override
+			public void sendMessageToAgent( Application application, Instance instance, Message message )
+			throws IOException {
+
+				if( ! this.sentMessages.isEmpty())
+					throw new IOException( "For test purpose." );
+
+				super.sendMessageToAgent( application, instance, message );
+			}
+		};
+
+		Message msg1 = new MsgCmdInstanceRestore();
+		Message msg2 = new MsgCmdInstanceStop( this.app.getMySql());
+		Message msg3 = new MsgCmdInstanceUndeploy( this.app.getMySql());
+		this.app.getMySqlVm().setStatus( InstanceStatus.DEPLOYED_STARTED );
+		this.ma.storeAwaitingMessage( this.app.getMySqlVm(), msg1 );
+		this.ma.storeAwaitingMessage( this.app.getMySqlVm(), msg2 );
+		this.ma.storeAwaitingMessage( this.app.getMySqlVm(), msg3 );
+
+		Assert.assertFalse( this.ma.sendAwaitingMessages( this.app.getMySqlVm(), client ));
+		Assert.assertEquals( 1, client.sentMessages.size());
+		Assert.assertSame( msg1, client.sentMessages.get( 0 ));
+
+		// The delivered message is not stored again
+		List<Message> messages = this.ma.rootInstanceToAwaitingMessages.get( this.app.getMySqlVm());
+		Assert.assertEquals( 2, messages.size());
+		Assert.assertSame( msg2, messages.get( 0 ));
+		Assert.assertSame( msg3, messages.get( 1 ));
 	}
 }
@@ -17,6 +17,7 @@
 package net.roboconf.dm.management;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Map;
 
@@ -105,6 +106,88 @@ public class ManagerConfigurationTest {
 
 		Assert.assertEquals( "localhost", conf.getMessageServerIp());
 		Assert.assertEquals( dir, conf.getConfigurationDirectory());
+		Assert.assertEquals( ManagerConfiguration.DEFAULT_PERSISTENCE_MAX_DELAY, conf.getPersistenceMaxDelay());
+		Assert.assertEquals( ManagerConfiguration.DEFAULT_PERSISTENCE_MAX_PENDING, conf.getPersistenceMaxPending());
+		Assert.assertEquals( ManagerConfiguration.MESSAGING_RABBITMQ, conf.getMessagingType());
+	}
+
+
+	@Test
+	public void testLoadConfiguration_loopbackMessaging() throws Exception {
+
+		File dir = this.folder.newFolder();
+		ManagerConfiguration.createConfiguration( dir );
+
+		File propertiesFile = new File( dir, ManagerConfiguration.CONF + "/" + ManagerConfiguration.CONF_PROPERTIES );
+		FileOutputStream os = new FileOutputStream( propertiesFile, true );
+		try {
+			os.write( "\nmessaging.type = Loopback\n".getBytes( "UTF-8" ));
+
+		} finally {
+			os.close();
+		}
+
+		ManagerConfiguration conf = ManagerConfiguration.loadConfiguration( dir );
+		Assert.assertEquals( ManagerConfiguration.MESSAGING_LOOPBACK, conf.getMessagingType());
+	}
+
+
+	@Test( expected = IOException.class )
+	public void testLoadConfiguration_invalidMessagingType() throws Exception {
+
+		File dir = this.folder.newFolder();
+		ManagerConfiguration.createConfiguration( dir );
+
+		File propertiesFile = new File( dir, ManagerConfiguration.CONF + "/" + ManagerConfiguration.CONF_PROPERTIES );
+		FileOutputStream os = new FileOutputStream( propertiesFile, true );
+		try {
+			os.write( "\nmessaging.type = carrier-pigeon\n".getBytes( "UTF-8" ));
+
+		} finally {
+			os.close();
+		}
+
+		ManagerConfiguration.loadConfiguration( dir );
+	}
+
+
+	@Test
+	public void testLoadConfiguration_persistenceSettings() throws Exception {
+
+		File dir = this.folder.newFolder();
+		ManagerConfiguration.createConfiguration( dir );
+
+		File propertiesFile = new File( dir, ManagerConfiguration.CONF + "/" + ManagerConfiguration.CONF_PROPERTIES );
+		FileOutputStream os = new FileOutputStream( propertiesFile, true );
+		try {
+			os.write( "\npersistence.max-delay = 500\npersistence.max-pending = 20\n".getBytes( "UTF-8" ));
+
+		} finally {
+			os.close();
+		}
+
+		ManagerConfiguration conf = ManagerConfiguration.loadConfiguration( dir );
+		Assert.assertEquals( 500, conf.getPersistenceMaxDelay());
+		Assert.assertEquals( 20, conf.getPersistenceMaxPending());
+	}
+
+
+	@Test( expected = IOException.class )
+	public void testLoadConfiguration_invalidPersistenceSettings() throws Exception {
+
+		File dir = this.folder.newFolder();
+		ManagerConfiguration.createConfiguration( dir );
+
+		File propertiesFile = new File( dir, ManagerConfiguration.CONF + "/" + ManagerConfiguration.CONF_PROPERTIES );
+		FileOutputStream os = new FileOutputStream( propertiesFile, true );
+		try {
+			os.write( "\npersistence.max-delay = -1\n".getBytes( "UTF-8" ));
+
+		} finally {
+			os.close();
+		}
+
+		ManagerConfiguration.loadConfiguration( dir );
 	}
 
 
@@ -253,4 +336,167 @@ public class ManagerConfigurationTest {
 		conf.deleteInstancesFile( "some-app" );
 		Assert.assertFalse( f.exists());
 	}
+
+
+	@Test
+	public void testJournal_restore() throws Exception {
+
+		File dir = this.folder.newFolder();
+		ManagerConfiguration conf = ManagerConfiguration.createConfiguration( dir );
+		TestApplication app = new TestApplication();
+		ManagedApplication ma = new ManagedApplication( app, conf.findApplicationdirectory( app.getName()));
+		conf.setPersistenceMaxPending( 1 );
+		conf.saveInstances( ma );
+
+		// Mutations after the snapshot only go into the journal
+		File instancesFile = new File( dir, ManagerConfiguration.INSTANCES + "/" + app.getName() + ".instances" );
+		long snapshotLength = instancesFile.length();
+
+		app.getMySqlVm().status( InstanceStatus.DEPLOYED_STARTED ).getData().put( Instance.IP_ADDRESS, "192.168.1.12" );
+		conf.journalInstance( ma, app.getMySqlVm());
+
+		app.getWar().getComponent().getExportedVariables().put( "war.port", "80" );
+		Instance newWar = new Instance( "war-2" ).component( app.getWar().getComponent()).channel( "ch" );
+		newWar.getOverriddenExports().put( "war.port", "8080" );
+		InstanceHelpers.insertChild( app.getTomcat(), newWar );
+		conf.journalInstance( ma, newWar );
+
+		conf.journalInstanceRemoval( ma, app.getWar());
+		InstanceHelpers.removeInstance( app, app.getWar());
+
+		// Only the mutated instances are journaled, not their children
+		Assert.assertEquals( snapshotLength, instancesFile.length());
+		Assert.assertEquals( 3, conf.getJournalSize( app.getName()));
+
+		// Restore the snapshot and replay the journal
+		InstancesLoadResult ilr = conf.restoreInstances( ma );
+		Assert.assertEquals( 0, ilr.getLoadErrors().size());
+		Assert.assertEquals( 3, conf.getJournalSize( app.getName()));
+
+		Application restoredApp = new Application();
+		restoredApp.getRootInstances().addAll( ilr.getRootInstances());
+		Assert.assertEquals( InstanceHelpers.getAllInstances( app ).size(), InstanceHelpers.getAllInstances( restoredApp ).size());
+
+		Instance restoredVm = InstanceHelpers.findInstanceByPath( restoredApp, "/mysql-vm" );
+		Assert.assertEquals( InstanceStatus.DEPLOYED_STARTED, restoredVm.getStatus());
+		Assert.assertEquals( "192.168.1.12", restoredVm.getData().get( Instance.IP_ADDRESS ));
+
+		Assert.assertNull( InstanceHelpers.findInstanceByPath( restoredApp, "/tomcat-vm/tomcat-server/hello-world" ));
+		Instance restoredWar = InstanceHelpers.findInstanceByPath( restoredApp, "/tomcat-vm/tomcat-server/war-2" );
+		Assert.assertNotNull( restoredWar );
+		Assert.assertEquals( "ch", restoredWar.getChannel());
+		Assert.assertEquals( app.getWar().getComponent(), restoredWar.getComponent());
+		Assert.assertEquals( "8080", restoredWar.getOverriddenExports().get( "war.port" ));
+
+		// Compaction
+		Assert.assertFalse( conf.compactInstances( ma ));
+		for( int i=0; i<ManagerConfiguration.JOURNAL_COMPACTION_THRESHOLD; i++ )
+			conf.journalInstance( ma, app.getMySql());
+
+		Assert.assertTrue( conf.compactInstances( ma ));
+		Assert.assertEquals( 0, conf.getJournalSize( app.getName()));
+		Assert.assertFalse( new File( dir, ManagerConfiguration.INSTANCES + "/" + app.getName() + ".journal" ).exists());
+
+		ilr = conf.restoreInstances( ma );
+		Assert.assertEquals( 0, ilr.getLoadErrors().size());
+		restoredApp = new Application();
+		restoredApp.getRootInstances().addAll( ilr.getRootInstances());
+		Assert.assertNotNull( InstanceHelpers.findInstanceByPath( restoredApp, "/tomcat-vm/tomcat-server/war-2" ));
+		Assert.assertEquals( 0, conf.getJournalSize( app.getName()));
+	}
+
+
+	@Test
+	public void testJournal_invalidRecords() throws Exception {
+
+		File dir = this.folder.newFolder();
+		ManagerConfiguration conf = ManagerConfiguration.createConfiguration( dir );
+		TestApplication app = new TestApplication();
+		ManagedApplication ma = new ManagedApplication( app, conf.findApplicationdirectory( app.getName()));
+		conf.setPersistenceMaxPending( 1 );
+
+		// No snapshot, and a truncated record
+		conf.journalInstances( ma, app.getMySqlVm());
+		File journalFile = new File( dir, ManagerConfiguration.INSTANCES + "/" + app.getName() + ".journal" );
+		FileOutputStream os = new FileOutputStream( journalFile, true );
+		try {
+			os.write( "REMOVE\nPUT %2Fmysql-vm%2Fmysql-server vm".getBytes( "UTF-8" ));
+
+		} finally {
+			os.close();
+		}
+
+		InstancesLoadResult ilr = conf.restoreInstances( ma );
+		Assert.assertEquals( 0, ilr.getLoadErrors().size());
+		Assert.assertEquals( 1, ilr.getRootInstances().size());
+
+		Instance restoredVm = ilr.getRootInstances().iterator().next();
+		Assert.assertEquals( "mysql-vm", restoredVm.getName());
+		Assert.assertEquals( 1, restoredVm.getChildren().size());
+		Assert.assertEquals( 4, conf.getJournalSize( app.getName()));
+	}
+
+
+	@Test
+	public void testJournal_writeBehind() throws Exception {
+
+		File dir = this.folder.newFolder();
+		ManagerConfiguration conf = ManagerConfiguration.createConfiguration( dir );
+		TestApplication app = new TestApplication();
+		ManagedApplication ma = new ManagedApplication( app, conf.findApplicationdirectory( app.getName()));
+		conf.setPersistenceMaxPending( 10 );
+
+		// Consecutive mutations of a same instance are coalesced
+		File journalFile = new File( dir, ManagerConfiguration.INSTANCES + "/" + app.getName() + ".journal" );
+		conf.journalInstance( ma, app.getMySqlVm());
+		app.getMySqlVm().setStatus( InstanceStatus.DEPLOYING );
+		conf.journalInstance( ma, app.getMySqlVm());
+		app.getMySqlVm().setStatus( InstanceStatus.DEPLOYED_STARTED );
+		conf.journalInstance( ma, app.getMySqlVm());
+
+		Assert.assertFalse( journalFile.exists());
+		Assert.assertEquals( 1, conf.getPendingRecordsCount( app.getName()));
+		Assert.assertEquals( 0, conf.getJournalSize( app.getName()));
+
+		Assert.assertTrue( conf.flushJournal( ma ));
+		Assert.assertFalse( conf.flushJournal( ma ));
+		Assert.assertTrue( journalFile.exists());
+		Assert.assertEquals( 0, conf.getPendingRecordsCount( app.getName()));
+		Assert.assertEquals( 1, conf.getJournalSize( app.getName()));
+
+		// A removal discards the previous records of the instance and of its children
+		conf.journalInstances( ma, app.getTomcatVm());
+		conf.journalInstanceRemoval( ma, app.getTomcat());
+		Assert.assertEquals( 2, conf.getPendingRecordsCount( app.getName()));
+		InstanceHelpers.removeInstance( app, app.getTomcat());
+
+		// Too many pending mutations: they are written right now
+		for( int i=0; i<6; i++ )
+			conf.journalInstance( ma, app.getMySql());
+
+		Assert.assertEquals( 0, conf.getPendingRecordsCount( app.getName()));
+		Assert.assertEquals( 4, conf.getJournalSize( app.getName()));
+
+		// Restore
+		conf.journalInstance( ma, app.getMySqlVm());
+		Assert.assertEquals( 1, conf.getPendingRecordsCount( app.getName()));
+
+		InstancesLoadResult ilr = conf.restoreInstances( ma );
+		Assert.assertEquals( 0, ilr.getLoadErrors().size());
+		Assert.assertEquals( 0, conf.getPendingRecordsCount( app.getName()));
+		Assert.assertEquals( 5, conf.getJournalSize( app.getName()));
+
+		Application restoredApp = new Application();
+		restoredApp.getRootInstances().addAll( ilr.getRootInstances());
+		Assert.assertEquals( InstanceStatus.DEPLOYED_STARTED, InstanceHelpers.findInstanceByPath( restoredApp, "/mysql-vm" ).getStatus());
+		Assert.assertNotNull( InstanceHelpers.findInstanceByPath( restoredApp, "/tomcat-vm" ));
+		Assert.assertNull( InstanceHelpers.findInstanceByPath( restoredApp, "/tomcat-vm/tomcat-server" ));
+
+		// A snapshot drops pending records
+		conf.journalInstance( ma, app.getMySqlVm());
+		conf.saveInstances( ma );
+		Assert.assertEquals( 0, conf.getPendingRecordsCount( app.getName()));
+		Assert.assertEquals( 0, conf.getJournalSize( app.getName()));
+		Assert.assertFalse( journalFile.exists());
+	}
 }
@@ -27,6 +27,7 @@ import net.roboconf.core.RoboconfError;
 import net.roboconf.core.internal.tests.TestUtils;
 import net.roboconf.core.model.ModelError;
 import net.roboconf.core.model.helpers.InstanceHelpers;
+import net.roboconf.core.model.io.RuntimeModelIo.InstancesLoadResult;
 import net.roboconf.core.model.runtime.Application;
 import net.roboconf.core.model.runtime.Instance;
 import net.roboconf.core.model.runtime.Instance.InstanceStatus;
@@ -39,6 +40,7 @@ import net.roboconf.dm.management.exceptions.AlreadyExistingException;
 import net.roboconf.dm.management.exceptions.ImpossibleInsertionException;
 import net.roboconf.dm.management.exceptions.InvalidApplicationException;
 import net.roboconf.dm.management.exceptions.UnauthorizedActionException;
+import net.roboconf.messaging.internal.client.loopback.LoopbackDmClient;
 import net.roboconf.messaging.messages.Message;
 import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceRemove;
 import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceRestore;
@@ -72,6 +74,25 @@ public class Manager_BasicsTest {
 	}
 
 
+	@Test
+	public void testInitialize_loopbackMessaging() throws Exception {
+
+		Manager.INSTANCE.shutdown();
+		ManagerConfiguration conf = ManagerConfiguration.createConfiguration( this.folder.newFolder());
+		conf.setMessagingType( ManagerConfiguration.MESSAGING_LOOPBACK );
+		Manager.INSTANCE.initialize( conf );
+
+		Assert.assertTrue( Manager.INSTANCE.messagingClient instanceof LoopbackDmClient );
+		Assert.assertTrue( Manager.INSTANCE.messagingClient.isConnected());
+		Assert.assertEquals( ManagerConfiguration.MESSAGING_LOOPBACK, Manager.INSTANCE.iaasResolver.getMessagingType());
+
+		Manager.INSTANCE.shutdown();
+		Manager.INSTANCE.initialize( ManagerConfiguration.createConfiguration( this.folder.newFolder()));
+		Assert.assertTrue( Manager.INSTANCE.messagingClient instanceof TestMessageServerClient );
+		Assert.assertEquals( ManagerConfiguration.MESSAGING_RABBITMQ, Manager.INSTANCE.iaasResolver.getMessagingType());
+	}
+
+
 	@Test
 	public void testSaveConfiguration_nullConfiguration() {
 
@@ -97,6 +118,46 @@ public class Manager_BasicsTest {
 	}
 
 
+	@Test
+	public void testFlushAwaitingMessages() throws Exception {
+
+		TestApplication app = new TestApplication();
+		ManagedApplication ma = new ManagedApplication( app, null );
+		Manager.INSTANCE.getAppNameToManagedApplication().put( app.getName(), ma );
+		TestMessageServerClient msgClient = (TestMessageServerClient) Manager.INSTANCE.messagingClient;
+		msgClient.openConnection( null );
+
+		ma.storeAwaitingMessage( app.getMySqlVm(), new MsgCmdInstanceRestore());
+		ma.storeAwaitingMessage( app.getMySqlVm(), new MsgCmdInstanceRemove( "/whatever" ));
+
+		// The machine is not online yet
+		Manager.INSTANCE.flushAwaitingMessages( ma, app.getMySqlVm());
+		Manager.INSTANCE.senderExecutor.submit( new Runnable() {
+			@Override
+			public void run() {
+				// nothing, used to wait for the previous tasks
+			}
+		}).get();
+
+		Assert.assertEquals( 0, msgClient.sentMessages.size());
+		Assert.assertTrue( ma.hasAwaitingMessages( app.getMySqlVm()));
+
+		// A heart beat triggers the sending
+		ma.acknowledgeHeartBeat( app.getMySqlVm());
+		Manager.INSTANCE.senderExecutor.submit( new Runnable() {
+			@Override
+			public void run() {
+				// nothing, used to wait for the previous tasks
+			}
+		}).get();
+
+		Assert.assertFalse( ma.hasAwaitingMessages( app.getMySqlVm()));
+		Assert.assertEquals( 2, msgClient.sentMessages.size());
+		Assert.assertEquals( MsgCmdInstanceRestore.class, msgClient.sentMessages.get( 0 ).getClass());
+		Assert.assertEquals( MsgCmdInstanceRemove.class, msgClient.sentMessages.get( 1 ).getClass());
+	}
+
+
 	@Test
 	public void testShutdown() throws Exception {
 
@@ -110,6 +171,25 @@ public class Manager_BasicsTest {
 	}
 
 
+	@Test
+	public void testShutdown_pendingMutationsAreSaved() throws Exception {
+
+		TestApplication app = new TestApplication();
+		ManagedApplication ma = new ManagedApplication( app, this.folder.newFolder());
+		Manager.INSTANCE.getAppNameToManagedApplication().put( app.getName(), ma );
+
+		ManagerConfiguration conf = Manager.INSTANCE.configuration;
+		Manager.INSTANCE.addInstance( ma, null, new Instance( "mail-vm" ).component( app.getMySqlVm().getComponent()));
+		Assert.assertEquals( 1, conf.getPendingRecordsCount( app.getName()));
+
+		Manager.INSTANCE.shutdown();
+		Assert.assertEquals( 0, conf.getPendingRecordsCount( app.getName()));
+
+		InstancesLoadResult ilr = conf.restoreInstances( ma );
+		Assert.assertEquals( 3, ilr.getRootInstances().size());
+	}
+
+
 	@Test
 	public void testShutdown_notConnected() throws Exception {
 
@@ -17,7 +17,9 @@
 package net.roboconf.dm.management;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import net.roboconf.core.model.helpers.InstanceHelpers;
 import net.roboconf.core.model.runtime.Instance;
@@ -26,9 +28,12 @@ import net.roboconf.dm.internal.TestApplication;
 import net.roboconf.dm.internal.TestIaasResolver;
 import net.roboconf.dm.internal.TestMessageServerClient;
 import net.roboconf.dm.internal.TestMessageServerClient.DmMessageServerClientFactory;
+import net.roboconf.iaas.api.AsyncIaasInterface;
 import net.roboconf.iaas.api.IaasException;
+import net.roboconf.iaas.api.IaasFuture;
 import net.roboconf.iaas.api.IaasInterface;
 import net.roboconf.messaging.messages.Message;
+import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdAgentRebind;
 import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceAdd;
 import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceDeploy;
 import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceStart;
@@ -367,7 +372,61 @@ public class Manager_LifeCycleTest {
 		Assert.assertEquals( MsgCmdInstanceAdd.class, msg.getClass());
 
 		Assert.assertNull(((MsgCmdInstanceAdd) msg).getParentInstancePath());
-		Assert.assertEquals( app.getMySqlVm(), ((MsgCmdInstanceAdd) msg).getInstanceToAdd());
+		Assert.assertEquals( app.getGraphs(), ((MsgCmdInstanceAdd) msg).getGraphs());
+		Assert.assertEquals( app.getMySqlVm().getName(), ((MsgCmdInstanceAdd) msg).getInstanceDescriptor().getName());
+	}
+
+
+	@Test
+	public void testPerformDeployRoot_withWarmPool() throws Exception {
+
+		TestApplication app = new TestApplication();
+		ManagedApplication ma = new ManagedApplication( app, null );
+		Manager.INSTANCE.getAppNameToManagedApplication().put( app.getName(), ma );
+		TestMessageServerClient msgClient = (TestMessageServerClient) Manager.INSTANCE.messagingClient;
+
+		// A standby machine is created in the background
+		String componentName = app.getMySqlVm().getComponent().getName();
+		Manager.INSTANCE.configureWarmPool( ma, componentName, 1 );
+		Assert.assertEquals( 1, ma.getWarmPool().countMachines( componentName ));
+
+		// Its agent is up
+		String standbyName = WarmPool.STANDBY_PREFIX + 1;
+		for( int i=0; i<50 && ma.getWarmPool().countReadyMachines( componentName ) == 0; i++ ) {
+			ma.getWarmPool().markReady( standbyName );
+			Thread.sleep( 100 );
+		}
+
+		Assert.assertEquals( 1, ma.getWarmPool().countReadyMachines( componentName ));
+
+		// Deploying the root instance claims it
+		Manager.INSTANCE.deployRoot( ma, app.getMySqlVm());
+		Assert.assertEquals( "generated machine id for " + standbyName, app.getMySqlVm().getData().get( Instance.MACHINE_ID ));
+		Assert.assertEquals( 1, msgClient.sentMessages.size());
+		Assert.assertEquals( MsgCmdAgentRebind.class, msgClient.sentMessages.get( 0 ).getClass());
+		Assert.assertEquals( app.getMySqlVm().getName(), ((MsgCmdAgentRebind) msgClient.sentMessages.get( 0 )).getRootInstanceName());
+
+		// The ADD message waits for the rebound agent
+		Assert.assertEquals( 1, ma.rootInstanceToAwaitingMessages.get( app.getMySqlVm()).size());
+
+		// The pool is being refilled
+		Assert.assertFalse( ma.getWarmPool().contains( standbyName ));
+		Assert.assertEquals( 1, ma.getWarmPool().countMachines( componentName ));
+		Assert.assertEquals( 0, ma.getWarmPool().countReadyMachines( componentName ));
+
+		// The pool is released with the DM
+		Manager.INSTANCE.shutdown();
+		Assert.assertEquals( 0, ma.getWarmPool().countMachines( componentName ));
+		Assert.assertEquals( 0, ma.getWarmPool().getSize( componentName ));
+	}
+
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testConfigureWarmPool_notARootComponent() throws Exception {
+
+		TestApplication app = new TestApplication();
+		ManagedApplication ma = new ManagedApplication( app, null );
+		Manager.INSTANCE.configureWarmPool( ma, app.getMySql().getComponent().getName(), 1 );
 	}
 
 
@@ -395,6 +454,78 @@ public class Manager_LifeCycleTest {
 	}
 
 
+	@Test
+	public void testPerformDeployRoot_twiceWithoutWaiting() throws Exception {
+
+		TestApplication app = new TestApplication();
+		ManagedApplication ma = new ManagedApplication( app, null );
+		Manager.INSTANCE.getAppNameToManagedApplication().put( app.getName(), ma );
+
+		// The IaaS answers only when the test decides it
+		final List<IaasFuture<String>> creations = new ArrayList<IaasFuture<String>> ();
+		Manager.INSTANCE.setIaasResolver( new TestIaasResolver() {
+			@Override
+			public IaasInterface findIaasInterface( ManagedApplication ma, Instance instance ) throws IaasException {
+				return new AsyncIaasInterface() {
+
+					@Override
+					public void setIaasProperties( Map<String,String> iaasProperties ) throws IaasException {
+						// nothing
+					}
+
+					@Override
+					public String createVM( String messagingIp, String messagingUsername, String messagingPassword, String rootInstanceName, String applicationName )
+					throws IaasException {
+						return createVMAsync( messagingIp, messagingUsername, messagingPassword, rootInstanceName, applicationName ).waitForResult();
+					}
+
+					@Override
+					public void terminateVM( String machineId ) throws IaasException {
+						// nothing
+					}
+
+					@Override
+					public IaasFuture<String> createVMAsync( String messagingIp, String messagingUsername, String messagingPassword, String rootInstanceName, String applicationName ) {
+						IaasFuture<String> result = new IaasFuture<String> ();
+						creations.add( result );
+						return result;
+					}
+
+					@Override
+					public IaasFuture<Void> terminateVMAsync( String machineId ) {
+						IaasFuture<Void> result = new IaasFuture<Void> ();
+						result.complete( null );
+						return result;
+					}
+				};
+			}
+		});
+
+		// The second requests are made while the first machine is being created
+		IaasFuture<String> firstDeployment = Manager.INSTANCE.deployRootAsync( ma, app.getMySqlVm());
+		IaasFuture<String> secondDeployment = Manager.INSTANCE.deployRootAsync( ma, app.getMySqlVm());
+		Manager.INSTANCE.deployAndStartAll( ma, app.getMySqlVm());
+
+		Assert.assertEquals( 1, creations.size());
+		Assert.assertNull( secondDeployment.waitForResult());
+		Assert.assertNull( app.getMySqlVm().getData().get( Instance.MACHINE_ID ));
+		Assert.assertEquals( InstanceStatus.DEPLOYING, app.getMySqlVm().getStatus());
+
+		List<Message> messages = ma.rootInstanceToAwaitingMessages.get( app.getMySqlVm());
+		Assert.assertEquals( MsgCmdInstanceAdd.class, messages.get( 0 ).getClass());
+		for( Message msg : messages.subList( 1, messages.size()))
+			Assert.assertFalse( msg instanceof MsgCmdInstanceAdd );
+
+		// Once the machine was created, deploying again does nothing either
+		creations.get( 0 ).complete( "machine-id" );
+		Assert.assertEquals( "machine-id", firstDeployment.waitForResult());
+		Assert.assertEquals( "machine-id", app.getMySqlVm().getData().get( Instance.MACHINE_ID ));
+
+		Manager.INSTANCE.deployRoot( ma, app.getMySqlVm());
+		Assert.assertEquals( 1, creations.size());
+	}
+
+
 	@Test( expected = IaasException.class )
 	public void testPerformDeployRoot_iaasException() throws Exception {
 
@@ -585,7 +716,7 @@ public class Manager_LifeCycleTest {
 		Assert.assertEquals( 3, mySqlMessages.size());
 
 		Assert.assertEquals( MsgCmdInstanceAdd.class, mySqlMessages.get( 0 ).getClass());
-		Assert.assertEquals( app.getMySqlVm(), ((MsgCmdInstanceAdd)mySqlMessages.get( 0 )).getInstanceToAdd());
+		Assert.assertEquals( app.getMySqlVm().getName(), ((MsgCmdInstanceAdd) mySqlMessages.get( 0 )).getInstanceDescriptor().getName());
 		Assert.assertNull(((MsgCmdInstanceAdd) mySqlMessages.get( 0 )).getParentInstancePath());
 
 		Assert.assertEquals( MsgCmdInstanceDeploy.class, mySqlMessages.get( 1 ).getClass());
@@ -599,7 +730,7 @@ public class Manager_LifeCycleTest {
 		Assert.assertEquals( 5, tomcatMessages.size());
 
 		Assert.assertEquals( MsgCmdInstanceAdd.class, tomcatMessages.get( 0 ).getClass());
-		Assert.assertEquals( app.getTomcatVm(), ((MsgCmdInstanceAdd) tomcatMessages.get( 0 )).getInstanceToAdd());
+		Assert.assertEquals( app.getTomcatVm().getName(), ((MsgCmdInstanceAdd) tomcatMessages.get( 0 )).getInstanceDescriptor().getName());
 		Assert.assertNull(((MsgCmdInstanceAdd) tomcatMessages.get( 0 )).getParentInstancePath());
 
 		Assert.assertEquals( MsgCmdInstanceDeploy.class, tomcatMessages.get( 1 ).getClass());
@@ -616,6 +747,45 @@ public class Manager_LifeCycleTest {
 	}
 
 
+	@Test
+	public void testDeployAndStartAll_application_withIaasFailure() throws Exception {
+
+		final TestApplication app = new TestApplication();
+		ManagedApplication ma = new ManagedApplication( app, null );
+		Manager.INSTANCE.getAppNameToManagedApplication().put( app.getName(), ma );
+
+		TestIaasResolver newResolver = new TestIaasResolver() {
+			@Override
+			public IaasInterface findIaasInterface( ManagedApplication ma, Instance instance ) throws IaasException {
+				if( instance == app.getMySqlVm())
+					throw new IaasException( "For test purpose!" );
+
+				return super.findIaasInterface( ma, instance );
+			}
+		};
+
+		Manager.INSTANCE.setIaasResolver( newResolver );
+		try {
+			Manager.INSTANCE.deployAndStartAll( ma, null );
+			Assert.fail( "An exception was expected." );
+
+		} catch( IaasException e ) {
+			Assert.assertTrue( e.getMessage().contains( app.getMySqlVm().getName()));
+			Assert.assertFalse( e.getMessage().contains( app.getTomcatVm().getName()));
+		}
+
+		// The failure did not prevent the other machine from being created
+		Assert.assertEquals( InstanceStatus.PROBLEM, app.getMySqlVm().getStatus());
+		Assert.assertNull( app.getMySqlVm().getData().get( Instance.MACHINE_ID ));
+		Assert.assertNull( newResolver.instanceToRunningStatus.get( app.getMySqlVm()));
+
+		Assert.assertEquals( InstanceStatus.DEPLOYING, app.getTomcatVm().getStatus());
+		Assert.assertNotNull( app.getTomcatVm().getData().get( Instance.MACHINE_ID ));
+		Assert.assertTrue( newResolver.instanceToRunningStatus.get( app.getTomcatVm()));
+		Assert.assertEquals( 5, ma.rootInstanceToAwaitingMessages.get( app.getTomcatVm()).size());
+	}
+
+
 	@Test
 	public void testDeployAndStartAll_rootInstance() throws Exception {
 
@@ -642,7 +812,7 @@ public class Manager_LifeCycleTest {
 		Assert.assertEquals( 5, tomcatMessages.size());
 
 		Assert.assertEquals( MsgCmdInstanceAdd.class, tomcatMessages.get( 0 ).getClass());
-		Assert.assertEquals( app.getTomcatVm(), ((MsgCmdInstanceAdd) tomcatMessages.get( 0 )).getInstanceToAdd());
+		Assert.assertEquals( app.getTomcatVm().getName(), ((MsgCmdInstanceAdd) tomcatMessages.get( 0 )).getInstanceDescriptor().getName());
 		Assert.assertNull(((MsgCmdInstanceAdd) tomcatMessages.get( 0 )).getParentInstancePath());
 
 		Assert.assertEquals( MsgCmdInstanceDeploy.class, tomcatMessages.get( 1 ).getClass());
@@ -0,0 +1,161 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.dm.management;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+import net.roboconf.iaas.api.AsyncIaasInterface;
+import net.roboconf.iaas.api.IaasException;
+import net.roboconf.iaas.api.IaasFuture;
+import net.roboconf.iaas.api.IaasInterface;
+
+import org.junit.Test;
+
+/**
+ * @author Vincent Zurczak - Linagora
+ */
+public class ProvisioningExecutorTest {
+
+	@Test
+	public void testConcurrencyIsLimitedPerIaas() throws Exception {
+
+		ProvisioningExecutor executor = new ProvisioningExecutor( 2 );
+		DummyAsyncIaas iaas = new DummyAsyncIaas();
+		try {
+			List<IaasFuture<String>> futures = new ArrayList<IaasFuture<String>> ();
+			for( int i=0; i<5; i++ )
+				futures.add( executor.createVM( iaas, "ip", "user", "pwd", "vm" + i, "app" ));
+
+			// Only two creations were started
+			Assert.assertEquals( 2, iaas.creations.size());
+
+			// Completing one starts the next one
+			iaas.creations.get( 0 ).complete( "id0" );
+			Assert.assertEquals( "id0", futures.get( 0 ).waitForResult());
+			Assert.assertEquals( 3, iaas.creations.size());
+
+			// Failures release the IaaS too
+			iaas.creations.get( 1 ).fail( new IaasException( "for test" ));
+			Assert.assertEquals( 4, iaas.creations.size());
+			try {
+				futures.get( 1 ).waitForResult();
+				Assert.fail( "An exception was expected." );
+
+			} catch( IaasException e ) {
+				Assert.assertEquals( "for test", e.getMessage());
+			}
+
+			for( int i=2; i<4; i++ )
+				iaas.creations.get( i ).complete( "id" + i );
+
+			Assert.assertEquals( 5, iaas.creations.size());
+			iaas.creations.get( 4 ).complete( "id4" );
+			for( int i=2; i<5; i++ )
+				Assert.assertEquals( "id" + i, futures.get( i ).waitForResult());
+
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+
+	@Test
+	public void testDistinctIaasAreIndependent() throws Exception {
+
+		ProvisioningExecutor executor = new ProvisioningExecutor( 1 );
+		DummyAsyncIaas iaas1 = new DummyAsyncIaas();
+		DummyAsyncIaas iaas2 = new DummyAsyncIaas() {
+			// Another class, so another IaaS
+		};
+
+		try {
+			executor.createVM( iaas1, "ip", "user", "pwd", "vm1", "app" );
+			executor.createVM( iaas1, "ip", "user", "pwd", "vm2", "app" );
+			executor.createVM( iaas2, "ip", "user", "pwd", "vm3", "app" );
+
+			Assert.assertEquals( 1, iaas1.creations.size());
+			Assert.assertEquals( 1, iaas2.creations.size());
+
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+
+	@Test
+	public void testSynchronousIaasAreAdapted() throws Exception {
+
+		ProvisioningExecutor executor = new ProvisioningExecutor( 1 );
+		try {
+			IaasFuture<String> future = executor.createVM( new DummyIaas(), "ip", "user", "pwd", "vm", "app" );
+			Assert.assertEquals( "vm-id", future.get( 10, TimeUnit.SECONDS ));
+
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+
+	/**
+	 * @author Vincent Zurczak - Linagora
+	 */
+	private static class DummyIaas implements IaasInterface {
+
+		@Override
+		public void setIaasProperties( Map<String,String> iaasProperties ) throws IaasException {
+			// nothing
+		}
+
+		@Override
+		public String createVM( String messagingIp, String messagingUsername, String messagingPassword, String rootInstanceName, String applicationName )
+		throws IaasException {
+			return rootInstanceName + "-id";
+		}
+
+		@Override
+		public void terminateVM( String machineId ) throws IaasException {
+			// nothing
+		}
+	}
+
+
+	/**
+	 * An asynchronous IaaS whose operations are completed by the test.
+	 * @author Vincent Zurczak - Linagora
+	 */
+	private static class DummyAsyncIaas extends DummyIaas implements AsyncIaasInterface {
+		final List<IaasFuture<String>> creations = new ArrayList<IaasFuture<String>> ();
+
+		@Override
+		public IaasFuture<String> createVMAsync( String messagingIp, String messagingUsername, String messagingPassword, String rootInstanceName, String applicationName ) {
+			IaasFuture<String> result = new IaasFuture<String> ();
+			this.creations.add( result );
+			return result;
+		}
+
+		@Override
+		public IaasFuture<Void> terminateVMAsync( String machineId ) {
+			IaasFuture<Void> result = new IaasFuture<Void> ();
+			result.complete( null );
+			return result;
+		}
+	}
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.dm.management;
+
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * @author Vincent Zurczak - Linagora
+ */
+public class TimingWheelTest {
+
+	@Test
+	public void testScheduleAndAdvance() {
+
+		TimingWheel<String> wheel = new TimingWheel<String>( 4 );
+		wheel.schedule( "a", 1 );
+		wheel.schedule( "b", 2 );
+		wheel.schedule( "c", 2 );
+		Assert.assertEquals( 3, wheel.size());
+
+		List<String> expired = wheel.advance();
+		Assert.assertEquals( 1, expired.size());
+		Assert.assertEquals( "a", expired.get( 0 ));
+		Assert.assertFalse( wheel.isScheduled( "a" ));
+
+		// Re-scheduling moves the deadline
+		wheel.schedule( "b", 3 );
+		expired = wheel.advance();
+		Assert.assertEquals( 1, expired.size());
+		Assert.assertEquals( "c", expired.get( 0 ));
+
+		Assert.assertEquals( 0, wheel.advance().size());
+		expired = wheel.advance();
+		Assert.assertEquals( 1, expired.size());
+		Assert.assertEquals( "b", expired.get( 0 ));
+		Assert.assertEquals( 0, wheel.size());
+	}
+
+
+	@Test
+	public void testDeadlineBeyondWheelSize() {
+
+		TimingWheel<String> wheel = new TimingWheel<String>( 2 );
+		wheel.schedule( "a", 5 );
+		for( int i=1; i<5; i++ )
+			Assert.assertEquals( "Tick " + i, 0, wheel.advance().size());
+
+		Assert.assertEquals( 1, wheel.advance().size());
+	}
+
+
+	@Test
+	public void testCancel() {
+
+		TimingWheel<String> wheel = new TimingWheel<String>( 3 );
+		wheel.schedule( "a", 1 );
+		wheel.cancel( "a" );
+		wheel.cancel( "b" );
+
+		Assert.assertEquals( 0, wheel.size());
+		Assert.assertEquals( 0, wheel.advance().size());
+	}
+}
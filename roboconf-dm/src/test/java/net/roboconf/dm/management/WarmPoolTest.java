@@ -0,0 +1,135 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.dm.management;
+
+import java.util.List;
+
+import junit.framework.Assert;
+import net.roboconf.dm.management.WarmPool.StandbyMachine;
+
+import org.junit.Test;
+
+/**
+ * @author Vincent Zurczak - Linagora
+ */
+public class WarmPoolTest {
+
+	@Test
+	public void testRefillAndClaim() {
+
+		WarmPool pool = new WarmPool();
+		Assert.assertEquals( 0, pool.registerMissingMachines().size());
+
+		pool.setSize( "vm", 2 );
+		List<StandbyMachine> machines = pool.registerMissingMachines();
+		Assert.assertEquals( 2, machines.size());
+		Assert.assertEquals( 0, pool.registerMissingMachines().size());
+		Assert.assertEquals( 2, pool.countMachines( "vm" ));
+		Assert.assertEquals( 0, pool.countReadyMachines( "vm" ));
+
+		// Names cannot be mistaken with instance names
+		for( StandbyMachine machine : machines ) {
+			Assert.assertTrue( WarmPool.isStandbyName( machine.name ));
+			Assert.assertEquals( "vm", machine.componentName );
+		}
+
+		// A machine can be claimed once it is created and its agent is up
+		StandbyMachine m1 = machines.get( 0 ), m2 = machines.get( 1 );
+		Assert.assertNull( pool.claim( "vm" ));
+		Assert.assertTrue( pool.markReady( m1.name ));
+		Assert.assertNull( pool.claim( "vm" ));
+
+		Assert.assertTrue( pool.machineCreated( m1.name, "id1" ));
+		Assert.assertTrue( pool.machineCreated( m2.name, "id2" ));
+		Assert.assertTrue( pool.markReady( m2.name ));
+		Assert.assertEquals( 2, pool.countReadyMachines( "vm" ));
+		Assert.assertNull( pool.claim( "other" ));
+
+		// The oldest machine first
+		Assert.assertSame( m1, pool.claim( "vm" ));
+		Assert.assertEquals( "id1", m1.machineId );
+		Assert.assertFalse( pool.contains( m1.name ));
+		Assert.assertEquals( 1, pool.countMachines( "vm" ));
+
+		// The pool can be refilled
+		Assert.assertEquals( 1, pool.registerMissingMachines().size());
+		Assert.assertEquals( 2, pool.countMachines( "vm" ));
+	}
+
+
+	@Test
+	public void testShrinkAndRelease() {
+
+		WarmPool pool = new WarmPool();
+		pool.setSize( "vm", 3 );
+		List<StandbyMachine> machines = pool.registerMissingMachines();
+		for( StandbyMachine machine : machines ) {
+			pool.machineCreated( machine.name, machine.name + " id" );
+			pool.markReady( machine.name );
+		}
+
+		// Ready machines in excess are removed
+		Assert.assertEquals( 0, pool.removeExtraMachines().size());
+		pool.setSize( "vm", 1 );
+		Assert.assertEquals( 2, pool.removeExtraMachines().size());
+		Assert.assertEquals( 1, pool.countMachines( "vm" ));
+		Assert.assertTrue( pool.contains( machines.get( 0 ).name ));
+
+		// Failures and stopped machines
+		Assert.assertFalse( pool.remove( "unknown" ));
+		Assert.assertFalse( pool.markReady( "unknown" ));
+
+		// Releasing the pool
+		pool.setSize( "vm", 2 );
+		Assert.assertEquals( 1, pool.registerMissingMachines().size());
+		Assert.assertEquals( 1, pool.clear().size());
+		Assert.assertEquals( 0, pool.countMachines( "vm" ));
+		Assert.assertEquals( 0, pool.getSize( "vm" ));
+
+		// A machine created after the release is not kept
+		Assert.assertFalse( pool.machineCreated( machines.get( 0 ).name, "id" ));
+	}
+
+
+	@Test
+	public void testRemoveExpiredMachines() {
+
+		WarmPool pool = new WarmPool();
+		pool.setSize( "vm", 2 );
+		List<StandbyMachine> machines = pool.registerMissingMachines();
+		StandbyMachine m1 = machines.get( 0 ), m2 = machines.get( 1 );
+		pool.machineCreated( m1.name, "id1" );
+		pool.markReady( m1.name );
+
+		// Machines that are not ready yet do not send heart beats
+		Assert.assertEquals( 0, pool.removeExpiredMachines( 1 ).size());
+		Assert.assertTrue( pool.acknowledgeHeartBeat( m1.name ));
+		Assert.assertFalse( pool.acknowledgeHeartBeat( "unknown" ));
+
+		// m1 sends heart beats, m2 (now ready) does not
+		pool.machineCreated( m2.name, "id2" );
+		pool.markReady( m2.name );
+		Assert.assertEquals( 0, pool.removeExpiredMachines( 1 ).size());
+		Assert.assertTrue( pool.acknowledgeHeartBeat( m1.name ));
+
+		List<StandbyMachine> expired = pool.removeExpiredMachines( 1 );
+		Assert.assertEquals( 1, expired.size());
+		Assert.assertSame( m2, expired.get( 0 ));
+		Assert.assertTrue( pool.contains( m1.name ));
+		Assert.assertFalse( pool.contains( m2.name ));
+	}
+}
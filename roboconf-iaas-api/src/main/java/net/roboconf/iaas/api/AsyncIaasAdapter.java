@@ -0,0 +1,186 @@
+/**
+ * Copyright 2013-2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.iaas.api;
+
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Adapts a synchronous IaaS handler to {@link AsyncIaasInterface}.
+ * <p>
+ * Operations are delegated to the synchronous methods and run by an executor.
+ * Unlike native asynchronous handlers, an executor's thread is busy during
+ * the whole operation.
+ * </p>
+ *
+ * @author Vincent Zurczak - Linagora
+ */
+public class AsyncIaasAdapter implements AsyncIaasInterface {
+
+	private final IaasInterface delegate;
+	private final Executor executor;
+
+
+	/**
+	 * Constructor.
+	 * @param delegate the synchronous handler (not null)
+	 * @param executor the executor that runs the operations (not null)
+	 */
+	public AsyncIaasAdapter( IaasInterface delegate, Executor executor ) {
+		this.delegate = delegate;
+		this.executor = executor;
+	}
+
+
+	/**
+	 * Gets an asynchronous view of a IaaS handler.
+	 * @param iaasInterface a IaaS handler (not null)
+	 * @param executor the executor to use if the handler is not asynchronous (not null)
+	 * @return the handler itself if it is asynchronous, an adapter otherwise
+	 */
+	public static AsyncIaasInterface adapt( IaasInterface iaasInterface, Executor executor ) {
+
+		AsyncIaasInterface result;
+		if( iaasInterface instanceof AsyncIaasInterface )
+			result = (AsyncIaasInterface) iaasInterface;
+		else
+			result = new AsyncIaasAdapter( iaasInterface, executor );
+
+		return result;
+	}
+
+
+	/**
+	 * @return the synchronous handler
+	 */
+	public IaasInterface getDelegate() {
+		return this.delegate;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see net.roboconf.iaas.api.IaasInterface
+	 * #setIaasProperties(java.util.Map)
+	 */
+	@Override
+	public void setIaasProperties( Map<String,String> iaasProperties ) throws IaasException {
+		this.delegate.setIaasProperties( iaasProperties );
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see net.roboconf.iaas.api.IaasInterface
+	 * #createVM(java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public String createVM(
+			String messagingIp,
+			String messagingUsername,
+			String messagingPassword,
+			String rootInstanceName,
+			String applicationName )
+	throws IaasException {
+		return this.delegate.createVM( messagingIp, messagingUsername, messagingPassword, rootInstanceName, applicationName );
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see net.roboconf.iaas.api.IaasInterface
+	 * #terminateVM(java.lang.String)
+	 */
+	@Override
+	public void terminateVM( String machineId ) throws IaasException {
+		this.delegate.terminateVM( machineId );
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see net.roboconf.iaas.api.AsyncIaasInterface
+	 * #createVMAsync(java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public IaasFuture<String> createVMAsync(
+			final String messagingIp,
+			final String messagingUsername,
+			final String messagingPassword,
+			final String rootInstanceName,
+			final String applicationName ) {
+
+		final IaasFuture<String> result = new IaasFuture<String> ();
+		execute( result, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					result.complete( createVM( messagingIp, messagingUsername, messagingPassword, rootInstanceName, applicationName ));
+
+				} catch( IaasException e ) {
+					result.fail( e );
+
+				} catch( RuntimeException e ) {
+					result.fail( new IaasException( e ));
+				}
+			}
+		});
+
+		return result;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see net.roboconf.iaas.api.AsyncIaasInterface
+	 * #terminateVMAsync(java.lang.String)
+	 */
+	@Override
+	public IaasFuture<Void> terminateVMAsync( final String machineId ) {
+
+		final IaasFuture<Void> result = new IaasFuture<Void> ();
+		execute( result, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					terminateVM( machineId );
+					result.complete( null );
+
+				} catch( IaasException e ) {
+					result.fail( e );
+
+				} catch( RuntimeException e ) {
+					result.fail( new IaasException( e ));
+				}
+			}
+		});
+
+		return result;
+	}
+
+
+	private void execute( IaasFuture<?> future, Runnable runnable ) {
+
+		try {
+			this.executor.execute( runnable );
+
+		} catch( RuntimeException e ) {
+			// Typically, a rejected execution
+			future.fail( new IaasException( "The IaaS operation could not be scheduled.", e ));
+		}
+	}
+}
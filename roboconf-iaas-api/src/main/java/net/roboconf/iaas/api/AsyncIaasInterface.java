@@ -0,0 +1,60 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.iaas.api;
+
+/**
+ * An extension of {@link IaasInterface} whose VM operations do not block the caller.
+ * <p>
+ * IaaS operations may take minutes (e.g. booting a VM). Asynchronous
+ * implementations perform them in the background, and they should poll the IaaS
+ * without dedicating a thread to every operation (see {@link BackgroundOperation}).
+ * </p>
+ * <p>
+ * Handlers that only implement {@link IaasInterface} can be adapted
+ * with {@link AsyncIaasAdapter}.
+ * </p>
+ *
+ * @author Vincent Zurczak - Linagora
+ */
+public interface AsyncIaasInterface extends IaasInterface {
+
+	/**
+	 * Creates a VM asynchronously.
+	 * @param messagingIp the IP of the messaging server
+	 * @param messagingUsername the user name to connect to the messaging server
+	 * @param messagingPassword the password to connect to the messaging server
+	 * @param rootInstanceName the name of the root instance associated with this VM
+	 * @param applicationName the application name
+	 * @return a future whose result is the (machine) ID of this VM relative to the IaaS
+	 * @see IaasInterface#createVM(String, String, String, String, String)
+	 */
+	IaasFuture<String> createVMAsync(
+			String messagingIp,
+			String messagingUsername,
+			String messagingPassword,
+			String rootInstanceName,
+			String applicationName );
+
+
+	/**
+	 * Terminates a VM asynchronously.
+	 * @param machineId the machine ID
+	 * @return a future that completes once the termination was performed
+	 * @see IaasInterface#terminateVM(String)
+	 */
+	IaasFuture<Void> terminateVMAsync( String machineId );
+}
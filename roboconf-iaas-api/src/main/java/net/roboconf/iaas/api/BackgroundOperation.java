@@ -0,0 +1,162 @@
+/**
+ * Copyright 2013-2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.iaas.api;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A long IaaS operation that is performed in the background, step by step.
+ * <p>
+ * Waiting for a IaaS (e.g. until a VM is running) is made by scheduling the next step
+ * rather than by sleeping. This way, a small pool of threads, shared by all the IaaS handlers,
+ * can drive many operations at once.
+ * </p>
+ * <p>
+ * Sub-classes implement {@link #step()} as a state machine. A step must not block for long.
+ * A step can also suspend the operation until an event occurs (e.g. a notification
+ * from a {@link StatusPoller}).
+ * </p>
+ *
+ * @param <T> the type of the operation's result
+ * @author Vincent Zurczak - Linagora
+ */
+public abstract class BackgroundOperation<T> implements Runnable {
+
+	/**
+	 * The value returned by {@link #step()} when the operation is complete.
+	 */
+	public static final long DONE = -1;
+
+	/**
+	 * The value returned by {@link #step()} when the operation waits for {@link #resume()}.
+	 */
+	public static final long SUSPEND = -2;
+
+	static final int THREADS_COUNT = 4;
+	private static final ScheduledExecutorService SCHEDULER =
+			Executors.newScheduledThreadPool( THREADS_COUNT, new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread( Runnable r ) {
+					Thread result = new Thread( r, "Roboconf - IaaS Operations " + this.count.incrementAndGet());
+					result.setDaemon( true );
+					return result;
+				}
+			});
+
+	private final IaasFuture<T> future = new IaasFuture<T> ();
+	private T result;
+
+
+	/**
+	 * Starts the operation.
+	 * @return the future of this operation
+	 */
+	public IaasFuture<T> start() {
+		schedule( 0 );
+		return this.future;
+	}
+
+
+	/**
+	 * Performs the next step of the operation.
+	 * @return the delay, in milliseconds, before the next step, or {@link #DONE}
+	 * @throws Exception if the operation failed
+	 */
+	protected abstract long step() throws Exception;
+
+
+	/**
+	 * Resumes an operation that was suspended.
+	 * <p>
+	 * The next step is performed immediately.
+	 * </p>
+	 */
+	protected void resume() {
+		schedule( 0 );
+	}
+
+
+	/**
+	 * Sets the result of the operation.
+	 * <p>
+	 * It is used to complete the future once {@link #step()} returns {@link #DONE}.
+	 * </p>
+	 *
+	 * @param result the result
+	 */
+	protected void setResult( T result ) {
+		this.result = result;
+	}
+
+
+	/**
+	 * @return the result that was set with {@link #setResult(Object)} (can be null)
+	 */
+	protected T getResult() {
+		return this.result;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public final void run() {
+
+		try {
+			long delay = step();
+			if( delay == DONE )
+				this.future.complete( this.result );
+			else if( delay != SUSPEND )
+				schedule( delay );
+
+		} catch( IaasException e ) {
+			this.future.fail( e );
+
+		} catch( Exception e ) {
+			this.future.fail( new IaasException( e ));
+		}
+	}
+
+
+	private void schedule( long delay ) {
+
+		try {
+			schedule( this, delay );
+
+		} catch( RuntimeException e ) {
+			this.future.fail( new IaasException( "The IaaS operation could not be scheduled.", e ));
+		}
+	}
+
+
+	/**
+	 * Schedules a task on the threads shared by IaaS operations.
+	 * @param task the task to run
+	 * @param delay the delay, in milliseconds
+	 */
+	static void schedule( Runnable task, long delay ) {
+		SCHEDULER.schedule( task, Math.max( 0, delay ), TimeUnit.MILLISECONDS );
+	}
+}
@@ -0,0 +1,38 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.iaas.api;
+
+/**
+ * A callback invoked when an asynchronous IaaS operation completes.
+ * @param <T> the type of the operation's result
+ * @author Vincent Zurczak - Linagora
+ */
+public interface IaasCallback<T> {
+
+	/**
+	 * Invoked when the operation succeeded.
+	 * @param result the operation's result (may be null)
+	 */
+	void completed( T result );
+
+
+	/**
+	 * Invoked when the operation failed.
+	 * @param e the cause of the failure (not null)
+	 */
+	void failed( IaasException e );
+}
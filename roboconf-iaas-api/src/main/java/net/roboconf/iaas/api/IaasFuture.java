@@ -0,0 +1,214 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.iaas.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The result of an asynchronous IaaS operation.
+ * <p>
+ * It is completed once, either with a result or with an exception.
+ * Callbacks can be registered at any time. They are invoked by the thread
+ * that completes the future, or immediately if the future is already completed.
+ * </p>
+ * <p>
+ * IaaS operations cannot be cancelled.
+ * </p>
+ *
+ * @param <T> the type of the operation's result
+ * @author Vincent Zurczak - Linagora
+ */
+public class IaasFuture<T> implements Future<T> {
+
+	private final List<IaasCallback<T>> callbacks = new ArrayList<IaasCallback<T>> ();
+	private boolean done = false;
+	private T result;
+	private IaasException exception;
+
+
+	/**
+	 * Completes this future with a result.
+	 * @param result the result (may be null)
+	 * @return true if this future was completed, false if it was already
+	 */
+	public boolean complete( T result ) {
+		return setOutcome( result, null );
+	}
+
+
+	/**
+	 * Completes this future with an exception.
+	 * @param exception the exception (not null)
+	 * @return true if this future was completed, false if it was already
+	 */
+	public boolean fail( IaasException exception ) {
+		return setOutcome( null, exception );
+	}
+
+
+	/**
+	 * Registers a callback.
+	 * @param callback a non-null callback
+	 */
+	public void addCallback( IaasCallback<T> callback ) {
+
+		boolean notifyNow;
+		synchronized( this ) {
+			notifyNow = this.done;
+			if( ! notifyNow )
+				this.callbacks.add( callback );
+		}
+
+		if( notifyNow )
+			notify( callback );
+	}
+
+
+	/**
+	 * Waits for the operation to complete.
+	 * @return the operation's result
+	 * @throws IaasException if the operation failed or if the thread was interrupted
+	 */
+	public synchronized T waitForResult() throws IaasException {
+
+		try {
+			while( ! this.done )
+				wait();
+
+		} catch( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new IaasException( "Interrupted while waiting for a IaaS operation.", e );
+		}
+
+		if( this.exception != null )
+			throw this.exception;
+
+		return this.result;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.util.concurrent.Future#get()
+	 */
+	@Override
+	public synchronized T get() throws InterruptedException, ExecutionException {
+
+		while( ! this.done )
+			wait();
+
+		return getOutcome();
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.util.concurrent.Future
+	 * #get(long, java.util.concurrent.TimeUnit)
+	 */
+	@Override
+	public synchronized T get( long timeout, TimeUnit unit )
+	throws InterruptedException, ExecutionException, TimeoutException {
+
+		long deadline = System.nanoTime() + unit.toNanos( timeout );
+		while( ! this.done ) {
+			long remaining = deadline - System.nanoTime();
+			if( remaining <= 0 )
+				throw new TimeoutException();
+
+			TimeUnit.NANOSECONDS.timedWait( this, remaining );
+		}
+
+		return getOutcome();
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.util.concurrent.Future#isDone()
+	 */
+	@Override
+	public synchronized boolean isDone() {
+		return this.done;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.util.concurrent.Future#cancel(boolean)
+	 */
+	@Override
+	public boolean cancel( boolean mayInterruptIfRunning ) {
+		return false;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.util.concurrent.Future#isCancelled()
+	 */
+	@Override
+	public boolean isCancelled() {
+		return false;
+	}
+
+
+	private T getOutcome() throws ExecutionException {
+
+		if( this.exception != null )
+			throw new ExecutionException( this.exception );
+
+		return this.result;
+	}
+
+
+	private boolean setOutcome( T result, IaasException exception ) {
+
+		List<IaasCallback<T>> toNotify;
+		synchronized( this ) {
+			if( this.done )
+				return false;
+
+			this.done = true;
+			this.result = result;
+			this.exception = exception;
+			notifyAll();
+
+			toNotify = new ArrayList<IaasCallback<T>>( this.callbacks );
+			this.callbacks.clear();
+		}
+
+		for( IaasCallback<T> callback : toNotify )
+			notify( callback );
+
+		return true;
+	}
+
+
+	private void notify( IaasCallback<T> callback ) {
+
+		if( this.exception != null )
+			callback.failed( this.exception );
+		else
+			callback.completed( this.result );
+	}
+}
@@ -0,0 +1,258 @@
+/**
+ * Copyright 2013-2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.iaas.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * A poller that watches the status of IaaS resources (machines, volumes...).
+ * <p>
+ * Callers register the resources they wait for. All the watched resources are
+ * queried together, periodically, with one request (see {@link StatusFetcher}).
+ * Callers are notified when a resource reaches a target status. Thus, waiting for
+ * N machines costs a few requests per period, and no thread.
+ * </p>
+ * <p>
+ * Pollers are shared by all the IaaS handlers of the JVM. There is one poller
+ * per key, and the key should identify a provider and a region (or an endpoint).
+ * </p>
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ *
+ * @author Vincent Zurczak - Linagora
+ */
+public final class StatusPoller {
+
+	private static final Map<String,StatusPoller> KEY_TO_POLLER = new HashMap<String,StatusPoller> ();
+
+	private final Logger logger = Logger.getLogger( getClass().getName());
+	private final String key;
+	private final long period;
+	private final Map<String,List<Watch>> resourceIdToWatches = new HashMap<String,List<Watch>> ();
+
+	private StatusFetcher fetcher;
+	private boolean scheduled = false;
+
+
+	/**
+	 * Queries the status of several resources at once.
+	 */
+	public interface StatusFetcher {
+
+		/**
+		 * Finds the current status of resources.
+		 * @param resourceIds the IDs of the resources (not null, not empty)
+		 * @return a non-null map (key = resource ID, value = status)
+		 * <p>
+		 * Resources that were not found can be omitted.
+		 * </p>
+		 *
+		 * @throws Exception if the statuses could not be retrieved
+		 */
+		Map<String,String> fetchStatuses( Collection<String> resourceIds ) throws Exception;
+	}
+
+
+	/**
+	 * Constructor.
+	 * @param key the poller's key
+	 * @param fetcher the status fetcher
+	 * @param period the polling period, in milliseconds
+	 */
+	StatusPoller( String key, StatusFetcher fetcher, long period ) {
+		this.key = key;
+		this.fetcher = fetcher;
+		this.period = period;
+	}
+
+
+	/**
+	 * Finds the poller associated with a key, or creates it.
+	 * <p>
+	 * The fetcher of an existing poller is replaced, so that the most
+	 * recent IaaS client (and credentials) are used.
+	 * </p>
+	 *
+	 * @param key a key that identifies a provider and a region (not null)
+	 * @param fetcher the status fetcher (not null)
+	 * @param period the polling period, in milliseconds (only used if the poller is created)
+	 * @return a non-null poller
+	 */
+	public static StatusPoller findPoller( String key, StatusFetcher fetcher, long period ) {
+
+		StatusPoller result;
+		synchronized( KEY_TO_POLLER ) {
+			result = KEY_TO_POLLER.get( key );
+			if( result == null ) {
+				result = new StatusPoller( key, fetcher, period );
+				KEY_TO_POLLER.put( key, result );
+			}
+		}
+
+		result.setFetcher( fetcher );
+		return result;
+	}
+
+
+	/**
+	 * Waits for a resource to reach a given status.
+	 * @param resourceId the resource ID
+	 * @param timeout the maximum time to wait, in milliseconds
+	 * @param targetStatuses the expected statuses
+	 * @return a future whose result is the reached status, and that fails on timeout
+	 */
+	public IaasFuture<String> waitFor( String resourceId, long timeout, String... targetStatuses ) {
+
+		Watch watch = new Watch( System.currentTimeMillis() + timeout, targetStatuses );
+		boolean schedule;
+		synchronized( this ) {
+			List<Watch> watches = this.resourceIdToWatches.get( resourceId );
+			if( watches == null ) {
+				watches = new ArrayList<Watch> ();
+				this.resourceIdToWatches.put( resourceId, watches );
+			}
+
+			watches.add( watch );
+			schedule = ! this.scheduled;
+			this.scheduled = true;
+		}
+
+		if( schedule )
+			schedulePoll();
+
+		return watch.future;
+	}
+
+
+	/**
+	 * @return the number of resources that are watched
+	 */
+	public synchronized int getWatchedResourcesCount() {
+		return this.resourceIdToWatches.size();
+	}
+
+
+	/**
+	 * Queries the status of all the watched resources and notifies the callers.
+	 */
+	void poll() {
+
+		// Query the IaaS outside the lock
+		Collection<String> resourceIds;
+		StatusFetcher currentFetcher;
+		synchronized( this ) {
+			resourceIds = new HashSet<String>( this.resourceIdToWatches.keySet());
+			currentFetcher = this.fetcher;
+		}
+
+		Map<String,String> statuses = new HashMap<String,String> ();
+		if( ! resourceIds.isEmpty()) {
+			try {
+				statuses = currentFetcher.fetchStatuses( resourceIds );
+
+			} catch( Exception e ) {
+				// Keep on polling, watches will time out if the problem lasts
+				this.logger.warning( "Statuses could not be retrieved for " + this.key + ". " + e.getMessage());
+			}
+		}
+
+		// Find the watches to notify
+		Map<Watch,String> toComplete = new HashMap<Watch,String> ();
+		List<Watch> toFail = new ArrayList<Watch> ();
+		boolean schedule;
+		long now = System.currentTimeMillis();
+		synchronized( this ) {
+			for( Iterator<Map.Entry<String,List<Watch>>> it = this.resourceIdToWatches.entrySet().iterator(); it.hasNext(); ) {
+
+				Map.Entry<String,List<Watch>> entry = it.next();
+				String status = statuses.get( entry.getKey());
+				for( Iterator<Watch> itWatch = entry.getValue().iterator(); itWatch.hasNext(); ) {
+					Watch watch = itWatch.next();
+					if( status != null && watch.targetStatuses.contains( status )) {
+						toComplete.put( watch, status );
+						itWatch.remove();
+
+					} else if( now >= watch.deadline ) {
+						toFail.add( watch );
+						itWatch.remove();
+					}
+				}
+
+				if( entry.getValue().isEmpty())
+					it.remove();
+			}
+
+			schedule = ! this.resourceIdToWatches.isEmpty();
+			this.scheduled = schedule;
+		}
+
+		// Notify the callers outside the lock
+		for( Map.Entry<Watch,String> entry : toComplete.entrySet())
+			entry.getKey().future.complete( entry.getValue());
+
+		for( Watch watch : toFail )
+			watch.future.fail( new IaasException( "A IaaS resource did not reach the expected status in time (" + this.key + ")." ));
+
+		if( schedule )
+			schedulePoll();
+	}
+
+
+	private synchronized void setFetcher( StatusFetcher fetcher ) {
+		this.fetcher = fetcher;
+	}
+
+
+	private void schedulePoll() {
+
+		BackgroundOperation.schedule( new Runnable() {
+			@Override
+			public void run() {
+				poll();
+			}
+		}, this.period );
+	}
+
+
+	/**
+	 * A caller waiting for a resource.
+	 */
+	private static final class Watch {
+
+		final IaasFuture<String> future = new IaasFuture<String> ();
+		final long deadline;
+		final Collection<String> targetStatuses;
+
+
+		/**
+		 * Constructor.
+		 */
+		Watch( long deadline, String... targetStatuses ) {
+			this.deadline = deadline;
+			this.targetStatuses = Arrays.asList( targetStatuses );
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright 2013-2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.iaas.api;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+import net.roboconf.iaas.api.StatusPoller.StatusFetcher;
+
+import org.junit.Test;
+
+/**
+ * @author Vincent Zurczak - Linagora
+ */
+public class StatusPollerTest {
+
+	private static final long NEVER = 60 * 60 * 1000;
+
+
+	@Test
+	public void testStatusesAreQueriedTogether() throws Exception {
+
+		TestFetcher fetcher = new TestFetcher();
+		StatusPoller poller = new StatusPoller( "test", fetcher, NEVER );
+
+		IaasFuture<String> f1 = poller.waitFor( "vm1", NEVER, "running" );
+		IaasFuture<String> f2 = poller.waitFor( "vm2", NEVER, "running", "error" );
+		IaasFuture<String> f3 = poller.waitFor( "vm3", NEVER, "running" );
+		Assert.assertEquals( 3, poller.getWatchedResourcesCount());
+
+		fetcher.statuses.put( "vm1", "running" );
+		fetcher.statuses.put( "vm2", "error" );
+		fetcher.statuses.put( "vm3", "pending" );
+		poller.poll();
+
+		Assert.assertEquals( 1, fetcher.queries.size());
+		Assert.assertEquals( 3, fetcher.queries.get( 0 ).size());
+
+		Assert.assertEquals( "running", f1.waitForResult());
+		Assert.assertEquals( "error", f2.waitForResult());
+		Assert.assertFalse( f3.isDone());
+		Assert.assertEquals( 1, poller.getWatchedResourcesCount());
+
+		fetcher.statuses.put( "vm3", "running" );
+		poller.poll();
+		Assert.assertEquals( 2, fetcher.queries.size());
+		Assert.assertEquals( 1, fetcher.queries.get( 1 ).size());
+		Assert.assertEquals( "running", f3.waitForResult());
+		Assert.assertEquals( 0, poller.getWatchedResourcesCount());
+	}
+
+
+	@Test
+	public void testTimeout() throws Exception {
+
+		TestFetcher fetcher = new TestFetcher();
+		StatusPoller poller = new StatusPoller( "test", fetcher, NEVER );
+
+		IaasFuture<String> f = poller.waitFor( "vm", 0, "running" );
+		poller.poll();
+		Assert.assertTrue( f.isDone());
+		try {
+			f.waitForResult();
+			Assert.fail( "A timeout was expected." );
+
+		} catch( IaasException e ) {
+			// nothing
+		}
+	}
+
+
+	@Test
+	public void testFetcherFailure() throws Exception {
+
+		TestFetcher fetcher = new TestFetcher();
+		fetcher.fail = true;
+		StatusPoller poller = new StatusPoller( "test", fetcher, NEVER );
+
+		IaasFuture<String> f = poller.waitFor( "vm", NEVER, "running" );
+		poller.poll();
+		Assert.assertFalse( f.isDone());
+
+		fetcher.fail = false;
+		fetcher.statuses.put( "vm", "running" );
+		poller.poll();
+		Assert.assertEquals( "running", f.waitForResult());
+	}
+
+
+	@Test
+	public void testFindPoller() {
+
+		TestFetcher fetcher1 = new TestFetcher();
+		TestFetcher fetcher2 = new TestFetcher();
+
+		StatusPoller poller = StatusPoller.findPoller( "test-find-1", fetcher1, NEVER );
+		Assert.assertSame( poller, StatusPoller.findPoller( "test-find-1", fetcher2, NEVER ));
+		Assert.assertNotSame( poller, StatusPoller.findPoller( "test-find-2", fetcher2, NEVER ));
+	}
+
+
+	/**
+	 * @author Vincent Zurczak - Linagora
+	 */
+	private static class TestFetcher implements StatusFetcher {
+		final Map<String,String> statuses = new HashMap<String,String> ();
+		final List<Collection<String>> queries = new ArrayList<Collection<String>> ();
+		boolean fail = false;
+
+		@Override
+		public Map<String,String> fetchStatuses( Collection<String> resourceIds ) throws Exception {
+
+			if( this.fail )
+				throw new Exception( "for test" );
+
+			this.queries.add( resourceIds );
+			return new HashMap<String,String>( this.statuses );
+		}
+	}
+}
@@ -50,8 +50,10 @@ import javax.xml.transform.stream.StreamResult;
 
 import net.roboconf.core.agents.DataHelpers;
 import net.roboconf.core.utils.Utils;
+import net.roboconf.iaas.api.AsyncIaasInterface;
+import net.roboconf.iaas.api.BackgroundOperation;
 import net.roboconf.iaas.api.IaasException;
-import net.roboconf.iaas.api.IaasInterface;
+import net.roboconf.iaas.api.IaasFuture;
 import net.roboconf.iaas.azure.internal.AzureConstants;
 import net.roboconf.iaas.azure.internal.AzureProperties;
 
@@ -66,7 +68,7 @@ import org.xml.sax.SAXException;
 /**
  * @author Linh-Manh Pham - LIG
  */
-public class IaasAzure implements IaasInterface {
+public class IaasAzure implements AsyncIaasInterface {
 
 	private Logger logger;
 	private AzureProperties azureProperties;
@@ -456,4 +458,47 @@ public class IaasAzure implements IaasInterface {
 			throw new IaasException( e );
 		}
 	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see net.roboconf.iaas.api.AsyncIaasInterface
+	 * #createVMAsync(java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public IaasFuture<String> createVMAsync(
+			final String messagingIp,
+			final String messagingUsername,
+			final String messagingPassword,
+			final String rootInstanceName,
+			final String applicationName ) {
+
+		// Azure accepts the creation requests and then creates the VM on its side.
+		// There is nothing to poll, the requests are simply sent in the background.
+		return new BackgroundOperation<String>() {
+			@Override
+			protected long step() throws Exception {
+				setResult( createVM( messagingIp, messagingUsername, messagingPassword, rootInstanceName, applicationName ));
+				return DONE;
+			}
+		}.start();
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see net.roboconf.iaas.api.AsyncIaasInterface
+	 * #terminateVMAsync(java.lang.String)
+	 */
+	@Override
+	public IaasFuture<Void> terminateVMAsync( final String instanceId ) {
+
+		return new BackgroundOperation<Void>() {
+			@Override
+			protected long step() throws Exception {
+				terminateVM( instanceId );
+				return DONE;
+			}
+		}.start();
+	}
 }
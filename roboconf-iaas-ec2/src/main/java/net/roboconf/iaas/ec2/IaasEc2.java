@@ -20,13 +20,21 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.logging.Logger;
 
 import net.roboconf.core.agents.DataHelpers;
+import net.roboconf.iaas.api.AsyncIaasInterface;
+import net.roboconf.iaas.api.BackgroundOperation;
+import net.roboconf.iaas.api.IaasCallback;
 import net.roboconf.iaas.api.IaasException;
-import net.roboconf.iaas.api.IaasInterface;
+import net.roboconf.iaas.api.IaasFuture;
+import net.roboconf.iaas.api.StatusPoller;
+import net.roboconf.iaas.api.StatusPoller.StatusFetcher;
 import net.roboconf.iaas.ec2.internal.Ec2Constants;
 
 import org.apache.commons.codec.binary.Base64;
@@ -39,7 +47,6 @@ import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.services.ec2.AmazonEC2;
 import com.amazonaws.services.ec2.AmazonEC2Client;
 import com.amazonaws.services.ec2.model.AttachVolumeRequest;
-import com.amazonaws.services.ec2.model.AttachVolumeResult;
 import com.amazonaws.services.ec2.model.CreateTagsRequest;
 import com.amazonaws.services.ec2.model.CreateVolumeRequest;
 import com.amazonaws.services.ec2.model.CreateVolumeResult;
@@ -48,18 +55,29 @@ import com.amazonaws.services.ec2.model.DescribeVolumeAttributeRequest;
 import com.amazonaws.services.ec2.model.DescribeVolumesRequest;
 import com.amazonaws.services.ec2.model.DescribeVolumesResult;
 import com.amazonaws.services.ec2.model.EbsBlockDevice;
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.Reservation;
 import com.amazonaws.services.ec2.model.RunInstancesRequest;
 import com.amazonaws.services.ec2.model.RunInstancesResult;
 import com.amazonaws.services.ec2.model.Tag;
 import com.amazonaws.services.ec2.model.TerminateInstancesRequest;
+import com.amazonaws.services.ec2.model.Volume;
 import com.amazonaws.services.ec2.model.DescribeInstancesResult;
 import com.amazonaws.services.elasticmapreduce.model.InstanceState;
 
 /**
  * @author Noël - LIG
  */
-public class IaasEc2 implements IaasInterface {
+public class IaasEc2 implements AsyncIaasInterface {
 
+	static final long BATCH_WINDOW = 500;
+	static final int MAX_BATCH_SIZE = 50;
+	private static final long POLLING_PERIOD = 5000;
+	private static final long RESOURCE_TIMEOUT = 10 * 60 * 1000;
+	static final int MAX_FILTER_VALUES = 200;
+
+	private final Map<String,LaunchBatch> keyToPendingBatch = new HashMap<String,LaunchBatch> ();
 	private Logger logger;
 	private AmazonEC2 ec2;
 	private Map<String, String> iaasProperties;
@@ -81,6 +99,15 @@ public class IaasEc2 implements IaasInterface {
 	}
 
 
+	/**
+	 * To use for tests only.
+	 * @param ec2 the EC2 client to use
+	 */
+	void setEc2Client( AmazonEC2 ec2 ) {
+		this.ec2 = ec2;
+	}
+
+
 	/*
 	 * (non-Javadoc)
 	 * @see net.roboconf.iaas.api.IaasInterface
@@ -117,98 +144,58 @@ public class IaasEc2 implements IaasInterface {
 			String applicationName )
 	throws IaasException {
 
-		String instanceId = null;
-		try {
-			String userData = DataHelpers.writeIaasDataAsString( messagingIp, messagingUsername, messagingPassword, applicationName, rootInstanceName );
-			RunInstancesRequest runInstancesRequest = prepareEC2RequestNode(
-					this.iaasProperties.get(Ec2Constants.AMI_VM_NODE),
-					userData );
-
-			RunInstancesResult runInstanceResult = this.ec2.runInstances( runInstancesRequest );
-			instanceId = runInstanceResult.getReservation().getInstances().get( 0 ).getInstanceId();
-
-			// Is there any volume (ID or name) to attach ?
-			String snapshotIdToAttach = iaasProperties.get(Ec2Constants.VOLUME_SNAPSHOT_ID);
-			if(snapshotIdToAttach != null) {
-				boolean running = false;
-				while(! running) {
-					DescribeInstancesRequest dis = new DescribeInstancesRequest();
-					ArrayList<String> instanceIds = new ArrayList<String>();
-					instanceIds.add(instanceId);
-					dis.setInstanceIds(instanceIds);
-					DescribeInstancesResult disresult = ec2.describeInstances(dis);
-					running = "running".equals(disresult.getReservations().get(0).getInstances().get(0).getState().getName());
-					if(! running) {
-						try {
-							Thread.sleep(5000);
-						} catch (InterruptedException e) {
-							// TODO Auto-generated catch block
-							e.printStackTrace();
-						}
-					}
-				}
-				CreateVolumeRequest createVolumeRequest = new CreateVolumeRequest()
-					.withAvailabilityZone("eu-west-1c")
-					.withSnapshotId(snapshotIdToAttach);
-					//.withSize(2); // The size of the volume, in gigabytes.
-
-				CreateVolumeResult createVolumeResult = ec2.createVolume(createVolumeRequest);
-				
-				running = false;
-				while(! running) {
-					DescribeVolumesRequest dvs = new DescribeVolumesRequest();
-					ArrayList<String> volumeIds = new ArrayList<String>();
-					volumeIds.add(createVolumeResult.getVolume().getVolumeId());
-					DescribeVolumesResult dvsresult = ec2.describeVolumes(dvs);
-					running = "available".equals(dvsresult.getVolumes().get(0).getState());
-					System.out.println(dvsresult.getVolumes().get(0).getState());
-					if(! running) {
-						try {
-							Thread.sleep(5000);
-						} catch (InterruptedException e) {
-							// TODO Auto-generated catch block
-							e.printStackTrace();
-						}
-					}
-				}
+		return createVMAsync( messagingIp, messagingUsername, messagingPassword, rootInstanceName, applicationName ).waitForResult();
+	}
 
-				AttachVolumeRequest attachRequest = new AttachVolumeRequest()
-					.withInstanceId(instanceId)
-					.withDevice("/dev/sda2")
-					.withVolumeId(createVolumeResult.getVolume().getVolumeId());
 
-				AttachVolumeResult attachResult = ec2.attachVolume(attachRequest);
+	/*
+	 * (non-Javadoc)
+	 * @see net.roboconf.iaas.api.AsyncIaasInterface
+	 * #createVMAsync(java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public IaasFuture<String> createVMAsync(
+			String messagingIp,
+			String messagingUsername,
+			String messagingPassword,
+			String rootInstanceName,
+			String applicationName ) {
+
+		// Machines created in a short time are launched together
+		String key = applicationName + "|" + messagingIp + "|" + messagingUsername + "|" + messagingPassword;
+		IaasFuture<String> result;
+		synchronized( this.keyToPendingBatch ) {
+			LaunchBatch batch = this.keyToPendingBatch.get( key );
+			if( batch == null ) {
+				batch = new LaunchBatch( key, messagingIp, messagingUsername, messagingPassword, applicationName );
+				this.keyToPendingBatch.put( key, batch );
+				batch.launch();
 			}
-			
-			// Set name tag for instance (human-readable in AWS webapp)
-			List<Tag> tags = new ArrayList<Tag>();
-			Tag t = new Tag();
-			t.setKey("Name");
-			t.setValue(applicationName + "." + rootInstanceName);
-			tags.add(t);
-			CreateTagsRequest ctr = new CreateTagsRequest();
-			ctr.setTags(tags);
-			ctr.withResources(instanceId);
-			this.ec2.createTags(ctr);
 
-		} catch( AmazonServiceException e ) {
-			this.logger.severe( "An error occurred on Amazon while instantiating a machine. " + e.getMessage());
-			throw new IaasException( e );
+			result = batch.add( rootInstanceName );
+			if( batch.size() >= MAX_BATCH_SIZE )
+				this.keyToPendingBatch.remove( key );
+		}
 
-		} catch( AmazonClientException e ) {
-			this.logger.severe( "An error occurred while creating a machine on Amazon EC2. " + e.getMessage());
-			throw new IaasException( e );
+		return result;
+	}
 
-		} catch( UnsupportedEncodingException e ) {
-			this.logger.severe( "An error occurred while contacting Amazon EC2. " + e.getMessage());
-			throw new IaasException( e );
 
-		} catch( IOException e ) {
-			this.logger.severe( "An error occurred while preparing the user data. " + e.getMessage());
-			throw new IaasException( e );
-		}
+	/*
+	 * (non-Javadoc)
+	 * @see net.roboconf.iaas.api.AsyncIaasInterface
+	 * #terminateVMAsync(java.lang.String)
+	 */
+	@Override
+	public IaasFuture<Void> terminateVMAsync( final String instanceId ) {
 
-		return instanceId;
+		return new BackgroundOperation<Void>() {
+			@Override
+			protected long step() throws Exception {
+				terminateVM( instanceId );
+				return DONE;
+			}
+		}.start();
 	}
 
 
@@ -315,4 +302,444 @@ public class IaasEc2 implements IaasInterface {
 
 		return runInstancesRequest;
 	}
+
+
+	/**
+	 * Splits resource IDs into groups that can be used as filter values.
+	 * <p>
+	 * Describe requests filter resources by ID instead of listing them.
+	 * Listing an ID that does not exist (e.g. a resource that was just deleted)
+	 * makes the whole request fail. A filter simply does not match it.
+	 * </p>
+	 *
+	 * @param resourceIds resource IDs
+	 * @return a non-null list of groups of at most {@value #MAX_FILTER_VALUES} IDs
+	 */
+	static List<List<String>> splitIntoFilterValues( Collection<String> resourceIds ) {
+
+		List<List<String>> result = new ArrayList<List<String>> ();
+		List<String> current = null;
+		for( String resourceId : resourceIds ) {
+			if( current == null || current.size() == MAX_FILTER_VALUES ) {
+				current = new ArrayList<String> ();
+				result.add( current );
+			}
+
+			current.add( resourceId );
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * @return the poller that watches the instances of this EC2 region
+	 */
+	private StatusPoller findInstancesPoller() {
+
+		final AmazonEC2 client = this.ec2;
+		String key = "ec2-instances|" + this.iaasProperties.get( Ec2Constants.EC2_ENDPOINT ) + "|" + this.iaasProperties.get( Ec2Constants.EC2_ACCESS_KEY );
+		return StatusPoller.findPoller( key, new StatusFetcher() {
+			@Override
+			public Map<String,String> fetchStatuses( Collection<String> resourceIds ) {
+
+				Map<String,String> result = new HashMap<String,String> ();
+				for( List<String> instanceIds : splitIntoFilterValues( resourceIds )) {
+					DescribeInstancesRequest dis = new DescribeInstancesRequest();
+					dis.withFilters( new Filter( "instance-id", instanceIds ));
+					DescribeInstancesResult disresult = client.describeInstances(dis);
+
+					for( Reservation reservation : disresult.getReservations()) {
+						for( Instance instance : reservation.getInstances())
+							result.put( instance.getInstanceId(), instance.getState().getName());
+					}
+				}
+
+				return result;
+			}
+		}, POLLING_PERIOD );
+	}
+
+
+	/**
+	 * @return the poller that watches the volumes of this EC2 region
+	 */
+	private StatusPoller findVolumesPoller() {
+
+		final AmazonEC2 client = this.ec2;
+		String key = "ec2-volumes|" + this.iaasProperties.get( Ec2Constants.EC2_ENDPOINT ) + "|" + this.iaasProperties.get( Ec2Constants.EC2_ACCESS_KEY );
+		return StatusPoller.findPoller( key, new StatusFetcher() {
+			@Override
+			public Map<String,String> fetchStatuses( Collection<String> resourceIds ) {
+
+				Map<String,String> result = new HashMap<String,String> ();
+				for( List<String> volumeIds : splitIntoFilterValues( resourceIds )) {
+					DescribeVolumesRequest dvs = new DescribeVolumesRequest();
+					dvs.withFilters( new Filter( "volume-id", volumeIds ));
+					DescribeVolumesResult dvsresult = client.describeVolumes(dvs);
+
+					for( Volume volume : dvsresult.getVolumes())
+						result.put( volume.getVolumeId(), volume.getState());
+				}
+
+				return result;
+			}
+		}, POLLING_PERIOD );
+	}
+
+
+	/**
+	 * The creation of several VMs with a single launch request.
+	 * <p>
+	 * VM creations are collected during {@link IaasEc2#BATCH_WINDOW} milliseconds.
+	 * All the VMs are then launched with one RunInstances request. They share the same
+	 * user data, and every agent finds its root instance from its launch index. Waiting
+	 * for the instances and the volumes is delegated to shared {@link StatusPoller}s.
+	 * </p>
+	 * <p>
+	 * Once the instances are launched, each VM succeeds or fails on its own. A VM whose
+	 * volume could not be attached is terminated and only its future fails. If the batch
+	 * itself fails, the instances that were already launched are terminated, so that no
+	 * machine is left running without being known by the DM.
+	 * </p>
+	 */
+	private class LaunchBatch extends BackgroundOperation<Void> {
+
+		private final String key, messagingIp, messagingUsername, messagingPassword, applicationName;
+		private final List<String> rootInstanceNames = new ArrayList<String> ();
+		private final List<IaasFuture<String>> futures = new ArrayList<IaasFuture<String>> ();
+
+		private Ec2Step nextStep = Ec2Step.COLLECT;
+		private final Map<Integer,String> indexToInstanceId = new TreeMap<Integer,String> ();
+		private int pendingAttachments;
+
+
+		/**
+		 * Constructor.
+		 */
+		LaunchBatch(
+				String key,
+				String messagingIp,
+				String messagingUsername,
+				String messagingPassword,
+				String applicationName ) {
+
+			this.key = key;
+			this.messagingIp = messagingIp;
+			this.messagingUsername = messagingUsername;
+			this.messagingPassword = messagingPassword;
+			this.applicationName = applicationName;
+		}
+
+
+		/**
+		 * Adds a VM to this batch.
+		 * <p>
+		 * Must be invoked while holding the lock on {@link IaasEc2#keyToPendingBatch}.
+		 * </p>
+		 *
+		 * @param rootInstanceName the root instance name
+		 * @return a future whose result is the EC2 instance ID
+		 */
+		IaasFuture<String> add( String rootInstanceName ) {
+
+			IaasFuture<String> result = new IaasFuture<String> ();
+			this.rootInstanceNames.add( rootInstanceName );
+			this.futures.add( result );
+
+			return result;
+		}
+
+
+		/**
+		 * @return the number of VMs in this batch
+		 */
+		int size() {
+			return this.rootInstanceNames.size();
+		}
+
+
+		/**
+		 * Starts this batch.
+		 */
+		void launch() {
+
+			start().addCallback( new IaasCallback<Void>() {
+				@Override
+				public void completed( Void result ) {
+					// nothing, the VMs' futures are completed by the last step
+				}
+
+				@Override
+				public void failed( IaasException e ) {
+					for( int i=0; i<LaunchBatch.this.futures.size(); i++ ) {
+						if( ! LaunchBatch.this.futures.get( i ).isDone())
+							failInstance( i, e );
+					}
+				}
+			});
+		}
+
+
+		/**
+		 * Fails the creation of a VM and terminates its EC2 instance, if it was launched.
+		 * <p>
+		 * The other VMs of the batch are not impacted.
+		 * </p>
+		 *
+		 * @param index the launch index of the VM
+		 * @param e the cause of the failure
+		 */
+		private void failInstance( int index, IaasException e ) {
+
+			String instanceId;
+			synchronized( this ) {
+				instanceId = this.indexToInstanceId.remove( index );
+			}
+
+			this.futures.get( index ).fail( e );
+			if( instanceId != null ) {
+				try {
+					terminateVM( instanceId );
+
+				} catch( IaasException e1 ) {
+					IaasEc2.this.logger.severe( "EC2 instance " + instanceId + " could not be terminated after a failed creation. It must be terminated manually." );
+				}
+			}
+		}
+
+
+		/*
+		 * (non-Javadoc)
+		 * @see net.roboconf.iaas.api.BackgroundOperation#step()
+		 */
+		@Override
+		protected long step() throws Exception {
+
+			long result;
+			try {
+				result = doStep();
+
+			} catch( AmazonServiceException e ) {
+				IaasEc2.this.logger.severe( "An error occurred on Amazon while instantiating a machine. " + e.getMessage());
+				throw new IaasException( e );
+
+			} catch( AmazonClientException e ) {
+				IaasEc2.this.logger.severe( "An error occurred while creating a machine on Amazon EC2. " + e.getMessage());
+				throw new IaasException( e );
+
+			} catch( UnsupportedEncodingException e ) {
+				IaasEc2.this.logger.severe( "An error occurred while contacting Amazon EC2. " + e.getMessage());
+				throw new IaasException( e );
+
+			} catch( IOException e ) {
+				IaasEc2.this.logger.severe( "An error occurred while preparing the user data. " + e.getMessage());
+				throw new IaasException( e );
+			}
+
+			return result;
+		}
+
+
+		/**
+		 * Creates and attaches a volume once an instance is running.
+		 * @param index the launch index of the VM
+		 * @param instanceId the instance ID
+		 */
+		private void attachVolumeWhenRunning( final int index, final String instanceId ) {
+
+			findInstancesPoller().waitFor( instanceId, RESOURCE_TIMEOUT, "running" ).addCallback( new IaasCallback<String>() {
+				@Override
+				public void completed( String status ) {
+					try {
+						CreateVolumeRequest createVolumeRequest = new CreateVolumeRequest()
+							.withAvailabilityZone("eu-west-1c")
+							.withSnapshotId( IaasEc2.this.iaasProperties.get(Ec2Constants.VOLUME_SNAPSHOT_ID));
+							//.withSize(2); // The size of the volume, in gigabytes.
+
+						CreateVolumeResult createVolumeResult = IaasEc2.this.ec2.createVolume(createVolumeRequest);
+						attachVolumeWhenAvailable( index, instanceId, createVolumeResult.getVolume().getVolumeId());
+
+					} catch( AmazonClientException e ) {
+						attachmentCompleted( index, new IaasException( e ));
+					}
+				}
+
+				@Override
+				public void failed( IaasException e ) {
+					attachmentCompleted( index, e );
+				}
+			});
+		}
+
+
+		/**
+		 * Attaches a volume once it is available.
+		 * @param index the launch index of the VM
+		 * @param instanceId the instance ID
+		 * @param volumeId the volume ID
+		 */
+		private void attachVolumeWhenAvailable( final int index, final String instanceId, final String volumeId ) {
+
+			findVolumesPoller().waitFor( volumeId, RESOURCE_TIMEOUT, "available" ).addCallback( new IaasCallback<String>() {
+				@Override
+				public void completed( String status ) {
+					try {
+						AttachVolumeRequest attachRequest = new AttachVolumeRequest()
+							.withInstanceId(instanceId)
+							.withDevice("/dev/sda2")
+							.withVolumeId(volumeId);
+
+						IaasEc2.this.ec2.attachVolume(attachRequest);
+						attachmentCompleted( index, null );
+
+					} catch( AmazonClientException e ) {
+						attachmentCompleted( index, new IaasException( e ));
+					}
+				}
+
+				@Override
+				public void failed( IaasException e ) {
+					attachmentCompleted( index, e );
+				}
+			});
+		}
+
+
+		/**
+		 * Records the end of a volume attachment and resumes the batch after the last one.
+		 * <p>
+		 * If the attachment failed, only the associated VM fails.
+		 * </p>
+		 *
+		 * @param index the launch index of the VM
+		 * @param failure the failure (null if the attachment succeeded)
+		 */
+		private void attachmentCompleted( int index, IaasException failure ) {
+
+			if( failure != null ) {
+				IaasEc2.this.logger.severe( "A volume could not be attached to the machine of " + this.rootInstanceNames.get( index ) + ". " + failure.getMessage());
+				failInstance( index, failure );
+			}
+
+			boolean resume;
+			synchronized( this ) {
+				resume = -- this.pendingAttachments == 0;
+			}
+
+			if( resume )
+				resume();
+		}
+
+
+		private long doStep() throws IOException {
+
+			long result = 0;
+			switch( this.nextStep ) {
+			case COLLECT:
+				this.nextStep = Ec2Step.RUN_INSTANCES;
+				result = BATCH_WINDOW;
+				break;
+
+			case RUN_INSTANCES:
+				// No more VM can be added to this batch
+				synchronized( IaasEc2.this.keyToPendingBatch ) {
+					if( IaasEc2.this.keyToPendingBatch.get( this.key ) == this )
+						IaasEc2.this.keyToPendingBatch.remove( this.key );
+				}
+
+				String userData;
+				if( this.rootInstanceNames.size() == 1 )
+					userData = DataHelpers.writeIaasDataAsString(
+							this.messagingIp, this.messagingUsername, this.messagingPassword,
+							this.applicationName, this.rootInstanceNames.get( 0 ));
+				else
+					userData = DataHelpers.writeBatchIaasDataAsString(
+							this.messagingIp, this.messagingUsername, this.messagingPassword,
+							this.applicationName, this.rootInstanceNames );
+
+				RunInstancesRequest runInstancesRequest = prepareEC2RequestNode(
+						IaasEc2.this.iaasProperties.get(Ec2Constants.AMI_VM_NODE),
+						userData );
+
+				runInstancesRequest.setMaxCount( this.rootInstanceNames.size());
+				RunInstancesResult runInstanceResult = IaasEc2.this.ec2.runInstances( runInstancesRequest );
+				synchronized( this ) {
+					for( Instance instance : runInstanceResult.getReservation().getInstances()) {
+						Integer index = instance.getAmiLaunchIndex();
+						this.indexToInstanceId.put( index == null ? 0 : index, instance.getInstanceId());
+					}
+				}
+
+				// EC2 may launch less instances than requested
+				for( int i=0; i<this.futures.size(); i++ ) {
+					if( ! this.indexToInstanceId.containsKey( i ))
+						this.futures.get( i ).fail( new IaasException( "Amazon EC2 did not launch a machine for " + this.rootInstanceNames.get( i ) + "." ));
+				}
+
+				// Is there any volume (ID or name) to attach ?
+				this.nextStep = IaasEc2.this.iaasProperties.get(Ec2Constants.VOLUME_SNAPSHOT_ID) != null ? Ec2Step.ATTACH_VOLUMES : Ec2Step.TAG;
+				break;
+
+			case ATTACH_VOLUMES:
+				// Statuses are polled by shared pollers: no thread and no request per machine.
+				// The batch is resumed once all the volumes are attached.
+				this.nextStep = Ec2Step.TAG;
+				Map<Integer,String> toAttach;
+				synchronized( this ) {
+					toAttach = new TreeMap<Integer,String>( this.indexToInstanceId );
+					this.pendingAttachments = toAttach.size();
+				}
+
+				for( Map.Entry<Integer,String> entry : toAttach.entrySet())
+					attachVolumeWhenRunning( entry.getKey(), entry.getValue());
+
+				result = toAttach.isEmpty() ? 0 : SUSPEND;
+				break;
+
+			case TAG:
+				Map<Integer,String> launched;
+				synchronized( this ) {
+					launched = new TreeMap<Integer,String>( this.indexToInstanceId );
+				}
+
+				// Set name tag for instances (human-readable in AWS webapp).
+				// Tags are the same for all the resources of a CreateTags request,
+				// so there is one request per instance. A tag is not required to use a
+				// machine: a failure does not prevent the VM from being used.
+				for( Map.Entry<Integer,String> entry : launched.entrySet()) {
+					List<Tag> tags = new ArrayList<Tag>();
+					Tag t = new Tag();
+					t.setKey("Name");
+					t.setValue(this.applicationName + "." + this.rootInstanceNames.get( entry.getKey()));
+					tags.add(t);
+					CreateTagsRequest ctr = new CreateTagsRequest();
+					ctr.setTags(tags);
+					ctr.withResources(entry.getValue());
+					try {
+						IaasEc2.this.ec2.createTags(ctr);
+
+					} catch( AmazonClientException e ) {
+						IaasEc2.this.logger.warning( "EC2 instance " + entry.getValue() + " could not be tagged. " + e.getMessage());
+					}
+				}
+
+				for( Map.Entry<Integer,String> entry : launched.entrySet())
+					this.futures.get( entry.getKey()).complete( entry.getValue());
+
+				result = DONE;
+				break;
+			}
+
+			return result;
+		}
+	}
+
+
+	/**
+	 * The steps of a batch of VM creations.
+	 */
+	private enum Ec2Step {
+		COLLECT, RUN_INSTANCES, ATTACH_VOLUMES, TAG;
+	}
 }
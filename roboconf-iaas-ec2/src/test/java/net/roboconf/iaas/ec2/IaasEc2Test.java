@@ -16,15 +16,30 @@
 
 package net.roboconf.iaas.ec2;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import junit.framework.Assert;
 import net.roboconf.iaas.api.IaasException;
+import net.roboconf.iaas.api.IaasFuture;
 import net.roboconf.iaas.ec2.internal.Ec2Constants;
 
 import org.junit.Test;
 
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.CreateTagsRequest;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.Reservation;
+import com.amazonaws.services.ec2.model.RunInstancesRequest;
+import com.amazonaws.services.ec2.model.RunInstancesResult;
+import com.amazonaws.services.ec2.model.TerminateInstancesRequest;
+
 /**
  * @author Vincent Zurczak - Linagora
  */
@@ -59,4 +74,144 @@ public class IaasEc2Test {
 			Assert.fail( "An invalid configuration was detected while it was valid." );
 		}
 	}
+
+
+	@Test
+	public void testBatchedLaunch() throws Exception {
+
+		Map<String, String> iaasProperties = new HashMap<String, String>();
+		iaasProperties.put( Ec2Constants.EC2_ENDPOINT, "127.0.0.1" );
+		iaasProperties.put( Ec2Constants.EC2_ACCESS_KEY, "my access key" );
+		iaasProperties.put( Ec2Constants.EC2_SECRET_KEY, "my secret key" );
+		iaasProperties.put( Ec2Constants.AMI_VM_NODE, "the node" );
+		iaasProperties.put( Ec2Constants.VM_INSTANCE_TYPE, "tiny" );
+		iaasProperties.put( Ec2Constants.SSH_KEY_NAME, "secret_key" );
+		iaasProperties.put( Ec2Constants.SECURITY_GROUP_NAME, "WorldWideVisible" );
+
+		IaasEc2 ec2 = new IaasEc2();
+		ec2.setIaasProperties( iaasProperties );
+
+		final List<RunInstancesRequest> runRequests = new ArrayList<RunInstancesRequest> ();
+		final List<CreateTagsRequest> tagRequests = new ArrayList<CreateTagsRequest> ();
+		AmazonEC2 stub = (AmazonEC2) Proxy.newProxyInstance(
+				getClass().getClassLoader(),
+				new Class<?>[] { AmazonEC2.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+
+						Object result = null;
+						if( "runInstances".equals( method.getName())) {
+							RunInstancesRequest request = (RunInstancesRequest) args[ 0 ];
+							synchronized( runRequests ) {
+								runRequests.add( request );
+							}
+
+							Reservation reservation = new Reservation();
+							for( int i=0; i<request.getMaxCount(); i++ )
+								reservation.getInstances().add( new Instance().withInstanceId( "i-" + i ).withAmiLaunchIndex( i ));
+
+							result = new RunInstancesResult().withReservation( reservation );
+
+						} else if( "createTags".equals( method.getName())) {
+							synchronized( tagRequests ) {
+								tagRequests.add((CreateTagsRequest) args[ 0 ]);
+							}
+						}
+
+						return result;
+					}
+				});
+
+		ec2.setEc2Client( stub );
+		List<IaasFuture<String>> futures = new ArrayList<IaasFuture<String>> ();
+		for( int i=0; i<3; i++ )
+			futures.add( ec2.createVMAsync( "127.0.0.1", "user", "pwd", "vm" + i, "app" ));
+
+		for( int i=0; i<3; i++ )
+			Assert.assertEquals( "i-" + i, futures.get( i ).waitForResult());
+
+		Assert.assertEquals( 1, runRequests.size());
+		Assert.assertEquals( 1, runRequests.get( 0 ).getMinCount().intValue());
+		Assert.assertEquals( 3, runRequests.get( 0 ).getMaxCount().intValue());
+
+		Assert.assertEquals( 3, tagRequests.size());
+		Assert.assertEquals( "app.vm1", tagRequests.get( 1 ).getTags().get( 0 ).getValue());
+	}
+
+
+	@Test
+	public void testBatchedLaunch_taggingFailureDoesNotFailTheMachines() throws Exception {
+
+		Map<String, String> iaasProperties = new HashMap<String, String>();
+		iaasProperties.put( Ec2Constants.EC2_ENDPOINT, "127.0.0.1" );
+		iaasProperties.put( Ec2Constants.EC2_ACCESS_KEY, "my access key" );
+		iaasProperties.put( Ec2Constants.EC2_SECRET_KEY, "my secret key" );
+		iaasProperties.put( Ec2Constants.AMI_VM_NODE, "the node" );
+		iaasProperties.put( Ec2Constants.VM_INSTANCE_TYPE, "tiny" );
+		iaasProperties.put( Ec2Constants.SSH_KEY_NAME, "secret_key" );
+		iaasProperties.put( Ec2Constants.SECURITY_GROUP_NAME, "WorldWideVisible" );
+
+		IaasEc2 ec2 = new IaasEc2();
+		ec2.setIaasProperties( iaasProperties );
+
+		final List<String> terminatedInstances = new ArrayList<String> ();
+		AmazonEC2 stub = (AmazonEC2) Proxy.newProxyInstance(
+				getClass().getClassLoader(),
+				new Class<?>[] { AmazonEC2.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+
+						Object result = null;
+						if( "runInstances".equals( method.getName())) {
+							RunInstancesRequest request = (RunInstancesRequest) args[ 0 ];
+							Reservation reservation = new Reservation();
+							for( int i=0; i<request.getMaxCount(); i++ )
+								reservation.getInstances().add( new Instance().withInstanceId( "i-" + i ).withAmiLaunchIndex( i ));
+
+							result = new RunInstancesResult().withReservation( reservation );
+
+						} else if( "createTags".equals( method.getName())) {
+							CreateTagsRequest request = (CreateTagsRequest) args[ 0 ];
+							if( request.getResources().contains( "i-1" ))
+								throw new AmazonServiceException( "for test" );
+
+						} else if( "terminateInstances".equals( method.getName())) {
+							synchronized( terminatedInstances ) {
+								terminatedInstances.addAll(((TerminateInstancesRequest) args[ 0 ]).getInstanceIds());
+							}
+						}
+
+						return result;
+					}
+				});
+
+		ec2.setEc2Client( stub );
+		List<IaasFuture<String>> futures = new ArrayList<IaasFuture<String>> ();
+		for( int i=0; i<3; i++ )
+			futures.add( ec2.createVMAsync( "127.0.0.1", "user", "pwd", "vm" + i, "app" ));
+
+		for( int i=0; i<3; i++ )
+			Assert.assertEquals( "i-" + i, futures.get( i ).waitForResult());
+
+		Assert.assertEquals( 0, terminatedInstances.size());
+	}
+
+
+	@Test
+	public void testSplitIntoFilterValues() {
+
+		Assert.assertEquals( 0, IaasEc2.splitIntoFilterValues( new ArrayList<String> ()).size());
+
+		List<String> ids = new ArrayList<String> ();
+		for( int i=0; i<IaasEc2.MAX_FILTER_VALUES + 1; i++ )
+			ids.add( "i-" + i );
+
+		List<List<String>> groups = IaasEc2.splitIntoFilterValues( ids );
+		Assert.assertEquals( 2, groups.size());
+		Assert.assertEquals( IaasEc2.MAX_FILTER_VALUES, groups.get( 0 ).size());
+		Assert.assertEquals( 1, groups.get( 1 ).size());
+		Assert.assertEquals( "i-" + IaasEc2.MAX_FILTER_VALUES, groups.get( 1 ).get( 0 ));
+	}
 }
@@ -17,17 +17,13 @@
 package net.roboconf.iaas.in_memory;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.Map;
-import java.util.logging.Logger;
 
 import net.roboconf.agent.AgentData;
 import net.roboconf.agent.AgentLauncher;
-import net.roboconf.core.utils.Utils;
 import net.roboconf.iaas.api.IaasException;
 import net.roboconf.iaas.api.IaasInterface;
 import net.roboconf.iaas.in_memory.internal.utils.AgentManager;
-import net.roboconf.plugin.api.ExecutionLevel;
 
 /**
  * A IaaS emulation that runs agents in memory.
@@ -36,6 +32,17 @@ import net.roboconf.plugin.api.ExecutionLevel;
  */
 public class IaasInMemory implements IaasInterface {
 
+	/**
+	 * The IaaS property the DM sets with its messaging type.
+	 * <p>
+	 * With loopback messaging, in-memory agents exchange messages with the DM within the JVM.
+	 * Otherwise, they connect to a RabbitMQ server.
+	 * </p>
+	 */
+	public static final String MESSAGING_TYPE = "messaging.type";
+	static final String MESSAGING_LOOPBACK = "loopback";
+
+
 	/*
 	 * (non-Javadoc)
 	 * @see net.roboconf.iaas.api.IaasInterface
@@ -43,7 +50,10 @@ public class IaasInMemory implements IaasInterface {
 	 */
 	@Override
 	public void setIaasProperties(Map<String, String> iaasProperties) {
-		// nothing
+
+		// It must be set before machines are created
+		boolean loopback = MESSAGING_LOOPBACK.equals( iaasProperties.get( MESSAGING_TYPE ));
+		AgentManager.INSTANCE.setLoopbackMessaging( loopback );
 	}
 
 
@@ -61,13 +71,8 @@ public class IaasInMemory implements IaasInterface {
 			String applicationName )
 	throws IaasException {
 
-		// Check no agent is already registered for this instance
-		String machineId = rootInstanceName + " @ localhost";
-		if( AgentManager.INSTANCE.getMachineIdToAgentLauncher().containsKey( machineId ))
-			throw new IaasException( "In-Memory agent " + rootInstanceName + " is already running." );
-
 		// Create the agent's data.
-		final AgentData agentData = new AgentData();
+		AgentData agentData = new AgentData();
 		agentData.setApplicationName( applicationName );
 		agentData.setMessageServerIp( messagingIp );
 		agentData.setMessageServerUsername( messagingUsername );
@@ -75,29 +80,18 @@ public class IaasInMemory implements IaasInterface {
 		agentData.setIpAddress( "localhost" );
 		agentData.setRootInstanceName( rootInstanceName );
 
-		// Messaging subscriptions are handled automatically in a new thread (see *.messaging).
 		String agentName = rootInstanceName + " - In-Memory Agent";
-		final AgentLauncher agentLauncher = new AgentLauncher( agentName, agentData );
-
-		// Store the agent's launcher, so that we can stop it later
-		AgentManager.INSTANCE.registerMachine( machineId, agentLauncher );
-
-		// Run the agent in another thread
-		new Thread( agentName ) {
-			@Override
-			public void run() {
-
-				try {
-					File tempDir = new File( System.getProperty( "java.io.tmpdir" ));
-					agentLauncher.launchAgent( ExecutionLevel.RUNNING, tempDir );
-
-				} catch( IOException e ) {
-					Logger logger = Logger.getLogger( getClass().getName());
-					logger.severe( "An error occurred in an agent (in-memory). " + e.getMessage());
-					logger.finest( Utils.writeException( e ));
-				}
-			};
-		}.start();
+		AgentLauncher agentLauncher = new AgentLauncher( agentName, agentData );
+
+		// Store the agent's launcher, so that we can stop it later.
+		// Check no agent is already registered for this instance.
+		String machineId = rootInstanceName + " @ localhost";
+		if( ! AgentManager.INSTANCE.registerMachine( machineId, agentLauncher ))
+			throw new IaasException( "In-Memory agent " + rootInstanceName + " is already running." );
+
+		// The agent runs on threads shared by all the in-memory agents
+		File tempDir = new File( System.getProperty( "java.io.tmpdir" ));
+		AgentManager.INSTANCE.launchAgent( agentLauncher, tempDir );
 
 		return machineId;
 	}
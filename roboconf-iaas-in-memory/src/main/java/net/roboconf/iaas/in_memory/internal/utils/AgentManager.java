@@ -16,18 +16,54 @@
 
 package net.roboconf.iaas.in_memory.internal.utils;
 
-import java.util.HashMap;
+import java.io.File;
+import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
 
 import net.roboconf.agent.AgentLauncher;
+import net.roboconf.core.utils.Utils;
+import net.roboconf.messaging.client.LoopbackMessageServerClientFactory;
+import net.roboconf.messaging.client.MessageServerClientFactory;
+import net.roboconf.messaging.client.SharedMessageServerClientFactory;
+import net.roboconf.plugin.api.ExecutionLevel;
 
 /**
+ * Hosts the in-memory agents.
+ * <p>
+ * In-memory agents do not have their own threads. They share a connection to the
+ * messaging server, a pool of threads to process their messages, a pool of threads
+ * to run their life cycle operations and a scheduler to send their heart beats. This way, a single JVM can simulate many machines.
+ * </p>
+ * <p>
+ * By default, agents connect to a RabbitMQ server. With loopback messaging,
+ * they exchange messages with the DM within the JVM.
+ * </p>
+ * <p>
+ * Shared resources are created on the first launch.
+ * </p>
+ *
  * @author Vincent Zurczak - Linagora
  */
 public final class AgentManager {
 
 	public static final AgentManager INSTANCE = new AgentManager();
-	private final Map<String,AgentLauncher> machineIdToAgentLauncher = new HashMap<String,AgentLauncher> ();
+	static final int THREADS_COUNT = Math.max( 4, 2 * Runtime.getRuntime().availableProcessors());
+
+	private final Logger logger = Logger.getLogger( getClass().getName());
+	private final Map<String,AgentLauncher> machineIdToAgentLauncher = new ConcurrentHashMap<String,AgentLauncher> ();
+	private MessageServerClientFactory factory;
+	private Executor executor;
+	private ExecutorService loopbackExecutor, lifeCycleExecutor;
+	private ScheduledExecutorService heartbeatScheduler;
+	private boolean loopbackMessaging = false;
 
 
 	/**
@@ -42,9 +78,10 @@ public final class AgentManager {
 	 * Registers a machine ID and the associated agent launcher.
 	 * @param machineId the machine ID
 	 * @param agentLauncher
+	 * @return true if it was registered, false if this machine ID was already registered
 	 */
-	public void registerMachine( String machineId, AgentLauncher agentLauncher ) {
-		this.machineIdToAgentLauncher.put( machineId, agentLauncher );
+	public boolean registerMachine( String machineId, AgentLauncher agentLauncher ) {
+		return ((ConcurrentHashMap<String,AgentLauncher>) this.machineIdToAgentLauncher).putIfAbsent( machineId, agentLauncher ) == null;
 	}
 
 
@@ -54,7 +91,7 @@ public final class AgentManager {
 	 * @return the associated agent's launcher
 	 */
 	public AgentLauncher unregisterMachine( String machineId ) {
-		return this.machineIdToAgentLauncher.remove( machineId );
+		return machineId == null ? null : this.machineIdToAgentLauncher.remove( machineId );
 	}
 
 
@@ -64,4 +101,145 @@ public final class AgentManager {
 	public Map<String,AgentLauncher> getMachineIdToAgentLauncher() {
 		return this.machineIdToAgentLauncher;
 	}
+
+
+	/**
+	 * Sets whether agents use loopback messaging.
+	 * <p>
+	 * It only applies to agents launched afterwards. When the messaging changes,
+	 * running agents are stopped.
+	 * </p>
+	 *
+	 * @param loopbackMessaging true to exchange messages within the JVM, false to use RabbitMQ
+	 */
+	public void setLoopbackMessaging( boolean loopbackMessaging ) {
+
+		boolean changed;
+		synchronized( this ) {
+			changed = this.loopbackMessaging != loopbackMessaging;
+			this.loopbackMessaging = loopbackMessaging;
+		}
+
+		if( changed )
+			shutdown();
+	}
+
+
+	/**
+	 * @return true if agents use loopback messaging, false otherwise
+	 */
+	public synchronized boolean isLoopbackMessaging() {
+		return this.loopbackMessaging;
+	}
+
+
+	/**
+	 * Launches an agent on the shared resources.
+	 * <p>
+	 * This method does not block. The agent connects to the messaging server
+	 * from a shared thread.
+	 * </p>
+	 *
+	 * @param agentLauncher the agent launcher (not null)
+	 * @param dumpDirectory the dump directory
+	 */
+	public void launchAgent( final AgentLauncher agentLauncher, final File dumpDirectory ) {
+
+		final Executor sharedExecutor;
+		synchronized( this ) {
+			if( this.factory == null ) {
+				if( this.loopbackMessaging ) {
+					this.loopbackExecutor = Executors.newFixedThreadPool( THREADS_COUNT, new ThreadFactory() {
+						private final AtomicInteger count = new AtomicInteger();
+
+						@Override
+						public Thread newThread( Runnable r ) {
+							Thread result = new Thread( r, "Roboconf - In-Memory Agents " + this.count.incrementAndGet());
+							result.setDaemon( true );
+							return result;
+						}
+					});
+
+					this.executor = this.loopbackExecutor;
+					this.factory = new LoopbackMessageServerClientFactory( this.loopbackExecutor );
+
+				} else {
+					SharedMessageServerClientFactory sharedFactory = new SharedMessageServerClientFactory( THREADS_COUNT );
+					this.executor = sharedFactory.getExecutor();
+					this.factory = sharedFactory;
+				}
+
+				this.lifeCycleExecutor = Executors.newFixedThreadPool( THREADS_COUNT, new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread( Runnable r ) {
+						Thread result = new Thread( r, "Roboconf - In-Memory Agents Life Cycle " + this.count.incrementAndGet());
+						result.setDaemon( true );
+						return result;
+					}
+				});
+
+				this.heartbeatScheduler = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+					@Override
+					public Thread newThread( Runnable r ) {
+						Thread result = new Thread( r, "Roboconf - In-Memory Agents Heartbeats" );
+						result.setDaemon( true );
+						return result;
+					}
+				});
+			}
+
+			sharedExecutor = this.executor;
+			agentLauncher.setFactory( this.factory );
+			agentLauncher.setHeartbeatScheduler( this.heartbeatScheduler );
+			agentLauncher.setLifeCycleExecutor( this.lifeCycleExecutor );
+		}
+
+		sharedExecutor.execute( new Runnable() {
+			@Override
+			public void run() {
+				try {
+					agentLauncher.launchAgent( ExecutionLevel.RUNNING, dumpDirectory );
+
+				} catch( IOException e ) {
+					AgentManager.this.logger.severe( "An error occurred in an agent (in-memory). " + e.getMessage());
+					AgentManager.this.logger.finest( Utils.writeException( e ));
+				}
+			}
+		});
+	}
+
+
+	/**
+	 * Stops all the agents and releases the shared resources.
+	 */
+	public void shutdown() {
+
+		for( String machineId : this.machineIdToAgentLauncher.keySet()) {
+			AgentLauncher agentLauncher = unregisterMachine( machineId );
+			if( agentLauncher != null )
+				agentLauncher.stopAgent();
+		}
+
+		synchronized( this ) {
+			if( this.heartbeatScheduler != null )
+				this.heartbeatScheduler.shutdownNow();
+
+			if( this.factory instanceof SharedMessageServerClientFactory )
+				((SharedMessageServerClientFactory) this.factory).close();
+
+			if( this.loopbackExecutor != null )
+				this.loopbackExecutor.shutdown();
+
+			if( this.lifeCycleExecutor != null )
+				this.lifeCycleExecutor.shutdown();
+
+			this.factory = null;
+			this.executor = null;
+			this.loopbackExecutor = null;
+			this.lifeCycleExecutor = null;
+			this.heartbeatScheduler = null;
+		}
+	}
 }
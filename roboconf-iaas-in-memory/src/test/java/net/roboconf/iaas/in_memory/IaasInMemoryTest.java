@@ -16,6 +16,9 @@
 
 package net.roboconf.iaas.in_memory;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import junit.framework.Assert;
 import net.roboconf.agent.AgentLauncher;
 import net.roboconf.iaas.api.IaasException;
@@ -80,4 +83,22 @@ public class IaasInMemoryTest {
 		iaas.createVM( "192.168.1.14", "u", "p", "my root", "my app" );
 		iaas.createVM( "192.168.1.14", "u", "p", "my root", "my app" );
 	}
+
+
+	@Test
+	public void testSetIaasProperties_messagingType() throws Exception {
+
+		IaasInMemory iaas = new IaasInMemory();
+		Map<String,String> props = new HashMap<String,String> ();
+		iaas.setIaasProperties( props );
+		Assert.assertFalse( AgentManager.INSTANCE.isLoopbackMessaging());
+
+		props.put( IaasInMemory.MESSAGING_TYPE, "loopback" );
+		iaas.setIaasProperties( props );
+		Assert.assertTrue( AgentManager.INSTANCE.isLoopbackMessaging());
+
+		props.put( IaasInMemory.MESSAGING_TYPE, "rabbitmq" );
+		iaas.setIaasProperties( props );
+		Assert.assertFalse( AgentManager.INSTANCE.isLoopbackMessaging());
+	}
 }
@@ -36,4 +36,15 @@ public class AgentManagerTest {
 		Assert.assertNull( AgentManager.INSTANCE.unregisterMachine( null ));
 		Assert.assertEquals( launcher, AgentManager.INSTANCE.unregisterMachine( "id-0" ));
 	}
+
+
+	@Test
+	public void testRegisterMachine_alreadyRegistered() {
+
+		AgentLauncher launcher1 = new AgentLauncher( null );
+		AgentLauncher launcher2 = new AgentLauncher( null );
+		Assert.assertTrue( AgentManager.INSTANCE.registerMachine( "id-1", launcher1 ));
+		Assert.assertFalse( AgentManager.INSTANCE.registerMachine( "id-1", launcher2 ));
+		Assert.assertEquals( launcher1, AgentManager.INSTANCE.unregisterMachine( "id-1" ));
+	}
 }
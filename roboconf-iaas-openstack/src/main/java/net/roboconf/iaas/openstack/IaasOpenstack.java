@@ -18,17 +18,21 @@ package net.roboconf.iaas.openstack;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import net.roboconf.core.agents.DataHelpers;
 import net.roboconf.core.utils.Utils;
+import net.roboconf.iaas.api.AsyncIaasInterface;
+import net.roboconf.iaas.api.BackgroundOperation;
+import net.roboconf.iaas.api.IaasCallback;
 import net.roboconf.iaas.api.IaasException;
-import net.roboconf.iaas.api.IaasInterface;
+import net.roboconf.iaas.api.IaasFuture;
+import net.roboconf.iaas.api.StatusPoller;
+import net.roboconf.iaas.api.StatusPoller.StatusFetcher;
 import net.roboconf.iaas.openstack.internal.OpenstackConstants;
 
 import org.apache.commons.codec.binary.Base64;
@@ -51,7 +55,10 @@ import com.woorea.openstack.nova.model.Volumes;
 /**
  * @author Pierre-Yves Gibello - Linagora
  */
-public class IaasOpenstack implements IaasInterface {
+public class IaasOpenstack implements AsyncIaasInterface {
+
+	private static final long ACTIVE_POLLING_PERIOD = 5000;
+	private static final long ACTIVE_TIMEOUT = 120000;
 
 	private Logger logger;
 
@@ -150,6 +157,120 @@ public class IaasOpenstack implements IaasInterface {
 			String applicationName )
 	throws IaasException {
 
+		return createVMAsync( messagingIp, messagingUsername, messagingPassword, rootInstanceName, applicationName ).waitForResult();
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see net.roboconf.iaas.api.AsyncIaasInterface
+	 * #createVMAsync(java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public IaasFuture<String> createVMAsync(
+			final String messagingIp,
+			final String messagingUsername,
+			final String messagingPassword,
+			final String rootInstanceName,
+			final String applicationName ) {
+
+		return new BackgroundOperation<String>() {
+			private String volumeIdToAttach;
+
+			@Override
+			protected long step() throws Exception {
+
+				long result;
+				String serverId = getResult();
+				if( serverId == null ) {
+					this.volumeIdToAttach = findVolumeToAttach();
+					serverId = bootServer( messagingIp, messagingUsername, messagingPassword, rootInstanceName, applicationName );
+					setResult( serverId );
+
+					// Wait for server to be in ACTIVE state, before associating floating IP and/or attaching volumes.
+					// Go on anyway on timeout.
+					IaasCallback<String> resumeCallback = new IaasCallback<String>() {
+						@Override
+						public void completed( String status ) {
+							resume();
+						}
+
+						@Override
+						public void failed( IaasException e ) {
+							resume();
+						}
+					};
+
+					findServersPoller().waitFor( serverId, ACTIVE_TIMEOUT, "ACTIVE" ).addCallback( resumeCallback );
+					result = SUSPEND;
+
+				} else {
+					// Active (or timed out): associate floating IP and/or attach volumes
+					configureServer( serverId, this.volumeIdToAttach );
+					result = DONE;
+				}
+
+				return result;
+			}
+		}.start();
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see net.roboconf.iaas.api.AsyncIaasInterface
+	 * #terminateVMAsync(java.lang.String)
+	 */
+	@Override
+	public IaasFuture<Void> terminateVMAsync( final String instanceId ) {
+
+		return new BackgroundOperation<Void>() {
+			@Override
+			protected long step() throws Exception {
+				terminateVM( instanceId );
+				return DONE;
+			}
+		}.start();
+	}
+
+
+	/**
+	 * @return the poller that watches the servers of this OpenStack tenant
+	 */
+	private StatusPoller findServersPoller() {
+
+		final Nova client = this.novaClient;
+		String key = "openstack-servers|" + this.computeUrl + "|" + this.tenantId;
+		return StatusPoller.findPoller( key, new StatusFetcher() {
+			@Override
+			public Map<String,String> fetchStatuses( Collection<String> resourceIds ) {
+
+				// One request for all the servers
+				Map<String,String> result = new HashMap<String,String> ();
+				for( Server server : client.servers().list( true ).execute()) {
+					if( resourceIds.contains( server.getId()))
+						result.put( server.getId(), server.getStatus());
+				}
+
+				return result;
+			}
+		}, ACTIVE_POLLING_PERIOD );
+	}
+
+
+	/**
+	 * Asks OpenStack to boot a server.
+	 * @return the server ID
+	 * @throws IaasException
+	 */
+	private String bootServer(
+			String messagingIp,
+			String messagingUsername,
+			String messagingPassword,
+			String rootInstanceName,
+			String applicationName )
+	throws IaasException {
+
 		// Normally we use flavor names in the configuration, not IDs
 		// But lets's assume it can be an ID...
 		String flavorId = this.flavor;
@@ -181,6 +302,29 @@ public class IaasOpenstack implements IaasInterface {
 			throw new IaasException( e );
 		}
 
+		// If a network ID is specified (neutron network), use it
+		String networkId = this.iaasProperties.get(OpenstackConstants.NETWORK_ID);
+		if(networkId != null) {
+			String fixedIp = this.iaasProperties.get(OpenstackConstants.FIXED_IP);
+			// fixedIp may be null (DHCP).
+			
+			// TODO: uncomment the next line if you want Neutron support
+			// (think about updating the openstack-java-sdk version in the POM).
+			// serverForCreate.addNetworks(networkId, fixedIp);	
+		}
+
+		Server server = this.novaClient.servers().boot(serverForCreate).execute();
+		//System.out.println(server);
+		return server.getId();
+	}
+
+
+	/**
+	 * Finds the volume to attach to a new server (and creates it if necessary).
+	 * @return the volume ID, or null if no volume must be attached
+	 */
+	private String findVolumeToAttach() {
+
 		// Is there any volume (ID or name) to attach ?
 		String volumeIdToAttach = this.iaasProperties.get(OpenstackConstants.VOLUME_ID);
 		if(volumeIdToAttach != null) {
@@ -233,38 +377,16 @@ public class IaasOpenstack implements IaasInterface {
 			}
 		}
 
-		// If a network ID is specified (neutron network), use it
-		String networkId = this.iaasProperties.get(OpenstackConstants.NETWORK_ID);
-		if(networkId != null) {
-			String fixedIp = this.iaasProperties.get(OpenstackConstants.FIXED_IP);
-			// fixedIp may be null (DHCP).
-			
-			// TODO: uncomment the next line if you want Neutron support
-			// (think about updating the openstack-java-sdk version in the POM).
-			// serverForCreate.addNetworks(networkId, fixedIp);	
-		}
-
-		final Server server = this.novaClient.servers().boot(serverForCreate).execute();
-		//System.out.println(server);
+		return volumeIdToAttach;
+	}
 
-		// Wait for server to be in ACTIVE state, before associating floating IP and/or attaching volumes
-		try {
-			final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1);
-			timer.scheduleAtFixedRate(new Runnable() {
-
-				@Override
-				public void run() {
-					Server checked = IaasOpenstack.this.novaClient.servers().show(server.getId()).execute();
-					if("ACTIVE".equals(checked.getStatus())) {
-						timer.shutdown();
-					}
-				}
-			}, 10, 5, TimeUnit.SECONDS);
-			timer.awaitTermination(120, TimeUnit.SECONDS);
 
-		} catch (Exception ignore) {
-			// nothing
-		}
+	/**
+	 * Configures a server once it is active.
+	 * @param serverId the server ID
+	 * @param volumeIdToAttach the ID of the volume to attach (can be null)
+	 */
+	private void configureServer( String serverId, String volumeIdToAttach ) {
 
 		// Attach volume if required
 		if(volumeIdToAttach != null) {
@@ -272,12 +394,12 @@ public class IaasOpenstack implements IaasInterface {
 			if(mountPoint == null)
 				mountPoint = "/dev/vdb";
 
-			this.novaClient.servers().attachVolume(server.getId(), volumeIdToAttach, mountPoint).execute();
+			this.novaClient.servers().attachVolume(serverId, volumeIdToAttach, mountPoint).execute();
 		}
 
 		// Associate floating IP (nova network) if specified
 		if(this.floatingIpPool != null) {
-			FloatingIp ip = requestFloatingIp(this.novaClient, server.getId());
+			FloatingIp ip = requestFloatingIp(this.novaClient, serverId);
 			
 			/*FloatingIps ips = this.novaClient.floatingIps().list().execute();
 
@@ -288,11 +410,9 @@ public class IaasOpenstack implements IaasInterface {
 			}*/
 
 			if( ip != null ) {
-				this.novaClient.servers().associateFloatingIp( server.getId(), ip.getIp()).execute();
+				this.novaClient.servers().associateFloatingIp( serverId, ip.getIp()).execute();
 			}
 		}
-		
-		return server.getId();
 	}
 
 	/*
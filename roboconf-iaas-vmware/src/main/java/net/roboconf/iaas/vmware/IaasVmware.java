@@ -16,7 +16,6 @@
 
 package net.roboconf.iaas.vmware;
 
-import java.io.IOException;
 import java.net.URL;
 import java.rmi.RemoteException;
 import java.util.Map;
@@ -24,12 +23,15 @@ import java.util.logging.Logger;
 
 import net.roboconf.core.agents.DataHelpers;
 import net.roboconf.core.utils.Utils;
+import net.roboconf.iaas.api.AsyncIaasInterface;
+import net.roboconf.iaas.api.BackgroundOperation;
 import net.roboconf.iaas.api.IaasException;
-import net.roboconf.iaas.api.IaasInterface;
+import net.roboconf.iaas.api.IaasFuture;
 
 import com.vmware.vim25.DynamicProperty;
 import com.vmware.vim25.GuestProgramSpec;
 import com.vmware.vim25.NamePasswordAuthentication;
+import com.vmware.vim25.TaskInfoState;
 import com.vmware.vim25.VirtualMachineCloneSpec;
 import com.vmware.vim25.VirtualMachineConfigSpec;
 import com.vmware.vim25.VirtualMachineRelocateSpec;
@@ -46,7 +48,7 @@ import com.vmware.vim25.mo.VirtualMachine;
 /**
  * @author Pierre-Yves Gibello - Linagora
  */
-public class IaasVmware implements IaasInterface {
+public class IaasVmware implements AsyncIaasInterface {
 
 	private Logger logger = Logger.getLogger( getClass().getName());
 	private ServiceInstance vmwareServiceInstance;
@@ -107,84 +109,45 @@ public class IaasVmware implements IaasInterface {
 			String applicationName )
 	throws IaasException {
 
-		try {
-			// Generate the user data first, so that nothing has been done on the IaaS if it fails
-			String userData = DataHelpers.writeIaasDataAsString( messagingIp, messagingUsername, messagingPassword, applicationName, rootInstanceName );
-
-			//String instanceId = null;
-			VirtualMachine vm = getVirtualMachine(this.machineImageId);
-			//Folder vmFolder = this.vmwareServiceInstance.getRootFolder();
-			Folder vmFolder = ((Datacenter)(new InventoryNavigator(this.vmwareServiceInstance.getRootFolder())
-				.searchManagedEntity("Datacenter", this.vmwareDataCenter))).getVmFolder();
-
-			this.logger.fine("machineImageId=" + this.machineImageId);
-			if (vm == null || vmFolder == null)
-				throw new IaasException("VirtualMachine (= " + vm + " ) or Datacenter path (= " + vmFolder + " ) is NOT correct. Pls double check.");
-
-			VirtualMachineCloneSpec cloneSpec = new VirtualMachineCloneSpec();
-			cloneSpec.setLocation(new VirtualMachineRelocateSpec());
-			cloneSpec.setPowerOn(false);
-			cloneSpec.setTemplate(true);
-
-			VirtualMachineConfigSpec vmSpec = new VirtualMachineConfigSpec();
-			vmSpec.setAnnotation( userData );
-
-			cloneSpec.setConfig(vmSpec);
-
-			Task task = vm.cloneVM_Task( vmFolder, rootInstanceName, cloneSpec );
-			this.logger.fine("Cloning the template: "+this.machineImageId+" ...");
-			String status = task.waitForTask();
-			if (!status.equals(Task.SUCCESS))
-				throw new IaasException("Failure: Virtual Machine cannot be cloned");
-
-			VirtualMachine vm2 = getVirtualMachine( rootInstanceName );
-			this.logger.fine("Transforming the clone template to Virtual machine ...");
-			vm2.markAsVirtualMachine(this.vmwareComputeResource.getResourcePool(), null);
-
-			// host=null means IaaS-managed choice
-			DynamicProperty dprop = new DynamicProperty();
-            dprop.setName("guestinfo.userdata");
-            dprop.setVal(userData);
-            vm2.getGuest().setDynamicProperty(new DynamicProperty[]{dprop});
-
-			task = vm2.powerOnVM_Task(null);
-			this.logger.fine("Starting the virtual machine: "+ rootInstanceName +" ...");
-			status = task.waitForTask();
-			if (!status.equals(Task.SUCCESS))
-				throw new IaasException("Failure -: Virtual Machine cannot be started");
-
-			// VMWare tools not yet started (!)
-			Thread.sleep( 20000 );
-
-			GuestOperationsManager gom = this.vmwareServiceInstance.getGuestOperationsManager();
-			//GuestAuthManager gam = gom.getAuthManager(vm2);
-		    NamePasswordAuthentication npa = new NamePasswordAuthentication();
-		    npa.username = this.iaasProperties.get("vmware.vmuser");
-		    npa.password = this.iaasProperties.get("vmware.vmpassword");
-		    GuestProgramSpec spec = new GuestProgramSpec();
-
-		    spec.programPath = "/bin/echo";
-		    spec.arguments = "$\'" + userData + "\' > /tmp/roboconf.properties";
-		    this.logger.fine(spec.programPath + " " + spec.arguments);
-
-		    GuestProcessManager gpm = gom.getProcessManager(vm2);
-		    long pid = gpm.startProgramInGuest(npa, spec);
-		    this.logger.fine("pid: " + pid);
-
-			return vm2.getName();
-			//return instanceId;
+		return createVMAsync( messagingIp, messagingUsername, messagingPassword, rootInstanceName, applicationName ).waitForResult();
+	}
 
-		} catch(RemoteException e) {
-			throw new IaasException(e);
 
-		} catch (InterruptedException e) {
-			throw new IaasException(e);
+	/*
+	 * (non-Javadoc)
+	 * @see net.roboconf.iaas.api.AsyncIaasInterface
+	 * #createVMAsync(java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public IaasFuture<String> createVMAsync(
+			String messagingIp,
+			String messagingUsername,
+			String messagingPassword,
+			String rootInstanceName,
+			String applicationName ) {
 
-		} catch( IOException e ) {
-			throw new IaasException(e);
-		}
+		return new CreateVmOperation( messagingIp, messagingUsername, messagingPassword, rootInstanceName, applicationName ).start();
 	}
 
+
+	/*
+	 * (non-Javadoc)
+	 * @see net.roboconf.iaas.api.AsyncIaasInterface
+	 * #terminateVMAsync(java.lang.String)
+	 */
+	@Override
+	public IaasFuture<Void> terminateVMAsync( final String instanceId ) {
+
+		return new BackgroundOperation<Void>() {
+			@Override
+			protected long step() throws Exception {
+				terminateVM( instanceId );
+				return DONE;
+			}
+		}.start();
+	}
+
+
 	/*
 	 * (non-Javadoc)
 	 * @see net.roboconf.iaas.api.IaasInterface
@@ -226,4 +189,167 @@ public class IaasVmware implements IaasInterface {
 		return (VirtualMachine) new InventoryNavigator(rootFolder).searchManagedEntity("VirtualMachine", virtualmachineName);
 	}
 
+
+	/**
+	 * Checks whether a vSphere task is complete.
+	 * @param task a task
+	 * @param errorMessage the message of the exception to throw if the task failed
+	 * @return true if the task succeeded, false if it is still running
+	 * @throws IaasException if the task failed
+	 * @throws RemoteException
+	 */
+	private static boolean isComplete( Task task, String errorMessage ) throws IaasException, RemoteException {
+
+		TaskInfoState state = task.getTaskInfo().getState();
+		if( state == TaskInfoState.error )
+			throw new IaasException( errorMessage );
+
+		return state == TaskInfoState.success;
+	}
+
+
+	/**
+	 * The creation of a VM, as a state machine.
+	 * <p>
+	 * Waiting for vSphere tasks is made by scheduling the next step rather than by sleeping.
+	 * </p>
+	 */
+	private class CreateVmOperation extends BackgroundOperation<String> {
+
+		private static final long POLLING_PERIOD = 2000;
+
+		// VMWare tools are not started immediately after the VM
+		private static final long VMWARE_TOOLS_DELAY = 20000;
+
+		private final String messagingIp, messagingUsername, messagingPassword;
+		private final String rootInstanceName, applicationName;
+
+		private VmwareStep nextStep = VmwareStep.CLONE;
+		private String userData;
+		private Task task;
+		private VirtualMachine vm;
+
+
+		/**
+		 * Constructor.
+		 */
+		CreateVmOperation(
+				String messagingIp,
+				String messagingUsername,
+				String messagingPassword,
+				String rootInstanceName,
+				String applicationName ) {
+
+			this.messagingIp = messagingIp;
+			this.messagingUsername = messagingUsername;
+			this.messagingPassword = messagingPassword;
+			this.rootInstanceName = rootInstanceName;
+			this.applicationName = applicationName;
+		}
+
+
+		/*
+		 * (non-Javadoc)
+		 * @see net.roboconf.iaas.api.BackgroundOperation#step()
+		 */
+		@Override
+		protected long step() throws Exception {
+
+			long result = 0;
+			switch( this.nextStep ) {
+			case CLONE:
+				// Generate the user data first, so that nothing has been done on the IaaS if it fails
+				this.userData = DataHelpers.writeIaasDataAsString(
+						this.messagingIp, this.messagingUsername, this.messagingPassword,
+						this.applicationName, this.rootInstanceName );
+
+				VirtualMachine template = getVirtualMachine(IaasVmware.this.machineImageId);
+				//Folder vmFolder = this.vmwareServiceInstance.getRootFolder();
+				Folder vmFolder = ((Datacenter)(new InventoryNavigator(IaasVmware.this.vmwareServiceInstance.getRootFolder())
+					.searchManagedEntity("Datacenter", IaasVmware.this.vmwareDataCenter))).getVmFolder();
+
+				IaasVmware.this.logger.fine("machineImageId=" + IaasVmware.this.machineImageId);
+				if (template == null || vmFolder == null)
+					throw new IaasException("VirtualMachine (= " + template + " ) or Datacenter path (= " + vmFolder + " ) is NOT correct. Pls double check.");
+
+				VirtualMachineCloneSpec cloneSpec = new VirtualMachineCloneSpec();
+				cloneSpec.setLocation(new VirtualMachineRelocateSpec());
+				cloneSpec.setPowerOn(false);
+				cloneSpec.setTemplate(true);
+
+				VirtualMachineConfigSpec vmSpec = new VirtualMachineConfigSpec();
+				vmSpec.setAnnotation( this.userData );
+
+				cloneSpec.setConfig(vmSpec);
+
+				this.task = template.cloneVM_Task( vmFolder, this.rootInstanceName, cloneSpec );
+				IaasVmware.this.logger.fine("Cloning the template: "+IaasVmware.this.machineImageId+" ...");
+				this.nextStep = VmwareStep.POWER_ON;
+				result = POLLING_PERIOD;
+				break;
+
+			case POWER_ON:
+				if( ! isComplete( this.task, "Failure: Virtual Machine cannot be cloned" )) {
+					result = POLLING_PERIOD;
+					break;
+				}
+
+				this.vm = getVirtualMachine( this.rootInstanceName );
+				IaasVmware.this.logger.fine("Transforming the clone template to Virtual machine ...");
+				this.vm.markAsVirtualMachine(IaasVmware.this.vmwareComputeResource.getResourcePool(), null);
+
+				// host=null means IaaS-managed choice
+				DynamicProperty dprop = new DynamicProperty();
+				dprop.setName("guestinfo.userdata");
+				dprop.setVal(this.userData);
+				this.vm.getGuest().setDynamicProperty(new DynamicProperty[]{dprop});
+
+				this.task = this.vm.powerOnVM_Task(null);
+				IaasVmware.this.logger.fine("Starting the virtual machine: "+ this.rootInstanceName +" ...");
+				this.nextStep = VmwareStep.WAIT_FOR_TOOLS;
+				result = POLLING_PERIOD;
+				break;
+
+			case WAIT_FOR_TOOLS:
+				if( isComplete( this.task, "Failure -: Virtual Machine cannot be started" )) {
+					this.nextStep = VmwareStep.WRITE_USER_DATA;
+					result = VMWARE_TOOLS_DELAY;
+				} else {
+					result = POLLING_PERIOD;
+				}
+
+				break;
+
+			case WRITE_USER_DATA:
+				GuestOperationsManager gom = IaasVmware.this.vmwareServiceInstance.getGuestOperationsManager();
+				//GuestAuthManager gam = gom.getAuthManager(vm2);
+				NamePasswordAuthentication npa = new NamePasswordAuthentication();
+				npa.username = IaasVmware.this.iaasProperties.get("vmware.vmuser");
+				npa.password = IaasVmware.this.iaasProperties.get("vmware.vmpassword");
+				GuestProgramSpec spec = new GuestProgramSpec();
+
+				spec.programPath = "/bin/echo";
+				spec.arguments = "$\'" + this.userData + "\' > /tmp/roboconf.properties";
+				IaasVmware.this.logger.fine(spec.programPath + " " + spec.arguments);
+
+				GuestProcessManager gpm = gom.getProcessManager(this.vm);
+				long pid = gpm.startProgramInGuest(npa, spec);
+				IaasVmware.this.logger.fine("pid: " + pid);
+
+				setResult( this.vm.getName());
+				result = DONE;
+				break;
+			}
+
+			return result;
+		}
+	}
+
+
+	/**
+	 * The steps of a VM creation.
+	 */
+	private enum VmwareStep {
+		CLONE, POWER_ON, WAIT_FOR_TOOLS, WRITE_USER_DATA;
+	}
 }
@@ -16,18 +16,32 @@
 
 package net.roboconf.messaging.client;
 
+import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 
 import net.roboconf.messaging.messages.Message;
 
 /**
+ * A message processor.
+ * <p>
+ * By default, messages are processed by this thread, once it is started.
+ * Alternatively, they can be processed by a shared executor (see {@link #startOn(Executor)}).
+ * In both cases, messages are processed one at a time, in the order they were stored.
+ * </p>
+ *
  * @author Vincent Zurczak - Linagora
  */
 public abstract class AbstractMessageProcessor extends Thread {
 
+	static final int MAX_MESSAGES_PER_TASK = 50;
+
 	private final LinkedBlockingQueue<Message> messages = new LinkedBlockingQueue<Message> ();
-	private boolean running = true;
+	private final AtomicBoolean taskScheduled = new AtomicBoolean( false );
+	private volatile Executor executor;
+	private volatile boolean running = true;
 
 
 	/**
@@ -53,6 +67,88 @@ public abstract class AbstractMessageProcessor extends Thread {
 	 */
 	public final void storeMessage( Message message ) {
 		this.messages.add( message );
+
+		Executor exec = this.executor;
+		if( exec != null )
+			scheduleTask( exec );
+	}
+
+
+	/**
+	 * Processes messages with a shared executor instead of this thread.
+	 * <p>
+	 * This thread must not be started then. A task is submitted to the executor
+	 * only when there are messages to process. It processes at most {@value #MAX_MESSAGES_PER_TASK}
+	 * messages, so that other processors sharing the executor are not starved.
+	 * </p>
+	 *
+	 * @param executor the executor that processes the messages
+	 */
+	public void startOn( Executor executor ) {
+		this.running = true;
+		this.executor = executor;
+		scheduleTask( executor );
+	}
+
+
+	/**
+	 * Stops processing messages.
+	 * <p>
+	 * Works whether messages are processed by this thread or by a shared executor.
+	 * </p>
+	 */
+	public void stopProcessing() {
+
+		if( this.executor != null ) {
+			this.executor = null;
+			this.running = false;
+
+		} else {
+			interrupt();
+		}
+	}
+
+
+	/**
+	 * Submits a task to process the stored messages, unless one is already scheduled.
+	 * @param exec the executor
+	 */
+	private void scheduleTask( final Executor exec ) {
+
+		if( this.messages.isEmpty()
+				|| ! this.taskScheduled.compareAndSet( false, true ))
+			return;
+
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+
+				try {
+					Message message;
+					for( int i=0; i<MAX_MESSAGES_PER_TASK && AbstractMessageProcessor.this.executor != null; i++ ) {
+						if(( message = AbstractMessageProcessor.this.messages.poll()) == null )
+							break;
+
+						dispatchMessage( message );
+					}
+
+				} finally {
+					// Messages may have been stored in the meantime
+					AbstractMessageProcessor.this.taskScheduled.set( false );
+					Executor currentExecutor = AbstractMessageProcessor.this.executor;
+					if( currentExecutor != null )
+						scheduleTask( currentExecutor );
+				}
+			}
+		};
+
+		try {
+			exec.execute( task );
+
+		} catch( RejectedExecutionException e ) {
+			this.taskScheduled.set( false );
+			Logger.getLogger( getClass().getName()).fine( "Messages could not be processed. The executor is stopping." );
+		}
 	}
 
 
@@ -67,7 +163,7 @@ public abstract class AbstractMessageProcessor extends Thread {
 			try {
 				// Blocking call
 				Message message = this.messages.take();
-				processMessage( message );
+				dispatchMessage( message );
 
 			} catch( InterruptedException e ) {
 				Logger.getLogger( getClass().getName()).fine( "Roboconf's message processing thread is stopping." );
@@ -79,6 +175,20 @@ public abstract class AbstractMessageProcessor extends Thread {
 	}
 
 
+	/**
+	 * Dispatches a message taken from the queue.
+	 * <p>
+	 * By default, the message is processed in this thread.
+	 * Sub-classes may hand it to other threads.
+	 * </p>
+	 *
+	 * @param message the message to dispatch
+	 */
+	protected void dispatchMessage( Message message ) {
+		processMessage( message );
+	}
+
+
 	/**
 	 * Processes a message.
 	 * @param message the message to process
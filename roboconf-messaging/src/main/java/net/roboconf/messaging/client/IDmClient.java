@@ -17,6 +17,7 @@
 package net.roboconf.messaging.client;
 
 import java.io.IOException;
+import java.util.List;
 
 import net.roboconf.core.model.runtime.Application;
 import net.roboconf.core.model.runtime.Instance;
@@ -41,6 +42,25 @@ public interface IDmClient extends IClient {
 	 */
 	void sendMessageToAgent( Application application, Instance instance, Message message ) throws IOException;
 
+	/**
+	 * Sends several messages to an agent, at once.
+	 * <p>
+	 * When the agent supports it, the messages are grouped in a single
+	 * {@link net.roboconf.messaging.messages.MsgBatch} and published once.
+	 * Otherwise, they are sent one by one. In both cases, the order is preserved.
+	 * </p>
+	 * <p>
+	 * Messages are removed from the list once they were sent. So, if an exception
+	 * is thrown, the list only contains the messages that were not delivered.
+	 * </p>
+	 *
+	 * @param application the application associated with the given agent
+	 * @param instance an instance managed on the agent (used to find the root instance name)
+	 * @param messages the messages to send (not null, modifiable)
+	 * @throws IOException if something went wrong
+	 */
+	void sendMessagesToAgent( Application application, Instance instance, List<Message> messages ) throws IOException;
+
 	/**
 	 * Configures the listener for messages sent by agents.
 	 * @param application the application associated with the given agents
@@ -0,0 +1,78 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.messaging.client;
+
+import java.util.concurrent.Executor;
+
+import net.roboconf.messaging.internal.client.loopback.LoopbackAgentClient;
+import net.roboconf.messaging.internal.client.loopback.LoopbackBroker;
+import net.roboconf.messaging.internal.client.loopback.LoopbackDmClient;
+
+/**
+ * A factory whose clients exchange messages within the JVM, without any messaging server.
+ * <p>
+ * The DM and the agents must run in the same JVM (e.g. with in-memory agents).
+ * Messages are routed like with RabbitMQ, but they are not serialized.
+ * Connection parameters are ignored.
+ * </p>
+ *
+ * @author Vincent Zurczak - Linagora
+ */
+public class LoopbackMessageServerClientFactory extends MessageServerClientFactory {
+
+	private final Executor agentExecutor;
+
+
+	/**
+	 * Constructor.
+	 * <p>
+	 * Agents process their messages in their own thread.
+	 * </p>
+	 */
+	public LoopbackMessageServerClientFactory() {
+		this( null );
+	}
+
+
+	/**
+	 * Constructor.
+	 * @param agentExecutor the executor shared by the agents to process their messages (null to use their own thread)
+	 */
+	public LoopbackMessageServerClientFactory( Executor agentExecutor ) {
+		this.agentExecutor = agentExecutor;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see net.roboconf.messaging.client.MessageServerClientFactory#createDmClient()
+	 */
+	@Override
+	public IDmClient createDmClient() {
+		return new LoopbackDmClient( LoopbackBroker.INSTANCE );
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see net.roboconf.messaging.client.MessageServerClientFactory#createAgentClient()
+	 */
+	@Override
+	public IAgentClient createAgentClient() {
+		return new LoopbackAgentClient( LoopbackBroker.INSTANCE, this.agentExecutor );
+	}
+}
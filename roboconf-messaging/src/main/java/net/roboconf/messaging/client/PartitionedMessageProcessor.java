@@ -0,0 +1,206 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.messaging.client;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Logger;
+
+import net.roboconf.core.utils.Utils;
+import net.roboconf.messaging.messages.Message;
+
+/**
+ * A message processor that spreads messages over several worker threads (lanes).
+ * <p>
+ * Messages are assigned to a lane from a partition key. Messages with the same key
+ * always go into the same lane, so that they are processed in the order they were received.
+ * Messages with different keys may be processed concurrently.
+ * </p>
+ * <p>
+ * The processor thread itself only dispatches messages. This way, a slow message
+ * does not prevent messages from other partitions from being processed.
+ * </p>
+ *
+ * @author Vincent Zurczak - Linagora
+ */
+public abstract class PartitionedMessageProcessor extends AbstractMessageProcessor {
+
+	private final Lane[] lanes;
+
+
+	/**
+	 * Constructor.
+	 * @param threadName the thread name
+	 * @param laneCount the number of lanes (at least 1)
+	 */
+	public PartitionedMessageProcessor( String threadName, int laneCount ) {
+		super( threadName );
+
+		this.lanes = new Lane[ Math.max( 1, laneCount )];
+		for( int i=0; i<this.lanes.length; i++ )
+			this.lanes[ i ] = new Lane( threadName + " - Lane " + i );
+	}
+
+
+	/**
+	 * Finds the partition key of a message.
+	 * @param message a message (not null)
+	 * @return a partition key (null to use the first lane)
+	 */
+	protected abstract String findPartitionKey( Message message );
+
+
+	/**
+	 * Finds the lane index for a given message.
+	 * @param message a message (not null)
+	 * @return the lane index
+	 */
+	int findLaneIndex( Message message ) {
+
+		String key = findPartitionKey( message );
+		int hash = key == null ? 0 : key.hashCode();
+
+		// Spread the hash bits, and make sure the result is positive
+		hash ^= ( hash >>> 16 );
+		return ( hash & 0x7FFFFFFF ) % this.lanes.length;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see net.roboconf.messaging.client.AbstractMessageProcessor
+	 * #dispatchMessage(net.roboconf.messaging.messages.Message)
+	 */
+	@Override
+	protected final void dispatchMessage( Message message ) {
+		this.lanes[ findLaneIndex( message )].queue.add( message );
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Thread#start()
+	 */
+	@Override
+	public synchronized void start() {
+
+		for( Lane lane : this.lanes )
+			lane.start();
+
+		super.start();
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Thread#interrupt()
+	 */
+	@Override
+	public void interrupt() {
+
+		super.interrupt();
+		for( Lane lane : this.lanes )
+			lane.interrupt();
+	}
+
+
+	/**
+	 * @return the number of lanes
+	 */
+	public int getLaneCount() {
+		return this.lanes.length;
+	}
+
+
+	/**
+	 * Gets the number of messages waiting in every lane.
+	 * <p>
+	 * This is a snapshot. It is meant for monitoring.
+	 * </p>
+	 *
+	 * @return a non-null array, with one entry per lane
+	 */
+	public int[] getLaneQueueDepths() {
+
+		int[] result = new int[ this.lanes.length ];
+		for( int i=0; i<this.lanes.length; i++ )
+			result[ i ] = this.lanes[ i ].queue.size();
+
+		return result;
+	}
+
+
+	/**
+	 * @return the total number of messages processed by the lanes
+	 */
+	public long getProcessedMessagesCount() {
+
+		long result = 0;
+		for( Lane lane : this.lanes )
+			result += lane.processedMessagesCount;
+
+		return result;
+	}
+
+
+	/**
+	 * A worker thread with its own queue.
+	 * @author Vincent Zurczak - Linagora
+	 */
+	private class Lane extends Thread {
+
+		final LinkedBlockingQueue<Message> queue = new LinkedBlockingQueue<Message> ();
+		final Logger logger = Logger.getLogger( PartitionedMessageProcessor.class.getName());
+		volatile long processedMessagesCount = 0;
+
+
+		/**
+		 * Constructor.
+		 * @param name the thread name
+		 */
+		Lane( String name ) {
+			super( name );
+			setDaemon( true );
+		}
+
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Thread#run()
+		 */
+		@Override
+		public void run() {
+
+			for( ;; ) {
+				try {
+					// Blocking call
+					Message message = this.queue.take();
+					processMessage( message );
+					this.processedMessagesCount ++;
+
+				} catch( InterruptedException e ) {
+					this.logger.fine( getName() + " is stopping." );
+					break;
+
+				} catch( RuntimeException e ) {
+					// A faulty message must not kill the lane
+					this.logger.severe( "An error occurred while processing a message in " + getName() + ". " + e.getMessage());
+					this.logger.finest( Utils.writeException( e ));
+				}
+			}
+		}
+	}
+}
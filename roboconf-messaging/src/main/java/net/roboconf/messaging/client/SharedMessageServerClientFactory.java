@@ -0,0 +1,72 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.messaging.client;
+
+import java.util.concurrent.Executor;
+
+import net.roboconf.messaging.internal.client.rabbitmq.AgentClient;
+import net.roboconf.messaging.internal.client.rabbitmq.SharedAgentResources;
+
+/**
+ * A factory whose agent clients share a connection and a pool of threads.
+ * <p>
+ * It is meant to host many agents in a same JVM (e.g. simulated machines).
+ * Message processors of these agents must be started with
+ * {@link AbstractMessageProcessor#startOn(Executor)}, which the agent clients do.
+ * </p>
+ *
+ * @author Vincent Zurczak - Linagora
+ */
+public class SharedMessageServerClientFactory extends MessageServerClientFactory {
+
+	private final SharedAgentResources resources;
+
+
+	/**
+	 * Constructor.
+	 * @param threadsCount the number of threads shared by the agents (at least 1)
+	 */
+	public SharedMessageServerClientFactory( int threadsCount ) {
+		this.resources = new SharedAgentResources( threadsCount );
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see net.roboconf.messaging.client.MessageServerClientFactory#createAgentClient()
+	 */
+	@Override
+	public IAgentClient createAgentClient() {
+		return new AgentClient( this.resources );
+	}
+
+
+	/**
+	 * @return the executor shared by the agents (not null)
+	 */
+	public Executor getExecutor() {
+		return this.resources.getExecutor();
+	}
+
+
+	/**
+	 * Closes the shared connections and stops the shared threads.
+	 */
+	public void close() {
+		this.resources.close();
+	}
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.messaging.codec;
+
+import java.io.IOException;
+
+import net.roboconf.messaging.messages.Message;
+
+/**
+ * A codec converts messages into bytes (and vice-versa).
+ * <p>
+ * Every codec is identified by a content type. This content type is
+ * sent along with the message, so that the receiver can pick up the right
+ * codec to decode it (see {@link MessageCodecs#findCodec(String)}).
+ * </p>
+ * <p>
+ * Codecs must be stateless and thread-safe.
+ * </p>
+ *
+ * @author Vincent Zurczak - Linagora
+ */
+public interface IMessageCodec {
+
+	/**
+	 * @return the content type that identifies this codec (not null)
+	 */
+	String getContentType();
+
+	/**
+	 * Encodes a message.
+	 * @param message a message (not null)
+	 * @return a non-null array of bytes
+	 * @throws IOException if the message could not be encoded
+	 */
+	byte[] encode( Message message ) throws IOException;
+
+	/**
+	 * Decodes a message.
+	 * @param bytes a non-null array of bytes
+	 * @return a non-null message
+	 * @throws IOException if the bytes could not be decoded
+	 */
+	Message decode( byte[] bytes ) throws IOException;
+}
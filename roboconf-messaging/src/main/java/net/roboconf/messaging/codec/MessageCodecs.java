@@ -0,0 +1,95 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.messaging.codec;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.roboconf.core.utils.Utils;
+import net.roboconf.messaging.internal.codec.BinaryMessageCodec;
+import net.roboconf.messaging.internal.codec.JavaSerializationCodec;
+
+/**
+ * The registry of message codecs.
+ * <p>
+ * Messages sent without content type (e.g. by old agents) are assumed
+ * to have been encoded with Java serialization. This is the legacy codec.
+ * </p>
+ * <p>
+ * New codecs can be registered with {@link #registerCodec(IMessageCodec)}.
+ * </p>
+ *
+ * @author Vincent Zurczak - Linagora
+ */
+public final class MessageCodecs {
+
+	private static final Map<String,IMessageCodec> CONTENT_TYPE_TO_CODEC = new ConcurrentHashMap<String,IMessageCodec> ();
+	private static final IMessageCodec LEGACY_CODEC = new JavaSerializationCodec();
+	private static final IMessageCodec PREFERRED_CODEC = new BinaryMessageCodec();
+
+	static {
+		registerCodec( LEGACY_CODEC );
+		registerCodec( PREFERRED_CODEC );
+	}
+
+
+	/**
+	 * Private empty constructor.
+	 */
+	private MessageCodecs() {
+		// nothing
+	}
+
+
+	/**
+	 * Registers a codec.
+	 * <p>
+	 * If a codec was already registered for the same content type, it is replaced.
+	 * </p>
+	 *
+	 * @param codec a codec (not null)
+	 */
+	public static void registerCodec( IMessageCodec codec ) {
+		CONTENT_TYPE_TO_CODEC.put( codec.getContentType(), codec );
+	}
+
+
+	/**
+	 * Finds the codec associated with a content type.
+	 * @param contentType a content type (can be null)
+	 * @return the legacy codec if the content type is null or empty, the matching codec, or null if none was found
+	 */
+	public static IMessageCodec findCodec( String contentType ) {
+		return Utils.isEmptyOrWhitespaces( contentType ) ? LEGACY_CODEC : CONTENT_TYPE_TO_CODEC.get( contentType );
+	}
+
+
+	/**
+	 * @return the codec understood by every Roboconf version (not null)
+	 */
+	public static IMessageCodec getLegacyCodec() {
+		return LEGACY_CODEC;
+	}
+
+
+	/**
+	 * @return the codec to use when the other side is known to support it (not null)
+	 */
+	public static IMessageCodec getPreferredCodec() {
+		return PREFERRED_CODEC;
+	}
+}
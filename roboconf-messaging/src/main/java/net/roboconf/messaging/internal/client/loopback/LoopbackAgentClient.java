@@ -0,0 +1,295 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.messaging.internal.client.loopback;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.logging.Logger;
+
+import net.roboconf.core.model.helpers.InstanceHelpers;
+import net.roboconf.core.model.helpers.VariableHelpers;
+import net.roboconf.core.model.runtime.Instance;
+import net.roboconf.messaging.client.AbstractMessageProcessor;
+import net.roboconf.messaging.client.IAgentClient;
+import net.roboconf.messaging.internal.utils.RabbitMqUtils;
+import net.roboconf.messaging.messages.Message;
+import net.roboconf.messaging.messages.from_agent_to_agent.MsgCmdImportAdd;
+import net.roboconf.messaging.messages.from_agent_to_agent.MsgCmdImportRemove;
+import net.roboconf.messaging.messages.from_agent_to_agent.MsgCmdImportRequest;
+
+/**
+ * The loopback client for an agent.
+ * <p>
+ * It uses the same exchanges, queues and routing keys than the RabbitMQ client,
+ * but messages go through a {@link LoopbackBroker} and are not serialized.
+ * </p>
+ *
+ * @author Vincent Zurczak - Linagora
+ */
+public class LoopbackAgentClient implements IAgentClient {
+
+	private static final String THOSE_THAT_EXPORT = "those.that.export.";
+	private static final String THOSE_THAT_IMPORT = "those.that.import.";
+
+	private final Logger logger = Logger.getLogger( getClass().getName());
+	private final LoopbackBroker broker;
+	private final Executor executor;
+	private String applicationName, rootInstanceName, queueName;
+
+	AbstractMessageProcessor messageProcessor;
+
+
+	/**
+	 * Constructor.
+	 * @param broker the broker (not null)
+	 * @param executor the executor to process messages (null to process them in the message processor's thread)
+	 */
+	public LoopbackAgentClient( LoopbackBroker broker, Executor executor ) {
+		this.broker = broker;
+		this.executor = executor;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see net.roboconf.messaging.client.IClient
+	 * #setParameters(java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void setParameters( String messageServerIp, String messageServerUsername, String messageServerPassword ) {
+		// nothing, the broker is in the JVM
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see net.roboconf.messaging.client.IClient
+	 * #isConnected()
+	 */
+	@Override
+	public boolean isConnected() {
+		return this.queueName != null;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see net.roboconf.messaging.client.IAgentClient
+	 * #setApplicationName(java.lang.String)
+	 */
+	@Override
+	public void setApplicationName( String applicationName ) {
+		this.applicationName = applicationName;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see net.roboconf.messaging.client.IAgentClient
+	 * #setRootInstanceName(java.lang.String)
+	 */
+	@Override
+	public void setRootInstanceName( String rootInstanceName ) {
+		this.rootInstanceName = rootInstanceName;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see net.roboconf.messaging.client.IClient
+	 * #openConnection(net.roboconf.messaging.client.AbstractMessageProcessor)
+	 */
+	@Override
+	public void openConnection( AbstractMessageProcessor messageProcessor )
+	throws IOException {
+
+		this.logger.fine( "Agent " + this.rootInstanceName + " is opening a loopback connection." );
+		if( isConnected()) {
+			this.logger.info( "Agent " + this.rootInstanceName + " has already a loopback connection." );
+			return;
+		}
+
+		this.messageProcessor = messageProcessor;
+		if( this.executor != null )
+			this.messageProcessor.startOn( this.executor );
+		else
+			this.messageProcessor.start();
+
+		// The queue is kept if the agent is associated with another root instance later
+		this.broker.declareApplicationExchanges( this.applicationName );
+		String queueName = this.applicationName + "." + this.rootInstanceName;
+		this.broker.consume( queueName, this.messageProcessor );
+		this.queueName = queueName;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see net.roboconf.messaging.client.IClient#closeConnection()
+	 */
+	@Override
+	public void closeConnection() throws IOException {
+		this.logger.fine( "Agent " + this.rootInstanceName + " is closing its loopback connection." );
+
+		if( this.queueName != null )
+			this.broker.cancel( this.queueName );
+
+		if( this.messageProcessor != null
+				&& this.messageProcessor.isRunning())
+			this.messageProcessor.stopProcessing();
+
+		this.queueName = null;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see net.roboconf.messaging.client.IAgentClient
+	 * #publishExports(net.roboconf.core.model.runtime.Instance)
+	 */
+	@Override
+	public void publishExports( Instance instance ) throws IOException {
+		this.logger.fine( "Agent " + this.rootInstanceName + " is publishing its exports." );
+		for( String facetOrComponentName : VariableHelpers.findPrefixesForExportedVariables( instance ))
+			publishExports( instance, facetOrComponentName );
+	}
+
+
+	/* (non-Javadoc)
+	 * @see net.roboconf.messaging.client.IAgentClient
+	 * #publishExports(net.roboconf.core.model.runtime.Instance, java.lang.String)
+	 */
+	@Override
+	public void publishExports( Instance instance, String facetOrComponentName ) throws IOException {
+		this.logger.fine( "Agent " + this.rootInstanceName + " is publishing its exports prefixed by " + facetOrComponentName + "." );
+
+		// Messages are not copied: give them their own map
+		Map<String,String> toPublish = new HashMap<String,String> ();
+		for( Map.Entry<String,String> entry : instance.getExports().entrySet()) {
+			if( entry.getKey().startsWith( facetOrComponentName + "." ))
+				toPublish.put( entry.getKey(), entry.getValue());
+		}
+
+		if( ! toPublish.isEmpty()) {
+			MsgCmdImportAdd message = new MsgCmdImportAdd(
+					facetOrComponentName,
+					InstanceHelpers.computeInstancePath( instance ),
+					toPublish );
+
+			publishToAgents( THOSE_THAT_IMPORT + facetOrComponentName, message );
+		}
+	}
+
+
+	/* (non-Javadoc)
+	 * @see net.roboconf.messaging.client.IAgentClient
+	 * #unpublishExports(net.roboconf.core.model.runtime.Instance)
+	 */
+	@Override
+	public void unpublishExports( Instance instance ) throws IOException {
+		this.logger.fine( "Agent " + this.rootInstanceName + " is un-publishing its exports." );
+
+		for( String facetOrComponentName : VariableHelpers.findPrefixesForExportedVariables( instance )) {
+			MsgCmdImportRemove message = new MsgCmdImportRemove(
+					facetOrComponentName,
+					InstanceHelpers.computeInstancePath( instance ));
+
+			publishToAgents( THOSE_THAT_IMPORT + facetOrComponentName, message );
+		}
+	}
+
+
+	/* (non-Javadoc)
+	 * @see net.roboconf.messaging.client.IAgentClient
+	 * #listenToRequestsFromOtherAgents(net.roboconf.messaging.client.IClient.ListenerCommand, net.roboconf.core.model.runtime.Instance)
+	 */
+	@Override
+	public void listenToRequestsFromOtherAgents( ListenerCommand command, Instance instance )
+	throws IOException {
+
+		for( String facetOrComponentName : VariableHelpers.findPrefixesForExportedVariables( instance )) {
+			this.logger.fine( "Agent " + this.rootInstanceName + " " + ( command == ListenerCommand.START ? "starts" : "stops" ) + " listening requests from other agents." );
+			bindToAgents( command, THOSE_THAT_EXPORT + facetOrComponentName );
+		}
+	}
+
+
+	/* (non-Javadoc)
+	 * @see net.roboconf.messaging.client.IAgentClient
+	 * #requestExportsFromOtherAgents(net.roboconf.core.model.runtime.Instance)
+	 */
+	@Override
+	public void requestExportsFromOtherAgents( Instance instance ) throws IOException {
+		this.logger.fine( "Agent " + this.rootInstanceName + " is requesting exports from other agents." );
+
+		for( String facetOrComponentName : VariableHelpers.findPrefixesForImportedVariables( instance )) {
+			MsgCmdImportRequest message = new MsgCmdImportRequest( facetOrComponentName );
+			publishToAgents( THOSE_THAT_EXPORT + facetOrComponentName, message );
+		}
+	}
+
+
+	/* (non-Javadoc)
+	 * @see net.roboconf.messaging.client.IAgentClient
+	 * #listenToExportsFromOtherAgents(net.roboconf.messaging.client.IClient.ListenerCommand, net.roboconf.core.model.runtime.Instance)
+	 */
+	@Override
+	public void listenToExportsFromOtherAgents( ListenerCommand command, Instance instance ) throws IOException {
+
+		for( String facetOrComponentName : VariableHelpers.findPrefixesForImportedVariables( instance )) {
+			this.logger.fine( "Agent " + this.rootInstanceName + " " + ( command == ListenerCommand.START ? "starts" : "stops" ) + " listening exports from other agents." );
+			bindToAgents( command, THOSE_THAT_IMPORT + facetOrComponentName );
+		}
+	}
+
+
+	/* (non-Javadoc)
+	 * @see net.roboconf.messaging.client.IAgentClient
+	 * #sendMessageToTheDm(net.roboconf.messaging.messages.Message)
+	 */
+	@Override
+	public void sendMessageToTheDm( Message message ) throws IOException {
+		this.logger.fine( "Agent " + this.rootInstanceName + " is sending a " + message.getClass().getSimpleName() + " message to the DM." );
+		this.broker.publish( RabbitMqUtils.buildExchangeName( this.applicationName, true ), "", message );
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see net.roboconf.messaging.client.IAgentClient
+	 * #listenToTheDm(net.roboconf.messaging.client.IClient.ListenerCommand)
+	 */
+	@Override
+	public void listenToTheDm( ListenerCommand command ) throws IOException {
+		this.logger.fine( "Agent " + this.rootInstanceName + " " + ( command == ListenerCommand.START ? "starts" : "stops" ) + " listening to the DM." );
+		bindToAgents( command, RabbitMqUtils.buildRoutingKeyForAgent( this.rootInstanceName ));
+	}
+
+
+	private void publishToAgents( String routingKey, Message message ) throws IOException {
+		this.broker.publish( RabbitMqUtils.buildExchangeName( this.applicationName, false ), routingKey, message );
+	}
+
+
+	private void bindToAgents( ListenerCommand command, String bindingKey ) throws IOException {
+
+		String exchangeName = RabbitMqUtils.buildExchangeName( this.applicationName, false );
+		if( command == ListenerCommand.START )
+			this.broker.bind( this.queueName, exchangeName, bindingKey );
+		else
+			this.broker.unbind( this.queueName, exchangeName, bindingKey );
+	}
+}
@@ -0,0 +1,311 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.messaging.internal.client.loopback;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.roboconf.messaging.client.AbstractMessageProcessor;
+import net.roboconf.messaging.internal.utils.RabbitMqUtils;
+import net.roboconf.messaging.messages.Message;
+
+/**
+ * A messaging server that runs in the JVM.
+ * <p>
+ * It has the same semantics than the RabbitMQ exchanges the clients use
+ * (see {@link RabbitMqUtils#declareApplicationExchanges(String, com.rabbitmq.client.Channel)}).
+ * A fanout exchange broadcasts messages to all the queues bound to it.
+ * A topic exchange delivers messages to the queues whose binding key matches the routing key.
+ * In binding keys, <code>*</code> matches exactly one word and <code>#</code> matches zero or more words.
+ * </p>
+ * <p>
+ * Messages are not serialized. They are directly stored in the message processor
+ * that consumes a queue. Messages must not be modified once they have been published.
+ * Messages published to a queue nobody consumes are dropped.
+ * </p>
+ * <p>
+ * This class is thread-safe and does not use locks.
+ * </p>
+ *
+ * @author Vincent Zurczak - Linagora
+ */
+public final class LoopbackBroker {
+
+	/**
+	 * The broker shared by all the loopback clients of the JVM.
+	 */
+	public static final LoopbackBroker INSTANCE = new LoopbackBroker();
+
+	private final ConcurrentMap<String,Exchange> nameToExchange = new ConcurrentHashMap<String,Exchange> ();
+	private final ConcurrentMap<String,AbstractMessageProcessor> queueToConsumer = new ConcurrentHashMap<String,AbstractMessageProcessor> ();
+
+
+	/**
+	 * Constructor.
+	 */
+	LoopbackBroker() {
+		// nothing
+	}
+
+
+	/**
+	 * Declares the exchanges of an application.
+	 * <p>
+	 * This method is idem-potent.
+	 * </p>
+	 *
+	 * @param applicationName the application name
+	 */
+	public void declareApplicationExchanges( String applicationName ) {
+		this.nameToExchange.putIfAbsent( RabbitMqUtils.buildExchangeName( applicationName, true ), new Exchange( true ));
+		this.nameToExchange.putIfAbsent( RabbitMqUtils.buildExchangeName( applicationName, false ), new Exchange( false ));
+	}
+
+
+	/**
+	 * Deletes an exchange and its bindings.
+	 * @param exchangeName the exchange name
+	 */
+	public void deleteExchange( String exchangeName ) {
+		this.nameToExchange.remove( exchangeName );
+	}
+
+
+	/**
+	 * Starts consuming a queue.
+	 * <p>
+	 * Like RabbitMQ's exclusive consumers, a queue has at most one consumer.
+	 * </p>
+	 *
+	 * @param queueName the queue name
+	 * @param messageProcessor the processor that will receive the messages
+	 * @throws IOException if the queue is already consumed by another processor
+	 */
+	public void consume( String queueName, AbstractMessageProcessor messageProcessor ) throws IOException {
+
+		AbstractMessageProcessor previous = this.queueToConsumer.putIfAbsent( queueName, messageProcessor );
+		if( previous != null && previous != messageProcessor )
+			throw new IOException( "Queue " + queueName + " is already consumed." );
+	}
+
+
+	/**
+	 * Stops consuming a queue.
+	 * <p>
+	 * Like the auto-delete queues of the clients, the queue and its bindings are deleted.
+	 * </p>
+	 *
+	 * @param queueName the queue name
+	 */
+	public void cancel( String queueName ) {
+
+		this.queueToConsumer.remove( queueName );
+		for( Exchange exchange : this.nameToExchange.values())
+			exchange.unbindAll( queueName );
+	}
+
+
+	/**
+	 * Binds a queue to an exchange.
+	 * @param queueName the queue name
+	 * @param exchangeName the exchange name
+	 * @param bindingKey the binding key (ignored by fanout exchanges)
+	 * @throws IOException if the exchange does not exist
+	 */
+	public void bind( String queueName, String exchangeName, String bindingKey ) throws IOException {
+		findExchange( exchangeName ).bind( queueName, bindingKey );
+	}
+
+
+	/**
+	 * Unbinds a queue from an exchange.
+	 * @param queueName the queue name
+	 * @param exchangeName the exchange name
+	 * @param bindingKey the binding key
+	 * @throws IOException if the exchange does not exist
+	 */
+	public void unbind( String queueName, String exchangeName, String bindingKey ) throws IOException {
+		findExchange( exchangeName ).unbind( queueName, bindingKey );
+	}
+
+
+	/**
+	 * Publishes a message.
+	 * @param exchangeName the exchange name
+	 * @param routingKey the routing key
+	 * @param message the message
+	 * @return the number of queues the message was delivered to
+	 * @throws IOException if the exchange does not exist
+	 */
+	public int publish( String exchangeName, String routingKey, Message message ) throws IOException {
+
+		int result = 0;
+		for( String queueName : findExchange( exchangeName ).route( routingKey )) {
+			AbstractMessageProcessor consumer = this.queueToConsumer.get( queueName );
+			if( consumer != null ) {
+				consumer.storeMessage( message );
+				result ++;
+			}
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Determines whether a binding key matches a routing key, as a topic exchange does.
+	 * @param bindingKey a binding key (words separated by dots, possibly with wildcards)
+	 * @param routingKey a routing key
+	 * @return true if they match, false otherwise
+	 */
+	static boolean matches( String bindingKey, String routingKey ) {
+		return matches( bindingKey.split( "\\.", -1 ), 0, routingKey.split( "\\.", -1 ), 0 );
+	}
+
+
+	private static boolean matches( String[] binding, int b, String[] routing, int r ) {
+
+		boolean result;
+		if( b == binding.length )
+			result = r == routing.length;
+
+		else if( "#".equals( binding[ b ])) {
+			result = false;
+			for( int i=r; i<=routing.length && ! result; i++ )
+				result = matches( binding, b + 1, routing, i );
+
+		} else {
+			result = r < routing.length
+					&& ( "*".equals( binding[ b ]) || binding[ b ].equals( routing[ r ]))
+					&& matches( binding, b + 1, routing, r + 1 );
+		}
+
+		return result;
+	}
+
+
+	private Exchange findExchange( String exchangeName ) throws IOException {
+
+		Exchange result = this.nameToExchange.get( exchangeName );
+		if( result == null )
+			throw new IOException( "Exchange " + exchangeName + " does not exist." );
+
+		return result;
+	}
+
+
+	/**
+	 * @return the number of consumed queues (for tests)
+	 */
+	int getConsumedQueuesCount() {
+		return this.queueToConsumer.size();
+	}
+
+
+	/**
+	 * @param exchangeName an exchange name
+	 * @return true if this exchange exists, false otherwise
+	 */
+	boolean hasExchange( String exchangeName ) {
+		return this.nameToExchange.containsKey( exchangeName );
+	}
+
+
+	/**
+	 * An exchange and its bindings.
+	 * <p>
+	 * Binding keys without wildcards are resolved with a simple look-up.
+	 * </p>
+	 */
+	private static final class Exchange {
+
+		private final boolean fanout;
+		private final ConcurrentMap<String,Set<String>> bindingKeyToQueues = new ConcurrentHashMap<String,Set<String>> ();
+		private final Set<String> wildcardBindingKeys = newConcurrentSet();
+
+
+		/**
+		 * Constructor.
+		 * @param fanout true for a fanout exchange, false for a topic exchange
+		 */
+		Exchange( boolean fanout ) {
+			this.fanout = fanout;
+		}
+
+
+		void bind( String queueName, String bindingKey ) {
+
+			String key = this.fanout ? "" : bindingKey;
+			Set<String> queues = this.bindingKeyToQueues.get( key );
+			if( queues == null ) {
+				Set<String> newQueues = newConcurrentSet();
+				queues = this.bindingKeyToQueues.putIfAbsent( key, newQueues );
+				if( queues == null )
+					queues = newQueues;
+			}
+
+			queues.add( queueName );
+			if( key.contains( "*" ) || key.contains( "#" ))
+				this.wildcardBindingKeys.add( key );
+		}
+
+
+		void unbind( String queueName, String bindingKey ) {
+
+			Set<String> queues = this.bindingKeyToQueues.get( this.fanout ? "" : bindingKey );
+			if( queues != null )
+				queues.remove( queueName );
+		}
+
+
+		void unbindAll( String queueName ) {
+			for( Set<String> queues : this.bindingKeyToQueues.values())
+				queues.remove( queueName );
+		}
+
+
+		Set<String> route( String routingKey ) {
+
+			Set<String> result = this.bindingKeyToQueues.get( this.fanout ? "" : routingKey );
+			if( ! this.wildcardBindingKeys.isEmpty()) {
+				Set<String> all = new HashSet<String> ();
+				if( result != null )
+					all.addAll( result );
+
+				for( String bindingKey : this.wildcardBindingKeys ) {
+					Set<String> queues;
+					if( matches( bindingKey, routingKey )
+							&& ( queues = this.bindingKeyToQueues.get( bindingKey )) != null )
+						all.addAll( queues );
+				}
+
+				result = all;
+			}
+
+			return result != null ? result : Collections.<String>emptySet();
+		}
+
+
+		private static Set<String> newConcurrentSet() {
+			return Collections.newSetFromMap( new ConcurrentHashMap<String,Boolean> ());
+		}
+	}
+}
@@ -0,0 +1,201 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.messaging.internal.client.loopback;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import net.roboconf.core.model.runtime.Application;
+import net.roboconf.core.model.runtime.Instance;
+import net.roboconf.messaging.client.AbstractMessageProcessor;
+import net.roboconf.messaging.client.IDmClient;
+import net.roboconf.messaging.internal.utils.RabbitMqUtils;
+import net.roboconf.messaging.messages.Message;
+import net.roboconf.messaging.messages.MsgBatch;
+
+/**
+ * The loopback client for the DM.
+ * <p>
+ * It uses the same exchanges, queues and routing keys than the RabbitMQ client,
+ * but messages go through a {@link LoopbackBroker} and are not serialized.
+ * </p>
+ *
+ * @author Vincent Zurczak - Linagora
+ */
+public class LoopbackDmClient implements IDmClient {
+
+	private final Logger logger = Logger.getLogger( getClass().getName());
+	private final LoopbackBroker broker;
+	private final Map<String,String> applicationNameToQueueName = new ConcurrentHashMap<String,String> ();
+
+	AbstractMessageProcessor messageProcessor;
+
+
+	/**
+	 * Constructor.
+	 * @param broker the broker (not null)
+	 */
+	public LoopbackDmClient( LoopbackBroker broker ) {
+		this.broker = broker;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see net.roboconf.messaging.client.IClient
+	 * #setParameters(java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void setParameters( String messageServerIp, String username, String password ) {
+		// nothing, the broker is in the JVM
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see net.roboconf.messaging.client.IClient
+	 * #isConnected()
+	 */
+	@Override
+	public boolean isConnected() {
+		return this.messageProcessor != null;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see net.roboconf.messaging.client.IClient
+	 * #openConnection(net.roboconf.messaging.client.AbstractMessageProcessor)
+	 */
+	@Override
+	public void openConnection( AbstractMessageProcessor messageProcessor )
+	throws IOException {
+
+		this.logger.fine( "The DM is opening a loopback connection." );
+		if( isConnected()) {
+			this.logger.info( "The DM has already a loopback connection." );
+			return;
+		}
+
+		this.messageProcessor = messageProcessor;
+		this.messageProcessor.start();
+	}
+
+
+	/* (non-Javadoc)
+	 * @see net.roboconf.messaging.client.IClient
+	 * #closeConnection()
+	 */
+	@Override
+	public void closeConnection() throws IOException {
+		this.logger.fine( "The DM is closing its loopback connection." );
+
+		for( String queueName : this.applicationNameToQueueName.values())
+			this.broker.cancel( queueName );
+
+		this.applicationNameToQueueName.clear();
+		if( this.messageProcessor != null
+				&& this.messageProcessor.isRunning())
+			this.messageProcessor.interrupt();
+
+		this.messageProcessor = null;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see net.roboconf.messaging.client.IDmClient
+	 * #sendMessageToAgent(net.roboconf.core.model.runtime.Application, net.roboconf.core.model.runtime.Instance, net.roboconf.messaging.messages.Message)
+	 */
+	@Override
+	public void sendMessageToAgent( Application application, Instance instance, Message message )
+	throws IOException {
+
+		String exchangeName = RabbitMqUtils.buildExchangeName( application, false );
+		String routingKey = RabbitMqUtils.buildRoutingKeyForAgent( instance );
+		this.logger.fine( "The DM sends a message to " + routingKey + ". Message type: " + message.getClass().getSimpleName());
+
+		// Like mandatory publications with RabbitMQ
+		if( this.broker.publish( exchangeName, routingKey, message ) == 0 ) {
+			StringBuilder sb = new StringBuilder();
+			sb.append( "A message sent by the DM was not received by any agent queue." );
+			sb.append( "\nMessage type: " + message.getClass().getName());
+			sb.append( "\nRouting key: " + routingKey );
+
+			this.logger.warning( sb.toString());
+		}
+	}
+
+
+	/* (non-Javadoc)
+	 * @see net.roboconf.messaging.client.IDmClient
+	 * #sendMessagesToAgent(net.roboconf.core.model.runtime.Application, net.roboconf.core.model.runtime.Instance, java.util.List)
+	 */
+	@Override
+	public void sendMessagesToAgent( Application application, Instance instance, List<Message> messages )
+	throws IOException {
+
+		// Loopback agents all support batches
+		if( messages.size() == 1 )
+			sendMessageToAgent( application, instance, messages.get( 0 ));
+		else if( ! messages.isEmpty())
+			sendMessageToAgent( application, instance, new MsgBatch( messages ));
+
+		messages.clear();
+	}
+
+
+	/* (non-Javadoc)
+	 * @see net.roboconf.messaging.client.IDmClient
+	 * #listenToAgentMessages(net.roboconf.core.model.runtime.Application, net.roboconf.messaging.client.IClient.ListenerCommand)
+	 */
+	@Override
+	public void listenToAgentMessages( Application application, ListenerCommand command )
+	throws IOException {
+
+		if( command == ListenerCommand.STOP ) {
+			this.logger.fine( "The DM stops listening agents messages for the '" + application.getName() + "' application." );
+			String queueName = this.applicationNameToQueueName.remove( application.getName());
+			if( queueName != null )
+				this.broker.cancel( queueName );
+
+		} else if( ! this.applicationNameToQueueName.containsKey( application.getName())) {
+			this.logger.fine( "The DM starts listening agents messages for the '" + application.getName() + "' application." );
+
+			// Every message sent to the "DM" exchange will land into the DM's queue
+			String queueName = application.getName() + ".dm";
+			this.broker.declareApplicationExchanges( application.getName());
+			this.broker.consume( queueName, this.messageProcessor );
+			this.broker.bind( queueName, RabbitMqUtils.buildExchangeName( application, true ), "" );
+			this.applicationNameToQueueName.put( application.getName(), queueName );
+		}
+	}
+
+
+	/* (non-Javadoc)
+	 * @see net.roboconf.messaging.client.IDmClient
+	 * #deleteMessagingServerArtifacts(net.roboconf.core.model.runtime.Application)
+	 */
+	@Override
+	public void deleteMessagingServerArtifacts( Application application )
+	throws IOException {
+		this.broker.deleteExchange( RabbitMqUtils.buildExchangeName( application, true ));
+		this.broker.deleteExchange( RabbitMqUtils.buildExchangeName( application, false ));
+	}
+}
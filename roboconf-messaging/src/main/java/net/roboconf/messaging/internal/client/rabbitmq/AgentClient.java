@@ -24,21 +24,37 @@ import java.util.logging.Logger;
 import net.roboconf.core.model.helpers.InstanceHelpers;
 import net.roboconf.core.model.helpers.VariableHelpers;
 import net.roboconf.core.model.runtime.Instance;
+import net.roboconf.core.utils.Utils;
 import net.roboconf.messaging.client.AbstractMessageProcessor;
 import net.roboconf.messaging.client.IAgentClient;
+import net.roboconf.messaging.codec.IMessageCodec;
+import net.roboconf.messaging.codec.MessageCodecs;
 import net.roboconf.messaging.internal.utils.RabbitMqUtils;
-import net.roboconf.messaging.internal.utils.SerializationUtils;
 import net.roboconf.messaging.messages.Message;
 import net.roboconf.messaging.messages.from_agent_to_agent.MsgCmdImportAdd;
 import net.roboconf.messaging.messages.from_agent_to_agent.MsgCmdImportRemove;
 import net.roboconf.messaging.messages.from_agent_to_agent.MsgCmdImportRequest;
 
+import com.rabbitmq.client.AMQP.BasicProperties;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
 import com.rabbitmq.client.QueueingConsumer;
 
 /**
  * The RabbitMQ client for an agent.
+ * <p>
+ * By default, a client has its own connection and its own threads to listen
+ * to and process messages. Clients created with {@link SharedAgentResources}
+ * share a connection and a pool of threads instead.
+ * </p>
+ * <p>
+ * Messages for the DM are encoded with the preferred codec. Messages for other agents
+ * are encoded with Java serialization, which all the agents understand, until the DM
+ * indicates that all the agents of the application support a more efficient codec.
+ * </p>
+ *
  * @author Vincent Zurczak - Linagora
  */
 public class AgentClient implements IAgentClient {
@@ -48,10 +64,35 @@ public class AgentClient implements IAgentClient {
 
 	private final Logger logger = Logger.getLogger( getClass().getName());
 	private String applicationName, rootInstanceName, messageServerIp, messageServerUsername, messageServerPassword;
+	private String queueName;
+	private final SharedAgentResources sharedResources;
+
+	// Life cycle operations may run concurrently on the agent.
+	// A RabbitMQ channel must not be used by several threads at once.
+	private final Object channelLock = new Object();
 
 	String consumerTag;
 	Channel	channel;
 	AbstractMessageProcessor messageProcessor;
+	IMessageCodec codec = MessageCodecs.getPreferredCodec();
+	volatile IMessageCodec agentsCodec = MessageCodecs.getLegacyCodec();
+
+
+	/**
+	 * Constructor.
+	 */
+	public AgentClient() {
+		this( null );
+	}
+
+
+	/**
+	 * Constructor.
+	 * @param sharedResources the resources shared with other agent clients (null to use dedicated ones)
+	 */
+	public AgentClient( SharedAgentResources sharedResources ) {
+		this.sharedResources = sharedResources;
+	}
 
 
 	/*
@@ -105,13 +146,21 @@ public class AgentClient implements IAgentClient {
 		}
 
 		// Initialize the connection
-		ConnectionFactory factory = new ConnectionFactory();
-		RabbitMqUtils.configureFactory( factory, this.messageServerIp, this.messageServerUsername, this.messageServerPassword );
-		this.channel = factory.newConnection().createChannel();
+		if( this.sharedResources != null ) {
+			this.channel = this.sharedResources.createChannel( this.messageServerIp, this.messageServerUsername, this.messageServerPassword );
+
+		} else {
+			ConnectionFactory factory = new ConnectionFactory();
+			RabbitMqUtils.configureFactory( factory, this.messageServerIp, this.messageServerUsername, this.messageServerPassword );
+			this.channel = factory.newConnection().createChannel();
+		}
 
 		// Store the message processor for later
 		this.messageProcessor = messageProcessor;
-		this.messageProcessor.start();
+		if( this.sharedResources != null )
+			this.messageProcessor.startOn( this.sharedResources.getExecutor());
+		else
+			this.messageProcessor.start();
 
 		// We start listening the queue here
 		// We declare both exchanges.
@@ -122,23 +171,39 @@ public class AgentClient implements IAgentClient {
 		RabbitMqUtils.declareApplicationExchanges( this.applicationName, this.channel );
 		// This is really important.
 
-		// Queue declaration is idem-potent
+		// Queue declaration is idem-potent.
+		// The queue is kept if the agent is associated with another root instance later.
+		this.queueName = this.applicationName + "." + this.rootInstanceName;
 		String queueName = getQueueName();
 		this.channel.queueDeclare( queueName, true, false, true, null );
 
-		// Start to listen to the queue
-		final QueueingConsumer consumer = new QueueingConsumer( this.channel );
-		this.consumerTag = this.channel.basicConsume( queueName, true, consumer );
+		// Start to listen to the queue.
+		// With shared resources, deliveries are pushed by the connection's threads.
+		if( this.sharedResources != null ) {
+			this.consumerTag = this.channel.basicConsume( queueName, true, new SharedConsumer( this.channel ));
 
-		new Thread( "Roboconf - Queue listener for Agent " + this.rootInstanceName ) {
-			@Override
-			public void run() {
-				RabbitMqUtils.listenToRabbitMq(
-						AgentClient.this.rootInstanceName, AgentClient.this.logger,
-						consumer, AgentClient.this.messageProcessor );
+		} else {
+			final QueueingConsumer consumer = new QueueingConsumer( this.channel ) {
+				@Override
+				public void handleDelivery( String consumerTag, Envelope envelope, BasicProperties properties, byte[] body )
+				throws IOException {
+					updateAgentsCodec( properties );
+					super.handleDelivery( consumerTag, envelope, properties, body );
+				}
 			};
 
-		}.start();
+			this.consumerTag = this.channel.basicConsume( queueName, true, consumer );
+
+			new Thread( "Roboconf - Queue listener for Agent " + this.rootInstanceName ) {
+				@Override
+				public void run() {
+					RabbitMqUtils.listenToRabbitMq(
+							AgentClient.this.rootInstanceName, AgentClient.this.logger,
+							consumer, AgentClient.this.messageProcessor );
+				};
+
+			}.start();
+		}
 	}
 
 
@@ -158,11 +223,16 @@ public class AgentClient implements IAgentClient {
 		// Stop processing messages
 		if( this.messageProcessor != null
 				&& this.messageProcessor.isRunning())
-			this.messageProcessor.interrupt();
+			this.messageProcessor.stopProcessing();
 
-		// Close the connection
+		// Close the connection (only the channel if the connection is shared)
 		this.consumerTag = null;
-		RabbitMqUtils.closeConnection( this.channel );
+		this.queueName = null;
+		if( this.sharedResources == null )
+			RabbitMqUtils.closeConnection( this.channel );
+		else if( this.channel != null && this.channel.isOpen())
+			this.channel.close();
+
 		this.channel = null;
 	}
 
@@ -213,11 +283,10 @@ public class AgentClient implements IAgentClient {
 					InstanceHelpers.computeInstancePath( instance ),
 					toPublish );
 
-			this.channel.basicPublish(
+			publish(
 					RabbitMqUtils.buildExchangeName( this.applicationName, false ),
 					THOSE_THAT_IMPORT + facetOrComponentName,
-					null,
-					SerializationUtils.serializeObject( message ));
+					message, this.agentsCodec );
 		}
 	}
 
@@ -239,11 +308,10 @@ public class AgentClient implements IAgentClient {
 					facetOrComponentName,
 					InstanceHelpers.computeInstancePath( instance ));
 
-			this.channel.basicPublish(
+			publish(
 					RabbitMqUtils.buildExchangeName( this.applicationName, false ),
 					THOSE_THAT_IMPORT + facetOrComponentName,
-					null,
-					SerializationUtils.serializeObject( message ));
+					message, this.agentsCodec );
 		}
 	}
 
@@ -267,11 +335,11 @@ public class AgentClient implements IAgentClient {
 
 			if( command == ListenerCommand.START ) {
 				this.logger.fine( "Agent " + this.rootInstanceName + " starts listening requests from other agents." );
-				this.channel.queueBind( queueName, exchangeName, routingKey );
+				bind( queueName, exchangeName, routingKey );
 
 			} else {
 				this.logger.fine( "Agent " + this.rootInstanceName + " stops listening requests from other agents." );
-				this.channel.queueUnbind( queueName, exchangeName, routingKey );
+				unbind( queueName, exchangeName, routingKey );
 			}
 		}
 	}
@@ -292,11 +360,10 @@ public class AgentClient implements IAgentClient {
 			// ... and ask to publish them.
 			// Grouping variable requests by prefix reduces the number of messages.
 			MsgCmdImportRequest message = new MsgCmdImportRequest( facetOrComponentName );
-			this.channel.basicPublish(
+			publish(
 					RabbitMqUtils.buildExchangeName( this.applicationName, false ),
 					THOSE_THAT_EXPORT + facetOrComponentName,
-					null,
-					SerializationUtils.serializeObject( message ));
+					message, this.agentsCodec );
 		}
 	}
 
@@ -319,11 +386,11 @@ public class AgentClient implements IAgentClient {
 
 			if( command == ListenerCommand.START ) {
 				this.logger.fine( "Agent " + this.rootInstanceName + " starts listening exports from other agents." );
-				this.channel.queueBind( queueName, exchangeName, routingKey );
+				bind( queueName, exchangeName, routingKey );
 
 			} else {
 				this.logger.fine( "Agent " + this.rootInstanceName + " stops listening exports from other agents." );
-				this.channel.queueUnbind( queueName, exchangeName, routingKey );
+				unbind( queueName, exchangeName, routingKey );
 			}
 		}
 	}
@@ -337,10 +404,10 @@ public class AgentClient implements IAgentClient {
 	public void sendMessageToTheDm( Message message ) throws IOException {
 
 		this.logger.fine( "Agent " + this.rootInstanceName + " is sending a " + message.getClass().getSimpleName() + " message to the DM." );
-		this.channel.basicPublish(
+		publish(
 				RabbitMqUtils.buildExchangeName( this.applicationName, true ),
-				"", null,
-				SerializationUtils.serializeObject( message ));
+				"",
+				message, this.codec );
 	}
 
 
@@ -360,16 +427,118 @@ public class AgentClient implements IAgentClient {
 		// queueBind is idem-potent
 		if( command == ListenerCommand.START ) {
 			this.logger.fine( "Agent " + this.rootInstanceName + " starts listening to the DM." );
-			this.channel.queueBind( queueName, exchangeName, routingKey );
+			bind( queueName, exchangeName, routingKey );
 
 		} else {
 			this.logger.fine( "Agent " + this.rootInstanceName + " stops listening to the DM." );
+			unbind( queueName, exchangeName, routingKey );
+		}
+	}
+
+
+	/**
+	 * Encodes and publishes a message.
+	 * <p>
+	 * The content type indicates which codec was used. The sender header
+	 * allows the DM to reply with the same codec.
+	 * </p>
+	 *
+	 * @param exchangeName the exchange name
+	 * @param routingKey the routing key
+	 * @param message the message to publish
+	 * @param codec the codec to encode the message with
+	 * @throws IOException if something went wrong
+	 */
+	private void publish( String exchangeName, String routingKey, Message message, IMessageCodec codec ) throws IOException {
+
+		// Encoding does not need the channel
+		byte[] body = codec.encode( message );
+		BasicProperties properties = RabbitMqUtils.buildProperties( codec, getQueueName());
+		synchronized( this.channelLock ) {
+			this.channel.basicPublish( exchangeName, routingKey, properties, body );
+		}
+	}
+
+
+	/**
+	 * Binds the agent's queue, with an exclusive access to the channel.
+	 * @param queueName the queue name
+	 * @param exchangeName the exchange name
+	 * @param routingKey the routing key
+	 * @throws IOException if something went wrong
+	 */
+	private void bind( String queueName, String exchangeName, String routingKey ) throws IOException {
+		synchronized( this.channelLock ) {
+			this.channel.queueBind( queueName, exchangeName, routingKey );
+		}
+	}
+
+
+	/**
+	 * Unbinds the agent's queue, with an exclusive access to the channel.
+	 * @param queueName the queue name
+	 * @param exchangeName the exchange name
+	 * @param routingKey the routing key
+	 * @throws IOException if something went wrong
+	 */
+	private void unbind( String queueName, String exchangeName, String routingKey ) throws IOException {
+		synchronized( this.channelLock ) {
 			this.channel.queueUnbind( queueName, exchangeName, routingKey );
 		}
 	}
 
 
+	/**
+	 * Updates the codec used with other agents from the header set by the DM.
+	 * <p>
+	 * Messages without this header (e.g. sent by other agents) are ignored.
+	 * </p>
+	 *
+	 * @param properties the properties of a received message (can be null)
+	 */
+	void updateAgentsCodec( BasicProperties properties ) {
+
+		String contentType = RabbitMqUtils.findHeader( properties, RabbitMqUtils.HEADER_AGENTS_CONTENT_TYPE );
+		IMessageCodec newCodec = contentType == null ? null : MessageCodecs.findCodec( contentType );
+		if( newCodec != null && newCodec != this.agentsCodec ) {
+			this.logger.fine( "Agent " + this.rootInstanceName + " now uses " + newCodec.getContentType() + " with other agents." );
+			this.agentsCodec = newCodec;
+		}
+	}
+
+
 	private String getQueueName() {
-		return this.applicationName + "." + this.rootInstanceName;
+		return this.queueName != null ? this.queueName : RabbitMqUtils.buildAgentQueueName( this.applicationName, this.rootInstanceName );
+	}
+
+
+	/**
+	 * A consumer that stores the messages delivered by a shared connection.
+	 */
+	private class SharedConsumer extends DefaultConsumer {
+
+		/**
+		 * Constructor.
+		 * @param channel the channel
+		 */
+		SharedConsumer( Channel channel ) {
+			super( channel );
+		}
+
+
+		@Override
+		public void handleDelivery( String consumerTag, Envelope envelope, BasicProperties properties, byte[] body ) {
+
+			updateAgentsCodec( properties );
+			try {
+				Message message = RabbitMqUtils.decodeMessage( properties, body );
+				AgentClient.this.logger.finer( AgentClient.this.rootInstanceName + " received a message " + message.getClass().getSimpleName() + " on routing key '" + envelope.getRoutingKey() + "'." );
+				AgentClient.this.messageProcessor.storeMessage( message );
+
+			} catch( IOException e ) {
+				AgentClient.this.logger.severe( AgentClient.this.rootInstanceName + ": a message could not be deserialized. I/O exception." );
+				AgentClient.this.logger.finest( Utils.writeException( e ));
+			}
+		}
 	}
 }
@@ -18,17 +18,25 @@ package net.roboconf.messaging.internal.client.rabbitmq;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
+import net.roboconf.core.model.helpers.InstanceHelpers;
 import net.roboconf.core.model.runtime.Application;
 import net.roboconf.core.model.runtime.Instance;
 import net.roboconf.core.utils.Utils;
 import net.roboconf.messaging.client.AbstractMessageProcessor;
 import net.roboconf.messaging.client.IDmClient;
+import net.roboconf.messaging.codec.IMessageCodec;
+import net.roboconf.messaging.codec.MessageCodecs;
 import net.roboconf.messaging.internal.utils.RabbitMqUtils;
-import net.roboconf.messaging.internal.utils.SerializationUtils;
 import net.roboconf.messaging.messages.Message;
+import net.roboconf.messaging.messages.MsgBatch;
 
 import com.rabbitmq.client.AMQP.BasicProperties;
 import com.rabbitmq.client.Channel;
@@ -46,6 +54,7 @@ public class DmClient implements IDmClient {
 	private String messageServerIp, username, password;
 
 	final Map<String,String> applicationNameToConsumerTag = new HashMap<String,String> ();
+	final ConcurrentHashMap<String,AgentCodecs> applicationNameToAgentCodecs = new ConcurrentHashMap<String,AgentCodecs> ();
 	Channel channel;
 	AbstractMessageProcessor messageProcessor;
 
@@ -109,10 +118,10 @@ public class DmClient implements IDmClient {
 
 				String messageType = "undetermined";
 				try {
-					Message msg = SerializationUtils.deserializeObject( body );
+					Message msg = RabbitMqUtils.decodeMessage( properties, body );
 					messageType = msg.getClass().getName();
 
-				} catch( ClassNotFoundException e ) {
+				} catch( IOException e ) {
 					DmClient.this.logger.severe( "Failed to deserialize a message object." );
 					DmClient.this.logger.finest( Utils.writeException( e ));
 				}
@@ -163,18 +172,55 @@ public class DmClient implements IDmClient {
 		String routingKey = RabbitMqUtils.buildRoutingKeyForAgent( instance );
 		this.logger.fine( "The DM sends a message to " + routingKey + ". Message type: " + message.getClass().getSimpleName());
 
+		// Use the codec the agent used to talk to us.
+		// If we never heard about it, it may be an old agent.
+		// Also tell the agent which codec it can use with the other agents.
+		AgentCodecs agentCodecs = findAgentCodecs( application );
+		String agentQueue = RabbitMqUtils.buildAgentQueueName( application.getName(), InstanceHelpers.findRootInstance( instance ).getName());
+		agentCodecs.addAgent( agentQueue );
+
+		IMessageCodec codec = agentCodecs.findCodec( agentQueue );
+		String agentsContentType = agentCodecs.findCodecForAllAgents().getContentType();
+
 		// We are requesting mandatory publication.
 		// It means we expect this message to reach at least one queue.
 		// If not, we want to be notified about it.
 		this.channel.basicPublish(
 				exchangeName, routingKey,
-				true, false, null,
-				SerializationUtils.serializeObject( message ));
+				true, false,
+				RabbitMqUtils.buildProperties( codec, null, agentsContentType ),
+				codec.encode( message ));
 
 		this.logger.fine( "The DM sent a message to " + routingKey + ". Message type: " + message.getClass().getSimpleName());
 	}
 
 
+	/* (non-Javadoc)
+	 * @see net.roboconf.messaging.client.IDmClient
+	 * #sendMessagesToAgent(net.roboconf.core.model.runtime.Application, net.roboconf.core.model.runtime.Instance, java.util.List)
+	 */
+	@Override
+	public void sendMessagesToAgent( Application application, Instance instance, List<Message> messages )
+	throws IOException {
+
+		// Agents that never advertised a codec may be old ones.
+		// They do not know about batches.
+		// Remove messages as they are sent, so that the caller only retries the others.
+		if( messages.size() == 1
+				|| findCodecForAgent( application, instance ) == MessageCodecs.getLegacyCodec()) {
+
+			for( Iterator<Message> it = messages.iterator(); it.hasNext(); ) {
+				sendMessageToAgent( application, instance, it.next());
+				it.remove();
+			}
+
+		} else if( ! messages.isEmpty()) {
+			sendMessageToAgent( application, instance, new MsgBatch( messages ));
+			messages.clear();
+		}
+	}
+
+
 	/* (non-Javadoc)
 	 * @see net.roboconf.messaging.client.IDmClient
 	 * #listenToAgentMessages(net.roboconf.core.model.runtime.Application, net.roboconf.messaging.client.IClient.ListenerCommand)
@@ -212,6 +258,7 @@ public class DmClient implements IDmClient {
 
 			// Start to listen to the queue
 			final QueueingConsumer consumer = new QueueingConsumer( this.channel );
+			final AgentCodecs agentCodecs = findAgentCodecs( application );
 			String consumerTag = this.channel.basicConsume( queueName, true, consumer );
 			this.applicationNameToConsumerTag.put( application.getName(), consumerTag );
 
@@ -227,7 +274,8 @@ public class DmClient implements IDmClient {
 				public void run() {
 					RabbitMqUtils.listenToRabbitMq(
 							"The DM", DmClient.this.logger,
-							consumer, DmClient.this.messageProcessor );
+							consumer, DmClient.this.messageProcessor,
+							agentCodecs );
 				};
 
 			}.start();
@@ -247,5 +295,139 @@ public class DmClient implements IDmClient {
 		this.channel.exchangeDelete( RabbitMqUtils.buildExchangeName( application, true ));
 		this.channel.exchangeDelete( RabbitMqUtils.buildExchangeName( application, false ));
 		// Queues are deleted automatically by RabbitMQ
+
+		// No agent is left
+		this.applicationNameToAgentCodecs.remove( application.getName());
+	}
+
+
+	/**
+	 * Finds the codec to use to send messages to a given agent.
+	 * @param application the application
+	 * @param instance an instance managed by the agent
+	 * @return a non-null codec
+	 */
+	IMessageCodec findCodecForAgent( Application application, Instance instance ) {
+		String agentQueue = RabbitMqUtils.buildAgentQueueName( application.getName(), InstanceHelpers.findRootInstance( instance ).getName());
+		return findAgentCodecs( application ).findCodec( agentQueue );
+	}
+
+
+	/**
+	 * Finds the codecs of the agents of a given application.
+	 * @param application the application
+	 * @return a non-null object, created if necessary
+	 */
+	AgentCodecs findAgentCodecs( Application application ) {
+
+		AgentCodecs result = this.applicationNameToAgentCodecs.get( application.getName());
+		if( result == null ) {
+			AgentCodecs newAgentCodecs = new AgentCodecs();
+			result = this.applicationNameToAgentCodecs.putIfAbsent( application.getName(), newAgentCodecs );
+			if( result == null )
+				result = newAgentCodecs;
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * The content types advertised by the agents of an application (key = agent queue, value = content type).
+	 * <p>
+	 * The DM listener stores the content types in it. Besides, it counts the agents that may not
+	 * support the preferred codec: old agents never advertise a content type, so any agent the DM
+	 * talked to without hearing from it is considered as an old one. Agents are forgotten when their
+	 * machine goes down. This way, sending a message does not require to go through the root instances.
+	 * </p>
+	 */
+	static class AgentCodecs extends ConcurrentHashMap<String,String> {
+
+		private static final long serialVersionUID = -1725934536203719463L;
+
+		// Guarded by "this"
+		private final Set<String> legacyAgents = new HashSet<String> ();
+		private volatile boolean allAgentsUsePreferredCodec = true;
+
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.util.concurrent.ConcurrentHashMap
+		 * #put(java.lang.Object, java.lang.Object)
+		 */
+		@Override
+		public synchronized String put( String agentQueue, String contentType ) {
+
+			String result = super.put( agentQueue, contentType );
+			if( MessageCodecs.findCodec( contentType ) == MessageCodecs.getPreferredCodec())
+				this.legacyAgents.remove( agentQueue );
+			else
+				this.legacyAgents.add( agentQueue );
+
+			this.allAgentsUsePreferredCodec = this.legacyAgents.isEmpty();
+			return result;
+		}
+
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.util.concurrent.ConcurrentHashMap
+		 * #remove(java.lang.Object)
+		 */
+		@Override
+		public synchronized String remove( Object agentQueue ) {
+
+			String result = super.remove( agentQueue );
+			this.legacyAgents.remove( agentQueue );
+			this.allAgentsUsePreferredCodec = this.legacyAgents.isEmpty();
+			return result;
+		}
+
+
+		/**
+		 * Registers an agent the DM is about to talk to.
+		 * <p>
+		 * If we never heard about it, it may be an old agent.
+		 * </p>
+		 *
+		 * @param agentQueue the agent queue
+		 */
+		void addAgent( String agentQueue ) {
+
+			// Most of the time, the agent is already known
+			if( ! containsKey( agentQueue )) {
+				synchronized( this ) {
+					if( ! containsKey( agentQueue ))
+						put( agentQueue, MessageCodecs.getLegacyCodec().getContentType());
+				}
+			}
+		}
+
+
+		/**
+		 * Finds the codec to use to send messages to a given agent.
+		 * @param agentQueue the agent queue
+		 * @return a non-null codec
+		 */
+		IMessageCodec findCodec( String agentQueue ) {
+
+			String contentType = get( agentQueue );
+			IMessageCodec codec = MessageCodecs.findCodec( contentType );
+			return codec != null ? codec : MessageCodecs.getLegacyCodec();
+		}
+
+
+		/**
+		 * Finds the codec all the agents support.
+		 * <p>
+		 * It is the preferred codec if every agent the DM knows advertised it.
+		 * Otherwise, some agents may be old ones.
+		 * </p>
+		 *
+		 * @return a non-null codec
+		 */
+		IMessageCodec findCodecForAllAgents() {
+			return this.allAgentsUsePreferredCodec ? MessageCodecs.getPreferredCodec() : MessageCodecs.getLegacyCodec();
+		}
 	}
 }
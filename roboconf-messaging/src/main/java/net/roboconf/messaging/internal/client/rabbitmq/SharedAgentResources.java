@@ -0,0 +1,213 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.messaging.internal.client.rabbitmq;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import net.roboconf.core.utils.Utils;
+import net.roboconf.messaging.internal.utils.RabbitMqUtils;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+
+/**
+ * Resources shared by several agent clients in a same JVM.
+ * <p>
+ * Agent clients that use the same messaging server and credentials share RabbitMQ
+ * connections. Every agent client gets its own channel. A connection hosts at most
+ * {@value #MAX_CHANNELS_PER_CONNECTION} channels, below RabbitMQ's default limit
+ * (channel_max = 2047). Extra agents are spread over new connections. Deliveries
+ * and message processing are handled by a same pool of threads.
+ * </p>
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ *
+ * @author Vincent Zurczak - Linagora
+ */
+public final class SharedAgentResources {
+
+	private final Logger logger = Logger.getLogger( getClass().getName());
+	static final int MAX_CHANNELS_PER_CONNECTION = 1000;
+
+	private final Map<String,List<SharedConnection>> keyToConnections = new HashMap<String,List<SharedConnection>> ();
+	private final ExecutorService executor;
+
+
+	/**
+	 * Constructor.
+	 * @param threadsCount the number of threads to process messages (at least 1)
+	 */
+	public SharedAgentResources( int threadsCount ) {
+
+		this.executor = Executors.newFixedThreadPool( Math.max( 1, threadsCount ), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread( Runnable r ) {
+				Thread result = new Thread( r, "Roboconf - Shared Agent Processor " + this.count.incrementAndGet());
+				result.setDaemon( true );
+				return result;
+			}
+		});
+	}
+
+
+	/**
+	 * Creates a channel on a shared connection to a messaging server.
+	 * <p>
+	 * A new connection is created if all the others are full.
+	 * </p>
+	 *
+	 * @param messageServerIp the IP of the messaging server
+	 * @param messageServerUsername the user name to connect to the messaging server
+	 * @param messageServerPassword the password to connect to the messaging server
+	 * @return a new channel
+	 * @throws IOException if the connection or the channel could not be created
+	 */
+	public synchronized Channel createChannel( String messageServerIp, String messageServerUsername, String messageServerPassword )
+	throws IOException {
+
+		String key = messageServerIp + "|" + messageServerUsername + "|" + messageServerPassword;
+		List<SharedConnection> connections = this.keyToConnections.get( key );
+		if( connections == null ) {
+			connections = new ArrayList<SharedConnection> ();
+			this.keyToConnections.put( key, connections );
+		}
+
+		// Forget closed connections and find one with room for a new channel
+		SharedConnection sharedConnection = null;
+		for( Iterator<SharedConnection> it = connections.iterator(); it.hasNext(); ) {
+			SharedConnection current = it.next();
+			if( ! current.connection.isOpen())
+				it.remove();
+			else if( sharedConnection == null
+					&& current.channelsCount.get() < MAX_CHANNELS_PER_CONNECTION )
+				sharedConnection = current;
+		}
+
+		if( sharedConnection == null ) {
+			ConnectionFactory factory = new ConnectionFactory();
+			RabbitMqUtils.configureFactory( factory, messageServerIp, messageServerUsername, messageServerPassword );
+			sharedConnection = new SharedConnection( factory.newConnection( this.executor ));
+			connections.add( sharedConnection );
+			this.logger.fine( "A new shared connection to RabbitMQ was created. Connection count: " + connections.size());
+		}
+
+		Channel channel = sharedConnection.connection.createChannel();
+		if( channel == null )
+			throw new IOException( "No more channel can be created on a shared connection to RabbitMQ." );
+
+		// Channels are counted without holding this object's lock: shutdown
+		// listeners may be invoked by the connection's thread.
+		final AtomicInteger channelsCount = sharedConnection.channelsCount;
+		channelsCount.incrementAndGet();
+		channel.addShutdownListener( new ShutdownListener() {
+			@Override
+			public void shutdownCompleted( ShutdownSignalException cause ) {
+				channelsCount.decrementAndGet();
+			}
+		});
+
+		return channel;
+	}
+
+
+	/**
+	 * @param messageServerIp the IP of the messaging server
+	 * @param messageServerUsername the user name to connect to the messaging server
+	 * @param messageServerPassword the password to connect to the messaging server
+	 * @return the number of open connections shared for these parameters
+	 */
+	synchronized int countConnections( String messageServerIp, String messageServerUsername, String messageServerPassword ) {
+
+		String key = messageServerIp + "|" + messageServerUsername + "|" + messageServerPassword;
+		List<SharedConnection> connections = this.keyToConnections.get( key );
+		int result = 0;
+		if( connections != null ) {
+			for( SharedConnection sharedConnection : connections ) {
+				if( sharedConnection.connection.isOpen())
+					result ++;
+			}
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * @return the executor that processes messages (not null)
+	 */
+	public ExecutorService getExecutor() {
+		return this.executor;
+	}
+
+
+	/**
+	 * Closes the shared connections and stops the threads.
+	 */
+	public synchronized void close() {
+
+		for( List<SharedConnection> connections : this.keyToConnections.values()) {
+			for( SharedConnection sharedConnection : connections ) {
+				try {
+					if( sharedConnection.connection.isOpen())
+						sharedConnection.connection.close();
+
+				} catch( IOException e ) {
+					this.logger.warning( "A shared connection to RabbitMQ could not be closed. " + e.getMessage());
+					this.logger.finest( Utils.writeException( e ));
+				}
+			}
+		}
+
+		this.keyToConnections.clear();
+		this.executor.shutdown();
+	}
+
+
+	/**
+	 * A shared connection and the number of channels open on it.
+	 */
+	private static final class SharedConnection {
+
+		final Connection connection;
+		final AtomicInteger channelsCount = new AtomicInteger();
+
+
+		/**
+		 * Constructor.
+		 * @param connection the connection
+		 */
+		SharedConnection( Connection connection ) {
+			this.connection = connection;
+		}
+	}
+}
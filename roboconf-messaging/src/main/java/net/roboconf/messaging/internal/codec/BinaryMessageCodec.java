@@ -0,0 +1,626 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.messaging.internal.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.roboconf.core.model.runtime.Graphs;
+import net.roboconf.core.model.runtime.Import;
+import net.roboconf.core.model.runtime.Instance.InstanceStatus;
+import net.roboconf.messaging.codec.IMessageCodec;
+import net.roboconf.messaging.internal.utils.SerializationUtils;
+import net.roboconf.messaging.messages.InstanceDescriptor;
+import net.roboconf.messaging.messages.Message;
+import net.roboconf.messaging.messages.MsgBatch;
+import net.roboconf.messaging.messages.from_agent_to_agent.MsgCmdImportAdd;
+import net.roboconf.messaging.messages.from_agent_to_agent.MsgCmdImportRemove;
+import net.roboconf.messaging.messages.from_agent_to_agent.MsgCmdImportRequest;
+import net.roboconf.messaging.messages.from_agent_to_dm.MsgNotifHeartbeat;
+import net.roboconf.messaging.messages.from_agent_to_dm.MsgNotifInstanceChanged;
+import net.roboconf.messaging.messages.from_agent_to_dm.MsgNotifInstanceRemoved;
+import net.roboconf.messaging.messages.from_agent_to_dm.MsgNotifMachineDown;
+import net.roboconf.messaging.messages.from_agent_to_dm.MsgNotifMachineUp;
+import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdAgentRebind;
+import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceAdd;
+import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceDeploy;
+import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceRemove;
+import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceRestore;
+import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceStart;
+import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceStop;
+import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceUndeploy;
+
+/**
+ * A compact binary codec for Roboconf messages.
+ * <p>
+ * Every message starts with a magic byte, a format version and a tag
+ * that identifies the message type. Then, the message fields are written in a fixed
+ * order. No class descriptor is written. Lengths are written as variable-length integers.
+ * </p>
+ * <p>
+ * Message types this codec does not know are written with Java serialization,
+ * behind a specific tag. This way, every message can be sent with this codec.
+ * </p>
+ *
+ * @author Vincent Zurczak - Linagora
+ */
+public class BinaryMessageCodec implements IMessageCodec {
+
+	public static final String CONTENT_TYPE = "application/x-roboconf-binary";
+
+	static final byte MAGIC = 0x52;
+	static final byte VERSION = 1;
+
+	static final byte TAG_JAVA_SERIALIZED = 0;
+
+	static final byte TAG_HEARTBEAT = 1;
+	static final byte TAG_MACHINE_UP = 2;
+	static final byte TAG_MACHINE_DOWN = 3;
+	static final byte TAG_INSTANCE_CHANGED = 4;
+	static final byte TAG_INSTANCE_REMOVED = 5;
+
+	static final byte TAG_IMPORT_ADD = 10;
+	static final byte TAG_IMPORT_REMOVE = 11;
+	static final byte TAG_IMPORT_REQUEST = 12;
+
+	static final byte TAG_INSTANCE_ADD = 20;
+	static final byte TAG_INSTANCE_DEPLOY = 21;
+	static final byte TAG_INSTANCE_REMOVE = 22;
+	static final byte TAG_INSTANCE_RESTORE = 23;
+	static final byte TAG_INSTANCE_START = 24;
+	static final byte TAG_INSTANCE_STOP = 25;
+	static final byte TAG_INSTANCE_UNDEPLOY = 26;
+	static final byte TAG_AGENT_REBIND = 27;
+
+	static final byte TAG_BATCH = 30;
+
+	private static final String CHARSET = "UTF-8";
+
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see net.roboconf.messaging.codec.IMessageCodec#getContentType()
+	 */
+	@Override
+	public String getContentType() {
+		return CONTENT_TYPE;
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see net.roboconf.messaging.codec.IMessageCodec
+	 * #encode(net.roboconf.messaging.messages.Message)
+	 */
+	@Override
+	public byte[] encode( Message message ) throws IOException {
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream( 64 );
+		DataOutputStream out = new DataOutputStream( os );
+		out.writeByte( MAGIC );
+		out.writeByte( VERSION );
+		writeMessage( out, message );
+
+		out.flush();
+		return os.toByteArray();
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see net.roboconf.messaging.codec.IMessageCodec#decode(byte[])
+	 */
+	@Override
+	public Message decode( byte[] bytes ) throws IOException {
+
+		DataInputStream in = new DataInputStream( new ByteArrayInputStream( bytes ));
+		if( in.readByte() != MAGIC )
+			throw new IOException( "Invalid binary message. The magic byte did not match." );
+
+		byte version = in.readByte();
+		if( version != VERSION )
+			throw new IOException( "Unsupported binary message version: " + version + "." );
+
+		return readMessage( in );
+	}
+
+
+	/**
+	 * Writes a message (tag and fields).
+	 * @param out the output stream
+	 * @param message the message to write
+	 * @throws IOException
+	 */
+	static void writeMessage( DataOutputStream out, Message message ) throws IOException {
+
+		// Envelopes
+		if( message instanceof MsgBatch ) {
+			MsgBatch msg = (MsgBatch) message;
+			out.writeByte( TAG_BATCH );
+			writeVarInt( out, msg.getMessages().size());
+			for( Message m : msg.getMessages())
+				writeMessage( out, m );
+		}
+
+		// From agents to the DM
+		else if( message instanceof MsgNotifHeartbeat ) {
+			MsgNotifHeartbeat msg = (MsgNotifHeartbeat) message;
+			out.writeByte( TAG_HEARTBEAT );
+			writeString( out, msg.getApplicationName());
+			writeString( out, msg.getRootInstanceName());
+
+		} else if( message instanceof MsgNotifMachineUp ) {
+			MsgNotifMachineUp msg = (MsgNotifMachineUp) message;
+			out.writeByte( TAG_MACHINE_UP );
+			writeString( out, msg.getApplicationName());
+			writeString( out, msg.getRootInstanceName());
+			writeString( out, msg.getIpAddress());
+
+		} else if( message instanceof MsgNotifMachineDown ) {
+			MsgNotifMachineDown msg = (MsgNotifMachineDown) message;
+			out.writeByte( TAG_MACHINE_DOWN );
+			writeString( out, msg.getApplicationName());
+			writeString( out, msg.getRootInstanceName());
+
+		} else if( message instanceof MsgNotifInstanceChanged ) {
+			MsgNotifInstanceChanged msg = (MsgNotifInstanceChanged) message;
+			out.writeByte( TAG_INSTANCE_CHANGED );
+			writeString( out, msg.getApplicationName());
+			writeString( out, msg.getInstancePath());
+			writeString( out, msg.getNewStatus() == null ? null : msg.getNewStatus().toString());
+			writeImports( out, msg.getNewImports());
+
+		} else if( message instanceof MsgNotifInstanceRemoved ) {
+			MsgNotifInstanceRemoved msg = (MsgNotifInstanceRemoved) message;
+			out.writeByte( TAG_INSTANCE_REMOVED );
+			writeString( out, msg.getApplicationName());
+			writeString( out, msg.getInstancePath());
+		}
+
+		// From agents to agents
+		else if( message instanceof MsgCmdImportAdd ) {
+			MsgCmdImportAdd msg = (MsgCmdImportAdd) message;
+			out.writeByte( TAG_IMPORT_ADD );
+			writeString( out, msg.getComponentOrFacetName());
+			writeString( out, msg.getAddedInstancePath());
+			writeStringMap( out, msg.getExportedVariables());
+
+		} else if( message instanceof MsgCmdImportRemove ) {
+			MsgCmdImportRemove msg = (MsgCmdImportRemove) message;
+			out.writeByte( TAG_IMPORT_REMOVE );
+			writeString( out, msg.getComponentOrFacetName());
+			writeString( out, msg.getRemovedInstancePath());
+
+		} else if( message instanceof MsgCmdImportRequest ) {
+			MsgCmdImportRequest msg = (MsgCmdImportRequest) message;
+			out.writeByte( TAG_IMPORT_REQUEST );
+			writeString( out, msg.getComponentOrFacetName());
+		}
+
+		// From the DM to agents
+		else if( message instanceof MsgCmdInstanceAdd ) {
+			// Graphs are rarely sent (only with root instances), they are delegated to Java serialization.
+			MsgCmdInstanceAdd msg = (MsgCmdInstanceAdd) message;
+			out.writeByte( TAG_INSTANCE_ADD );
+			writeString( out, msg.getParentInstancePath());
+			writeInstanceDescriptor( out, msg.getInstanceDescriptor());
+			writeBytes( out, msg.getGraphs() == null ? null : SerializationUtils.serializeObject( msg.getGraphs()));
+
+		} else if( message instanceof MsgCmdInstanceDeploy ) {
+			MsgCmdInstanceDeploy msg = (MsgCmdInstanceDeploy) message;
+			out.writeByte( TAG_INSTANCE_DEPLOY );
+			writeString( out, msg.getInstancePath());
+			writeBytesMap( out, msg.getFileNameToFileContent());
+
+		} else if( message instanceof MsgCmdInstanceRemove ) {
+			out.writeByte( TAG_INSTANCE_REMOVE );
+			writeString( out, ((MsgCmdInstanceRemove) message).getInstancePath());
+
+		} else if( message instanceof MsgCmdInstanceRestore ) {
+			out.writeByte( TAG_INSTANCE_RESTORE );
+
+		} else if( message instanceof MsgCmdInstanceStart ) {
+			out.writeByte( TAG_INSTANCE_START );
+			writeString( out, ((MsgCmdInstanceStart) message).getInstancePath());
+
+		} else if( message instanceof MsgCmdInstanceStop ) {
+			out.writeByte( TAG_INSTANCE_STOP );
+			writeString( out, ((MsgCmdInstanceStop) message).getInstancePath());
+
+		} else if( message instanceof MsgCmdInstanceUndeploy ) {
+			out.writeByte( TAG_INSTANCE_UNDEPLOY );
+			writeString( out, ((MsgCmdInstanceUndeploy) message).getInstancePath());
+
+		} else if( message instanceof MsgCmdAgentRebind ) {
+			out.writeByte( TAG_AGENT_REBIND );
+			writeString( out, ((MsgCmdAgentRebind) message).getRootInstanceName());
+		}
+
+		// Unknown messages
+		else {
+			out.writeByte( TAG_JAVA_SERIALIZED );
+			writeBytes( out, SerializationUtils.serializeObject( message ));
+		}
+	}
+
+
+	/**
+	 * Reads a message (tag and fields).
+	 * @param in the input stream
+	 * @return the message (not null)
+	 * @throws IOException if the message could not be read
+	 */
+	static Message readMessage( DataInputStream in ) throws IOException {
+
+		Message result;
+		byte tag = in.readByte();
+		switch( tag ) {
+
+		case TAG_BATCH:
+			int count = checkLength( in, readVarInt( in ));
+			List<Message> messages = new ArrayList<Message>( count );
+			for( int i=0; i<count; i++ )
+				messages.add( readMessage( in ));
+
+			result = new MsgBatch( messages );
+			break;
+
+		case TAG_HEARTBEAT:
+			result = new MsgNotifHeartbeat( readString( in ), readString( in ));
+			break;
+
+		case TAG_MACHINE_UP:
+			result = new MsgNotifMachineUp( readString( in ), readString( in ), readString( in ));
+			break;
+
+		case TAG_MACHINE_DOWN:
+			result = new MsgNotifMachineDown( readString( in ), readString( in ));
+			break;
+
+		case TAG_INSTANCE_CHANGED:
+			String applicationName = readString( in );
+			String instancePath = readString( in );
+			String status = readString( in );
+			result = new MsgNotifInstanceChanged(
+					applicationName, instancePath,
+					readImports( in ),
+					status == null ? null : InstanceStatus.wichStatus( status ));
+			break;
+
+		case TAG_INSTANCE_REMOVED:
+			result = new MsgNotifInstanceRemoved( readString( in ), readString( in ));
+			break;
+
+		case TAG_IMPORT_ADD:
+			result = new MsgCmdImportAdd( readString( in ), readString( in ), readStringMap( in ));
+			break;
+
+		case TAG_IMPORT_REMOVE:
+			result = new MsgCmdImportRemove( readString( in ), readString( in ));
+			break;
+
+		case TAG_IMPORT_REQUEST:
+			result = new MsgCmdImportRequest( readString( in ));
+			break;
+
+		case TAG_INSTANCE_ADD:
+			String parentInstancePath = readString( in );
+			InstanceDescriptor instanceDescriptor = readInstanceDescriptor( in );
+			byte[] graphsBytes = readBytes( in );
+			result = new MsgCmdInstanceAdd(
+					parentInstancePath, instanceDescriptor,
+					graphsBytes == null ? null : deserialize( graphsBytes, Graphs.class ));
+			break;
+
+		case TAG_INSTANCE_DEPLOY:
+			result = new MsgCmdInstanceDeploy( readString( in ), readBytesMap( in ));
+			break;
+
+		case TAG_INSTANCE_REMOVE:
+			result = new MsgCmdInstanceRemove( readString( in ));
+			break;
+
+		case TAG_INSTANCE_RESTORE:
+			result = new MsgCmdInstanceRestore();
+			break;
+
+		case TAG_INSTANCE_START:
+			result = new MsgCmdInstanceStart( readString( in ));
+			break;
+
+		case TAG_INSTANCE_STOP:
+			result = new MsgCmdInstanceStop( readString( in ));
+			break;
+
+		case TAG_INSTANCE_UNDEPLOY:
+			result = new MsgCmdInstanceUndeploy( readString( in ));
+			break;
+
+		case TAG_AGENT_REBIND:
+			result = new MsgCmdAgentRebind( readString( in ));
+			break;
+
+		case TAG_JAVA_SERIALIZED:
+			result = deserialize( readBytes( in ), Message.class );
+			break;
+
+		default:
+			throw new IOException( "Unknown message tag: " + tag + "." );
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Writes a positive integer on 1 to 5 bytes.
+	 * @param out the output stream
+	 * @param value a positive integer
+	 * @throws IOException
+	 */
+	static void writeVarInt( DataOutputStream out, int value ) throws IOException {
+
+		int v = value;
+		while(( v & ~0x7F ) != 0 ) {
+			out.writeByte(( v & 0x7F ) | 0x80 );
+			v >>>= 7;
+		}
+
+		out.writeByte( v );
+	}
+
+
+	/**
+	 * Reads a positive integer written by {@link #writeVarInt(DataOutputStream, int)}.
+	 * @param in the input stream
+	 * @return a positive integer
+	 * @throws IOException
+	 */
+	static int readVarInt( DataInputStream in ) throws IOException {
+
+		int result = 0;
+		for( int shift = 0; shift < 35; shift += 7 ) {
+			int b = in.readUnsignedByte();
+			result |= ( b & 0x7F ) << shift;
+			if(( b & 0x80 ) == 0 && result >= 0 )
+				return result;
+		}
+
+		throw new IOException( "Malformed variable-length integer." );
+	}
+
+
+	/**
+	 * Verifies a length (or a number of elements) read in the input stream.
+	 * <p>
+	 * Every byte or element takes at least one byte in the stream. A length
+	 * greater than the number of remaining bytes comes from a corrupted message.
+	 * It is rejected before anything is allocated.
+	 * </p>
+	 *
+	 * @param in the input stream
+	 * @param length the length to verify
+	 * @return the length
+	 * @throws IOException if the length exceeds the remaining bytes
+	 */
+	static int checkLength( DataInputStream in, int length ) throws IOException {
+
+		int remaining = in.available();
+		if( length > remaining )
+			throw new IOException( "Invalid length: " + length + " (only " + remaining + " remaining bytes)." );
+
+		return length;
+	}
+
+
+	/**
+	 * Writes an array of bytes.
+	 * <p>
+	 * The length is shifted by one, so that 0 means null.
+	 * </p>
+	 */
+	static void writeBytes( DataOutputStream out, byte[] bytes ) throws IOException {
+
+		if( bytes == null ) {
+			writeVarInt( out, 0 );
+
+		} else {
+			writeVarInt( out, bytes.length + 1 );
+			out.write( bytes );
+		}
+	}
+
+
+	static byte[] readBytes( DataInputStream in ) throws IOException {
+
+		byte[] result = null;
+		int length = checkLength( in, readVarInt( in ) - 1 );
+		if( length >= 0 ) {
+			result = new byte[ length ];
+			in.readFully( result );
+		}
+
+		return result;
+	}
+
+
+	static void writeString( DataOutputStream out, String s ) throws IOException {
+		writeBytes( out, s == null ? null : s.getBytes( CHARSET ));
+	}
+
+
+	static String readString( DataInputStream in ) throws IOException {
+		byte[] bytes = readBytes( in );
+		return bytes == null ? null : new String( bytes, CHARSET );
+	}
+
+
+	static void writeStringMap( DataOutputStream out, Map<String,String> map ) throws IOException {
+
+		writeVarInt( out, map == null ? 0 : map.size() + 1 );
+		if( map != null ) {
+			for( Map.Entry<String,String> entry : map.entrySet()) {
+				writeString( out, entry.getKey());
+				writeString( out, entry.getValue());
+			}
+		}
+	}
+
+
+	static Map<String,String> readStringMap( DataInputStream in ) throws IOException {
+
+		Map<String,String> result = null;
+		int size = checkLength( in, readVarInt( in ) - 1 );
+		if( size >= 0 ) {
+			result = new HashMap<String,String>( size );
+			for( int i=0; i<size; i++ )
+				result.put( readString( in ), readString( in ));
+		}
+
+		return result;
+	}
+
+
+	static void writeBytesMap( DataOutputStream out, Map<String,byte[]> map ) throws IOException {
+
+		writeVarInt( out, map == null ? 0 : map.size() + 1 );
+		if( map != null ) {
+			for( Map.Entry<String,byte[]> entry : map.entrySet()) {
+				writeString( out, entry.getKey());
+				writeBytes( out, entry.getValue());
+			}
+		}
+	}
+
+
+	static Map<String,byte[]> readBytesMap( DataInputStream in ) throws IOException {
+
+		Map<String,byte[]> result = null;
+		int size = checkLength( in, readVarInt( in ) - 1 );
+		if( size >= 0 ) {
+			result = new HashMap<String,byte[]>( size );
+			for( int i=0; i<size; i++ )
+				result.put( readString( in ), readBytes( in ));
+		}
+
+		return result;
+	}
+
+
+	static void writeImports( DataOutputStream out, Map<String,Collection<Import>> imports ) throws IOException {
+
+		writeVarInt( out, imports == null ? 0 : imports.size() + 1 );
+		if( imports != null ) {
+			for( Map.Entry<String,Collection<Import>> entry : imports.entrySet()) {
+				writeString( out, entry.getKey());
+
+				Collection<Import> values = entry.getValue();
+				writeVarInt( out, values == null ? 0 : values.size() + 1 );
+				if( values == null )
+					continue;
+
+				for( Import imp : values ) {
+					writeString( out, imp.getInstancePath());
+					writeStringMap( out, imp.getExportedVars());
+				}
+			}
+		}
+	}
+
+
+	static Map<String,Collection<Import>> readImports( DataInputStream in ) throws IOException {
+
+		Map<String,Collection<Import>> result = null;
+		int size = checkLength( in, readVarInt( in ) - 1 );
+		if( size >= 0 ) {
+			result = new HashMap<String,Collection<Import>>( size );
+			for( int i=0; i<size; i++ ) {
+				String prefix = readString( in );
+				int count = checkLength( in, readVarInt( in ) - 1 );
+
+				Collection<Import> values = null;
+				if( count >= 0 ) {
+					values = new ArrayList<Import>( count );
+					for( int j=0; j<count; j++ )
+						values.add( new Import( readString( in ), readStringMap( in )));
+				}
+
+				result.put( prefix, values );
+			}
+		}
+
+		return result;
+	}
+
+
+	static void writeInstanceDescriptor( DataOutputStream out, InstanceDescriptor descriptor ) throws IOException {
+
+		out.writeBoolean( descriptor != null );
+		if( descriptor != null ) {
+			writeString( out, descriptor.getName());
+			writeString( out, descriptor.getComponentName());
+			writeString( out, descriptor.getChannel());
+			writeStringMap( out, descriptor.getOverriddenExports());
+
+			writeVarInt( out, descriptor.getChildren().size());
+			for( InstanceDescriptor child : descriptor.getChildren())
+				writeInstanceDescriptor( out, child );
+		}
+	}
+
+
+	static InstanceDescriptor readInstanceDescriptor( DataInputStream in ) throws IOException {
+
+		InstanceDescriptor result = null;
+		if( in.readBoolean()) {
+			String name = readString( in );
+			String componentName = readString( in );
+			String channel = readString( in );
+			Map<String,String> overriddenExports = readStringMap( in );
+
+			int count = checkLength( in, readVarInt( in ));
+			List<InstanceDescriptor> children = new ArrayList<InstanceDescriptor>( count );
+			for( int i=0; i<count; i++ )
+				children.add( readInstanceDescriptor( in ));
+
+			result = new InstanceDescriptor( name, componentName, channel, overriddenExports, children );
+		}
+
+		return result;
+	}
+
+
+	private static <T extends Serializable> T deserialize( byte[] bytes, Class<T> clazz ) throws IOException {
+
+		try {
+			return SerializationUtils.deserializeObject( bytes, clazz );
+
+		} catch( ClassNotFoundException e ) {
+			throw new IOException( "A message could not be deserialized. Class not found.", e );
+		}
+	}
+}
@@ -18,6 +18,7 @@ package net.roboconf.messaging.internal.utils;
 
 import java.io.IOException;
 import java.util.AbstractMap;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -28,8 +29,12 @@ import net.roboconf.core.model.runtime.Application;
 import net.roboconf.core.model.runtime.Instance;
 import net.roboconf.core.utils.Utils;
 import net.roboconf.messaging.client.AbstractMessageProcessor;
+import net.roboconf.messaging.codec.IMessageCodec;
+import net.roboconf.messaging.codec.MessageCodecs;
 import net.roboconf.messaging.messages.Message;
+import net.roboconf.messaging.messages.from_agent_to_dm.MsgNotifMachineDown;
 
+import com.rabbitmq.client.AMQP.BasicProperties;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.ConnectionFactory;
 import com.rabbitmq.client.ConsumerCancelledException;
@@ -41,6 +46,23 @@ import com.rabbitmq.client.ShutdownSignalException;
  */
 public final class RabbitMqUtils {
 
+	/**
+	 * The header in which agents put their queue name.
+	 * <p>
+	 * It allows the DM to know which codec an agent supports.
+	 * </p>
+	 */
+	public static final String HEADER_SENDER = "roboconf.sender";
+
+	/**
+	 * The header in which the DM puts the content type that all the agents of an application support.
+	 * <p>
+	 * Agents use it to encode the messages they send to other agents.
+	 * </p>
+	 */
+	public static final String HEADER_AGENTS_CONTENT_TYPE = "roboconf.agents.content-type";
+
+
 	/**
 	 * Constructor.
 	 */
@@ -71,6 +93,17 @@ public final class RabbitMqUtils {
 	}
 
 
+	/**
+	 * Builds the name of an agent's queue.
+	 * @param applicationName the application name
+	 * @param rootInstanceName the name of the root instance associated with the agent
+	 * @return a non-null string
+	 */
+	public static String buildAgentQueueName( String applicationName, String rootInstanceName ) {
+		return applicationName + "." + rootInstanceName;
+	}
+
+
 	/**
 	 * Builds the routing key for an agent.
 	 * @param instance an instance managed by the agent
@@ -178,6 +211,75 @@ public final class RabbitMqUtils {
 	}
 
 
+	/**
+	 * Builds the properties of a message to publish.
+	 * @param codec the codec used to encode the message
+	 * @param sender the sender's queue name (can be null)
+	 * @return non-null properties
+	 */
+	public static BasicProperties buildProperties( IMessageCodec codec, String sender ) {
+		return buildProperties( codec, sender, null );
+	}
+
+
+	/**
+	 * Builds the properties of a message to publish.
+	 * @param codec the codec used to encode the message
+	 * @param sender the sender's queue name (can be null)
+	 * @param agentsContentType the content type all the agents of the application support (can be null)
+	 * @return non-null properties
+	 */
+	public static BasicProperties buildProperties( IMessageCodec codec, String sender, String agentsContentType ) {
+
+		BasicProperties.Builder builder = new BasicProperties.Builder().contentType( codec.getContentType());
+		Map<String,Object> headers = new HashMap<String,Object>( 2 );
+		if( sender != null )
+			headers.put( HEADER_SENDER, sender );
+
+		if( agentsContentType != null )
+			headers.put( HEADER_AGENTS_CONTENT_TYPE, agentsContentType );
+
+		if( ! headers.isEmpty())
+			builder.headers( headers );
+
+		return builder.build();
+	}
+
+
+	/**
+	 * Finds the value of a header.
+	 * @param properties the message properties (can be null)
+	 * @param headerName the header name
+	 * @return the header value, or null if it was not set
+	 */
+	public static String findHeader( BasicProperties properties, String headerName ) {
+
+		Object value = null;
+		if( properties != null && properties.getHeaders() != null )
+			value = properties.getHeaders().get( headerName );
+
+		return value == null ? null : String.valueOf( value );
+	}
+
+
+	/**
+	 * Decodes a message with the codec associated with its content type.
+	 * @param properties the message properties (can be null)
+	 * @param body the message body
+	 * @return a non-null message
+	 * @throws IOException if the content type is not supported or if the message could not be decoded
+	 */
+	public static Message decodeMessage( BasicProperties properties, byte[] body ) throws IOException {
+
+		String contentType = properties == null ? null : properties.getContentType();
+		IMessageCodec codec = MessageCodecs.findCodec( contentType );
+		if( codec == null )
+			throw new IOException( "Unsupported content type: " + contentType );
+
+		return codec.decode( body );
+	}
+
+
 	/**
 	 * Listens to RabbitMQ messages.
 	 * <p>
@@ -191,6 +293,30 @@ public final class RabbitMqUtils {
 	 * @param messageProcessor the message processor
 	 */
 	public static void listenToRabbitMq( String sourceName, Logger logger, QueueingConsumer consumer, AbstractMessageProcessor messageProcessor ) {
+		listenToRabbitMq( sourceName, logger, consumer, messageProcessor, null );
+	}
+
+
+	/**
+	 * Listens to RabbitMQ messages.
+	 * <p>
+	 * Be careful, this method aims at avoiding duplicate code. It starts an
+	 * (almost) infinite loop and should be used with caution.
+	 * </p>
+	 *
+	 * @param sourceName the source name (DM, agent name...)
+	 * @param logger the logger
+	 * @param consumer the RabbitMQ consumer
+	 * @param messageProcessor the message processor
+	 * @param senderToContentType a map to store the content type used by every sender (can be null,
+	 * agents are removed from it when their machine goes down)
+	 */
+	public static void listenToRabbitMq(
+			String sourceName,
+			Logger logger,
+			QueueingConsumer consumer,
+			AbstractMessageProcessor messageProcessor,
+			Map<String,String> senderToContentType ) {
 
 		// We listen to messages until the consumer is cancelled
 		logger.fine( sourceName + " starts listening to new messages." );
@@ -198,7 +324,23 @@ public final class RabbitMqUtils {
 
 			try {
 				QueueingConsumer.Delivery delivery = consumer.nextDelivery();
-				Message message = SerializationUtils.deserializeObject( delivery.getBody());
+				BasicProperties properties = delivery.getProperties();
+				Message message = decodeMessage( properties, delivery.getBody());
+
+				// Remember which codec this sender supports.
+				// An agent whose machine is down does not count anymore.
+				String sender;
+				if( senderToContentType != null
+						&& message instanceof MsgNotifMachineDown ) {
+					MsgNotifMachineDown msg = (MsgNotifMachineDown) message;
+					senderToContentType.remove( buildAgentQueueName( msg.getApplicationName(), msg.getRootInstanceName()));
+
+				} else if( senderToContentType != null
+						&& properties != null
+						&& properties.getContentType() != null
+						&& ( sender = findHeader( properties, HEADER_SENDER )) != null ) {
+					senderToContentType.put( sender, properties.getContentType());
+				}
 
 				StringBuilder sb = new StringBuilder();
 				sb.append( sourceName );
@@ -224,11 +366,7 @@ public final class RabbitMqUtils {
 				logger.finest( Utils.writeException( e ));
 				break;
 
-			} catch( ClassNotFoundException e ) {
-				logger.severe( sourceName + ": a message could not be deserialized. Class cast exception." );
-				logger.finest( Utils.writeException( e ));
-
-			}  catch( IOException e ) {
+			} catch( IOException e ) {
 				logger.severe( sourceName + ": a message could not be deserialized. I/O exception." );
 				logger.finest( Utils.writeException( e ));
 			}
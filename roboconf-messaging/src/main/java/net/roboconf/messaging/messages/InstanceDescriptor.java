@@ -0,0 +1,204 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.messaging.messages;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.roboconf.core.model.helpers.ComponentHelpers;
+import net.roboconf.core.model.helpers.InstanceHelpers;
+import net.roboconf.core.model.runtime.Component;
+import net.roboconf.core.model.runtime.Graphs;
+import net.roboconf.core.model.runtime.Instance;
+
+/**
+ * A lightweight and immutable description of an instance (and of its children).
+ * <p>
+ * Unlike {@link Instance}, it does not reference components. Only their names
+ * are kept. Agents rebuild instances from descriptors and the graph they cached.
+ * This way, the whole component graph is not sent every time an instance is added.
+ * </p>
+ *
+ * @author Vincent Zurczak - Linagora
+ */
+public final class InstanceDescriptor implements Serializable {
+
+	private static final long serialVersionUID = -2416593717392563093L;
+
+	private final String name, componentName, channel;
+	private final Map<String,String> overriddenExports;
+	private final List<InstanceDescriptor> children;
+
+
+	/**
+	 * Constructor.
+	 * @param name the instance name
+	 * @param componentName the component name (can be null)
+	 * @param channel the channel (can be null)
+	 * @param overriddenExports the overridden exports (can be null)
+	 * @param children the child descriptors (can be null)
+	 */
+	public InstanceDescriptor(
+			String name,
+			String componentName,
+			String channel,
+			Map<String,String> overriddenExports,
+			List<InstanceDescriptor> children ) {
+
+		this.name = name;
+		this.componentName = componentName;
+		this.channel = channel;
+
+		this.overriddenExports = overriddenExports == null || overriddenExports.isEmpty()
+				? Collections.<String,String>emptyMap()
+				: Collections.unmodifiableMap( new HashMap<String,String>( overriddenExports ));
+
+		this.children = children == null || children.isEmpty()
+				? Collections.<InstanceDescriptor>emptyList()
+				: Collections.unmodifiableList( new ArrayList<InstanceDescriptor>( children ));
+	}
+
+
+	/**
+	 * Builds a descriptor from an instance.
+	 * @param instance an instance (can be null)
+	 * @return a descriptor for the instance and its children, or null if the instance was null
+	 */
+	public static InstanceDescriptor fromInstance( Instance instance ) {
+
+		InstanceDescriptor result = null;
+		if( instance != null ) {
+			List<InstanceDescriptor> children = new ArrayList<InstanceDescriptor>( instance.getChildren().size());
+			for( Instance child : instance.getChildren())
+				children.add( fromInstance( child ));
+
+			result = new InstanceDescriptor(
+					instance.getName(),
+					instance.getComponent() == null ? null : instance.getComponent().getName(),
+					instance.getChannel(),
+					instance.getOverriddenExports(),
+					children );
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Rebuilds an instance (and its children) from this descriptor.
+	 * @param graphs the graph(s) the components must be searched in (not null)
+	 * @return a new instance, or null if a component could not be found in the graph(s)
+	 */
+	public Instance toInstance( Graphs graphs ) {
+
+		Component component = null;
+		if( this.componentName != null
+				&& ( component = ComponentHelpers.findComponent( graphs, this.componentName )) == null )
+			return null;
+
+		Instance result = new Instance( this.name ).component( component ).channel( this.channel );
+		result.getOverriddenExports().putAll( this.overriddenExports );
+		for( InstanceDescriptor childDescriptor : this.children ) {
+			Instance child = childDescriptor.toInstance( graphs );
+			if( child == null )
+				return null;
+
+			InstanceHelpers.insertChild( result, child );
+		}
+
+		return result;
+	}
+
+
+	@Override
+	public boolean equals( Object obj ) {
+
+		if( this == obj )
+			return true;
+
+		if( obj == null || getClass() != obj.getClass())
+			return false;
+
+		InstanceDescriptor other = (InstanceDescriptor) obj;
+		return equals( this.name, other.name )
+				&& equals( this.componentName, other.componentName )
+				&& equals( this.channel, other.channel )
+				&& this.overriddenExports.equals( other.overriddenExports )
+				&& this.children.equals( other.children );
+	}
+
+
+	@Override
+	public int hashCode() {
+		return this.name == null ? 17 : this.name.hashCode();
+	}
+
+
+	@Override
+	public String toString() {
+		return this.name;
+	}
+
+
+	private static boolean equals( String s1, String s2 ) {
+		return s1 == null ? s2 == null : s1.equals( s2 );
+	}
+
+
+	/**
+	 * @return the name
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+
+	/**
+	 * @return the component name (can be null)
+	 */
+	public String getComponentName() {
+		return this.componentName;
+	}
+
+
+	/**
+	 * @return the channel (can be null)
+	 */
+	public String getChannel() {
+		return this.channel;
+	}
+
+
+	/**
+	 * @return the overridden exports (not null, read-only)
+	 */
+	public Map<String,String> getOverriddenExports() {
+		return this.overriddenExports;
+	}
+
+
+	/**
+	 * @return the child descriptors (not null, read-only)
+	 */
+	public List<InstanceDescriptor> getChildren() {
+		return this.children;
+	}
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.messaging.messages;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An envelope that groups several messages sent to a same recipient.
+ * <p>
+ * Recipients must process the messages in the order they were added.
+ * Batches cannot be nested.
+ * </p>
+ *
+ * @author Vincent Zurczak - Linagora
+ */
+public class MsgBatch extends Message {
+
+	private static final long serialVersionUID = -6425862283512418953L;
+	private final List<Message> messages;
+
+
+	/**
+	 * Constructor.
+	 * @param messages the messages to group (not null)
+	 */
+	public MsgBatch( List<Message> messages ) {
+		super();
+		for( Message msg : messages ) {
+			if( msg instanceof MsgBatch )
+				throw new IllegalArgumentException( "Batches cannot be nested." );
+		}
+
+		this.messages = Collections.unmodifiableList( new ArrayList<Message>( messages ));
+	}
+
+
+	/**
+	 * @return the grouped messages, in order (not null, read-only)
+	 */
+	public List<Message> getMessages() {
+		return this.messages;
+	}
+}
@@ -51,6 +51,26 @@ public class MsgNotifInstanceChanged extends Message {
 		this.applicationName = applicationName;
 	}
 
+	/**
+	 * Constructor.
+	 * @param applicationName the application name
+	 * @param instancePath the instance path
+	 * @param newImports the new imports
+	 * @param newStatus the new status
+	 */
+	public MsgNotifInstanceChanged(
+			String applicationName,
+			String instancePath,
+			Map<String,Collection<Import>> newImports,
+			InstanceStatus newStatus ) {
+
+		super();
+		this.instancePath = instancePath;
+		this.newImports = newImports;
+		this.newStatus = newStatus;
+		this.applicationName = applicationName;
+	}
+
 	/**
 	 * @return the applicationName
 	 */
@@ -36,8 +36,17 @@ public class MsgNotifInstanceRemoved extends Message {
 	 * @param componentInstance
 	 */
 	public MsgNotifInstanceRemoved( String applicationName, Instance instance ) {
+		this( applicationName, InstanceHelpers.computeInstancePath( instance ));
+	}
+
+	/**
+	 * Constructor.
+	 * @param applicationName
+	 * @param instancePath
+	 */
+	public MsgNotifInstanceRemoved( String applicationName, String instancePath ) {
 		super();
-		this.instancePath = InstanceHelpers.computeInstancePath( instance );
+		this.instancePath = instancePath;
 		this.applicationName = applicationName;
 	}
 
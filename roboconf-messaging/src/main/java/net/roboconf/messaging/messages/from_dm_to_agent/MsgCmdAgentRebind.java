@@ -0,0 +1,50 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.messaging.messages.from_dm_to_agent;
+
+import net.roboconf.messaging.messages.Message;
+
+/**
+ * Associates a standby agent with a root instance.
+ * <p>
+ * The agent then listens to the DM under this new root instance name.
+ * </p>
+ *
+ * @author Vincent Zurczak - Linagora
+ */
+public class MsgCmdAgentRebind extends Message {
+
+	private static final long serialVersionUID = -4270513268370412745L;
+	private final String rootInstanceName;
+
+
+	/**
+	 * Constructor.
+	 * @param rootInstanceName the name of the root instance the agent is now associated with
+	 */
+	public MsgCmdAgentRebind( String rootInstanceName ) {
+		super();
+		this.rootInstanceName = rootInstanceName;
+	}
+
+	/**
+	 * @return the rootInstanceName
+	 */
+	public String getRootInstanceName() {
+		return this.rootInstanceName;
+	}
+}
@@ -17,27 +17,48 @@
 package net.roboconf.messaging.messages.from_dm_to_agent;
 
 import net.roboconf.core.model.helpers.InstanceHelpers;
+import net.roboconf.core.model.runtime.Graphs;
 import net.roboconf.core.model.runtime.Instance;
+import net.roboconf.messaging.messages.InstanceDescriptor;
 import net.roboconf.messaging.messages.Message;
 
 /**
+ * A message to add an instance on an agent.
+ * <p>
+ * The instance is sent as a {@link InstanceDescriptor}. Components are not sent.
+ * The graph(s) are only sent along with the root instance, which is the first
+ * instance an agent receives. Agents cache them to rebuild the next instances.
+ * </p>
+ *
  * @author Noël - LIG
  */
 public class MsgCmdInstanceAdd extends Message {
 
 	private static final long serialVersionUID = 411037586577734609L;
-	private final Instance instanceToAdd;
+	private final InstanceDescriptor instanceDescriptor;
 	private final String parentInstancePath;
+	private final Graphs graphs;
 
 	/**
 	 * Constructor.
-	 * @param instanceToAdd
 	 * @param parentInstancePath
+	 * @param instanceDescriptor
+	 * @param graphs
 	 */
-	public MsgCmdInstanceAdd( String parentInstancePath, Instance instanceToAdd ) {
+	public MsgCmdInstanceAdd( String parentInstancePath, InstanceDescriptor instanceDescriptor, Graphs graphs ) {
 		super();
-		this.instanceToAdd = instanceToAdd;
+		this.instanceDescriptor = instanceDescriptor;
 		this.parentInstancePath = parentInstancePath;
+		this.graphs = graphs;
+	}
+
+	/**
+	 * Constructor.
+	 * @param parentInstancePath
+	 * @param instanceToAdd
+	 */
+	public MsgCmdInstanceAdd( String parentInstancePath, Instance instanceToAdd ) {
+		this( parentInstancePath, InstanceDescriptor.fromInstance( instanceToAdd ), null );
 	}
 
 	/**
@@ -50,10 +71,19 @@ public class MsgCmdInstanceAdd extends Message {
 	}
 
 	/**
-	 * @return the instance to add
+	 * Constructor for root instances.
+	 * @param graphs the application's graph(s)
+	 * @param rootInstance the root instance to add
+	 */
+	public MsgCmdInstanceAdd( Graphs graphs, Instance rootInstance ) {
+		this((String) null, InstanceDescriptor.fromInstance( rootInstance ), graphs );
+	}
+
+	/**
+	 * @return the descriptor of the instance to add
 	 */
-	public Instance getInstanceToAdd() {
-		return this.instanceToAdd;
+	public InstanceDescriptor getInstanceDescriptor() {
+		return this.instanceDescriptor;
 	}
 
 	/**
@@ -62,4 +92,11 @@ public class MsgCmdInstanceAdd extends Message {
 	public String getParentInstancePath() {
 		return this.parentInstancePath;
 	}
+
+	/**
+	 * @return the graph(s), only set for root instances (can be null)
+	 */
+	public Graphs getGraphs() {
+		return this.graphs;
+	}
 }
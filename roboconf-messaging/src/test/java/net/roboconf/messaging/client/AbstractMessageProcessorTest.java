@@ -16,8 +16,17 @@
 
 package net.roboconf.messaging.client;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import junit.framework.Assert;
 import net.roboconf.messaging.messages.Message;
+import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdAgentRebind;
 
 import org.junit.Test;
 
@@ -38,4 +47,98 @@ public class AbstractMessageProcessorTest {
 
 		Assert.assertEquals( "yo", processor.getName());
 	}
+
+
+	@Test
+	public void testStartOn_sharedExecutor() throws Exception {
+
+		final int processorsCount = 20, messagesCount = 200;
+		List<OrderedProcessor> processors = new ArrayList<OrderedProcessor> ();
+
+		ExecutorService executor = Executors.newFixedThreadPool( 3 );
+		try {
+			for( int i=0; i<processorsCount; i++ ) {
+				OrderedProcessor processor = new OrderedProcessor();
+				processor.startOn( executor );
+				processors.add( processor );
+			}
+
+			for( int j=0; j<messagesCount; j++ ) {
+				for( OrderedProcessor processor : processors )
+					processor.storeMessage( new MsgCmdAgentRebind( String.valueOf( j )));
+			}
+
+			for( int i=0; i<50; i++ ) {
+				boolean done = true;
+				for( OrderedProcessor processor : processors )
+					done &= processor.processed.size() == messagesCount;
+
+				if( done )
+					break;
+
+				Thread.sleep( 100 );
+			}
+
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination( 5, TimeUnit.SECONDS );
+		}
+
+		for( OrderedProcessor processor : processors ) {
+			Assert.assertFalse( processor.isAlive());
+			Assert.assertEquals( messagesCount, processor.processed.size());
+			Assert.assertFalse( processor.overlap );
+			for( int j=0; j<messagesCount; j++ )
+				Assert.assertEquals( String.valueOf( j ), processor.processed.get( j ));
+		}
+	}
+
+
+	@Test
+	public void testStopProcessing_sharedExecutor() throws Exception {
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			OrderedProcessor processor = new OrderedProcessor();
+			processor.startOn( executor );
+			Assert.assertTrue( processor.isRunning());
+
+			processor.storeMessage( new MsgCmdAgentRebind( "0" ));
+			Thread.sleep( 200 );
+			Assert.assertEquals( 1, processor.processed.size());
+
+			processor.stopProcessing();
+			Assert.assertFalse( processor.isRunning());
+
+			processor.storeMessage( new MsgCmdAgentRebind( "1" ));
+			Thread.sleep( 200 );
+			Assert.assertEquals( 1, processor.processed.size());
+
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+
+	/**
+	 * A processor that records the messages it processed.
+	 */
+	private static class OrderedProcessor extends AbstractMessageProcessor {
+
+		final List<String> processed = Collections.synchronizedList( new ArrayList<String> ());
+		final AtomicInteger inProgress = new AtomicInteger();
+		volatile boolean overlap = false;
+
+
+		@Override
+		protected void processMessage( Message message ) {
+
+			if( this.inProgress.incrementAndGet() > 1 )
+				this.overlap = true;
+
+			this.processed.add(((MsgCmdAgentRebind) message).getRootInstanceName());
+
+			this.inProgress.decrementAndGet();
+		}
+	}
 }
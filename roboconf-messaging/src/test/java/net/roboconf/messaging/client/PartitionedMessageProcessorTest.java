@@ -0,0 +1,139 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.messaging.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+import net.roboconf.messaging.messages.Message;
+import net.roboconf.messaging.messages.from_agent_to_dm.MsgNotifHeartbeat;
+
+import org.junit.Test;
+
+/**
+ * @author Vincent Zurczak - Linagora
+ */
+public class PartitionedMessageProcessorTest {
+
+	@Test
+	public void testOrderIsKeptPerPartition() throws Exception {
+
+		final int messagesPerKey = 200;
+		final String[] keys = { "app1/vm1", "app1/vm2", "app2/vm1", "app3/vm" };
+		final CountDownLatch latch = new CountDownLatch( messagesPerKey * keys.length );
+		final Map<String,List<String>> keyToReceivedNames = new HashMap<String,List<String>> ();
+		for( String key : keys )
+			keyToReceivedNames.put( key, Collections.synchronizedList( new ArrayList<String> ()));
+
+		PartitionedMessageProcessor processor = new PartitionedMessageProcessor( "test", 3 ) {
+			@Override
+			protected String findPartitionKey( Message message ) {
+				return ((MsgNotifHeartbeat) message).getApplicationName();
+			}
+
+			@Override
+			protected void processMessage( Message message ) {
+				MsgNotifHeartbeat msg = (MsgNotifHeartbeat) message;
+				keyToReceivedNames.get( msg.getApplicationName()).add( msg.getRootInstanceName());
+				latch.countDown();
+			}
+		};
+
+		Assert.assertEquals( 3, processor.getLaneCount());
+		processor.start();
+		try {
+			for( int i=0; i<messagesPerKey; i++ ) {
+				for( String key : keys )
+					processor.storeMessage( new MsgNotifHeartbeat( key, String.valueOf( i )));
+			}
+
+			Assert.assertTrue( latch.await( 10, TimeUnit.SECONDS ));
+			for( String key : keys ) {
+				List<String> names = keyToReceivedNames.get( key );
+				Assert.assertEquals( messagesPerKey, names.size());
+				for( int i=0; i<messagesPerKey; i++ )
+					Assert.assertEquals( String.valueOf( i ), names.get( i ));
+			}
+
+			// Counters are updated right after the processing
+			for( int i=0; i<100 && processor.getProcessedMessagesCount() < messagesPerKey * keys.length; i++ )
+				Thread.sleep( 50 );
+
+			Assert.assertEquals( messagesPerKey * keys.length, processor.getProcessedMessagesCount());
+
+		} finally {
+			processor.interrupt();
+		}
+	}
+
+
+	@Test
+	public void testLaneAssignment() {
+
+		PartitionedMessageProcessor processor = new PartitionedMessageProcessor( "test", 4 ) {
+			@Override
+			protected String findPartitionKey( Message message ) {
+				return ((MsgNotifHeartbeat) message).getApplicationName();
+			}
+
+			@Override
+			protected void processMessage( Message message ) {
+				// nothing
+			}
+		};
+
+		// Same key, same lane
+		int index = processor.findLaneIndex( new MsgNotifHeartbeat( "app/vm", "1" ));
+		Assert.assertEquals( index, processor.findLaneIndex( new MsgNotifHeartbeat( "app/vm", "2" )));
+		Assert.assertTrue( index >= 0 && index < 4 );
+
+		// Null keys are supported
+		Assert.assertEquals( 0, processor.findLaneIndex( new MsgNotifHeartbeat( null, "1" )));
+
+		// Messages wait in their lane until it is started
+		processor.dispatchMessage( new MsgNotifHeartbeat( "app/vm", "3" ));
+		int[] depths = processor.getLaneQueueDepths();
+		Assert.assertEquals( 4, depths.length );
+		for( int i=0; i<depths.length; i++ )
+			Assert.assertEquals( i == index ? 1 : 0, depths[ i ]);
+	}
+
+
+	@Test
+	public void testAtLeastOneLane() {
+
+		PartitionedMessageProcessor processor = new PartitionedMessageProcessor( "test", 0 ) {
+			@Override
+			protected String findPartitionKey( Message message ) {
+				return null;
+			}
+
+			@Override
+			protected void processMessage( Message message ) {
+				// nothing
+			}
+		};
+
+		Assert.assertEquals( 1, processor.getLaneCount());
+	}
+}
@@ -59,14 +59,14 @@ public abstract class MessagingTestUtils {
 
 	/**
 	 * Tests synchronous exchanges between the DM and an agent.
+	 * @param factory the factory for messaging clients
 	 * @throws Exception
 	 */
-	public static void testExchangesBetweenTheDmAndOneAgent() throws Exception {
+	public static void testExchangesBetweenTheDmAndOneAgent( MessageServerClientFactory factory ) throws Exception {
 
 		// Initialize everything
 		Application app = new Application( "app" );
 		Instance rootInstance = new Instance( "root" );
-		MessageServerClientFactory factory = new MessageServerClientFactory();
 
 		IDmClient dmClient = factory.createDmClient();
 		dmClient.setParameters( URL, USER, PWD );
@@ -154,9 +154,10 @@ public abstract class MessagingTestUtils {
 	 * This is about messages routing.
 	 * </p>
 	 *
+	 * @param factory the factory for messaging clients
 	 * @throws Exception
 	 */
-	public static void testExchangesBetweenTheDmAndThreeAgents() throws Exception {
+	public static void testExchangesBetweenTheDmAndThreeAgents( MessageServerClientFactory factory ) throws Exception {
 
 		// Initialize everything
 		// 1 DM, 2 agents (root1 and root2) for application app1 and 1 agent (root) for app2.
@@ -165,7 +166,6 @@ public abstract class MessagingTestUtils {
 		Instance app1_root1 = new Instance( "root1" );
 		Instance app1_root2 = new Instance( "root2" );
 		Instance app2_root = new Instance( "root" );
-		MessageServerClientFactory factory = new MessageServerClientFactory();
 
 		IDmClient dmClient = factory.createDmClient();
 		dmClient.setParameters( URL, USER, PWD );
@@ -243,9 +243,10 @@ public abstract class MessagingTestUtils {
 
 	/**
 	 * Makes sure exports are exchanged correctly between agents.
+	 * @param factory the factory for messaging clients
 	 * @throws Exception
 	 */
-	public static void testExportsBetweenAgents() throws Exception {
+	public static void testExportsBetweenAgents( MessageServerClientFactory factory ) throws Exception {
 
 		// 3 agents (tomcat, mysql, apache) for application app1 and 1 agent (root) for app2.
 		// This last one should not receive anything!
@@ -281,7 +282,6 @@ public abstract class MessagingTestUtils {
 		Instance other = new Instance( "other" ).component( otherComponent );
 
 		// Initialize the messaging
-		MessageServerClientFactory factory = new MessageServerClientFactory();
 
 		IAgentClient tomcatClient = factory.createAgentClient();
 		tomcatClient.setApplicationName( app1.getName());
@@ -426,9 +426,10 @@ public abstract class MessagingTestUtils {
 
 	/**
 	 * Makes sure exports requests are exchanged correctly between agents.
+	 * @param factory the factory for messaging clients
 	 * @throws Exception
 	 */
-	public static void testExportsRequestsBetweenAgents() throws Exception {
+	public static void testExportsRequestsBetweenAgents( MessageServerClientFactory factory ) throws Exception {
 
 		// 3 agents (tomcat, mysql, apache) for application app1 and 1 agent (root) for app2.
 		// This last one should not receive anything!
@@ -464,7 +465,6 @@ public abstract class MessagingTestUtils {
 		Instance other = new Instance( "other" ).component( otherComponent );
 
 		// Initialize the messaging
-		MessageServerClientFactory factory = new MessageServerClientFactory();
 
 		IAgentClient tomcatClient = factory.createAgentClient();
 		tomcatClient.setApplicationName( app1.getName());
@@ -548,9 +548,10 @@ public abstract class MessagingTestUtils {
 
 	/**
 	 * Tests exchanges between sibling agents and several variable groups.
+	 * @param factory the factory for messaging clients
 	 * @throws Exception
 	 */
-	public static void testExportsBetweenSiblingAgents() throws Exception {
+	public static void testExportsBetweenSiblingAgents( MessageServerClientFactory factory ) throws Exception {
 
 		// The model
 		Application app = new Application( "app" );
@@ -568,7 +569,6 @@ public abstract class MessagingTestUtils {
 		Instance instance2 = new Instance( "instance2" ).component( component );
 
 		// Initialize the messaging
-		MessageServerClientFactory factory = new MessageServerClientFactory();
 
 		IAgentClient instanceClient1 = factory.createAgentClient();
 		instanceClient1.setApplicationName( app.getName());
@@ -0,0 +1,143 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.messaging.internal.client.loopback;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import junit.framework.Assert;
+import net.roboconf.messaging.client.AbstractMessageProcessor;
+import net.roboconf.messaging.internal.utils.RabbitMqUtils;
+import net.roboconf.messaging.messages.Message;
+import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdAgentRebind;
+
+import org.junit.Test;
+
+/**
+ * @author Vincent Zurczak - Linagora
+ */
+public class LoopbackBrokerTest {
+
+	@Test
+	public void testMatches() {
+
+		Assert.assertTrue( LoopbackBroker.matches( "machine.root", "machine.root" ));
+		Assert.assertFalse( LoopbackBroker.matches( "machine.root", "machine.root2" ));
+		Assert.assertFalse( LoopbackBroker.matches( "machine.root", "machine" ));
+
+		Assert.assertTrue( LoopbackBroker.matches( "machine.*", "machine.root" ));
+		Assert.assertFalse( LoopbackBroker.matches( "machine.*", "machine.root.child" ));
+		Assert.assertFalse( LoopbackBroker.matches( "machine.*", "machine" ));
+
+		Assert.assertTrue( LoopbackBroker.matches( "those.#", "those.that.export.db" ));
+		Assert.assertTrue( LoopbackBroker.matches( "those.#", "those" ));
+		Assert.assertTrue( LoopbackBroker.matches( "#.db", "those.that.export.db" ));
+		Assert.assertTrue( LoopbackBroker.matches( "#", "" ));
+		Assert.assertTrue( LoopbackBroker.matches( "those.*.export.#", "those.that.export.db" ));
+		Assert.assertFalse( LoopbackBroker.matches( "those.*.import.#", "those.that.export.db" ));
+	}
+
+
+	@Test
+	public void testRouting() throws Exception {
+
+		LoopbackBroker broker = new LoopbackBroker();
+		broker.declareApplicationExchanges( "app" );
+		String dmExchange = RabbitMqUtils.buildExchangeName( "app", true );
+		String agentsExchange = RabbitMqUtils.buildExchangeName( "app", false );
+
+		RecordingProcessor p1 = new RecordingProcessor();
+		RecordingProcessor p2 = new RecordingProcessor();
+		broker.consume( "q1", p1 );
+		broker.consume( "q2", p2 );
+		Assert.assertEquals( 2, broker.getConsumedQueuesCount());
+
+		// Fanout: binding keys are ignored
+		broker.bind( "q1", dmExchange, "whatever" );
+		broker.bind( "q2", dmExchange, "" );
+		Assert.assertEquals( 2, broker.publish( dmExchange, "other", new MsgCmdAgentRebind( "a" )));
+
+		// Topic
+		broker.bind( "q1", agentsExchange, "machine.root" );
+		broker.bind( "q2", agentsExchange, "machine.*" );
+		Assert.assertEquals( 2, broker.publish( agentsExchange, "machine.root", new MsgCmdAgentRebind( "b" )));
+		Assert.assertEquals( 1, broker.publish( agentsExchange, "machine.root2", new MsgCmdAgentRebind( "c" )));
+		Assert.assertEquals( 0, broker.publish( agentsExchange, "those.that.export.db", new MsgCmdAgentRebind( "d" )));
+
+		broker.unbind( "q2", agentsExchange, "machine.*" );
+		Assert.assertEquals( 0, broker.publish( agentsExchange, "machine.root2", new MsgCmdAgentRebind( "e" )));
+
+		// Messages are stored as is
+		Assert.assertEquals( 2, p1.receivedMessages.size());
+		Assert.assertEquals( 3, p2.receivedMessages.size());
+		Assert.assertEquals( "c", ((MsgCmdAgentRebind) p2.receivedMessages.get( 2 )).getRootInstanceName());
+
+		// Cancelling a queue removes its bindings
+		broker.cancel( "q1" );
+		Assert.assertEquals( 1, broker.getConsumedQueuesCount());
+		Assert.assertEquals( 1, broker.publish( dmExchange, "", new MsgCmdAgentRebind( "f" )));
+
+		broker.consume( "q1", p1 );
+		Assert.assertEquals( 0, broker.publish( agentsExchange, "machine.root", new MsgCmdAgentRebind( "g" )));
+	}
+
+
+	@Test( expected = IOException.class )
+	public void testPublish_inexistingExchange() throws Exception {
+
+		LoopbackBroker broker = new LoopbackBroker();
+		broker.declareApplicationExchanges( "app" );
+		Assert.assertTrue( broker.hasExchange( RabbitMqUtils.buildExchangeName( "app", false )));
+
+		broker.deleteExchange( RabbitMqUtils.buildExchangeName( "app", false ));
+		Assert.assertFalse( broker.hasExchange( RabbitMqUtils.buildExchangeName( "app", false )));
+		broker.publish( RabbitMqUtils.buildExchangeName( "app", false ), "machine.root", new MsgCmdAgentRebind( "a" ));
+	}
+
+
+	@Test( expected = IOException.class )
+	public void testConsume_alreadyConsumed() throws Exception {
+
+		LoopbackBroker broker = new LoopbackBroker();
+		broker.consume( "q1", new RecordingProcessor());
+		broker.consume( "q1", new RecordingProcessor());
+	}
+
+
+	/**
+	 * A processor that records messages as soon as they are stored.
+	 */
+	private static class RecordingProcessor extends AbstractMessageProcessor {
+		final List<Message> receivedMessages = new ArrayList<Message> ();
+
+		RecordingProcessor() {
+			startOn( new Executor() {
+				@Override
+				public void execute( Runnable command ) {
+					command.run();
+				}
+			});
+		}
+
+		@Override
+		protected void processMessage( Message message ) {
+			this.receivedMessages.add( message );
+		}
+	}
+}
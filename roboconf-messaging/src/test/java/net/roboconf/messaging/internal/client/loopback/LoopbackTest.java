@@ -0,0 +1,58 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.messaging.internal.client.loopback;
+
+import net.roboconf.messaging.client.LoopbackMessageServerClientFactory;
+import net.roboconf.messaging.internal.MessagingTestUtils;
+
+import org.junit.Test;
+
+/**
+ * The same tests than with RabbitMQ, but without any messaging server.
+ * @author Vincent Zurczak - Linagora
+ */
+public class LoopbackTest {
+
+	@Test
+	public void testExchangesBetweenTheDmAndOneAgent() throws Exception {
+		MessagingTestUtils.testExchangesBetweenTheDmAndOneAgent( new LoopbackMessageServerClientFactory());
+	}
+
+
+	@Test
+	public void testExchangesBetweenTheDmAndThreeAgents() throws Exception {
+		MessagingTestUtils.testExchangesBetweenTheDmAndThreeAgents( new LoopbackMessageServerClientFactory());
+	}
+
+
+	@Test
+	public void testExportsBetweenAgents() throws Exception {
+		MessagingTestUtils.testExportsBetweenAgents( new LoopbackMessageServerClientFactory());
+	}
+
+
+	@Test
+	public void testExportsRequestsBetweenAgents() throws Exception {
+		MessagingTestUtils.testExportsRequestsBetweenAgents( new LoopbackMessageServerClientFactory());
+	}
+
+
+	@Test
+	public void testExportsBetweenSiblingAgents() throws Exception {
+		MessagingTestUtils.testExportsBetweenSiblingAgents( new LoopbackMessageServerClientFactory());
+	}
+}
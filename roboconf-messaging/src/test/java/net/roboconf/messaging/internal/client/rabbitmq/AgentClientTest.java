@@ -16,10 +16,26 @@
 
 package net.roboconf.messaging.internal.client.rabbitmq;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import junit.framework.Assert;
+import net.roboconf.core.model.helpers.InstanceHelpers;
+import net.roboconf.core.model.runtime.Component;
+import net.roboconf.core.model.runtime.Instance;
+import net.roboconf.messaging.client.IClient.ListenerCommand;
 import net.roboconf.messaging.internal.AbstractRabbitMqTest;
 import net.roboconf.messaging.client.AbstractMessageProcessor;
+import net.roboconf.messaging.codec.MessageCodecs;
 import net.roboconf.messaging.internal.MessagingTestUtils.StorageMessageProcessor;
+import net.roboconf.messaging.internal.codec.BinaryMessageCodec;
+import net.roboconf.messaging.internal.utils.RabbitMqUtils;
+import net.roboconf.messaging.messages.from_agent_to_dm.MsgNotifInstanceChanged;
 
 import org.junit.Assume;
 import org.junit.Test;
@@ -75,4 +91,112 @@ public class AgentClientTest extends AbstractRabbitMqTest {
 		Assert.assertNull( agentClient.messageProcessor );
 		agentClient.closeConnection();
 	}
+
+
+	@Test
+	public void testUpdateAgentsCodec() {
+
+		// Other agents may be old ones
+		AgentClient agentClient = new AgentClient();
+		Assert.assertEquals( MessageCodecs.getLegacyCodec(), agentClient.agentsCodec );
+		Assert.assertEquals( MessageCodecs.getPreferredCodec(), agentClient.codec );
+
+		// Messages without the header do not change anything
+		agentClient.updateAgentsCodec( null );
+		agentClient.updateAgentsCodec( RabbitMqUtils.buildProperties( MessageCodecs.getPreferredCodec(), "app.other" ));
+		Assert.assertEquals( MessageCodecs.getLegacyCodec(), agentClient.agentsCodec );
+
+		// The DM says all the agents support the binary codec
+		agentClient.updateAgentsCodec( RabbitMqUtils.buildProperties( MessageCodecs.getPreferredCodec(), null, BinaryMessageCodec.CONTENT_TYPE ));
+		Assert.assertEquals( BinaryMessageCodec.class, agentClient.agentsCodec.getClass());
+
+		// Unknown codecs are ignored
+		agentClient.updateAgentsCodec( RabbitMqUtils.buildProperties( MessageCodecs.getPreferredCodec(), null, "application/unknown" ));
+		Assert.assertEquals( BinaryMessageCodec.class, agentClient.agentsCodec.getClass());
+
+		// An old agent joined the application
+		agentClient.updateAgentsCodec( RabbitMqUtils.buildProperties( MessageCodecs.getLegacyCodec(), null, MessageCodecs.getLegacyCodec().getContentType()));
+		Assert.assertEquals( MessageCodecs.getLegacyCodec(), agentClient.agentsCodec );
+	}
+
+
+	@Test( timeout = 20000 )
+	public void testConcurrentSiblingStartsDoNotShareTheChannel() throws Exception {
+
+		// A channel that detects concurrent invocations
+		final AtomicInteger inProgress = new AtomicInteger();
+		final AtomicInteger maxInProgress = new AtomicInteger();
+		final AtomicInteger invocations = new AtomicInteger();
+		InvocationHandler handler = new InvocationHandler() {
+			@Override
+			public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+
+				if( "isOpen".equals( method.getName()))
+					return Boolean.TRUE;
+
+				invocations.incrementAndGet();
+				int current = inProgress.incrementAndGet();
+				synchronized( maxInProgress ) {
+					maxInProgress.set( Math.max( current, maxInProgress.get()));
+				}
+
+				Thread.sleep( 5 );
+				inProgress.decrementAndGet();
+				return null;
+			}
+		};
+
+		final AgentClient agentClient = new AgentClient();
+		agentClient.setApplicationName( "app" );
+		agentClient.setRootInstanceName( "vm" );
+		agentClient.channel = (Channel) Proxy.newProxyInstance(
+				getClass().getClassLoader(),
+				new Class<?>[] { Channel.class },
+				handler );
+
+		// Two sibling instances are started at the same time
+		Component serverComponent = new Component( "server" );
+		serverComponent.getExportedVariables().put( "server.port", "8080" );
+		Instance vm = new Instance( "vm" ).component( new Component( "vm" ));
+		final Instance server1 = new Instance( "server 1" ).component( serverComponent );
+		final Instance server2 = new Instance( "server 2" ).component( serverComponent );
+		InstanceHelpers.insertChild( vm, server1 );
+		InstanceHelpers.insertChild( vm, server2 );
+
+		final int loops = 20;
+		final CountDownLatch startGate = new CountDownLatch( 1 );
+		final List<Throwable> errors = new ArrayList<Throwable> ();
+		List<Thread> threads = new ArrayList<Thread> ();
+		for( final Instance instance : new Instance[] { server1, server2 }) {
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						startGate.await();
+						for( int i=0; i<loops; i++ ) {
+							agentClient.listenToRequestsFromOtherAgents( ListenerCommand.START, instance );
+							agentClient.publishExports( instance );
+							agentClient.sendMessageToTheDm( new MsgNotifInstanceChanged( "app", instance ));
+						}
+
+					} catch( Throwable t ) {
+						synchronized( errors ) {
+							errors.add( t );
+						}
+					}
+				}
+			};
+
+			threads.add( thread );
+			thread.start();
+		}
+
+		startGate.countDown();
+		for( Thread thread : threads )
+			thread.join();
+
+		Assert.assertEquals( 0, errors.size());
+		Assert.assertEquals( 2 * loops * 3, invocations.get());
+		Assert.assertEquals( 1, maxInProgress.get());
+	}
 }
@@ -17,10 +17,14 @@
 package net.roboconf.messaging.internal.client.rabbitmq;
 
 import junit.framework.Assert;
+import net.roboconf.core.model.helpers.InstanceHelpers;
 import net.roboconf.core.model.runtime.Application;
+import net.roboconf.core.model.runtime.Instance;
 import net.roboconf.messaging.internal.AbstractRabbitMqTest;
 import net.roboconf.messaging.client.AbstractMessageProcessor;
 import net.roboconf.messaging.client.IClient.ListenerCommand;
+import net.roboconf.messaging.codec.MessageCodecs;
+import net.roboconf.messaging.internal.codec.BinaryMessageCodec;
 import net.roboconf.messaging.internal.MessagingTestUtils.StorageMessageProcessor;
 
 import org.junit.Assume;
@@ -87,4 +91,72 @@ public class DmClientTest extends AbstractRabbitMqTest {
 		Assert.assertNull( dmClient.messageProcessor );
 		dmClient.closeConnection();
 	}
+
+
+	@Test
+	public void testFindCodecForAgent() {
+
+		DmClient dmClient = new DmClient();
+		Application app = new Application( "app" );
+		Instance rootInstance = new Instance( "root" );
+		Instance childInstance = new Instance( "child" );
+		InstanceHelpers.insertChild( rootInstance, childInstance );
+
+		// Never heard about this agent => legacy codec
+		Assert.assertEquals( MessageCodecs.getLegacyCodec(), dmClient.findCodecForAgent( app, rootInstance ));
+		Assert.assertEquals( MessageCodecs.getLegacyCodec(), dmClient.findCodecForAgent( app, childInstance ));
+
+		// The agent sent us binary messages
+		dmClient.findAgentCodecs( app ).put( "app.root", BinaryMessageCodec.CONTENT_TYPE );
+		Assert.assertEquals( BinaryMessageCodec.class, dmClient.findCodecForAgent( app, rootInstance ).getClass());
+		Assert.assertEquals( BinaryMessageCodec.class, dmClient.findCodecForAgent( app, childInstance ).getClass());
+		Assert.assertEquals( MessageCodecs.getLegacyCodec(), dmClient.findCodecForAgent( new Application( "app2" ), rootInstance ));
+
+		// Unknown content type => legacy codec
+		dmClient.findAgentCodecs( app ).put( "app.root", "application/unknown" );
+		Assert.assertEquals( MessageCodecs.getLegacyCodec(), dmClient.findCodecForAgent( app, rootInstance ));
+	}
+
+
+	@Test
+	public void testFindCodecForAllAgents() {
+
+		DmClient dmClient = new DmClient();
+		Application app = new Application( "app" );
+		DmClient.AgentCodecs agentCodecs = dmClient.findAgentCodecs( app );
+		Assert.assertSame( agentCodecs, dmClient.findAgentCodecs( app ));
+
+		// No agent yet
+		Assert.assertEquals( MessageCodecs.getPreferredCodec(), agentCodecs.findCodecForAllAgents());
+
+		// An agent we never heard about may be an old one
+		agentCodecs.addAgent( "app.root1" );
+		Assert.assertEquals( MessageCodecs.getLegacyCodec(), agentCodecs.findCodecForAllAgents());
+
+		agentCodecs.put( "app.root1", BinaryMessageCodec.CONTENT_TYPE );
+		Assert.assertEquals( MessageCodecs.getPreferredCodec(), agentCodecs.findCodecForAllAgents());
+
+		// Known agents are not reset
+		agentCodecs.addAgent( "app.root1" );
+		Assert.assertEquals( MessageCodecs.getPreferredCodec(), agentCodecs.findCodecForAllAgents());
+
+		// Another agent only knows about Java serialization
+		agentCodecs.put( "app.root2", MessageCodecs.getLegacyCodec().getContentType());
+		Assert.assertEquals( MessageCodecs.getLegacyCodec(), agentCodecs.findCodecForAllAgents());
+
+		agentCodecs.put( "app.root2", BinaryMessageCodec.CONTENT_TYPE );
+		Assert.assertEquals( MessageCodecs.getPreferredCodec(), agentCodecs.findCodecForAllAgents());
+
+		// An old agent whose machine went down does not count anymore
+		agentCodecs.put( "app.root3", "application/unknown" );
+		Assert.assertEquals( MessageCodecs.getLegacyCodec(), agentCodecs.findCodecForAllAgents());
+
+		agentCodecs.remove( "app.root3" );
+		Assert.assertEquals( MessageCodecs.getPreferredCodec(), agentCodecs.findCodecForAllAgents());
+
+		// Other applications are not impacted
+		dmClient.findAgentCodecs( new Application( "app2" )).addAgent( "app2.root1" );
+		Assert.assertEquals( MessageCodecs.getPreferredCodec(), agentCodecs.findCodecForAllAgents());
+		Assert.assertEquals( MessageCodecs.getLegacyCodec(), dmClient.findAgentCodecs( new Application( "app2" )).findCodecForAllAgents());
+	}
 }
@@ -16,6 +16,7 @@
 
 package net.roboconf.messaging.internal.client.rabbitmq;
 
+import net.roboconf.messaging.client.MessageServerClientFactory;
 import net.roboconf.messaging.internal.AbstractRabbitMqTest;
 import net.roboconf.messaging.internal.MessagingTestUtils;
 
@@ -30,34 +31,34 @@ public class RabbitMqTest extends AbstractRabbitMqTest {
 	@Test
 	public void testExchangesBetweenTheDmAndOneAgent() throws Exception {
 		Assume.assumeTrue( this.rabbitMqIsRunning );
-		MessagingTestUtils.testExchangesBetweenTheDmAndOneAgent();
+		MessagingTestUtils.testExchangesBetweenTheDmAndOneAgent( new MessageServerClientFactory());
 	}
 
 
 	@Test
 	public void testExchangesBetweenTheDmAndThreeAgents() throws Exception {
 		Assume.assumeTrue( this.rabbitMqIsRunning );
-		MessagingTestUtils.testExchangesBetweenTheDmAndThreeAgents();
+		MessagingTestUtils.testExchangesBetweenTheDmAndThreeAgents( new MessageServerClientFactory());
 	}
 
 
 	@Test
 	public void testExportsBetweenAgents() throws Exception {
 		Assume.assumeTrue( this.rabbitMqIsRunning );
-		MessagingTestUtils.testExportsBetweenAgents();
+		MessagingTestUtils.testExportsBetweenAgents( new MessageServerClientFactory());
 	}
 
 
 	@Test
 	public void testExportsRequestsBetweenAgents() throws Exception {
 		Assume.assumeTrue( this.rabbitMqIsRunning );
-		MessagingTestUtils.testExportsRequestsBetweenAgents();
+		MessagingTestUtils.testExportsRequestsBetweenAgents( new MessageServerClientFactory());
 	}
 
 
 	@Test
 	public void testExportsBetweenSiblingAgents() throws Exception {
 		Assume.assumeTrue( this.rabbitMqIsRunning );
-		MessagingTestUtils.testExportsBetweenSiblingAgents();
+		MessagingTestUtils.testExportsBetweenSiblingAgents( new MessageServerClientFactory());
 	}
 }
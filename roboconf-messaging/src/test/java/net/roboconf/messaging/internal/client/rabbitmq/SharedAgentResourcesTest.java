@@ -0,0 +1,62 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.messaging.internal.client.rabbitmq;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+import net.roboconf.messaging.internal.AbstractRabbitMqTest;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.rabbitmq.client.Channel;
+
+/**
+ * @author Vincent Zurczak - Linagora
+ */
+public class SharedAgentResourcesTest extends AbstractRabbitMqTest {
+
+	@Test
+	public void testChannelsAreSpreadOverSeveralConnections() throws Exception {
+		Assume.assumeTrue( this.rabbitMqIsRunning );
+
+		SharedAgentResources resources = new SharedAgentResources( 1 );
+		try {
+			List<Channel> channels = new ArrayList<Channel> ();
+			for( int i=0; i<SharedAgentResources.MAX_CHANNELS_PER_CONNECTION; i++ )
+				channels.add( resources.createChannel( "127.0.0.1", "guest", "guest" ));
+
+			Assert.assertEquals( 1, resources.countConnections( "127.0.0.1", "guest", "guest" ));
+
+			// The first connection is full
+			Channel extraChannel = resources.createChannel( "127.0.0.1", "guest", "guest" );
+			Assert.assertEquals( 2, resources.countConnections( "127.0.0.1", "guest", "guest" ));
+			Assert.assertNotSame( channels.get( 0 ).getConnection(), extraChannel.getConnection());
+
+			// Once a channel is closed, its connection can be used again
+			channels.get( 0 ).close();
+			Channel newChannel = resources.createChannel( "127.0.0.1", "guest", "guest" );
+			Assert.assertSame( channels.get( 1 ).getConnection(), newChannel.getConnection());
+			Assert.assertEquals( 2, resources.countConnections( "127.0.0.1", "guest", "guest" ));
+
+		} finally {
+			resources.close();
+		}
+	}
+}
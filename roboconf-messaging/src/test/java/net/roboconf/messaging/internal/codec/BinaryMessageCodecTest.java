@@ -0,0 +1,395 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.messaging.internal.codec;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+import net.roboconf.core.model.helpers.InstanceHelpers;
+import net.roboconf.core.model.runtime.Component;
+import net.roboconf.core.model.runtime.Graphs;
+import net.roboconf.core.model.runtime.Import;
+import net.roboconf.core.model.runtime.Instance;
+import net.roboconf.core.model.runtime.Instance.InstanceStatus;
+import net.roboconf.messaging.codec.IMessageCodec;
+import net.roboconf.messaging.codec.MessageCodecs;
+import net.roboconf.messaging.messages.Message;
+import net.roboconf.messaging.messages.MsgBatch;
+import net.roboconf.messaging.messages.from_agent_to_agent.MsgCmdImportAdd;
+import net.roboconf.messaging.messages.from_agent_to_agent.MsgCmdImportRemove;
+import net.roboconf.messaging.messages.from_agent_to_agent.MsgCmdImportRequest;
+import net.roboconf.messaging.messages.from_agent_to_dm.MsgNotifHeartbeat;
+import net.roboconf.messaging.messages.from_agent_to_dm.MsgNotifInstanceChanged;
+import net.roboconf.messaging.messages.from_agent_to_dm.MsgNotifInstanceRemoved;
+import net.roboconf.messaging.messages.from_agent_to_dm.MsgNotifMachineDown;
+import net.roboconf.messaging.messages.from_agent_to_dm.MsgNotifMachineUp;
+import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdAgentRebind;
+import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceAdd;
+import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceDeploy;
+import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceRemove;
+import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceRestore;
+import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceStart;
+import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceStop;
+import net.roboconf.messaging.messages.from_dm_to_agent.MsgCmdInstanceUndeploy;
+
+import org.junit.Test;
+
+/**
+ * @author Vincent Zurczak - Linagora
+ */
+public class BinaryMessageCodecTest {
+
+	private final IMessageCodec codec = new BinaryMessageCodec();
+
+
+	@Test
+	public void testMessage_heartbeat() throws Exception {
+
+		MsgNotifHeartbeat msg = new MsgNotifHeartbeat( "app1", "instance1" );
+		checkBasics( msg, MsgNotifHeartbeat.class );
+
+		// The whole point of this codec...
+		int binarySize = this.codec.encode( msg ).length;
+		int javaSize = new JavaSerializationCodec().encode( msg ).length;
+		Assert.assertTrue( binarySize * 10 < javaSize );
+	}
+
+
+	@Test
+	public void testMessage_machineDown() throws Exception {
+		checkBasics( new MsgNotifMachineDown( "app1", "instance1" ), MsgNotifMachineDown.class );
+	}
+
+
+	@Test
+	public void testMessage_machineUp() throws Exception {
+		checkBasics( new MsgNotifMachineUp( "app1", "instance1", "127.0.0.1" ), MsgNotifMachineUp.class );
+		checkBasics( new MsgNotifMachineUp( "app1", "instance1", null ), MsgNotifMachineUp.class );
+	}
+
+
+	@Test
+	public void testMessage_instanceChanged() throws Exception {
+
+		Instance instance = new Instance( "instance1" ).status( InstanceStatus.DEPLOYED_STARTED );
+		Collection<Import> imports = new ArrayList<Import> ();
+		imports.add( new Import( "/vm/server", null ));
+
+		Map<String,String> exportedVars = new HashMap<String,String> ();
+		exportedVars.put( "database.ip", "127.0.0.1" );
+		exportedVars.put( "database.port", null );
+		imports.add( new Import( "/vm/database", exportedVars ));
+		instance.getImports().put( "database", imports );
+
+		MsgNotifInstanceChanged msg = new MsgNotifInstanceChanged( "app2", instance );
+		MsgNotifInstanceChanged newMsg = checkBasics( msg, MsgNotifInstanceChanged.class );
+		Assert.assertEquals( InstanceStatus.DEPLOYED_STARTED, newMsg.getNewStatus());
+
+		Collection<Import> newImports = newMsg.getNewImports().get( "database" );
+		Assert.assertEquals( 2, newImports.size());
+		Assert.assertTrue( newImports.containsAll( imports ));
+		for( Import imp : newImports ) {
+			if( "/vm/database".equals( imp.getInstancePath()))
+				Assert.assertEquals( exportedVars, imp.getExportedVars());
+		}
+
+		msg = new MsgNotifInstanceChanged( "app2", "/vm", null, null );
+		checkBasics( msg, MsgNotifInstanceChanged.class );
+	}
+
+
+	@Test
+	public void testMessage_instanceRemoved() throws Exception {
+		checkBasics( new MsgNotifInstanceRemoved( "app2", new Instance( "instance1" )), MsgNotifInstanceRemoved.class );
+	}
+
+
+	@Test
+	public void testMessage_importRemove() throws Exception {
+		checkBasics( new MsgCmdImportRemove( "change-me", "anything" ), MsgCmdImportRemove.class );
+	}
+
+
+	@Test
+	public void testMessage_importAdd() throws Exception {
+
+		Map<String,String> map = new HashMap<String,String> ();
+		map.put( "yeah", "value" );
+		map.put( "unicode", "é à ü" );
+
+		checkBasics( new MsgCmdImportAdd( "change-me", "anything", map ), MsgCmdImportAdd.class );
+	}
+
+
+	@Test
+	public void testMessage_importRequest() throws Exception {
+		checkBasics( new MsgCmdImportRequest( "dsf" ), MsgCmdImportRequest.class );
+	}
+
+
+	@Test
+	public void testMessage_instanceAdd() throws Exception {
+
+		MsgCmdInstanceAdd msg = new MsgCmdInstanceAdd( "/parent", new Instance( "instance1" ));
+		MsgCmdInstanceAdd newMsg = checkBasics( msg, MsgCmdInstanceAdd.class );
+		Assert.assertEquals( "instance1", newMsg.getInstanceDescriptor().getName());
+
+		msg = new MsgCmdInstanceAdd((String) null, new Instance( "instance2" ));
+		newMsg = checkBasics( msg, MsgCmdInstanceAdd.class );
+		Assert.assertNull( newMsg.getParentInstancePath());
+
+		// With children and overridden exports
+		Component component = new Component( "comp" );
+		Instance instance = new Instance( "instance3" ).component( component ).channel( "c" );
+		instance.getOverriddenExports().put( "comp.port", "8080" );
+		InstanceHelpers.insertChild( instance, new Instance( "child" ).component( component ));
+
+		msg = new MsgCmdInstanceAdd( "/parent", instance );
+		newMsg = checkBasics( msg, MsgCmdInstanceAdd.class );
+		Assert.assertEquals( 1, newMsg.getInstanceDescriptor().getChildren().size());
+		Assert.assertEquals( "8080", newMsg.getInstanceDescriptor().getOverriddenExports().get( "comp.port" ));
+	}
+
+
+	@Test
+	public void testMessage_instanceAdd_withGraphs() throws Exception {
+
+		Graphs graphs = new Graphs();
+		graphs.getRootComponents().add( new Component( "vm" ));
+		MsgCmdInstanceAdd msg = new MsgCmdInstanceAdd( graphs, new Instance( "root" ).component( graphs.getRootComponents().iterator().next()));
+
+		MsgCmdInstanceAdd newMsg = (MsgCmdInstanceAdd) this.codec.decode( this.codec.encode( msg ));
+		Assert.assertNull( newMsg.getParentInstancePath());
+		Assert.assertEquals( msg.getInstanceDescriptor(), newMsg.getInstanceDescriptor());
+		Assert.assertNotNull( newMsg.getGraphs());
+		Assert.assertEquals( 1, newMsg.getGraphs().getRootComponents().size());
+		Assert.assertEquals( "vm", newMsg.getGraphs().getRootComponents().iterator().next().getName());
+	}
+
+
+	@Test
+	public void testMessage_instanceRemove() throws Exception {
+		checkBasics( new MsgCmdInstanceRemove( "/inst1" ), MsgCmdInstanceRemove.class );
+	}
+
+
+	@Test
+	public void testMessage_instanceRestore() throws Exception {
+		checkBasics( new MsgCmdInstanceRestore(), MsgCmdInstanceRestore.class );
+	}
+
+
+	@Test
+	public void testMessage_instanceStart() throws Exception {
+		checkBasics( new MsgCmdInstanceStart( "/o/mp/k" ), MsgCmdInstanceStart.class );
+	}
+
+
+	@Test
+	public void testMessage_instanceStop() throws Exception {
+		checkBasics( new MsgCmdInstanceStop( "/o/m/k" ), MsgCmdInstanceStop.class );
+	}
+
+
+	@Test
+	public void testMessage_instanceUndeploy() throws Exception {
+		checkBasics( new MsgCmdInstanceUndeploy( "/o/mp/k" ), MsgCmdInstanceUndeploy.class );
+	}
+
+
+	@Test
+	public void testMessage_agentRebind() throws Exception {
+		checkBasics( new MsgCmdAgentRebind( "vm 1" ), MsgCmdAgentRebind.class );
+	}
+
+
+	@Test
+	public void testMessage_instanceDeploy() throws Exception {
+
+		Map<String,byte[]> fileNameToFileContent = new HashMap<String,byte[]> ();
+		fileNameToFileContent.put( "readme.txt", new byte[] { 1, 2, 3 });
+		fileNameToFileContent.put( "empty.txt", new byte[ 0 ]);
+
+		MsgCmdInstanceDeploy msg = new MsgCmdInstanceDeploy( "/o/mp/k", fileNameToFileContent );
+		MsgCmdInstanceDeploy newMsg = checkBasics( msg, MsgCmdInstanceDeploy.class );
+		Assert.assertEquals( 3, newMsg.getFileNameToFileContent().get( "readme.txt" ).length );
+		Assert.assertEquals( 3, newMsg.getFileNameToFileContent().get( "readme.txt" )[ 2 ]);
+		Assert.assertEquals( 0, newMsg.getFileNameToFileContent().get( "empty.txt" ).length );
+	}
+
+
+	@Test
+	public void testMessage_batch() throws Exception {
+
+		List<Message> messages = new ArrayList<Message> ();
+		messages.add( new MsgCmdInstanceAdd( "/parent", new Instance( "instance1" )));
+		messages.add( new MsgCmdInstanceDeploy( "/parent/instance1", new HashMap<String,byte[]> ()));
+		messages.add( new MsgCmdInstanceStart( "/parent/instance1" ));
+		messages.add( new UnknownMessage( "hop" ));
+
+		MsgBatch newMsg = (MsgBatch) this.codec.decode( this.codec.encode( new MsgBatch( messages )));
+		Assert.assertEquals( messages.size(), newMsg.getMessages().size());
+		for( int i=0; i<messages.size(); i++ )
+			Assert.assertEquals( messages.get( i ).getClass(), newMsg.getMessages().get( i ).getClass());
+
+		Assert.assertEquals( "/parent/instance1", ((MsgCmdInstanceStart) newMsg.getMessages().get( 2 )).getInstancePath());
+		Assert.assertEquals( "hop", ((UnknownMessage) newMsg.getMessages().get( 3 )).getContent());
+	}
+
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testMessage_nestedBatch() throws Exception {
+
+		List<Message> messages = new ArrayList<Message> ();
+		messages.add( new MsgBatch( new ArrayList<Message>( 0 )));
+		new MsgBatch( messages );
+	}
+
+
+	@Test
+	public void testUnknownMessage() throws Exception {
+		checkBasics( new UnknownMessage( "hop" ), UnknownMessage.class );
+	}
+
+
+	@Test( expected = IOException.class )
+	public void testInvalidMagicByte() throws Exception {
+		this.codec.decode( new byte[] { 0, BinaryMessageCodec.VERSION, BinaryMessageCodec.TAG_INSTANCE_RESTORE });
+	}
+
+
+	@Test( expected = IOException.class )
+	public void testInvalidVersion() throws Exception {
+		this.codec.decode( new byte[] { BinaryMessageCodec.MAGIC, 99, BinaryMessageCodec.TAG_INSTANCE_RESTORE });
+	}
+
+
+	@Test( expected = IOException.class )
+	public void testInvalidTag() throws Exception {
+		this.codec.decode( new byte[] { BinaryMessageCodec.MAGIC, BinaryMessageCodec.VERSION, 99 });
+	}
+
+
+	@Test( expected = IOException.class )
+	public void testInvalidLength() throws Exception {
+
+		// A string of about 2 GB, in a 8-byte message
+		this.codec.decode( new byte[] {
+				BinaryMessageCodec.MAGIC, BinaryMessageCodec.VERSION, BinaryMessageCodec.TAG_INSTANCE_START,
+				(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 });
+	}
+
+
+	@Test( expected = IOException.class )
+	public void testNegativeLength() throws Exception {
+
+		this.codec.decode( new byte[] {
+				BinaryMessageCodec.MAGIC, BinaryMessageCodec.VERSION, BinaryMessageCodec.TAG_INSTANCE_START,
+				(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F });
+	}
+
+
+	@Test( expected = IOException.class )
+	public void testInvalidBatchSize() throws Exception {
+
+		this.codec.decode( new byte[] {
+				BinaryMessageCodec.MAGIC, BinaryMessageCodec.VERSION, BinaryMessageCodec.TAG_BATCH,
+				(byte) 0xFF, (byte) 0xFF, 0x7F });
+	}
+
+
+	@Test
+	public void testCodecRegistry() {
+
+		Assert.assertEquals( JavaSerializationCodec.class, MessageCodecs.findCodec( null ).getClass());
+		Assert.assertEquals( JavaSerializationCodec.class, MessageCodecs.findCodec( "" ).getClass());
+		Assert.assertEquals( JavaSerializationCodec.class, MessageCodecs.findCodec( JavaSerializationCodec.CONTENT_TYPE ).getClass());
+		Assert.assertEquals( BinaryMessageCodec.class, MessageCodecs.findCodec( BinaryMessageCodec.CONTENT_TYPE ).getClass());
+		Assert.assertNull( MessageCodecs.findCodec( "application/unknown" ));
+
+		Assert.assertEquals( BinaryMessageCodec.class, MessageCodecs.getPreferredCodec().getClass());
+		Assert.assertEquals( JavaSerializationCodec.class, MessageCodecs.getLegacyCodec().getClass());
+	}
+
+
+	/**
+	 * Encodes, decodes and compares messages.
+	 * @param msg
+	 * @param clazz
+	 * @return
+	 * @throws Exception
+	 */
+	private <T extends Message> T checkBasics( Message msg, Class<T> clazz ) throws Exception {
+
+		String prefix = "Class " + clazz.getSimpleName();
+		byte[] bytes = this.codec.encode( msg );
+		Message newMsg = this.codec.decode( bytes );
+		Assert.assertEquals( prefix, clazz, newMsg.getClass());
+
+		// Compare internal fields
+		for( Method m : clazz.getMethods()) {
+			if( ! m.getName().startsWith( "get" )
+					|| m.getParameterTypes().length != 0
+					|| m.getName().equals( "getClass" ))
+				continue;
+
+			Object expectedValue = m.invoke( msg );
+			Object value = m.invoke( newMsg );
+			if( expectedValue instanceof Map ) {
+				Map<?,?> expectedMap = (Map<?,?>) expectedValue;
+				Map<?,?> map = (Map<?,?>) value;
+
+				Assert.assertEquals( prefix, expectedMap.size(), map.size());
+				for( Map.Entry<?,?> entry : expectedMap.entrySet()) {
+					Assert.assertTrue( prefix + ": key was not found. " + entry.getKey(), map.containsKey( entry.getKey()));
+					if( entry.getValue() instanceof String )
+						Assert.assertEquals( prefix + ": value did not match. " + entry.getKey(), entry.getValue(), map.get( entry.getKey()));
+				}
+
+			} else {
+				Assert.assertEquals( prefix + ": invalid match for " + m.getName() + ".", expectedValue, value );
+			}
+		}
+
+		return clazz.cast( newMsg );
+	}
+
+
+	/**
+	 * A message the binary codec does not know.
+	 * @author Vincent Zurczak - Linagora
+	 */
+	public static class UnknownMessage extends Message {
+
+		private static final long serialVersionUID = 4436227916512341224L;
+		private final String content;
+
+		public UnknownMessage( String content ) {
+			this.content = content;
+		}
+
+		public String getContent() {
+			return this.content;
+		}
+	}
+}
@@ -18,19 +18,28 @@ package net.roboconf.messaging.internal.utils;
 
 import java.io.File;
 import java.net.URI;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.logging.Logger;
 
 import junit.framework.Assert;
 import net.roboconf.core.model.helpers.InstanceHelpers;
 import net.roboconf.core.model.runtime.Application;
 import net.roboconf.core.model.runtime.Instance;
+import net.roboconf.messaging.codec.IMessageCodec;
+import net.roboconf.messaging.codec.MessageCodecs;
 import net.roboconf.messaging.internal.AbstractRabbitMqTest;
+import net.roboconf.messaging.internal.MessagingTestUtils.StorageMessageProcessor;
+import net.roboconf.messaging.messages.from_agent_to_dm.MsgNotifHeartbeat;
+import net.roboconf.messaging.messages.from_agent_to_dm.MsgNotifMachineDown;
 
 import org.junit.Assume;
 import org.junit.Test;
 
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.QueueingConsumer;
 
 /**
  * @author Vincent Zurczak - Linagora
@@ -174,4 +183,37 @@ public class RabbitMqUtilsTest extends AbstractRabbitMqTest {
 		Assert.assertFalse( channel.isOpen());
 		Assert.assertFalse( channel.getConnection().isOpen());
 	}
+
+
+	@Test
+	public void testListenToRabbitMq_contentTypes() throws Exception {
+
+		IMessageCodec codec = MessageCodecs.getPreferredCodec();
+		Envelope envelope = new Envelope( 1, false, "exchange", "routing.key" );
+		QueueingConsumer consumer = new QueueingConsumer( null );
+		consumer.handleDelivery(
+				"tag", envelope,
+				RabbitMqUtils.buildProperties( codec, "app.root1" ),
+				codec.encode( new MsgNotifHeartbeat( "app", "root1" )));
+
+		consumer.handleDelivery(
+				"tag", envelope,
+				RabbitMqUtils.buildProperties( codec, "app.root2" ),
+				codec.encode( new MsgNotifHeartbeat( "app", "root2" )));
+
+		consumer.handleDelivery(
+				"tag", envelope,
+				RabbitMqUtils.buildProperties( codec, "app.root1" ),
+				codec.encode( new MsgNotifMachineDown( "app", "root1" )));
+
+		// Stop listening once all the messages were processed
+		consumer.handleCancel( "tag" );
+
+		Map<String,String> senderToContentType = new HashMap<String,String> ();
+		StorageMessageProcessor processor = new StorageMessageProcessor();
+		RabbitMqUtils.listenToRabbitMq( "test", Logger.getAnonymousLogger(), consumer, processor, senderToContentType );
+
+		Assert.assertEquals( 1, senderToContentType.size());
+		Assert.assertEquals( codec.getContentType(), senderToContentType.get( RabbitMqUtils.buildAgentQueueName( "app", "root2" )));
+	}
 }
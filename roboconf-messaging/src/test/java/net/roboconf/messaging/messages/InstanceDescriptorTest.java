@@ -0,0 +1,83 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.messaging.messages;
+
+import junit.framework.Assert;
+import net.roboconf.core.model.helpers.ComponentHelpers;
+import net.roboconf.core.model.helpers.InstanceHelpers;
+import net.roboconf.core.model.runtime.Component;
+import net.roboconf.core.model.runtime.Graphs;
+import net.roboconf.core.model.runtime.Instance;
+import net.roboconf.messaging.internal.utils.SerializationUtils;
+
+import org.junit.Test;
+
+/**
+ * @author Vincent Zurczak - Linagora
+ */
+public class InstanceDescriptorTest {
+
+	@Test
+	public void testFromAndToInstance() throws Exception {
+
+		Component vmComponent = new Component( "vm" );
+		Component serverComponent = new Component( "server" );
+		ComponentHelpers.insertChild( vmComponent, serverComponent );
+
+		Graphs graphs = new Graphs();
+		graphs.getRootComponents().add( vmComponent );
+
+		Instance vm = new Instance( "vm" ).component( vmComponent ).channel( "channel" );
+		Instance server = new Instance( "server" ).component( serverComponent );
+		server.getOverriddenExports().put( "server.port", "8080" );
+		InstanceHelpers.insertChild( vm, server );
+
+		InstanceDescriptor descriptor = InstanceDescriptor.fromInstance( vm );
+		Assert.assertEquals( "vm", descriptor.getName());
+		Assert.assertEquals( "vm", descriptor.getComponentName());
+		Assert.assertEquals( "channel", descriptor.getChannel());
+		Assert.assertEquals( 1, descriptor.getChildren().size());
+		Assert.assertEquals( "8080", descriptor.getChildren().get( 0 ).getOverriddenExports().get( "server.port" ));
+
+		// Descriptors are immutable
+		server.getOverriddenExports().put( "server.port", "8081" );
+		Assert.assertEquals( "8080", descriptor.getChildren().get( 0 ).getOverriddenExports().get( "server.port" ));
+
+		Instance newVm = descriptor.toInstance( graphs );
+		Assert.assertNotNull( newVm );
+		Assert.assertEquals( "channel", newVm.getChannel());
+		Assert.assertSame( vmComponent, newVm.getComponent());
+
+		Instance newServer = InstanceHelpers.findInstanceByPath( newVm, "/vm/server" );
+		Assert.assertNotNull( newServer );
+		Assert.assertSame( serverComponent, newServer.getComponent());
+		Assert.assertEquals( "8080", newServer.getOverriddenExports().get( "server.port" ));
+
+		// Serialization
+		InstanceDescriptor copy = SerializationUtils.deserializeObject( SerializationUtils.serializeObject( descriptor ), InstanceDescriptor.class );
+		Assert.assertEquals( descriptor, copy );
+	}
+
+
+	@Test
+	public void testToInstance_unknownComponent() {
+
+		InstanceDescriptor descriptor = InstanceDescriptor.fromInstance( new Instance( "vm" ).component( new Component( "vm" )));
+		Assert.assertNull( descriptor.toInstance( new Graphs()));
+		Assert.assertNull( InstanceDescriptor.fromInstance( null ));
+	}
+}
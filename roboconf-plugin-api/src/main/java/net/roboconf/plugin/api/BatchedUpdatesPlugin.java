@@ -0,0 +1,54 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.plugin.api;
+
+import java.util.Collection;
+
+import net.roboconf.core.model.runtime.Import;
+import net.roboconf.core.model.runtime.Instance;
+
+/**
+ * An optional interface for plug-ins that can process several import changes at once.
+ * <p>
+ * An agent may be configured to wait a little before updating a started instance
+ * whose imports changed. The changes received in the meantime are then applied by a
+ * single invocation of {@link #updateImports(Instance, Collection, Collection)}.
+ * </p>
+ * <p>
+ * Plug-ins that do not implement this interface are invoked through
+ * {@link PluginInterface#update(Instance, Import, net.roboconf.core.model.runtime.Instance.InstanceStatus)}.
+ * When several changes were batched, they get neither the import nor the status that changed.
+ * </p>
+ *
+ * @author Vincent Zurczak - Linagora
+ */
+public interface BatchedUpdatesPlugin extends PluginInterface {
+
+	/**
+	 * Updates an instance after its imports changed.
+	 * <p>
+	 * An exporting instance appears at most once per component or facet name, in the added
+	 * or in the removed imports. It may appear several times if it is imported under several prefixes.
+	 * The imports of the instance are already up-to-date.
+	 * </p>
+	 *
+	 * @param instance the instance to update
+	 * @param addedImports the imports that were added (not null)
+	 * @param removedImports the imports that were removed (not null)
+	 */
+	void updateImports( Instance instance, Collection<Import> addedImports, Collection<Import> removedImports ) throws PluginException;
+}
@@ -23,6 +23,17 @@ import net.roboconf.core.model.runtime.Instance;
 import net.roboconf.core.model.runtime.Instance.InstanceStatus;
 
 /**
+ * The interface implemented by Roboconf plug-ins (installers).
+ * <p>
+ * An agent creates a single instance of every plug-in. It is shared by all
+ * the instances managed by the agent, and it may be invoked concurrently. Thus,
+ * implementations must be thread-safe and must not keep any state, except their configuration.
+ * </p>
+ * <p>
+ * Plug-ins that are not shipped with Roboconf are discovered with a {@link java.util.ServiceLoader}.
+ * They must have a public constructor without parameter.
+ * </p>
+ *
  * @author Noël - LIG
  */
 public interface PluginInterface {
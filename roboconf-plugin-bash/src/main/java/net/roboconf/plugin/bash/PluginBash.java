@@ -31,9 +31,9 @@ import net.roboconf.core.model.runtime.Instance;
 import net.roboconf.core.model.runtime.Instance.InstanceStatus;
 import net.roboconf.core.utils.ProgramUtils;
 import net.roboconf.core.utils.Utils;
+import net.roboconf.plugin.api.BatchedUpdatesPlugin;
 import net.roboconf.plugin.api.ExecutionLevel;
 import net.roboconf.plugin.api.PluginException;
-import net.roboconf.plugin.api.PluginInterface;
 import net.roboconf.plugin.api.template.InstanceTemplateHelper;
 
 /**
@@ -51,21 +51,28 @@ import net.roboconf.plugin.api.template.InstanceTemplateHelper;
  * <p>
  * The default template is used to factorize actions.
  * </p>
+ * <p>
+ * When several import changes are applied at once, the "update" script gets the added
+ * and removed imports through variables prefixed by ROBOCONF_IMPORTS_ADDED and ROBOCONF_IMPORTS_REMOVED.
+ * They are formatted like imported variables (e.g. "ROBOCONF_IMPORTS_ADDED_0_ip=127.0.0.1").
+ * </p>
  *
  * @author Noël - LIG
  * @author Linh-Manh Pham - LIG
  * @author Pierre-Yves Gibello - Linagora
  * @author Christophe Hamerling - Linagora
  */
-public class PluginBash implements PluginInterface {
+public class PluginBash implements BatchedUpdatesPlugin {
 
     private final Logger logger = Logger.getLogger( getClass().getName());
-    private ExecutionLevel executionLevel;
-    private String agentName;
+    private volatile ExecutionLevel executionLevel;
+    private volatile String agentName;
 
     private static final String SCRIPTS_FOLDER_NAME = "scripts";
     private static final String TEMPLATES_FOLDER_NAME = "roboconf-templates";
     private static final String FILES_FOLDER_NAME = "files";
+    static final String IMPORTS_ADDED = "ROBOCONF_IMPORTS_ADDED";
+    static final String IMPORTS_REMOVED = "ROBOCONF_IMPORTS_REMOVED";
 
 
     @Override
@@ -106,7 +113,7 @@ public class PluginBash implements PluginInterface {
 			return;
 
 		try {
-			prepareAndExecuteCommand( "deploy", instance, null, null );
+			prepareAndExecuteCommand( "deploy", instance, null );
 
 		} catch( Exception e ) {
 			throw new PluginException( e );
@@ -122,7 +129,7 @@ public class PluginBash implements PluginInterface {
 			return;
 
         try {
-			prepareAndExecuteCommand( "start", instance, null, null );
+			prepareAndExecuteCommand( "start", instance, null );
 
 		} catch( Exception e ) {
 			throw new PluginException( e );
@@ -138,7 +145,7 @@ public class PluginBash implements PluginInterface {
 			return;
 
         try {
-			prepareAndExecuteCommand( "update", instance, importChanged, statusChanged );
+			prepareAndExecuteCommand( "update", instance, formatImportChanged( importChanged, statusChanged ));
 
 		} catch( Exception e ) {
 			throw new PluginException( e );
@@ -146,6 +153,26 @@ public class PluginBash implements PluginInterface {
     }
 
 
+	@Override
+	public void updateImports( Instance instance, Collection<Import> addedImports, Collection<Import> removedImports )
+	throws PluginException {
+
+		this.logger.fine( this.agentName + " is updating instance " + instance.getName() + " after several import changes." );
+		if( this.executionLevel == ExecutionLevel.LOG )
+			return;
+
+		try {
+			Map<String,String> updateVars = new HashMap<String,String> ();
+			formatImports( IMPORTS_ADDED, addedImports, updateVars );
+			formatImports( IMPORTS_REMOVED, removedImports, updateVars );
+			prepareAndExecuteCommand( "update", instance, updateVars );
+
+		} catch( Exception e ) {
+			throw new PluginException( e );
+		}
+	}
+
+
     @Override
     public void stop( Instance instance ) throws PluginException {
 
@@ -154,7 +181,7 @@ public class PluginBash implements PluginInterface {
 			return;
 
         try {
-			prepareAndExecuteCommand( "stop", instance, null, null );
+			prepareAndExecuteCommand( "stop", instance, null );
 
 		} catch( Exception e ) {
 			throw new PluginException( e );
@@ -170,7 +197,7 @@ public class PluginBash implements PluginInterface {
 			return;
 
         try {
-			prepareAndExecuteCommand( "undeploy", instance, null, null );
+			prepareAndExecuteCommand( "undeploy", instance, null );
 
 		} catch( Exception e ) {
 			throw new PluginException( e );
@@ -178,7 +205,7 @@ public class PluginBash implements PluginInterface {
     }
 
 
-    private void prepareAndExecuteCommand(String action, Instance instance, Import importChanged, InstanceStatus statusChanged)
+    private void prepareAndExecuteCommand(String action, Instance instance, Map<String,String> updateVars)
     throws IOException, InterruptedException {
 
         this.logger.info("Preparing the invocation of " + action + ".sh for instance " + instance.getName());
@@ -193,14 +220,14 @@ public class PluginBash implements PluginInterface {
         	template = new File(templatesFolder, "default.sh.template");
 
         if (script.exists()) {
-            executeScript(script, instance, importChanged, statusChanged, instanceDirectory.getAbsolutePath());
+            executeScript(script, instance, updateVars, instanceDirectory.getAbsolutePath());
 
         } else if (template.exists()) {
             File generated = generateTemplate(template, instance);
             if (generated == null || !generated.exists())
                 throw new IOException("Not able to get the generated file from template for action " + action);
 
-            executeScript(generated, instance, importChanged, statusChanged, instanceDirectory.getAbsolutePath());
+            executeScript(generated, instance, updateVars, instanceDirectory.getAbsolutePath());
             Utils.deleteFilesRecursively( generated );
 
         } else {
@@ -223,7 +250,7 @@ public class PluginBash implements PluginInterface {
     }
 
 
-    protected void executeScript(File script, Instance instance, Import importChanged, InstanceStatus statusChanged, String instanceDir)
+    protected void executeScript(File script, Instance instance, Map<String,String> updateVars, String instanceDir)
     throws IOException, InterruptedException {
 
         String[] command = { "bash", script.getAbsolutePath()};
@@ -235,24 +262,40 @@ public class PluginBash implements PluginInterface {
         environmentVars.put("ROBOCONF_INSTANCE_NAME", instance.getName());
         environmentVars.put("ROBOCONF_FILES_DIR", new File( instanceDir, FILES_FOLDER_NAME ).getAbsolutePath());
 
-        // Upon update, retrieve the status of the instance that triggered the update.
-        // Should be either DEPLOYED_STARTED or DEPLOYED_STOPPED...
+        // Upon update, the changes that triggered it
+        if(updateVars != null) {
+        	environmentVars.putAll(updateVars);
+        }
+
+        ProgramUtils.executeCommand(this.logger, command, environmentVars);
+    }
+
+
+    /**
+     * Formats the variables that describe a single import change.
+     * @param importChanged the import that changed, if any
+     * (removed when an instance stopped, or added when it started)
+     * @param statusChanged the status of the instance that triggered the update, if any
+     * (should be either DEPLOYED_STARTED or DEPLOYED_STOPPED)
+     * @return a non-null map
+     */
+    private Map<String,String> formatImportChanged(Import importChanged, InstanceStatus statusChanged) {
+
+        Map<String,String> updateVars = new HashMap<String,String>();
         if(statusChanged != null) {
-        	environmentVars.put("ROBOCONF_UPDATE_STATUS", statusChanged.toString());
+        	updateVars.put("ROBOCONF_UPDATE_STATUS", statusChanged.toString());
         }
 
-        // Upon update, retrieve the import that changed
-        // (removed when an instance stopped, or added when it started)
         if(importChanged != null) {
-        	environmentVars.put("ROBOCONF_IMPORT_CHANGED_INSTANCE_PATH", importChanged.getInstancePath());
+        	updateVars.put("ROBOCONF_IMPORT_CHANGED_INSTANCE_PATH", importChanged.getInstancePath());
         	for (Entry<String, String> entry : importChanged.getExportedVars().entrySet()) {
         		// "ROBOCONF_IMPORT_CHANGED_ip=127.0.0.1"
         		String vname = VariableHelpers.parseVariableName(entry.getKey()).getValue();
-        		importedVars.put("ROBOCONF_IMPORT_CHANGED_" + vname, entry.getValue());
+        		updateVars.put("ROBOCONF_IMPORT_CHANGED_" + vname, entry.getValue());
         	}
         }
 
-        ProgramUtils.executeCommand(this.logger, command, environmentVars);
+        return updateVars;
     }
 
 
@@ -300,28 +343,39 @@ public class PluginBash implements PluginInterface {
             Collection<Import> importList = entry.getValue();
             String importTypeName = entry.getKey();
 
-            // For each ImportType, put the number of Import it has, so the script knows
-            importedVars.put(importTypeName + "_size", "" + importList.size());
-
-            // Now put each var contained in an Import
-            int i = 0;
-            for( Import imprt : importList ) {
-                // "workers_0_name=tomcat1"
-
-                /*int index = imprt.getInstancePath().lastIndexOf( '/' );
-                String instanceName = imprt.getInstancePath().substring( index + 1 );
-                importedVars.put(importTypeName + "_" + i + "_name", instanceName);*/
-
-                importedVars.put(importTypeName + "_" + i + "_name", imprt.getInstancePath());
-                for (Entry<String, String> entry2 : imprt.getExportedVars().entrySet()) {
-                    // "workers_0_ip=127.0.0.1"
-                    String vname = VariableHelpers.parseVariableName(entry2.getKey()).getValue();
-                    importedVars.put(importTypeName + "_" + i + "_" + vname, entry2.getValue());
-                }
-                ++i;
-            }
+            formatImports(importTypeName, importList, importedVars);
         }
 
         return importedVars;
     }
+
+
+    /**
+     * Formats imports the way imported variables are formatted.
+     * <p>
+     * As an example, with the "workers" prefix: "workers_size=3", "workers_0_name=tomcat1", "workers_0_ip=127.0.0.1", etc.
+     * </p>
+     *
+     * @param prefix the prefix of the variable names
+     * @param imports the imports to format
+     * @param result the map to complete
+     */
+    private void formatImports(String prefix, Collection<Import> imports, Map<String,String> result) {
+
+        // Put the number of imports, so the script knows
+        result.put(prefix + "_size", "" + imports.size());
+
+        // Now put each var contained in an Import
+        int i = 0;
+        for( Import imprt : imports ) {
+            // "workers_0_name=tomcat1"
+            result.put(prefix + "_" + i + "_name", imprt.getInstancePath());
+            for (Entry<String, String> entry : imprt.getExportedVars().entrySet()) {
+                // "workers_0_ip=127.0.0.1"
+                String vname = VariableHelpers.parseVariableName(entry.getKey()).getValue();
+                result.put(prefix + "_" + i + "_" + vname, entry.getValue());
+            }
+            ++i;
+        }
+    }
 }
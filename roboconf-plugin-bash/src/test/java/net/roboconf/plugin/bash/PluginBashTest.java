@@ -19,6 +19,8 @@ package net.roboconf.plugin.bash;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 
@@ -79,6 +81,12 @@ public class PluginBashTest {
 		assertTrue(file.exists());
 		file.delete();
 
+		// Test update, passing several changed imports
+		plugin.updateImports(inst, Arrays.asList(importChanged), new ArrayList<Import>());
+		file = new File("/tmp/BashScriptFile.update");
+		assertTrue(file.exists());
+		file.delete();
+
 		plugin.stop(inst);
 		file = new File("/tmp/BashScriptFile.stop");
 		assertTrue(file.exists());
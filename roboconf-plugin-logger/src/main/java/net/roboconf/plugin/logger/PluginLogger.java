@@ -17,22 +17,23 @@
 package net.roboconf.plugin.logger;
 
 import java.io.File;
+import java.util.Collection;
 import java.util.logging.Logger;
 
 import net.roboconf.core.model.runtime.Import;
 import net.roboconf.core.model.runtime.Instance;
 import net.roboconf.core.model.runtime.Instance.InstanceStatus;
+import net.roboconf.plugin.api.BatchedUpdatesPlugin;
 import net.roboconf.plugin.api.ExecutionLevel;
 import net.roboconf.plugin.api.PluginException;
-import net.roboconf.plugin.api.PluginInterface;
 
 /**
  * @author Vincent Zurczak - Linagora
  */
-public class PluginLogger implements PluginInterface {
+public class PluginLogger implements BatchedUpdatesPlugin {
 
 	private final Logger logger = Logger.getLogger( getClass().getName());
-	private String agentName;
+	private volatile String agentName;
 
 
 
@@ -88,6 +89,13 @@ public class PluginLogger implements PluginInterface {
 	}
 
 
+	@Override
+	public void updateImports( Instance instance, Collection<Import> addedImports, Collection<Import> removedImports ) throws PluginException {
+		String name = instance != null ? instance.getName() : null;
+		this.logger.info( this.agentName + " is updating instance " + name + " (" + addedImports.size() + " added import(s), " + removedImports.size() + " removed import(s))." );
+	}
+
+
 	@Override
 	public void stop( Instance instance ) throws PluginException {
 		String name = instance != null ? instance.getName() : null;
@@ -84,8 +84,8 @@ public class PluginPuppet implements PluginInterface {
 	//private static final String TEMPLATES_FOLDER = "roboconf_templates";
 
 	private final Logger logger = Logger.getLogger(getClass().getName());
-	private ExecutionLevel executionLevel;
-	private String agentName;
+	private volatile ExecutionLevel executionLevel;
+	private volatile String agentName;
 
 
 	@Override
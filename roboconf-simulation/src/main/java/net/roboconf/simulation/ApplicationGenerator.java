@@ -0,0 +1,96 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.simulation;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+import net.roboconf.core.Constants;
+import net.roboconf.core.utils.Utils;
+
+/**
+ * Generates the files of a simulated application.
+ * <p>
+ * Its graph has a root component, whose machines are created by the in-memory IaaS,
+ * and a child component, managed by a plug-in that does nothing but logging.
+ * </p>
+ *
+ * @author Vincent Zurczak - Linagora
+ */
+public final class ApplicationGenerator {
+
+	public static final String ROOT_COMPONENT = "SimulatedVm";
+	public static final String CHILD_COMPONENT = "SimulatedServer";
+
+
+	/**
+	 * Private empty constructor.
+	 */
+	private ApplicationGenerator() {
+		// nothing
+	}
+
+
+	/**
+	 * Generates the application files.
+	 * @param directory the directory in which files are generated (created if necessary)
+	 * @param applicationName the application name
+	 * @param installerName the installer of the child component (e.g. "logger")
+	 * @throws IOException if the files could not be written
+	 */
+	public static void generate( File directory, String applicationName, String installerName ) throws IOException {
+
+		StringBuilder sb = new StringBuilder();
+		sb.append( "application-name = " + applicationName + "\n" );
+		sb.append( "application-qualifier = simulation\n" );
+		sb.append( "application-description = An application generated for scale simulations\n" );
+		sb.append( "graph-entry-point = simulation.graph\n" );
+		write( new File( directory, Constants.PROJECT_DIR_DESC + "/" + Constants.PROJECT_FILE_DESCRIPTOR ), sb.toString());
+
+		sb = new StringBuilder();
+		sb.append( ROOT_COMPONENT + " {\n" );
+		sb.append( "\talias: Simulated Machine;\n" );
+		sb.append( "\tinstaller: " + Constants.IAAS_INSTALLER + ";\n" );
+		sb.append( "\tchildren: " + CHILD_COMPONENT + ";\n" );
+		sb.append( "}\n\n" );
+		sb.append( CHILD_COMPONENT + " {\n" );
+		sb.append( "\talias: Simulated Server;\n" );
+		sb.append( "\tinstaller: " + installerName + ";\n" );
+		sb.append( "\texports: ip, port = 8080;\n" );
+		sb.append( "}\n" );
+		write( new File( directory, Constants.PROJECT_DIR_GRAPH + "/simulation.graph" ), sb.toString());
+
+		write(
+				new File( directory, Constants.PROJECT_DIR_GRAPH + "/" + ROOT_COMPONENT + "/" + Constants.IAAS_PROPERTIES_FILE_NAME ),
+				"iaas.type = in-memory\n" );
+
+		// The logger plug-in does not need any resource, but the directory is expected
+		File childDirectory = new File( directory, Constants.PROJECT_DIR_GRAPH + "/" + CHILD_COMPONENT );
+		if( ! childDirectory.exists() && ! childDirectory.mkdirs())
+			throw new IOException( "Could not create " + childDirectory );
+	}
+
+
+	private static void write( File f, String content ) throws IOException {
+
+		if( ! f.getParentFile().exists() && ! f.getParentFile().mkdirs())
+			throw new IOException( "Could not create " + f.getParentFile());
+
+		Utils.copyStream( new ByteArrayInputStream( content.getBytes( "UTF-8" )), f );
+	}
+}
@@ -0,0 +1,416 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.simulation;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.roboconf.core.model.helpers.ComponentHelpers;
+import net.roboconf.core.model.helpers.InstanceHelpers;
+import net.roboconf.core.model.runtime.Component;
+import net.roboconf.core.model.runtime.Instance;
+import net.roboconf.core.model.runtime.Instance.InstanceStatus;
+import net.roboconf.core.utils.Utils;
+import net.roboconf.dm.management.ManagedApplication;
+import net.roboconf.dm.management.Manager;
+import net.roboconf.dm.management.ManagerConfiguration;
+
+/**
+ * Simulates the life cycle of many machines to measure how the DM behaves at scale.
+ * <p>
+ * The DM runs with synthetic agents in the same JVM. Machines are created by the
+ * in-memory IaaS. By default, messages go through the loopback transport, so that
+ * no messaging server is required. The simulation runs the following waves, one after
+ * the other: provision (create the machines), deploy, start, stop, undeploy and terminate.
+ * </p>
+ * <p>
+ * Options are passed as <code>name=value</code> arguments:
+ * </p>
+ * <ul>
+ * <li>machines: the number of machines (default: 1000)</li>
+ * <li>instances: the number of instances per machine (default: 1)</li>
+ * <li>timeout: the maximum duration of a wave, in seconds (default: 600)</li>
+ * <li>messaging: loopback or rabbitmq (default: loopback)</li>
+ * <li>installer: the plug-in that manages the instances (default: logger)</li>
+ * <li>verbose: true to keep Roboconf's logs (default: false)</li>
+ * </ul>
+ * <p>
+ * CPU times are measured per thread. Threads that end during a wave are not counted.
+ * </p>
+ *
+ * @author Vincent Zurczak - Linagora
+ */
+public final class ScaleSimulation {
+
+	static final String APPLICATION_NAME = "scale-simulation";
+	static final long POLLING_PERIOD = 20;
+	static final String[] AGENT_THREAD_PREFIXES = {
+		"Roboconf - In-Memory Agents",
+		"Roboconf - Shared Agent Processor"
+	};
+
+	// Life cycle threads are named after the in-memory agent
+	static final String AGENT_THREAD_MARKER = " - In-Memory Agent";
+
+	// Keep a reference, otherwise the level may be lost
+	private static final Logger ROBOCONF_LOGGER = Logger.getLogger( "net.roboconf" );
+
+	private final int machines, instancesPerMachine;
+	private final long timeoutMs;
+	private final String messagingType, installerName;
+
+	private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+	private final MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+
+
+	/**
+	 * Constructor.
+	 * @param machines the number of machines
+	 * @param instancesPerMachine the number of instances per machine
+	 * @param timeoutMs the maximum duration of a wave, in milliseconds
+	 * @param messagingType the messaging type (see {@link ManagerConfiguration})
+	 * @param installerName the installer of the instances
+	 */
+	public ScaleSimulation( int machines, int instancesPerMachine, long timeoutMs, String messagingType, String installerName ) {
+		this.machines = machines;
+		this.instancesPerMachine = instancesPerMachine;
+		this.timeoutMs = timeoutMs;
+		this.messagingType = messagingType;
+		this.installerName = installerName;
+	}
+
+
+	/**
+	 * Runs a simulation and prints its report.
+	 * @param args options (see the class description)
+	 * @throws Exception if the simulation could not be run
+	 */
+	public static void main( String[] args ) throws Exception {
+
+		Map<String,String> options = new HashMap<String,String> ();
+		for( String arg : args ) {
+			int index = arg.indexOf( '=' );
+			if( index < 0 )
+				throw new IllegalArgumentException( "Invalid option: " + arg + ". Expected name=value." );
+
+			options.put( arg.substring( 0, index ).trim(), arg.substring( index + 1 ).trim());
+		}
+
+		if( ! Boolean.parseBoolean( options.get( "verbose" )))
+			ROBOCONF_LOGGER.setLevel( Level.WARNING );
+
+		ScaleSimulation simulation = new ScaleSimulation(
+				Integer.parseInt( option( options, "machines", "1000" )),
+				Integer.parseInt( option( options, "instances", "1" )),
+				Long.parseLong( option( options, "timeout", "600" )) * 1000,
+				option( options, "messaging", ManagerConfiguration.MESSAGING_LOOPBACK ),
+				option( options, "installer", "logger" ));
+
+		System.out.println( "Simulating " + simulation.machines + " machines with " + simulation.instancesPerMachine + " instance(s) each..." );
+		List<WaveReport> reports = simulation.run();
+
+		System.out.println();
+		System.out.println( WaveReport.header());
+		for( WaveReport report : reports )
+			System.out.println( report );
+	}
+
+
+	/**
+	 * Runs the simulation.
+	 * <p>
+	 * The DM is initialized in a temporary directory, which is deleted at the end.
+	 * </p>
+	 *
+	 * @return a non-null list of reports, one per wave
+	 * @throws Exception if the simulation could not be run
+	 */
+	public List<WaveReport> run() throws Exception {
+
+		List<WaveReport> result = new ArrayList<WaveReport> ();
+		File workDirectory = File.createTempFile( "roboconf-simulation-", "" );
+		if( ! workDirectory.delete() || ! workDirectory.mkdirs())
+			throw new IOException( "Could not create " + workDirectory );
+
+		try {
+			ManagerConfiguration conf = ManagerConfiguration.createConfiguration( new File( workDirectory, "dm" ));
+			conf.setMessagingType( this.messagingType );
+			Manager.INSTANCE.initialize( conf );
+
+			File applicationDirectory = new File( workDirectory, "application" );
+			ApplicationGenerator.generate( applicationDirectory, APPLICATION_NAME, this.installerName );
+			final ManagedApplication ma = Manager.INSTANCE.loadNewApplication( applicationDirectory );
+
+			List<Instance> rootInstances = new ArrayList<Instance> ();
+			List<Instance> childInstances = new ArrayList<Instance> ();
+			createInstances( ma, rootInstances, childInstances );
+
+			result.add( runWave( "provision", rootInstances, InstanceStatus.DEPLOYED_STARTED, new Action() {
+				@Override
+				public void perform( Instance instance ) throws Exception {
+					Manager.INSTANCE.deployRootAsync( ma, instance );
+				}
+			}));
+
+			result.add( runWave( "deploy", childInstances, InstanceStatus.DEPLOYED_STOPPED, new Action() {
+				@Override
+				public void perform( Instance instance ) throws Exception {
+					Manager.INSTANCE.deploy( ma, instance );
+				}
+			}));
+
+			result.add( runWave( "start", childInstances, InstanceStatus.DEPLOYED_STARTED, new Action() {
+				@Override
+				public void perform( Instance instance ) throws Exception {
+					Manager.INSTANCE.start( ma, instance );
+				}
+			}));
+
+			result.add( runWave( "stop", childInstances, InstanceStatus.DEPLOYED_STOPPED, new Action() {
+				@Override
+				public void perform( Instance instance ) throws Exception {
+					Manager.INSTANCE.stop( ma, instance );
+				}
+			}));
+
+			result.add( runWave( "undeploy", childInstances, InstanceStatus.NOT_DEPLOYED, new Action() {
+				@Override
+				public void perform( Instance instance ) throws Exception {
+					Manager.INSTANCE.undeploy( ma, instance );
+				}
+			}));
+
+			result.add( runWave( "terminate", rootInstances, InstanceStatus.NOT_DEPLOYED, new Action() {
+				@Override
+				public void perform( Instance instance ) throws Exception {
+					Manager.INSTANCE.undeployRoot( ma, instance );
+				}
+			}));
+
+		} finally {
+			Manager.INSTANCE.shutdown();
+			Utils.deleteFilesRecursively( workDirectory );
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Creates the instances of the simulated application.
+	 * @param ma the managed application
+	 * @param rootInstances a list to which root instances are added
+	 * @param childInstances a list to which child instances are added
+	 */
+	void createInstances( ManagedApplication ma, List<Instance> rootInstances, List<Instance> childInstances ) {
+
+		Component rootComponent = ComponentHelpers.findComponent( ma.getApplication().getGraphs(), ApplicationGenerator.ROOT_COMPONENT );
+		Component childComponent = ComponentHelpers.findComponent( ma.getApplication().getGraphs(), ApplicationGenerator.CHILD_COMPONENT );
+
+		for( int i=0; i<this.machines; i++ ) {
+			Instance rootInstance = new Instance( "vm-" + i ).component( rootComponent );
+			InstanceHelpers.tryToInsertChildInstance( ma.getApplication(), null, rootInstance );
+			rootInstances.add( rootInstance );
+
+			for( int j=0; j<this.instancesPerMachine; j++ ) {
+				Instance childInstance = new Instance( "server-" + j ).component( childComponent );
+				InstanceHelpers.tryToInsertChildInstance( ma.getApplication(), rootInstance, childInstance );
+				childInstances.add( childInstance );
+			}
+		}
+	}
+
+
+	/**
+	 * Runs a wave.
+	 * <p>
+	 * The action is requested for every instance. This method then waits
+	 * for all of them to reach the expected status, or for the timeout to expire.
+	 * </p>
+	 *
+	 * @param name the wave name
+	 * @param instances the instances to apply the action to
+	 * @param expectedStatus the status instances must reach
+	 * @param action the action
+	 * @return a non-null report
+	 * @throws InterruptedException if the thread was interrupted
+	 */
+	WaveReport runWave( String name, List<Instance> instances, InstanceStatus expectedStatus, Action action )
+	throws InterruptedException {
+
+		System.out.println( "Running wave " + name + "..." );
+		WaveReport report = new WaveReport( name );
+		report.setRequested( instances.size());
+
+		Map<Long,Long> threadToCpuTime = findCpuTimes();
+		long start = System.nanoTime();
+		long[] requestTimes = new long[ instances.size()];
+		boolean[] done = new boolean[ instances.size()];
+		int failed = 0, remaining = instances.size();
+
+		// Request the action
+		for( int i=0; i<instances.size(); i++ ) {
+			requestTimes[ i ] = System.nanoTime();
+			try {
+				action.perform( instances.get( i ));
+
+			} catch( Exception e ) {
+				Logger.getLogger( getClass().getName()).severe( "Action " + name + " failed for " + instances.get( i ).getName() + ". " + e.getMessage());
+				done[ i ] = true;
+				failed ++;
+				remaining --;
+			}
+		}
+
+		// Wait for the instances to reach the expected status
+		long deadline = start + this.timeoutMs * 1000000;
+		while( remaining > 0 && System.nanoTime() < deadline ) {
+
+			long now = System.nanoTime();
+			for( int i=0; i<instances.size(); i++ ) {
+				if( done[ i ])
+					continue;
+
+				InstanceStatus status = instances.get( i ).getStatus();
+				if( status == expectedStatus ) {
+					report.addLatency(( now - requestTimes[ i ]) / 1000000 );
+					done[ i ] = true;
+					remaining --;
+
+				} else if( status == InstanceStatus.PROBLEM ) {
+					done[ i ] = true;
+					failed ++;
+					remaining --;
+				}
+			}
+
+			sampleResources( report );
+			if( remaining > 0 )
+				Thread.sleep( POLLING_PERIOD );
+		}
+
+		report.setFailed( failed + remaining );
+		report.setDurationMs(( System.nanoTime() - start ) / 1000000 );
+		sampleResources( report );
+		computeCpuTimes( report, threadToCpuTime );
+
+		return report;
+	}
+
+
+	/**
+	 * Samples the heap usage and the number of messages the DM has to process.
+	 * @param report the report to update
+	 */
+	private void sampleResources( WaveReport report ) {
+
+		report.sampleHeap( this.memoryBean.getHeapMemoryUsage().getUsed());
+		int queueDepth = 0;
+		for( int depth : Manager.INSTANCE.getMessageProcessingQueueDepths())
+			queueDepth += depth;
+
+		report.sampleQueueDepth( queueDepth );
+	}
+
+
+	/**
+	 * @return the CPU time of every live thread, in nanoseconds (key = thread ID)
+	 */
+	private Map<Long,Long> findCpuTimes() {
+
+		Map<Long,Long> result = new HashMap<Long,Long> ();
+		if( this.threadBean.isThreadCpuTimeSupported()) {
+			for( long id : this.threadBean.getAllThreadIds())
+				result.put( id, this.threadBean.getThreadCpuTime( id ));
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Computes the CPU time consumed by the DM and by the agents since a previous measure.
+	 * <p>
+	 * The simulation's own thread is not counted.
+	 * </p>
+	 *
+	 * @param report the report to update
+	 * @param previousCpuTimes the CPU times of the threads when the wave started
+	 */
+	private void computeCpuTimes( WaveReport report, Map<Long,Long> previousCpuTimes ) {
+
+		long dmCpu = 0, agentsCpu = 0;
+		if( this.threadBean.isThreadCpuTimeSupported()) {
+			long currentThreadId = Thread.currentThread().getId();
+			for( ThreadInfo info : this.threadBean.getThreadInfo( this.threadBean.getAllThreadIds())) {
+				if( info == null || info.getThreadId() == currentThreadId )
+					continue;
+
+				long cpu = this.threadBean.getThreadCpuTime( info.getThreadId());
+				Long previous = previousCpuTimes.get( info.getThreadId());
+				long delta = Math.max( 0, cpu - ( previous == null ? 0 : previous ));
+				if( isAgentThread( info.getThreadName()))
+					agentsCpu += delta;
+				else
+					dmCpu += delta;
+			}
+		}
+
+		report.setDmCpuMs( dmCpu / 1000000 );
+		report.setAgentsCpuMs( agentsCpu / 1000000 );
+	}
+
+
+	private static boolean isAgentThread( String threadName ) {
+
+		boolean result = threadName.contains( AGENT_THREAD_MARKER );
+		for( String prefix : AGENT_THREAD_PREFIXES )
+			result |= threadName.startsWith( prefix );
+
+		return result;
+	}
+
+
+	private static String option( Map<String,String> options, String name, String defaultValue ) {
+		String result = options.get( name );
+		return result != null ? result : defaultValue;
+	}
+
+
+	/**
+	 * An action applied to every instance of a wave.
+	 */
+	interface Action {
+
+		/**
+		 * Requests the action for an instance.
+		 * @param instance an instance
+		 * @throws Exception if the request failed
+		 */
+		void perform( Instance instance ) throws Exception;
+	}
+}
@@ -0,0 +1,194 @@
+/**
+ * Copyright 2014 Linagora, Université Joseph Fourier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.roboconf.simulation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The measures of a simulation wave.
+ * <p>
+ * A wave applies a same action (e.g. start) to many instances. Its latency is measured
+ * per instance, from the moment the action is requested to the moment the DM's model
+ * reaches the expected status.
+ * </p>
+ *
+ * @author Vincent Zurczak - Linagora
+ */
+public final class WaveReport {
+
+	private final String name;
+	private final List<Long> latencies = new ArrayList<Long> ();
+	private int requested, failed;
+	private long durationMs, dmCpuMs, agentsCpuMs, maxHeapBytes;
+	private int maxQueueDepth;
+
+
+	/**
+	 * Constructor.
+	 * @param name the wave name
+	 */
+	public WaveReport( String name ) {
+		this.name = name;
+	}
+
+
+	/**
+	 * Records the latency of an instance that reached the expected status.
+	 * @param latencyMs the latency, in milliseconds
+	 */
+	public void addLatency( long latencyMs ) {
+		this.latencies.add( latencyMs );
+	}
+
+
+	/**
+	 * Computes a percentile of the recorded latencies.
+	 * @param percentile a percentile, between 0 and 100
+	 * @return the latency, in milliseconds (-1 if no latency was recorded)
+	 */
+	public long getPercentile( double percentile ) {
+
+		long result = -1;
+		if( ! this.latencies.isEmpty()) {
+			List<Long> sorted = new ArrayList<Long>( this.latencies );
+			Collections.sort( sorted );
+
+			// Nearest-rank method
+			int rank = (int) Math.ceil( percentile / 100d * sorted.size());
+			result = sorted.get( Math.min( sorted.size(), Math.max( 1, rank )) - 1 );
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * @return the number of instances that reached the expected status
+	 */
+	public int getCompleted() {
+		return this.latencies.size();
+	}
+
+
+	/**
+	 * @return the wave name
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+
+	/**
+	 * @return the number of instances the action was requested for
+	 */
+	public int getRequested() {
+		return this.requested;
+	}
+
+
+	/**
+	 * @param requested the number of instances the action was requested for
+	 */
+	public void setRequested( int requested ) {
+		this.requested = requested;
+	}
+
+
+	/**
+	 * @return the number of instances that failed or did not reach the expected status in time
+	 */
+	public int getFailed() {
+		return this.failed;
+	}
+
+
+	/**
+	 * @param failed the number of instances that failed or did not reach the expected status in time
+	 */
+	public void setFailed( int failed ) {
+		this.failed = failed;
+	}
+
+
+	/**
+	 * @param durationMs the wave duration, in milliseconds
+	 */
+	public void setDurationMs( long durationMs ) {
+		this.durationMs = durationMs;
+	}
+
+
+	/**
+	 * @param dmCpuMs the CPU time consumed by the DM's threads, in milliseconds
+	 */
+	public void setDmCpuMs( long dmCpuMs ) {
+		this.dmCpuMs = dmCpuMs;
+	}
+
+
+	/**
+	 * @param agentsCpuMs the CPU time consumed by the agents' threads, in milliseconds
+	 */
+	public void setAgentsCpuMs( long agentsCpuMs ) {
+		this.agentsCpuMs = agentsCpuMs;
+	}
+
+
+	/**
+	 * @param heapBytes a heap usage sample, in bytes
+	 */
+	public void sampleHeap( long heapBytes ) {
+		this.maxHeapBytes = Math.max( this.maxHeapBytes, heapBytes );
+	}
+
+
+	/**
+	 * @param queueDepth a sample of the number of messages waiting to be processed by the DM
+	 */
+	public void sampleQueueDepth( int queueDepth ) {
+		this.maxQueueDepth = Math.max( this.maxQueueDepth, queueDepth );
+	}
+
+
+	/**
+	 * @return the header of the lines written by {@link #toString()}
+	 */
+	public static String header() {
+		return String.format(
+				Locale.US, "%-10s %9s %8s %6s %8s %8s %8s %8s %10s %10s %10s %9s %9s",
+				"wave", "requested", "done", "failed", "p50(ms)", "p90(ms)", "p99(ms)", "max(ms)",
+				"total(ms)", "dmCpu(ms)", "agCpu(ms)", "heap(MB)", "maxQueue" );
+	}
+
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return String.format(
+				Locale.US, "%-10s %9d %8d %6d %8d %8d %8d %8d %10d %10d %10d %9d %9d",
+				this.name, this.requested, getCompleted(), this.failed,
+				getPercentile( 50 ), getPercentile( 90 ), getPercentile( 99 ), getPercentile( 100 ),
+				this.durationMs, this.dmCpuMs, this.agentsCpuMs,
+				this.maxHeapBytes / ( 1024 * 1024 ), this.maxQueueDepth );
+	}
+}